@@ -0,0 +1,33 @@
+#include "stdafx.h"
+#include "DirectSafeArray.h"
+#include <objbase.h>
+#include <oleauto.h>
+#include "util.h"
+
+extern "C" {
+
+JNIEXPORT jobject JNICALL Java_org_racob_com_DirectSafeArray_allocateArray
+  (JNIEnv *env, jclass clazz, jint length) {
+    SAFEARRAY *array = makeSingleArray(VT_UI1, 0, length);
+    if (!array) {
+        ThrowComFail(env, "DirectSafeArray: cannot allocate array", E_OUTOFMEMORY);
+        return NULL;
+    }
+
+    jobject newArray = createDirectSafeArray(env, array);
+    if (!newArray) {
+        SafeArrayDestroy(array);
+        if (!env->ExceptionCheck()) ThrowComFail(env, "DirectSafeArray: cannot lock array", E_FAIL);
+    }
+    return newArray;
+}
+
+JNIEXPORT void JNICALL Java_org_racob_com_DirectSafeArray_destroy
+  (JNIEnv *env, jclass clazz, jint handle) {
+    SAFEARRAY *array = (SAFEARRAY *) handle;
+
+    SafeArrayUnaccessData(array);
+    SafeArrayDestroy(array);
+}
+
+}
@@ -0,0 +1,28 @@
+#ifndef _Included_DirectSafeArray
+#define _Included_DirectSafeArray
+
+#include <jni.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     org_racob_com_DirectSafeArray
+ * Method:    allocateArray
+ * Signature: (I)Lorg/racob/com/DirectSafeArray;
+ */
+JNIEXPORT jobject JNICALL Java_org_racob_com_DirectSafeArray_allocateArray
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     org_racob_com_DirectSafeArray
+ * Method:    destroy
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_racob_com_DirectSafeArray_destroy
+  (JNIEnv *, jclass, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -63,13 +63,15 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_QueryInterface
     return NULL;
   }
 
-  jclass autoClass = env->FindClass("org/racob/com/Dispatch");
-  jmethodID autoCons = env->GetMethodID(autoClass, "<init>", "(I)V");
+  if (!initializeHandles(env)) {
+    disp->Release();
+    return NULL;
+  }
   // construct a Dispatch object to return
   // I am copying the pointer to java
   // jacob-msg 1817 - SF 1053871 :  QueryInterface already called AddRef!!
   //if (disp) disp->AddRef();
-  jobject newAuto = env->NewObject(autoClass, autoCons, disp);
+  jobject newAuto = env->NewObject(DISPATCH_CLASS, DISPATCH_CONSTRUCTOR, disp);
   return newAuto;
 }
 
@@ -241,6 +243,42 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_getTypeInfo
    return makeTypeInfo(env, typeInfo);
 }
 
+/*
+ * GUID of our TypeInfo as a string or NULL if there is no TypeInfo to ask.
+ * This is all the DISPID cache needs so it avoids building a full TypeInfo.
+ */
+JNIEXPORT jstring JNICALL Java_org_racob_com_Dispatch_getTypeGUID
+  (JNIEnv *env, jclass clazz, jint pointer) {
+   IDispatch *disp = (IDispatch *) pointer;
+   if (!disp) return NULL;
+
+   unsigned int count = 0;
+   HRESULT hr = disp->GetTypeInfoCount(&count);
+   if (!SUCCEEDED(hr) || count != 1) return NULL;
+
+   ITypeInfo* typeInfo = 0;
+   hr = disp->GetTypeInfo(0, LOCALE_SYSTEM_DEFAULT, &typeInfo);
+   if (!SUCCEEDED(hr)) return NULL;
+
+   TYPEATTR *typeAttributes = 0;
+   hr = typeInfo->GetTypeAttr(&typeAttributes);
+   if (!SUCCEEDED(hr)) {
+      typeInfo->Release();
+      return NULL;
+   }
+
+   jstring guid = NULL;
+   if (!IsEqualGUID(typeAttributes->guid, GUID_NULL)) {
+      OLECHAR buf[40];
+      int length = StringFromGUID2(typeAttributes->guid, buf, 40);
+      if (length > 0) guid = env->NewString((jchar *) buf, length - 1);
+   }
+
+   typeInfo->ReleaseTypeAttr(typeAttributes);
+   typeInfo->Release();
+   return guid;
+}
+
 static HRESULT
 name2ID(IDispatch *pIDispatch, const char *prop, DISPID *dispid, long lcid)
 {
@@ -387,6 +425,171 @@ static wchar_t* CreateErrorMsgFromInfo(HRESULT inResult, EXCEPINFO* ioInfo,
 
 #define SETNOPARAMS(dp) SETDISPPARAMS(dp, 0, NULL, 0, NULL)
 
+/*
+ * Build the DISPPARAMS arguments (reversed, as Invoke wants them) from the
+ * Java Variants.  The block holds num_args VARIANTs handed to Invoke followed
+ * by num_args backing VARIANTs: a by-ref argument is passed as a VT_BYREF
+ * pointing at its backing VARIANT, which owns the value, so the callee can
+ * write through it.  Everything else is passed by value, with a
+ * DirectSafeArray lent rather than copied (releaseArgs gives it back).
+ *
+ * If an argument cannot be converted the Java exception is left pending and
+ * marshalling stops there; *marshalled says how many VARIANTs (from the
+ * start of the block) were set up for releaseArgs to unwind.
+ */
+static VARIANT *marshalArgs(JNIEnv *env, jobjectArray vArg, int num_args,
+        int *marshalled)
+{
+  *marshalled = 0;
+  if (!num_args) return NULL;
+
+  VARIANT *varr = (VARIANT *) CoTaskMemAlloc(2 * num_args * sizeof(VARIANT));
+  VARIANT *backing = varr + num_args;
+  int i, j;
+  for(i=num_args-1,j=0;0<=i;i--,j++) {
+    VariantInit(&varr[j]);
+    VariantInit(&backing[j]);
+    jobject arg = env->GetObjectArrayElement(vArg, i);
+    if (env->ExceptionCheck()) return varr;
+    jint vt = getVariantType(env, arg);
+    if (env->ExceptionCheck()) {
+      env->DeleteLocalRef(arg);
+      return varr;
+    }
+
+    if (!(vt & VT_BYREF)) {
+      lendVariant(env, arg, &varr[j]);
+    } else if ((vt & ~VT_BYREF) == VT_VARIANT) {
+      populateVariant(env, arg, &backing[j]);
+      V_VT(&varr[j]) = VT_VARIANT|VT_BYREF;
+      V_VARIANTREF(&varr[j]) = &backing[j];
+    } else {
+      populateVariant(env, arg, &backing[j]);
+      V_VT(&varr[j]) = V_VT(&backing[j]) | VT_BYREF;
+      if (V_VT(&backing[j]) == VT_DECIMAL) {
+        V_DECIMALREF(&varr[j]) = &V_DECIMAL(&backing[j]);
+      } else {
+        // every member of the VARIANT union starts at the same address
+        V_BYREF(&varr[j]) = &V_UI1(&backing[j]);
+      }
+    }
+    env->DeleteLocalRef(arg);
+    if (env->ExceptionCheck()) {
+      // A failed conversion never holds a lent array so it can just be
+      // cleared (clearing the VT_BYREF half of a by-ref argument is a no-op)
+      VariantClear(&varr[j]);
+      VariantClear(&backing[j]);
+      return varr;
+    }
+    *marshalled = j + 1;
+  }
+
+  return varr;
+}
+
+/*
+ * Free what marshalArgs made, the first marshalled VARIANTs of the block.
+ * When copyBack is set the by-ref arguments (and only those) are written
+ * back into the Java array so callers can see what the callee put there.
+ */
+static void releaseArgs(JNIEnv *env, jobjectArray vArg, VARIANT *varr,
+        int num_args, int marshalled, jboolean copyBack)
+{
+  if (!varr) return;
+
+  // Lent arrays are given back through Java even when marshalArgs failed
+  jthrowable pending = env->ExceptionOccurred();
+  if (pending) env->ExceptionClear();
+
+  VARIANT *backing = varr + num_args;
+  int i, j;
+  for(i=num_args-1,j=0;j<marshalled;i--,j++) {
+    if (V_ISBYREF(&varr[j])) {
+      if (copyBack) {
+        jobject arg = createVariant(env, &varr[j]);
+        env->SetObjectArrayElement(vArg, i, arg);
+        env->DeleteLocalRef(arg);
+      }
+      VariantClear(&backing[j]);
+    } else {
+      jobject arg = env->GetObjectArrayElement(vArg, i);
+      returnVariant(env, arg, &varr[j]);
+      env->DeleteLocalRef(arg);
+    }
+  }
+  CoTaskMemFree(varr);
+
+  if (pending) {
+    env->Throw(pending);
+    env->DeleteLocalRef(pending);
+  }
+}
+
+/*
+ * Invoke with the Java Variants in vArg as arguments.  On success the by-ref
+ * arguments are copied back into vArg.  The caller owns (and must clear)
+ * returnValue and excepInfo whatever the result.
+ */
+static HRESULT invokeArgs(JNIEnv *env, IDispatch *pIDispatch, DISPID dispID,
+        jint lcid, jint wFlags, jobjectArray vArg, VARIANT *returnValue,
+        EXCEPINFO *excepInfo, unsigned int *argErr)
+{
+  DISPPARAMS dispparams;
+  DISPID dispidPropertyPut = DISPID_PROPERTYPUT;
+  int num_args = env->GetArrayLength(vArg);
+  int marshalled;
+  VARIANT *varr = marshalArgs(env, vArg, num_args, &marshalled);
+
+  memset(excepInfo, 0, sizeof(EXCEPINFO));
+  if (env->ExceptionCheck()) { // could not convert an argument
+    releaseArgs(env, vArg, varr, num_args, marshalled, JNI_FALSE);
+    return E_INVALIDARG;
+  }
+
+  // determine how to dispatch
+  switch (wFlags) {
+    case DISPATCH_PROPERTYPUT:
+    case DISPATCH_PROPERTYPUTREF: { // jacob-msg 1075 - SF 1053872
+      SETDISPPARAMS(dispparams, num_args, varr, 1, &dispidPropertyPut);
+      break;
+    }
+    default: { // GET, METHOD or both
+      SETDISPPARAMS(dispparams, num_args, varr, 0, NULL);
+      break;
+    }
+  }
+
+  HRESULT hr = pIDispatch->Invoke(dispID, IID_NULL, lcid, (WORD) wFlags,
+          &dispparams, returnValue, excepInfo, argErr); // SF 1689061
+
+  releaseArgs(env, vArg, varr, num_args, marshalled, SUCCEEDED(hr) ? JNI_TRUE : JNI_FALSE);
+  return hr;
+}
+
+/*
+ * The HRESULT a failed Invoke really means.  jacob-msg 3696 - SF 1053866
+ */
+static HRESULT exceptionHResult(HRESULT hr, EXCEPINFO *excepInfo)
+{
+  if (hr != DISP_E_EXCEPTION) return hr;
+
+  if (excepInfo->pfnDeferredFillIn != NULL) {
+    (*(excepInfo->pfnDeferredFillIn))(excepInfo);
+    excepInfo->pfnDeferredFillIn = NULL;
+  }
+  if (excepInfo->scode != 0) return excepInfo->scode;
+
+  return _com_error::WCodeToHRESULT(excepInfo->wCode);
+}
+
+static void clearExcepInfo(EXCEPINFO *excepInfo)
+{
+  if (excepInfo->bstrSource) SysFreeString(excepInfo->bstrSource);
+  if (excepInfo->bstrDescription) SysFreeString(excepInfo->bstrDescription);
+  if (excepInfo->bstrHelpFile) SysFreeString(excepInfo->bstrHelpFile);
+  memset(excepInfo, 0, sizeof(EXCEPINFO));
+}
+
 JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev0
   (JNIEnv *env, jclass clazz, jint dispPointer, jstring name, jint dispid,
         jint lcid, jint wFlags) {
@@ -396,13 +599,16 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev0
   IDispatch *pIDispatch = (IDispatch *) dispPointer;
   if (!pIDispatch) return NULL;
 
+  // Java passes a DISPID it already knows (e.g. cached) along with the name
+  // so only ask GetIDsOfNames when it could not.
   int dispID = dispid;
-  if (name != NULL) {
+  if (name != NULL && dispID == DISPID_UNKNOWN) {
     const char *nm = env->GetStringUTFChars(name, NULL);
     HRESULT hr;
     if (FAILED(hr = name2ID(pIDispatch, nm, (long *)&dispID, lcid))) {
       char buf[1024];
       sprintf_s(buf, 1024, "Can't map name to dispid: %s", nm);
+      env->ReleaseStringUTFChars(name, nm);
       ThrowComFail(env, buf, -1);
       return NULL;
     }
@@ -477,7 +683,7 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev0
 JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev
   (JNIEnv *env, jclass clazz,
   jint dispPointer, jstring name, jint dispid,
-  jint lcid, jint wFlags, jobjectArray vArg, jintArray uArgErr) {
+  jint lcid, jint wFlags, jobjectArray vArg, jintArray uArgErr, jint streamCells, jint directBytes) {
   DISPPARAMS  dispparams;
   EXCEPINFO   excepInfo;
 
@@ -486,13 +692,16 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev
   if (!pIDispatch) return NULL;
 
   DLOG("Before name\n");
+  // Java passes a DISPID it already knows (e.g. cached) along with the name
+  // so only ask GetIDsOfNames when it could not.
   int dispID = dispid;
-  if (name != NULL) {
+  if (name != NULL && dispID == DISPID_UNKNOWN) {
     const char *nm = env->GetStringUTFChars(name, NULL);
     HRESULT hr;
     if (FAILED(hr = name2ID(pIDispatch, nm, (long *)&dispID, lcid))) {
       char buf[1024];
       sprintf_s(buf, 1024, "Can't map name to dispid: %s", nm);
+      env->ReleaseStringUTFChars(name, nm);
       ThrowComFail(env, buf, -1);
       return NULL;
     }
@@ -500,55 +709,26 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev
     env->ReleaseStringUTFChars(name, nm);
   }
 
-  DLOG("Before args handling\n");
-  int num_args = env->GetArrayLength(vArg);
-  int i, j;
-  VARIANT *varr = NULL;
-  if (num_args) 
-  {
-    varr = (VARIANT *)CoTaskMemAlloc(num_args*sizeof(VARIANT));
-    /* reverse args for dispatch */
-    for(i=num_args-1,j=0;0<=i;i--,j++) 
-    {
-      VariantInit(&varr[j]);
-      jobject arg = env->GetObjectArrayElement(vArg, i);
-      populateVariant(env, arg, &varr[j]);
-      env->DeleteLocalRef(arg);
-    }
-  }
-
   DLOG("Before return setup\n");
   VARIANT returnValue;
-  DISPID  dispidPropertyPut = DISPID_PROPERTYPUT;
   VariantInit(&returnValue);
 
-  DLOG("Before dispatch type logic\n");
-  // determine how to dispatch
-  switch (wFlags) {
-    case DISPATCH_PROPERTYGET: // GET
-    case DISPATCH_METHOD: // METHOD
-    case DISPATCH_METHOD|DISPATCH_PROPERTYGET: {
-      SETDISPPARAMS(dispparams, num_args, varr, 0, NULL);
-      break;
-    }
-    case DISPATCH_PROPERTYPUT:
-    case DISPATCH_PROPERTYPUTREF: { // jacob-msg 1075 - SF 1053872
-      SETDISPPARAMS(dispparams, num_args, varr, 1, &dispidPropertyPut);
-      break;
-    }
-  }
-
   DLOG("Before invoke\n");
   HRESULT hr = 0;
   jint count = env->GetArrayLength(uArgErr);
   if ( count != 0 ) {
        jint *uAE = env->GetIntArrayElements(uArgErr, NULL);
-       hr = pIDispatch->Invoke(dispID, IID_NULL,
-               lcid, (WORD) wFlags, &dispparams, &returnValue, &excepInfo, (unsigned int *) uAE); // SF 1689061
+       hr = invokeArgs(env, pIDispatch, dispID, lcid, wFlags, vArg,
+               &returnValue, &excepInfo, (unsigned int *) uAE);
        env->ReleaseIntArrayElements(uArgErr, uAE, 0);
   } else {
-       hr = pIDispatch->Invoke(dispID, IID_NULL,
-               lcid, (WORD) wFlags, &dispparams, &returnValue, &excepInfo, NULL); // SF 1689061
+       hr = invokeArgs(env, pIDispatch, dispID, lcid, wFlags, vArg,
+               &returnValue, &excepInfo, NULL);
+  }
+  if (env->ExceptionCheck()) {
+    clearExcepInfo(&excepInfo);
+    VariantClear(&returnValue);
+    return NULL;
   }
 
   DLOG("Before error check\n");
@@ -585,32 +765,103 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev
 	}
 	
     ThrowComFailUnicode(env, buf, hr);
-    if (varr) CoTaskMemFree(varr);
+    clearExcepInfo(&excepInfo);
     if (buf) delete buf;
     if (dispIdAsName) delete dispIdAsName;
     return NULL;
   }
 
-  DLOG("Before in/outs\n");
-  if (num_args) {
-    // to account for inouts, I need to copy the inputs back to
-    // the java array after the method returns
-    // this occurs, for example, in the ADO wrappers
-    for(i=num_args-1,j=0;0<=i;i--,j++) {
-       env->SetObjectArrayElement(vArg, i, createVariant(env, &varr[j]));
-       VariantClear(&varr[j]); // clear out the temporary variant
-    }
-  }
-  if (varr) CoTaskMemFree(varr);
-
   DLOG("Before return to variant\n");
-  jobject result = createVariant(env, &returnValue);
+  jobject result = createOwnedVariant(env, &returnValue, streamCells, directBytes);
   DLOG("Got result. Clear variant\n");
   VariantClear(&returnValue);
   DLOG("Variant cleared\n");
   return result;
 }
 
-}
+/*
+ * Make many Invoke calls in one trip across JNI.  Each operation i from start
+ * on calls dispIDs[i] (or names[i] when that is DISPID_UNKNOWN) on
+ * pointers[i] with args[i] and flags[i].  A failure is recorded in
+ * hresults[i] and the next operation is still made; results[i] gets the
+ * return value if there is one.  The run stops at a named operation whose
+ * given DISPID is not found (it may be stale) and returns its index so Java
+ * can look the name up again and resume there; otherwise returns count.
+ */
+JNIEXPORT jint JNICALL Java_org_racob_com_Dispatch_invokeBatch0
+  (JNIEnv *env, jclass clazz, jint start, jintArray pointers, jobjectArray names,
+  jintArray dispIDs, jint lcid, jintArray flags, jobjectArray args,
+  jobjectArray results, jintArray hresults) {
+  int count = env->GetArrayLength(pointers);
+  jint *ptrs = env->GetIntArrayElements(pointers, NULL);
+  jint *ids = env->GetIntArrayElements(dispIDs, NULL);
+  jint *fl = env->GetIntArrayElements(flags, NULL);
+  jint *hrs = env->GetIntArrayElements(hresults, NULL);
+  int stopped = count;
+
+  for (int i = start; i < count; i++) {
+    IDispatch *pIDispatch = (IDispatch *) ptrs[i];
+    if (!pIDispatch) {
+      hrs[i] = E_POINTER;
+      continue;
+    }
+
+    DISPID dispID = ids[i];
+    if (dispID == DISPID_UNKNOWN) {
+      jstring name = (jstring) env->GetObjectArrayElement(names, i);
+      if (name == NULL) {
+        hrs[i] = DISP_E_MEMBERNOTFOUND;
+        continue;
+      }
+      const char *nm = env->GetStringUTFChars(name, NULL);
+      HRESULT hr = name2ID(pIDispatch, nm, &dispID, lcid);
+      env->ReleaseStringUTFChars(name, nm);
+      env->DeleteLocalRef(name);
+      if (FAILED(hr)) {
+        hrs[i] = hr;
+        continue;
+      }
+    }
+
+    jobjectArray vArg = (jobjectArray) env->GetObjectArrayElement(args, i);
+    VARIANT returnValue;
+    EXCEPINFO excepInfo;
+    VariantInit(&returnValue);
+
+    HRESULT hr = invokeArgs(env, pIDispatch, dispID, lcid, fl[i], vArg,
+            &returnValue, &excepInfo, NULL);
+    env->DeleteLocalRef(vArg);
+    if (env->ExceptionCheck()) { // nothing sensible to do but stop
+      clearExcepInfo(&excepInfo);
+      VariantClear(&returnValue);
+      break;
+    }
+
+    hrs[i] = SUCCEEDED(hr) ? hr : exceptionHResult(hr, &excepInfo);
+    if (hr == DISP_E_MEMBERNOTFOUND && ids[i] != DISPID_UNKNOWN) {
+      jobject name = env->GetObjectArrayElement(names, i);
+      if (name != NULL) {
+        env->DeleteLocalRef(name);
+        clearExcepInfo(&excepInfo);
+        VariantClear(&returnValue);
+        stopped = i;
+        break;
+      }
+    }
+    if (SUCCEEDED(hr) && V_VT(&returnValue) != VT_EMPTY) {
+      jobject result = createOwnedVariant(env, &returnValue, -1, -1);
+      env->SetObjectArrayElement(results, i, result);
+      env->DeleteLocalRef(result);
+    }
+    clearExcepInfo(&excepInfo);
+    VariantClear(&returnValue);
+  }
 
+  env->ReleaseIntArrayElements(hresults, hrs, 0);
+  env->ReleaseIntArrayElements(flags, fl, JNI_ABORT);
+  env->ReleaseIntArrayElements(dispIDs, ids, JNI_ABORT);
+  env->ReleaseIntArrayElements(pointers, ptrs, JNI_ABORT);
+  return stopped;
+}
 
+}
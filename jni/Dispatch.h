@@ -76,10 +76,18 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev0
 /*
  * Class:     Dispatch
  * Method:    invokev
- * Signature: (ILjava/lang/String;III[LVariant;[I)LVariant;
+ * Signature: (ILjava/lang/String;III[LVariant;[III)LVariant;
  */
 JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev
-  (JNIEnv *, jclass, jint, jstring, jint, jint, jint, jobjectArray, jintArray);
+  (JNIEnv *, jclass, jint, jstring, jint, jint, jint, jobjectArray, jintArray, jint, jint);
+
+/*
+ * Class:     Dispatch
+ * Method:    invokeBatch0
+ * Signature: (I[I[Ljava/lang/String;[II[I[[Lorg/racob/com/Variant;[Lorg/racob/com/Variant;[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_racob_com_Dispatch_invokeBatch0
+  (JNIEnv *, jclass, jint, jintArray, jobjectArray, jintArray, jint, jintArray, jobjectArray, jobjectArray, jintArray);
 
 /*
  * Class:     Dispatch
@@ -89,6 +97,14 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_invokev
 JNIEXPORT jobject JNICALL Java_org_racob_com_Dispatch_getTypeInfo
   (JNIEnv *, jobject, jint);
 
+/*
+ * Class:     Dispatch
+ * Method:    getTypeGUID
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_org_racob_com_Dispatch_getTypeGUID
+  (JNIEnv *, jclass, jint);
+
 #ifdef __cplusplus
 }
 #endif
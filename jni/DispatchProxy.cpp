@@ -63,12 +63,14 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_DispatchProxy_MarshalFromStream
     ThrowComFail(env, "Could not Marshal Dispatch from IStream", hr);
     return NULL;
   }
-  jclass autoClass = env->FindClass("org/racob/com/Dispatch");
-  jmethodID autoCons = env->GetMethodID(autoClass, "<init>", "(I)V");
+  if (!initializeHandles(env)) {
+    pD->Release();
+    return NULL;
+  }
   // construct a Dispatch object to return
   // I am copying the pointer to java
   if (pD) pD->AddRef();
-  jobject newAuto = env->NewObject(autoClass, autoCons, pD);
+  jobject newAuto = env->NewObject(DISPATCH_CLASS, DISPATCH_CONSTRUCTOR, pD);
   return newAuto;
 }
 }
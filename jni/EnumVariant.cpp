@@ -34,6 +34,7 @@
  */
 extern "C" {
 
+ // EnumVariant.MAX_BATCH grows batches up to this
  #define MAX_VALUES 5000
 
 JNIEXPORT jobject JNICALL
@@ -55,7 +56,7 @@ Java_org_racob_com_EnumVariant_NextOne(JNIEnv* env, jobject _this, jint pointer)
 
   if (fetchCount == 0) return 0; // Nothing retrieved.
   
-  jobject returnValue = createVariant(env, &sink);
+  jobject returnValue = createOwnedVariant(env, &sink, -1, -1);
   VariantClear(&sink);
   return returnValue;
 }
@@ -84,7 +85,7 @@ Java_org_racob_com_EnumVariant_Next(JNIEnv* env, jobject _this, jint pointer, jo
   if (fetchCount == 0) return 0; // Nothing retrieved.
 
   for (int i = 0; i < fetchCount; i++) {
-     jobject variant = createVariant(env, &sink[i]);
+     jobject variant = createOwnedVariant(env, &sink[i], -1, -1);
      VariantClear(&sink[i]);
      env->SetObjectArrayElement(values, fetchCount - i - 1, variant);
      env->DeleteLocalRef(variant);
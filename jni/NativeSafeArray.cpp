@@ -0,0 +1,19 @@
+#include "stdafx.h"
+#include "NativeSafeArray.h"
+#include <objbase.h>
+#include <oleauto.h>
+#include "util.h"
+
+extern "C" {
+
+JNIEXPORT jobject JNICALL Java_org_racob_com_NativeSafeArray_readRows
+  (JNIEnv *env, jclass clazz, jint handle, jint first, jint count) {
+    return createSafeArrayRows(env, (SAFEARRAY *) handle, first, count);
+}
+
+JNIEXPORT void JNICALL Java_org_racob_com_NativeSafeArray_destroy
+  (JNIEnv *env, jclass clazz, jint handle) {
+    SafeArrayDestroy((SAFEARRAY *) handle);
+}
+
+}
@@ -0,0 +1,28 @@
+#ifndef _Included_NativeSafeArray
+#define _Included_NativeSafeArray
+
+#include <jni.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     org_racob_com_NativeSafeArray
+ * Method:    readRows
+ * Signature: (III)Lorg/racob/com/SafeArray;
+ */
+JNIEXPORT jobject JNICALL Java_org_racob_com_NativeSafeArray_readRows
+  (JNIEnv *, jclass, jint, jint, jint);
+
+/*
+ * Class:     org_racob_com_NativeSafeArray
+ * Method:    destroy
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_racob_com_NativeSafeArray_destroy
+  (JNIEnv *, jclass, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -31,6 +31,26 @@
 extern "C" 
 {
 
+/*
+ * Thread message the Reaper posts to an apartment when it has found dead
+ * objects for it.  Our message pumps answer it by calling
+ * ROT.releasePending() on the apartment's own thread.
+ */
+static UINT releasePendingMessage() {
+  static UINT message = RegisterWindowMessageW(L"org.racob.ReleasePending");
+  return message;
+}
+
+/*
+ * Returns JNI_FALSE with the exception pending if releasing threw.
+ */
+static jboolean releasePending(JNIEnv *env) {
+  if (!initializeHandles(env)) return JNI_FALSE;
+
+  env->CallStaticIntMethod(ROT_CLASS, ROT_RELEASEPENDING);
+  return env->ExceptionCheck() ? JNI_FALSE : JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL Java_org_racob_com_STA_doMessagePump
   (JNIEnv *env, jobject obj) {
   // store the current thread id so we can kill it
@@ -44,7 +64,16 @@ JNIEXPORT void JNICALL Java_org_racob_com_STA_doMessagePump
   ZeroMemory(&msg, sizeof(msg));
   msg.wParam = S_OK;
 
+  UINT release = releasePendingMessage();
   while (GetMessage(&msg, NULL, 0, 0)) {
+    if (msg.message == release) {
+      // Nothing above us to hand the exception to; keep pumping
+      if (!releasePending(env)) {
+        env->ExceptionDescribe();
+        env->ExceptionClear();
+      }
+      continue;
+    }
     DispatchMessage(&msg);
   }
 }
@@ -54,4 +83,60 @@ JNIEXPORT void JNICALL Java_org_racob_com_STA_quitMessagePump
   PostThreadMessage((DWORD)threadID, WM_QUIT, 0, 0);
 }
 
+JNIEXPORT jint JNICALL Java_org_racob_com_STA_currentThreadId
+  (JNIEnv *env, jclass clazz) {
+  return (jint)GetCurrentThreadId();
+}
+
+/*
+ * Wait up to timeout milliseconds (-1 forever) for a message to arrive and
+ * then dispatch every message in the queue.  Returns false if WM_QUIT was
+ * seen.
+ */
+JNIEXPORT jboolean JNICALL Java_org_racob_com_STA_pumpMessages
+  (JNIEnv *env, jclass clazz, jint timeout) {
+  MsgWaitForMultipleObjectsEx(0, NULL, timeout < 0 ? INFINITE : (DWORD)timeout,
+          QS_ALLINPUT, MWMO_INPUTAVAILABLE);
+
+  MSG msg;
+  UINT release = releasePendingMessage();
+  while (PeekMessage(&msg, NULL, 0, 0, PM_REMOVE)) {
+    if (msg.message == WM_QUIT) return JNI_FALSE;
+    if (msg.message == release) {
+      if (!releasePending(env)) return JNI_TRUE; // let the exception out
+      continue;
+    }
+    TranslateMessage(&msg);
+    DispatchMessage(&msg);
+  }
+  return JNI_TRUE;
+}
+
+/*
+ * Make a thread blocked in pumpMessages return.  WM_NULL does nothing when
+ * it is dispatched.
+ */
+JNIEXPORT void JNICALL Java_org_racob_com_STA_wake
+  (JNIEnv *env, jclass clazz, jint threadID) {
+  PostThreadMessage((DWORD)threadID, WM_NULL, 0, 0);
+}
+
+/*
+ * Put back a WM_QUIT which a nested pumpMessages took so the thread's own
+ * message loop still gets it.
+ */
+JNIEXPORT void JNICALL Java_org_racob_com_STA_postQuit
+  (JNIEnv *env, jclass clazz) {
+  PostQuitMessage(0);
+}
+
+/*
+ * Ask threadID to release what the Reaper found dead for it the next time it
+ * pumps messages.  Returns false if the message could not be posted.
+ */
+JNIEXPORT jboolean JNICALL Java_org_racob_com_STA_postReleasePending
+  (JNIEnv *env, jclass clazz, jint threadID) {
+  return PostThreadMessage((DWORD)threadID, releasePendingMessage(), 0, 0) ? JNI_TRUE : JNI_FALSE;
+}
+
 }
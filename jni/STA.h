@@ -41,6 +41,46 @@ JNIEXPORT void JNICALL Java_org_racob_com_STA_doMessagePump
 JNIEXPORT void JNICALL Java_org_racob_com_STA_quitMessagePump
   (JNIEnv *, jobject, jint);
 
+/*
+ * Class:     org_racob_com_STA
+ * Method:    currentThreadId
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_racob_com_STA_currentThreadId
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     org_racob_com_STA
+ * Method:    pumpMessages
+ * Signature: (I)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_racob_com_STA_pumpMessages
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     org_racob_com_STA
+ * Method:    wake
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_racob_com_STA_wake
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     org_racob_com_STA
+ * Method:    postQuit
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_racob_com_STA_postQuit
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     org_racob_com_STA
+ * Method:    postReleasePending
+ * Signature: (I)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_racob_com_STA_postReleasePending
+  (JNIEnv *, jclass, jint);
+
 #ifdef __cplusplus
 }
 #endif
@@ -32,21 +32,104 @@ extern "C" {
         return sa;
     }
 
-    SAFEARRAY *newSingleArray(JNIEnv* env, int vt, jobjectArray data) {
+    // A new SAFEARRAY with the bounds a Java SafeArray was given
+    SAFEARRAY *makeShapedArray(JNIEnv* env, int vt, jintArray lowerBounds, jintArray extents) {
+        int dimensions = env->GetArrayLength(extents);
+        jint *lower = env->GetIntArrayElements(lowerBounds, NULL);
+        jint *sizes = env->GetIntArrayElements(extents, NULL);
+        long *lowerLongs = new long[dimensions];
+        long *sizeLongs = new long[dimensions];
+
+        for (int i = 0; i < dimensions; i++) {
+            lowerLongs[i] = lower[i];
+            sizeLongs[i] = sizes[i];
+        }
+        SAFEARRAY *newArray = makeArray(vt, dimensions, lowerLongs, sizeLongs);
+
+        delete[] lowerLongs;
+        delete[] sizeLongs;
+        env->ReleaseIntArrayElements(lowerBounds, lower, JNI_ABORT);
+        env->ReleaseIntArrayElements(extents, sizes, JNI_ABORT);
+        return newArray;
+    }
+
+    // Fill a new SAFEARRAY from the Variants of a SafeArray.  They are in
+    // the same order as the array's memory (first dimension fastest) so each
+    // goes straight into its slot whatever the number of dimensions.
+    SAFEARRAY *newVariantArray(JNIEnv* env, int vt, jobjectArray data, jintArray lowerBounds, jintArray extents) {
         long size = env->GetArrayLength(data);
-        SAFEARRAY *newArray = makeSingleArray(vt, 0, size);
+        SAFEARRAY *newArray = makeShapedArray(env, vt, lowerBounds, extents);
+        if (!newArray) return NULL;
 
-        DLOG("newSingleArray of length %d\n", size);
+        char *elements = NULL;
+        if (FAILED(SafeArrayAccessData(newArray, (void **) &elements))) {
+            SafeArrayDestroy(newArray);
+            return NULL;
+        }
+        UINT elementSize = SafeArrayGetElemsize(newArray);
+
+        DLOG("newVariantArray of length %d\n", size);
         for (long i = 0; i < size; i++) {
-        DLOG("newSingleArray iter %d\n", i);
-            VARIANT variant;
-            VariantInit(&variant);
             jobject object = env->GetObjectArrayElement(data, i);
-            populateVariant(env, object, &variant);
-            SafeArrayPutElement(newArray, &i, &variant);
-            VariantClear(&variant);
+            if (vt == VT_VARIANT) {
+                populateVariant(env, object, (VARIANT *) (elements + i * elementSize));
+            } else {
+                // Only the value is stored and the array now owns whatever
+                // it points to, so the variant is not cleared
+                VARIANT variant;
+                VariantInit(&variant);
+                populateVariant(env, object, &variant);
+                void *value = vt == VT_DECIMAL ? (void *) &V_DECIMAL(&variant) : (void *) &V_UI1(&variant);
+                memcpy(elements + i * elementSize, value, elementSize);
+            }
+            env->DeleteLocalRef(object);
         }
-        DLOG("newSingleArray of length %d (done)\n", size);
+        SafeArrayUnaccessData(newArray);
+
+        return newArray;
+    }
+
+    // Fill a new SAFEARRAY from the Java array behind a typed SafeArray.
+    // Primitive elements are copied in one go straight into the array's
+    // memory, which has the same order for any number of dimensions.
+    SAFEARRAY *newTypedArray(JNIEnv* env, int vt, jarray data, jintArray lowerBounds, jintArray extents) {
+        long size = env->GetArrayLength(data);
+        SAFEARRAY *newArray = makeShapedArray(env, vt, lowerBounds, extents);
+        if (!newArray) return NULL;
+
+        void *elements = NULL;
+        if (FAILED(SafeArrayAccessData(newArray, &elements))) {
+            SafeArrayDestroy(newArray);
+            return NULL;
+        }
+
+        DLOG("newTypedArray of length %d\n", size);
+        switch (vt) {
+            case VT_R8:
+                env->GetDoubleArrayRegion((jdoubleArray) data, 0, size, (jdouble *) elements);
+                break;
+            case VT_I4:
+                env->GetIntArrayRegion((jintArray) data, 0, size, (jint *) elements);
+                break;
+            case VT_UI1:
+                env->GetByteArrayRegion((jbyteArray) data, 0, size, (jbyte *) elements);
+                break;
+            case VT_BSTR: {
+                BSTR *strings = (BSTR *) elements;
+                for (long i = 0; i < size; i++) {
+                    jstring string = (jstring) env->GetObjectArrayElement((jobjectArray) data, i);
+                    if (string) {
+                        const jchar *chars = env->GetStringChars(string, NULL);
+                        strings[i] = SysAllocStringLen((const OLECHAR *) chars, env->GetStringLength(string));
+                        env->ReleaseStringChars(string, chars);
+                        env->DeleteLocalRef(string);
+                    }
+                }
+                break;
+            }
+        }
+        SafeArrayUnaccessData(newArray);
+
         return newArray;
     }
-}
\ No newline at end of file
+}
@@ -69,18 +69,19 @@ extern "C" {
  return newAuto;
  }
 
-  JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getDocumentation
-  (JNIEnv *env, jobject obj, jint pointer, jint index) {
-   ITypeInfo *typeInfo = (ITypeInfo *) pointer;
+  // Documentation for memid or NULL with a pending ComFailException
+  /*
+   * Documentation of memid, or NULL with *hr set if COM has none to give.
+   */
+  static jobject readDocumentation(JNIEnv *env, ITypeInfo *typeInfo, MEMBERID memid, HRESULT *hr) {
    BSTR name;
    BSTR docString;
    unsigned long helpContext;
    BSTR helpFile;
-   HRESULT hr = typeInfo->GetDocumentation(index, &name, &docString, &helpContext,
+   *hr = typeInfo->GetDocumentation(memid, &name, &docString, &helpContext,
            &helpFile);
-   if (!SUCCEEDED(hr)) {
+   if (!SUCCEEDED(*hr)) {
       freeDocumentationStrings(name, docString, helpFile);
-      ThrowComFail(env, "getDocumentation failed", hr);
       return NULL;
    }
 
@@ -95,6 +96,19 @@ extern "C" {
    return newAuto;
  }
 
+  static jobject makeDocumentation(JNIEnv *env, ITypeInfo *typeInfo, MEMBERID memid) {
+   HRESULT hr;
+   jobject documentation = readDocumentation(env, typeInfo, memid, &hr);
+   if (!SUCCEEDED(hr)) ThrowComFail(env, "getDocumentation failed", hr);
+
+   return documentation;
+ }
+
+  JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getDocumentation
+  (JNIEnv *env, jobject obj, jint pointer, jint index) {
+   return makeDocumentation(env, (ITypeInfo *) pointer, index);
+ }
+
  jobject createParameter(JNIEnv *env, jclass paramClass, jmethodID paramCons,
          ELEMDESC elemDesc, BSTR theName) {
    int defaultMask = (PARAMFLAG_FOPT|PARAMFLAG_FHASDEFAULT);
@@ -117,6 +131,46 @@ extern "C" {
            vt, hasDefault, defaultValue);
  }
 
+ // Turn names[0..count) into a String[], freeing the BSTRs if release is set
+ static jobjectArray makeNames(JNIEnv *env, BSTR *names, unsigned int count, bool release) {
+   jclass autoClass = env->FindClass("java/lang/String");
+   jobjectArray array = env->NewObjectArray(count, autoClass, NULL);
+
+   for (unsigned int i = 0; i < count; i++) {
+      if (array != NULL) {
+         jstring string = env->NewString((const jchar *) names[i], SysStringLen(names[i]));
+         env->SetObjectArrayElement(array, i, string);
+         env->DeleteLocalRef(string);
+      }
+      if (release) SysFreeString(names[i]);
+   }
+
+   return array;
+ }
+
+ // FuncDesc for funcDesc.  names holds the function name followed by its
+ // parameter names; the parameter names are consumed.
+ static jobject makeFuncDesc(JNIEnv *env, FUNCDESC *funcDesc, jint index,
+         BSTR *names, unsigned int nameLength) {
+   jclass paramClass = env->FindClass("org/racob/com/Parameter");
+   jmethodID paramCons = env->GetMethodID(paramClass, "<init>", "(Ljava/lang/String;ZZZZIZLorg/racob/com/Variant;)V");
+   int paramCount = nameLength > 0 ? nameLength - 1 : 0;
+   jobjectArray parameters = env->NewObjectArray(paramCount, paramClass, 0);
+   for (int i = 0; i < paramCount; i++) {
+      jobject parameter = createParameter(env, paramClass, paramCons,
+              funcDesc->lprgelemdescParam[i], names[i+1]);
+      env->SetObjectArrayElement(parameters, i, parameter);
+      env->DeleteLocalRef(parameter);
+   }
+
+   jobject returnValue = createParameter(env, paramClass, paramCons, funcDesc->elemdescFunc, NULL);
+   jclass autoClass = env->FindClass("org/racob/com/FuncDesc");
+   jmethodID autoCons = env->GetMethodID(autoClass, "<init>", "(IIII[Lorg/racob/com/Parameter;Lorg/racob/com/Parameter;II)V");
+   return env->NewObject(autoClass, autoCons, funcDesc->memid,
+           index, funcDesc->invkind, funcDesc->wFuncFlags, parameters,
+           returnValue, funcDesc->cParamsOpt, funcDesc->oVft);
+ }
+
  JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getFuncDesc
   (JNIEnv *env, jobject obj, jint pointer, jint index) {
    ITypeInfo *typeInfo = (ITypeInfo *) pointer;
@@ -132,32 +186,19 @@ extern "C" {
 
    int paramLength = funcDesc->cParams;
    unsigned int nameLength = 0;
-   BSTR *names = (BSTR *) malloc(sizeof(BSTR) * paramLength + 1);
+   BSTR *names = (BSTR *) malloc(sizeof(BSTR) * (paramLength + 1));
    hr = typeInfo->GetNames(funcDesc->memid, names, paramLength + 1, &nameLength);
    if (FAILED(hr)) {
+      free(names);
       typeInfo->ReleaseFuncDesc(funcDesc);
       ThrowComFail(env, "getFuncDesc failed", hr);
       return NULL;
    }
-   SysFreeString(names[0]);
+   if (nameLength > 0) SysFreeString(names[0]);
 
-   jclass paramClass = env->FindClass("org/racob/com/Parameter");
-   jmethodID paramCons = env->GetMethodID(paramClass, "<init>", "(Ljava/lang/String;ZZZZIZLorg/racob/com/Variant;)V");
-   jobjectArray parameters = env->NewObjectArray(nameLength - 1, paramClass, 0);
-   for (int i = 0; i < nameLength - 1; i++) {
-      jobject parameter = createParameter(env, paramClass, paramCons,
-              funcDesc->lprgelemdescParam[i], names[i+1]);
-      env->SetObjectArrayElement(parameters, i, parameter);
-      env->DeleteLocalRef(parameter);
-   }
-
-   jobject returnValue = createParameter(env, paramClass, paramCons, funcDesc->elemdescFunc, NULL);
-   jclass autoClass = env->FindClass("org/racob/com/FuncDesc");
-   jmethodID autoCons = env->GetMethodID(autoClass, "<init>", "(IIII[Lorg/racob/com/Parameter;Lorg/racob/com/Parameter;II)V");
-   jobject newAuto = env->NewObject(autoClass, autoCons, funcDesc->memid,
-           index, funcDesc->invkind, funcDesc->wFuncFlags, parameters,
-           returnValue, funcDesc->cParamsOpt, funcDesc->oVft);
+   jobject newAuto = makeFuncDesc(env, funcDesc, index, names, nameLength);
 
+   free(names);
    typeInfo->ReleaseFuncDesc(funcDesc);
 
    return newAuto;
@@ -174,23 +215,7 @@ JNIEXPORT jobjectArray JNICALL Java_org_racob_com_TypeInfo_getNames
       return NULL;
    }
 
-   // Make primitive String array for names
-   jclass autoClass = env->FindClass("java/lang/String");
-   jobjectArray array = env->NewObjectArray(namesCount, autoClass, NULL);
-   if (!SUCCEEDED(hr)) {
-      ThrowComFail(env, "getNames failed to make return array", hr);
-      return NULL;
-   }
-
-   // Fill up array
-   for (unsigned int i = 0; i < namesCount; i++) {
-      int len = SysStringLen(names[i]);
-      jstring string = env->NewString((const jchar *) names[i], len);
-      env->SetObjectArrayElement(array, i, string);
-      SysFreeString(names[i]);
-   }
-
-   return array;
+   return makeNames(env, names, namesCount, true);
 }
 
 JNIEXPORT jint JNICALL Java_org_racob_com_TypeInfo_getImplTypeFlags
@@ -232,6 +257,15 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getRefTypeInfo
    return makeTypeInfo(env, newTypeInfo);
 }
 
+ static jobject makeVarDesc(JNIEnv *env, VARDESC *varDesc) {
+   // We have a constant so let's save the variant
+   jobject cValue = varDesc->varkind == VAR_CONST ? createVariant(env, varDesc->lpvarValue) : NULL;
+   jclass autoClass = env->FindClass("org/racob/com/VarDesc");
+   jmethodID autoCons = env->GetMethodID(autoClass, "<init>", "(ILorg/racob/com/Variant;II)V");
+   return env->NewObject(autoClass, autoCons, varDesc->memid,
+           cValue, varDesc->varkind, varDesc->wVarFlags);
+ }
+
  JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getVarDesc
   (JNIEnv *env, jobject obj, jint pointer, jint index)
  {
@@ -243,15 +277,96 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getRefTypeInfo
       return NULL;
    }
 
-   // We have a constant so let's save the variant
-   jobject cValue = varDesc->varkind == VAR_CONST ? createVariant(env, varDesc->lpvarValue) : NULL;
-   jclass autoClass = env->FindClass("org/racob/com/VarDesc");
-   jmethodID autoCons = env->GetMethodID(autoClass, "<init>", "(ILorg/racob/com/Variant;II)V");
-   jobject newAuto = env->NewObject(autoClass, autoCons, varDesc->memid,
-           cValue, varDesc->varkind, varDesc->wVarFlags);
+   jobject newAuto = makeVarDesc(env, varDesc);
 
    typeInfo->ReleaseVarDesc(varDesc);
 
    return newAuto;
  }
-}
\ No newline at end of file
+
+ // Everything TypeModel holds for a type, gathered in one call instead of
+ // one JNI crossing per function, name and documentation string.
+ JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_describe
+  (JNIEnv *env, jobject obj, jint pointer)
+ {
+   ITypeInfo *typeInfo = (ITypeInfo *) pointer;
+   TYPEATTR *typeAttributes = NULL;
+   HRESULT hr = typeInfo->GetTypeAttr(&typeAttributes);
+   if (!SUCCEEDED(hr)) {
+      ThrowComFail(env, "describe failed to get TYPEATTR", hr);
+      return NULL;
+   }
+   int funcsCount = typeAttributes->cFuncs;
+   int varsCount = typeAttributes->cVars;
+   jstring guid = makeGUIDString(env, typeAttributes->guid);
+   jint majorVersion = typeAttributes->wMajorVerNum;
+   jint minorVersion = typeAttributes->wMinorVerNum;
+   typeInfo->ReleaseTypeAttr(typeAttributes);
+
+   jclass funcClass = env->FindClass("org/racob/com/FuncDesc");
+   jclass varClass = env->FindClass("org/racob/com/VarDesc");
+   jclass docClass = env->FindClass("org/racob/com/Documentation");
+   jclass namesClass = env->FindClass("[Ljava/lang/String;");
+   jobjectArray funcs = env->NewObjectArray(funcsCount, funcClass, NULL);
+   jobjectArray funcNames = env->NewObjectArray(funcsCount, namesClass, NULL);
+   jobjectArray funcDocs = env->NewObjectArray(funcsCount, docClass, NULL);
+   jobjectArray vars = env->NewObjectArray(varsCount, varClass, NULL);
+   jobjectArray varNames = env->NewObjectArray(varsCount, namesClass, NULL);
+   jobjectArray varDocs = env->NewObjectArray(varsCount, docClass, NULL);
+   if (env->ExceptionCheck()) return NULL;
+
+   // A member COM cannot describe is left null in the model so the TypeInfo
+   // falls back to asking for it on its own (and gets the COM error then)
+   for (int i = 0; i < funcsCount; i++) {
+      FUNCDESC *funcDesc = NULL;
+      hr = typeInfo->GetFuncDesc(i, &funcDesc);
+      if (!SUCCEEDED(hr)) continue;
+
+      env->PushLocalFrame(32);
+      unsigned int nameLength = 0;
+      BSTR *names = (BSTR *) malloc(sizeof(BSTR) * (funcDesc->cParams + 1));
+      hr = typeInfo->GetNames(funcDesc->memid, names, funcDesc->cParams + 1, &nameLength);
+      if (SUCCEEDED(hr)) {
+         // makeFuncDesc consumes the parameter names, the function name is ours
+         env->SetObjectArrayElement(funcNames, i, makeNames(env, names, nameLength, false));
+         if (nameLength > 0) SysFreeString(names[0]);
+         env->SetObjectArrayElement(funcs, i, makeFuncDesc(env, funcDesc, i, names, nameLength));
+         env->SetObjectArrayElement(funcDocs, i, readDocumentation(env, typeInfo, funcDesc->memid, &hr));
+      }
+      free(names);
+      typeInfo->ReleaseFuncDesc(funcDesc);
+      env->PopLocalFrame(NULL);
+
+      if (env->ExceptionCheck()) return NULL;
+   }
+
+   for (int i = 0; i < varsCount; i++) {
+      VARDESC *varDesc = NULL;
+      hr = typeInfo->GetVarDesc(i, &varDesc);
+      if (!SUCCEEDED(hr)) continue;
+
+      env->PushLocalFrame(16);
+      BSTR name;
+      unsigned int nameLength = 0;
+      hr = typeInfo->GetNames(varDesc->memid, &name, 1, &nameLength);
+      if (SUCCEEDED(hr)) {
+         env->SetObjectArrayElement(varNames, i, makeNames(env, &name, nameLength, true));
+         env->SetObjectArrayElement(vars, i, makeVarDesc(env, varDesc));
+         env->SetObjectArrayElement(varDocs, i, readDocumentation(env, typeInfo, varDesc->memid, &hr));
+      }
+      typeInfo->ReleaseVarDesc(varDesc);
+      env->PopLocalFrame(NULL);
+
+      if (env->ExceptionCheck()) return NULL;
+   }
+
+   jobject documentation = readDocumentation(env, typeInfo, MEMBERID_NIL, &hr);
+   if (env->ExceptionCheck()) return NULL;
+
+   jclass autoClass = env->FindClass("org/racob/com/TypeModel");
+   jmethodID autoCons = env->GetMethodID(autoClass, "<init>",
+           "(Ljava/lang/String;IILorg/racob/com/Documentation;[Lorg/racob/com/FuncDesc;[[Ljava/lang/String;[Lorg/racob/com/Documentation;[Lorg/racob/com/VarDesc;[[Ljava/lang/String;[Lorg/racob/com/Documentation;)V");
+   return env->NewObject(autoClass, autoCons, guid, majorVersion, minorVersion,
+           documentation, funcs, funcNames, funcDocs, vars, varNames, varDocs);
+ }
+}
@@ -90,6 +90,14 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getRefTypeInfo
 JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_getVarDesc
   (JNIEnv *, jobject, jint, jint);
 
+/*
+ * Class:     TypeInfo
+ * Method:    describe
+ * Signature: (I)Lorg/racob/com/TypeModel;
+ */
+JNIEXPORT jobject JNICALL Java_org_racob_com_TypeInfo_describe
+  (JNIEnv *, jobject, jint);
+
 #ifdef __cplusplus
 }
 #endif
@@ -31,36 +31,44 @@ extern "C"
 {
 
 /* Initialized by initializeNative */
-jclass BOOLEAN_CLASS = 0;
-jclass DISPATCH_CLASS = 0;
 jclass SAFEARRAY_CLASS = 0;
 jclass VARIANT_CLASS = 0;
+jclass DOUBLE_SAFEARRAY_CLASS = 0;
+jclass INT_SAFEARRAY_CLASS = 0;
+jclass BYTE_SAFEARRAY_CLASS = 0;
+jclass STRING_SAFEARRAY_CLASS = 0;
+jclass DIRECT_SAFEARRAY_CLASS = 0;
+jclass NATIVE_SAFEARRAY_CLASS = 0;
+jclass STRING_CLASS = 0;
 
 jfieldID POINTER_FIELD = 0;
 jfieldID VARIANT_TYPE = 0;
+jfieldID VARIANT_BITS = 0;
 
-jmethodID BOOLEAN_CONSTRUCTOR = 0;
-jmethodID DISPATCH_CONSTRUCTOR = 0;
 jmethodID SAFEARRAY_CONSTRUCTOR = 0;
 jmethodID SAFEARRAY_GETVALUES = 0;
 jmethodID SAFEARRAY_DETERMINEVT = 0;
+jmethodID SAFEARRAY_GETDATA = 0;
+jmethodID SAFEARRAY_GETLOWERBOUNDS = 0;
+jmethodID SAFEARRAY_GETEXTENTS = 0;
+jmethodID SAFEARRAY_LEND = 0;
+jmethodID SAFEARRAY_GIVEBACK = 0;
+jmethodID DOUBLE_SAFEARRAY_CONSTRUCTOR = 0;
+jmethodID INT_SAFEARRAY_CONSTRUCTOR = 0;
+jmethodID BYTE_SAFEARRAY_CONSTRUCTOR = 0;
+jmethodID STRING_SAFEARRAY_CONSTRUCTOR = 0;
+jmethodID DIRECT_SAFEARRAY_CONSTRUCTOR = 0;
+jmethodID NATIVE_SAFEARRAY_CONSTRUCTOR = 0;
 jmethodID VARIANT_CONSTRUCTOR = 0;
+jmethodID VARIANT_PRIMITIVE_CONSTRUCTOR = 0;
 jmethodID VARIANT_GETSTRING = 0;
-jmethodID VARIANT_GETSHORT = 0;
-jmethodID VARIANT_GETINT = 0;
-jmethodID VARIANT_GETFLOAT = 0;
-jmethodID VARIANT_GETDOUBLE = 0;
-jmethodID VARIANT_GETLONG = 0;
 jmethodID VARIANT_GETDISPATCH = 0;
 jmethodID VARIANT_GETDATEASDOUBLE = 0;
 jmethodID VARIANT_GETCURRENCYASLONG = 0;
-jmethodID VARIANT_GETBOOLEAN = 0;
-jmethodID VARIANT_GETBYTE = 0;
 jmethodID VARIANT_GETSAFEARRAY = 0;
 jmethodID VARIANT_GETVARIANT = 0;
 jmethodID VARIANT_CREATEDISPATCH = 0;
 jmethodID VARIANT_CREATEDATE = 0;
-jmethodID VARIANT_CREATEINT = 0;
 
 jobject TRUE_VARIANT = 0;
 jobject FALSE_VARIANT = 0;
@@ -68,9 +76,9 @@ jobject FALSE_VARIANT = 0;
 JNIEXPORT jobject JNICALL Java_org_racob_com_Variant_initializeNative
   (JNIEnv *env, jclass clazz) {
     // prepare a new return value
+    if (!initializeHandles(env)) return NULL;
+
     VARIANT_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/Variant"));
-    DISPATCH_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/Dispatch"));
-    BOOLEAN_CLASS = (jclass) env->NewGlobalRef(env->FindClass("java/lang/Boolean"));
     SAFEARRAY_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/SafeArray"));
 
     jfieldID trueField = env->GetStaticFieldID(VARIANT_CLASS, "VT_TRUE", "Lorg/racob/com/Variant;");
@@ -78,30 +86,41 @@ JNIEXPORT jobject JNICALL Java_org_racob_com_Variant_initializeNative
     TRUE_VARIANT =  env->NewGlobalRef(env->GetStaticObjectField(VARIANT_CLASS, trueField));
     FALSE_VARIANT = env->NewGlobalRef(env->GetStaticObjectField(VARIANT_CLASS, falseField));
 
-    BOOLEAN_CONSTRUCTOR = env->GetMethodID(BOOLEAN_CLASS, "<init>", "(Z)V");
-    DISPATCH_CONSTRUCTOR = env->GetMethodID(DISPATCH_CLASS, "<init>", "(I)V");
-    SAFEARRAY_CONSTRUCTOR = env->GetMethodID(SAFEARRAY_CLASS, "<init>", "([Lorg/racob/com/Variant;)V");
+    SAFEARRAY_CONSTRUCTOR = env->GetMethodID(SAFEARRAY_CLASS, "<init>", "([Lorg/racob/com/Variant;[I[I)V");
     SAFEARRAY_GETVALUES = env->GetMethodID(SAFEARRAY_CLASS, "getValues", "()[Lorg/racob/com/Variant;");
     SAFEARRAY_DETERMINEVT = env->GetMethodID(SAFEARRAY_CLASS, "determinevt", "()I");
+    SAFEARRAY_GETDATA = env->GetMethodID(SAFEARRAY_CLASS, "getData", "()Ljava/lang/Object;");
+    SAFEARRAY_GETLOWERBOUNDS = env->GetMethodID(SAFEARRAY_CLASS, "getLowerBounds", "()[I");
+    SAFEARRAY_GETEXTENTS = env->GetMethodID(SAFEARRAY_CLASS, "getExtents", "()[I");
+    SAFEARRAY_LEND = env->GetMethodID(SAFEARRAY_CLASS, "lend", "()I");
+    SAFEARRAY_GIVEBACK = env->GetMethodID(SAFEARRAY_CLASS, "giveBack", "()V");
+
+    DOUBLE_SAFEARRAY_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/DoubleSafeArray"));
+    INT_SAFEARRAY_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/IntSafeArray"));
+    BYTE_SAFEARRAY_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/ByteSafeArray"));
+    STRING_SAFEARRAY_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/StringSafeArray"));
+    DIRECT_SAFEARRAY_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/DirectSafeArray"));
+    NATIVE_SAFEARRAY_CLASS = (jclass) env->NewGlobalRef(env->FindClass("org/racob/com/NativeSafeArray"));
+    STRING_CLASS = (jclass) env->NewGlobalRef(env->FindClass("java/lang/String"));
+    DOUBLE_SAFEARRAY_CONSTRUCTOR = env->GetMethodID(DOUBLE_SAFEARRAY_CLASS, "<init>", "([D[I[I)V");
+    INT_SAFEARRAY_CONSTRUCTOR = env->GetMethodID(INT_SAFEARRAY_CLASS, "<init>", "([I[I[I)V");
+    BYTE_SAFEARRAY_CONSTRUCTOR = env->GetMethodID(BYTE_SAFEARRAY_CLASS, "<init>", "([B[I[I)V");
+    STRING_SAFEARRAY_CONSTRUCTOR = env->GetMethodID(STRING_SAFEARRAY_CLASS, "<init>", "([Ljava/lang/String;[I[I)V");
+    DIRECT_SAFEARRAY_CONSTRUCTOR = env->GetMethodID(DIRECT_SAFEARRAY_CLASS, "<init>", "(IILjava/nio/ByteBuffer;)V");
+    NATIVE_SAFEARRAY_CONSTRUCTOR = env->GetMethodID(NATIVE_SAFEARRAY_CLASS, "<init>", "(II[I[I)V");
     VARIANT_CONSTRUCTOR = env->GetMethodID(VARIANT_CLASS, "<init>", "(Ljava/lang/Object;S)V");
+    VARIANT_PRIMITIVE_CONSTRUCTOR = env->GetMethodID(VARIANT_CLASS, "<init>", "(SJ)V");
     VARIANT_TYPE = env->GetFieldID(VARIANT_CLASS, "type", "S");
+    VARIANT_BITS = env->GetFieldID(VARIANT_CLASS, "bits", "J");
     VARIANT_GETSTRING = env->GetMethodID(clazz, "getString", "()Ljava/lang/String;");
-    VARIANT_GETSHORT = env->GetMethodID(clazz, "getShort", "()S");
-    VARIANT_GETINT = env->GetMethodID(clazz, "getInt", "()I");
-    VARIANT_GETFLOAT = env->GetMethodID(clazz, "getFloat", "()F");
-    VARIANT_GETDOUBLE = env->GetMethodID(clazz, "getDouble", "()D");
-    VARIANT_GETLONG = env->GetMethodID(clazz, "getLong", "()J");
     VARIANT_GETDISPATCH = env->GetMethodID(clazz, "getDispatchPointer", "()I");
     VARIANT_GETDATEASDOUBLE = env->GetMethodID(clazz, "getDateAsDouble", "()D");
     VARIANT_GETCURRENCYASLONG = env->GetMethodID(clazz, "getCurrencyAsLong", "()J");
-    VARIANT_GETBOOLEAN = env->GetMethodID(clazz, "getBoolean", "()Z");
-    VARIANT_GETBYTE = env->GetMethodID(clazz, "getByte", "()B");
     VARIANT_GETSAFEARRAY = env->GetMethodID(clazz, "getSafeArray", "()Lorg/racob/com/SafeArray;");
     VARIANT_GETVARIANT = env->GetMethodID(clazz, "getVariant", "()Lorg/racob/com/Variant;");
 
     VARIANT_CREATEDISPATCH = env->GetStaticMethodID(clazz, "createDispatchVariant", "(I)Lorg/racob/com/Variant;");
     VARIANT_CREATEDATE = env->GetStaticMethodID(clazz, "createDateVariant", "(D)Lorg/racob/com/Variant;");
-    VARIANT_CREATEINT = env->GetStaticMethodID(clazz, "createIntVariant", "(I)Lorg/racob/com/Variant;");
 
     return NULL;
  }
@@ -212,65 +231,70 @@ jobject createDispatchVariant(JNIEnv *env, IDispatch* pointer) {
 }
 
 jobject createBooleanVariant(JNIEnv *env, jboolean value) {
- return value == 0 ? FALSE_VARIANT : TRUE_VARIANT;
+ // a local ref like every other create* so callers may DeleteLocalRef it
+ return env->NewLocalRef(value == 0 ? FALSE_VARIANT : TRUE_VARIANT);
+}
+
+/*
+ * Primitive Variants keep their value in a long (doubles as their raw bits)
+ * so no box is created on either side.
+ */
+jobject createPrimitiveVariant(JNIEnv *env, VARTYPE vt, jlong bits) {
+  return env->NewObject(VARIANT_CLASS, VARIANT_PRIMITIVE_CONSTRUCTOR, (jshort) vt, bits);
+}
+
+jlong doubleToBits(jdouble value) {
+  jlong bits;
+  memcpy(&bits, &value, sizeof(bits));
+  return bits;
+}
+
+jdouble bitsToDouble(jlong bits) {
+  jdouble value;
+  memcpy(&value, &bits, sizeof(value));
+  return value;
 }
 
 jobject createIntVariant(JNIEnv *env, jint value) {
-  return env->CallStaticObjectMethod(VARIANT_CLASS, VARIANT_CREATEINT, value);
+  return createPrimitiveVariant(env, VT_I4, (jlong) value);
 }
 
 jobject createBoxedByte(JNIEnv *env, jbyte value) {
-  jclass clazz = env->FindClass("java/lang/Byte");
-  jmethodID constructor = env->GetMethodID(clazz, "<init>", "(B)V");
-  return env->NewObject(clazz, constructor, value);
+  return env->CallStaticObjectMethod(BYTE_CLASS, BYTE_VALUEOF, value);
 }
 
 jobject createBoxedBoolean(JNIEnv *env, jboolean value) {
-  return env->NewObject(BOOLEAN_CLASS, BOOLEAN_CONSTRUCTOR, value);
+  return env->CallStaticObjectMethod(BOOLEAN_CLASS, BOOLEAN_VALUEOF, value);
 }
 
 jobject createBoxedDouble(JNIEnv *env, jdouble value) {
-  jclass clazz = env->FindClass("java/lang/Double");
-  jmethodID constructor = env->GetMethodID(clazz, "<init>", "(D)V");
-  return env->NewObject(clazz, constructor, value);
+  return env->CallStaticObjectMethod(DOUBLE_CLASS, DOUBLE_VALUEOF, value);
 }
 
 jobject createBoxedFloat(JNIEnv *env, jfloat value) {
-  jclass clazz = env->FindClass("java/lang/Float");
-  jmethodID constructor = env->GetMethodID(clazz, "<init>", "(F)V");
-  return env->NewObject(clazz, constructor, value);
+  return env->CallStaticObjectMethod(FLOAT_CLASS, FLOAT_VALUEOF, value);
 }
 
 jobject createBoxedInt(JNIEnv *env, jint value) {
-  jclass clazz = env->FindClass("java/lang/Integer");
-  jmethodID constructor = env->GetMethodID(clazz, "<init>", "(I)V");
-  return env->NewObject(clazz, constructor, value);
+  return env->CallStaticObjectMethod(INTEGER_CLASS, INTEGER_VALUEOF, value);
 }
 
 jobject createBoxedLong(JNIEnv *env, jlong value) {
-  jclass clazz = env->FindClass("java/lang/Long");
-  jmethodID constructor = env->GetMethodID(clazz, "<init>", "(J)V");
-  return env->NewObject(clazz, constructor, value);
+  return env->CallStaticObjectMethod(LONG_CLASS, LONG_VALUEOF, value);
 }
 
 jobject createBoxedShort(JNIEnv *env, jshort value) {
-  jclass clazz = env->FindClass("java/lang/Short");
-  jmethodID constructor = env->GetMethodID(clazz, "<init>", "(S)V");
-  return env->NewObject(clazz, constructor, value);
+  return env->CallStaticObjectMethod(SHORT_CLASS, SHORT_VALUEOF, value);
 }
 
 jobject createCurrency(JNIEnv *env, CY cy) {
   jlong jl;
   memcpy(&jl, &cy, sizeof (jl)); // was 64. should be sizeof(x) SF 1690420
-  jclass clazz = env->FindClass("org/racob/com/Currency");
-  jmethodID constructor = env->GetMethodID(clazz, "<init>", "(J)V");
-  return env->NewObject(clazz, constructor, jl);
+  return env->NewObject(CURRENCY_CLASS, CURRENCY_CONSTRUCTOR, jl);
 }
 
 jobject createDate(JNIEnv *env, jdouble date) {
-  jclass clazz = env->FindClass("org/racob/com/DateUtilities");
-  jmethodID constructor = env->GetStaticMethodID(clazz, "convertWindowsTimeToDate", "(D)Ljava/util/Date;");
-  return env->CallStaticObjectMethod(clazz, constructor, date);
+  return env->CallStaticObjectMethod(DATEUTILITIES_CLASS, DATEUTILITIES_TODATE, date);
 }
 
 jobject createDispatch(JNIEnv *env, IDispatch* value) {
@@ -311,7 +335,12 @@ jobjectArray createVariantArray(JNIEnv *env, SAFEARRAY *array, VARTYPE vt) {
         SafeArrayGetUBound(array, i+1, &upperBounds[i]);
     }
 
-    int numberOfElements = upperBounds[0] - lowerBounds[0] + 1;
+    // Elements come out with the first dimension varying fastest, the same
+    // order SafeArray keeps them in
+    int numberOfElements = 1;
+    for (i = 0; i < dimensions; ++i) {
+        numberOfElements *= upperBounds[i] - lowerBounds[i] + 1;
+    }
     DLOG("NOELEMS: %d\n", numberOfElements); fflush(stdout);
     jobjectArray newArray = env->NewObjectArray(numberOfElements, VARIANT_CLASS, NULL);
 
@@ -328,6 +357,7 @@ jobjectArray createVariantArray(JNIEnv *env, SAFEARRAY *array, VARTYPE vt) {
     V_VT(&variant) = (vt & ~VT_ARRAY) | VT_BYREF;
 
     int j = 0;
+    if (numberOfElements == 0) i = dimensions;
     while (i < dimensions) {
 //        printIndex(indexes, dimensions);
         hr = SafeArrayPtrOfIndex(array, indexes, &V_BYREF(&variant));
@@ -345,10 +375,262 @@ jobjectArray createVariantArray(JNIEnv *env, SAFEARRAY *array, VARTYPE vt) {
         j++;
     }
     SafeArrayUnlock(array);
+    free(lowerBounds);
+    free(upperBounds);
+    free(indexes);
+
+    return newArray;
+}
+
+/*
+ * Lower bounds and extents of every dimension of array for the SafeArray
+ * constructors, first dimension first.
+ */
+void createShape(JNIEnv *env, SAFEARRAY *array, jintArray *lowerBounds, jintArray *extents) {
+    unsigned int dimensions = SafeArrayGetDim(array);
+    jint *lower = new jint[dimensions];
+    jint *sizes = new jint[dimensions];
+
+    for (unsigned int i = 0; i < dimensions; i++) {
+        long lowerBound, upperBound;
+        SafeArrayGetLBound(array, i+1, &lowerBound);
+        SafeArrayGetUBound(array, i+1, &upperBound);
+        lower[i] = lowerBound;
+        sizes[i] = upperBound - lowerBound + 1;
+    }
+
+    *lowerBounds = env->NewIntArray(dimensions);
+    *extents = env->NewIntArray(dimensions);
+    if (*lowerBounds) env->SetIntArrayRegion(*lowerBounds, 0, dimensions, lower);
+    if (*extents) env->SetIntArrayRegion(*extents, 0, dimensions, sizes);
+
+    delete[] lower;
+    delete[] sizes;
+}
+
+/*
+ * A typed SafeArray for arrays of doubles, ints, bytes or strings, copied
+ * out of the array's memory in one go.  Any number of dimensions works since
+ * the memory is already in the order SafeArray keeps elements in.  NULL for
+ * anything else.
+ */
+jobject createTypedSafeArray(JNIEnv *env, SAFEARRAY *array, VARTYPE vt,
+        jintArray lowerBounds, jintArray extents) {
+    if (vt != VT_R8 && vt != VT_I4 && vt != VT_UI1 && vt != VT_BSTR) return NULL;
+
+    long size = 1;
+    for (unsigned int i = 0; i < SafeArrayGetDim(array); i++) {
+        long lowerBound, upperBound;
+        SafeArrayGetLBound(array, i+1, &lowerBound);
+        SafeArrayGetUBound(array, i+1, &upperBound);
+        size *= upperBound - lowerBound + 1;
+    }
+
+    void *elements = NULL;
+    if (FAILED(SafeArrayAccessData(array, &elements))) return NULL;
+
+    jobject newArray = NULL;
+    switch (vt) {
+        case VT_R8: {
+            jdoubleArray values = env->NewDoubleArray(size);
+            if (values) {
+                env->SetDoubleArrayRegion(values, 0, size, (jdouble *) elements);
+                newArray = env->NewObject(DOUBLE_SAFEARRAY_CLASS, DOUBLE_SAFEARRAY_CONSTRUCTOR, values, lowerBounds, extents);
+            }
+            break;
+        }
+        case VT_I4: {
+            jintArray values = env->NewIntArray(size);
+            if (values) {
+                env->SetIntArrayRegion(values, 0, size, (jint *) elements);
+                newArray = env->NewObject(INT_SAFEARRAY_CLASS, INT_SAFEARRAY_CONSTRUCTOR, values, lowerBounds, extents);
+            }
+            break;
+        }
+        case VT_UI1: {
+            jbyteArray values = env->NewByteArray(size);
+            if (values) {
+                env->SetByteArrayRegion(values, 0, size, (jbyte *) elements);
+                newArray = env->NewObject(BYTE_SAFEARRAY_CLASS, BYTE_SAFEARRAY_CONSTRUCTOR, values, lowerBounds, extents);
+            }
+            break;
+        }
+        case VT_BSTR: {
+            jobjectArray values = env->NewObjectArray(size, STRING_CLASS, NULL);
+            BSTR *strings = (BSTR *) elements;
+            for (long i = 0; values && i < size; i++) {
+                if (!strings[i]) continue;
+                jstring string = env->NewString((jchar *) strings[i], SysStringLen(strings[i]));
+                env->SetObjectArrayElement(values, i, string);
+                env->DeleteLocalRef(string);
+            }
+            if (values) newArray = env->NewObject(STRING_SAFEARRAY_CLASS, STRING_SAFEARRAY_CONSTRUCTOR, values, lowerBounds, extents);
+            break;
+        }
+    }
+    SafeArrayUnaccessData(array);
 
     return newArray;
 }
 
+/*
+ * A DirectSafeArray which owns array from now on.  The array is locked for
+ * as long as the Java object is open and its data is exposed as a direct
+ * ByteBuffer.  NULL (and array untouched) if that cannot be done.
+ */
+jobject createDirectSafeArray(JNIEnv *env, SAFEARRAY *array) {
+    long lowerBound, upperBound;
+    SafeArrayGetLBound(array, 1, &lowerBound);
+    SafeArrayGetUBound(array, 1, &upperBound);
+
+    void *elements = NULL;
+    if (FAILED(SafeArrayAccessData(array, &elements))) return NULL;
+
+    jobject buffer = env->NewDirectByteBuffer(elements, upperBound - lowerBound + 1);
+    jobject newArray = buffer ? env->NewObject(DIRECT_SAFEARRAY_CLASS,
+            DIRECT_SAFEARRAY_CONSTRUCTOR, (jint) array, (jint) lowerBound, buffer) : NULL;
+    if (buffer) env->DeleteLocalRef(buffer);
+    if (!newArray) SafeArrayUnaccessData(array);
+
+    return newArray;
+}
+
+long countElements(SAFEARRAY *array) {
+    long size = 1;
+    for (unsigned int i = 0; i < SafeArrayGetDim(array); i++) {
+        long lowerBound, upperBound;
+        SafeArrayGetLBound(array, i+1, &lowerBound);
+        SafeArrayGetUBound(array, i+1, &upperBound);
+        size *= upperBound - lowerBound + 1;
+    }
+    return size;
+}
+
+/*
+ * A NativeSafeArray which owns array from now on.
+ */
+jobject createNativeSafeArray(JNIEnv *env, SAFEARRAY *array) {
+    VARTYPE vt;
+    SafeArrayGetVartype(array, &vt);
+    jintArray lowerBounds, extents;
+    createShape(env, array, &lowerBounds, &extents);
+
+    jobject newArray = env->NewObject(NATIVE_SAFEARRAY_CLASS, NATIVE_SAFEARRAY_CONSTRUCTOR,
+            (jint) array, (jint) vt, lowerBounds, extents);
+    env->DeleteLocalRef(lowerBounds);
+    env->DeleteLocalRef(extents);
+
+    return newArray;
+}
+
+/*
+ * Rows first to first + count - 1 (counted from 0 along the first dimension)
+ * of a one or two dimension array as a SafeArray of their own which keeps
+ * the bounds they have in array.  A column's rows are next to each other in
+ * memory so typed chunks are filled with one region copy per column.
+ */
+jobject createSafeArrayRows(JNIEnv *env, SAFEARRAY *array, long first, long count) {
+    VARTYPE vt;
+    SafeArrayGetVartype(array, &vt);
+    unsigned int dimensions = SafeArrayGetDim(array);
+    long lowerBounds[2] = { 0, 0 }, upperBounds[2] = { 0, 0 };
+    for (unsigned int i = 0; i < dimensions; i++) {
+        SafeArrayGetLBound(array, i+1, &lowerBounds[i]);
+        SafeArrayGetUBound(array, i+1, &upperBounds[i]);
+    }
+    long rows = upperBounds[0] - lowerBounds[0] + 1;
+    long columns = dimensions == 2 ? upperBounds[1] - lowerBounds[1] + 1 : 1;
+    long size = count * columns;
+
+    jint chunkLower[2] = { lowerBounds[0] + first, lowerBounds[1] };
+    jint chunkSizes[2] = { count, columns };
+    jintArray chunkLowerBounds = env->NewIntArray(dimensions);
+    jintArray chunkExtents = env->NewIntArray(dimensions);
+    if (!chunkLowerBounds || !chunkExtents) return NULL;
+    env->SetIntArrayRegion(chunkLowerBounds, 0, dimensions, chunkLower);
+    env->SetIntArrayRegion(chunkExtents, 0, dimensions, chunkSizes);
+
+    char *elements = NULL;
+    HRESULT hr = SafeArrayAccessData(array, (void **) &elements);
+    if (FAILED(hr)) {
+        ThrowComFail(env, "SafeArrayAccessData", hr);
+        return NULL;
+    }
+    UINT elementSize = SafeArrayGetElemsize(array);
+
+    jobject chunk = NULL;
+    switch (vt) {
+        case VT_R8: {
+            jdoubleArray values = env->NewDoubleArray(size);
+            for (long c = 0; values && c < columns; c++) {
+                env->SetDoubleArrayRegion(values, c * count, count,
+                        (jdouble *) (elements + (first + c * rows) * elementSize));
+            }
+            if (values) chunk = env->NewObject(DOUBLE_SAFEARRAY_CLASS, DOUBLE_SAFEARRAY_CONSTRUCTOR,
+                    values, chunkLowerBounds, chunkExtents);
+            break;
+        }
+        case VT_I4: {
+            jintArray values = env->NewIntArray(size);
+            for (long c = 0; values && c < columns; c++) {
+                env->SetIntArrayRegion(values, c * count, count,
+                        (jint *) (elements + (first + c * rows) * elementSize));
+            }
+            if (values) chunk = env->NewObject(INT_SAFEARRAY_CLASS, INT_SAFEARRAY_CONSTRUCTOR,
+                    values, chunkLowerBounds, chunkExtents);
+            break;
+        }
+        case VT_UI1: {
+            jbyteArray values = env->NewByteArray(size);
+            for (long c = 0; values && c < columns; c++) {
+                env->SetByteArrayRegion(values, c * count, count,
+                        (jbyte *) (elements + (first + c * rows) * elementSize));
+            }
+            if (values) chunk = env->NewObject(BYTE_SAFEARRAY_CLASS, BYTE_SAFEARRAY_CONSTRUCTOR,
+                    values, chunkLowerBounds, chunkExtents);
+            break;
+        }
+        case VT_BSTR: {
+            jobjectArray values = env->NewObjectArray(size, STRING_CLASS, NULL);
+            for (long c = 0; values && c < columns; c++) {
+                BSTR *strings = (BSTR *) (elements + (first + c * rows) * elementSize);
+                for (long r = 0; r < count; r++) {
+                    if (!strings[r]) continue;
+                    jstring string = env->NewString((jchar *) strings[r], SysStringLen(strings[r]));
+                    env->SetObjectArrayElement(values, c * count + r, string);
+                    env->DeleteLocalRef(string);
+                }
+            }
+            if (values) chunk = env->NewObject(STRING_SAFEARRAY_CLASS, STRING_SAFEARRAY_CONSTRUCTOR,
+                    values, chunkLowerBounds, chunkExtents);
+            break;
+        }
+        default: {
+            // As createVariantArray: each element through a by-ref VARIANT
+            jobjectArray values = env->NewObjectArray(size, VARIANT_CLASS, NULL);
+            VARIANT variant;
+            VariantInit(&variant);
+            V_VT(&variant) = (vt == VT_UNKNOWN ? VT_DISPATCH : vt) | VT_BYREF;
+            for (long c = 0; values && c < columns; c++) {
+                for (long r = 0; r < count; r++) {
+                    V_BYREF(&variant) = elements + (first + r + c * rows) * elementSize;
+                    jobject value = createVariant(env, &variant);
+                    env->SetObjectArrayElement(values, c * count + r, value);
+                    env->DeleteLocalRef(value);
+                }
+            }
+            if (values) chunk = env->NewObject(SAFEARRAY_CLASS, SAFEARRAY_CONSTRUCTOR,
+                    values, chunkLowerBounds, chunkExtents);
+            break;
+        }
+    }
+    SafeArrayUnaccessData(array);
+    env->DeleteLocalRef(chunkLowerBounds);
+    env->DeleteLocalRef(chunkExtents);
+
+    return chunk;
+}
+
 jobject createSafeArray(JNIEnv *env, VARIANT *vt, SAFEARRAY *array) {
     VARTYPE varType;
     SafeArrayGetVartype(array, &varType);
@@ -356,9 +638,17 @@ jobject createSafeArray(JNIEnv *env, VARIANT *vt, SAFEARRAY *array) {
 
     printVT("", varType);
 
-    jobjectArray objectData = createVariantArray(env, array, varType);
-    newArray = env->NewObject(SAFEARRAY_CLASS, SAFEARRAY_CONSTRUCTOR,
-                (jobjectArray) objectData);
+    jintArray lowerBounds, extents;
+    createShape(env, array, &lowerBounds, &extents);
+
+    newArray = createTypedSafeArray(env, array, varType, lowerBounds, extents);
+    if (!newArray) {
+        jobjectArray objectData = createVariantArray(env, array, varType);
+        newArray = env->NewObject(SAFEARRAY_CLASS, SAFEARRAY_CONSTRUCTOR,
+                objectData, lowerBounds, extents);
+    }
+    env->DeleteLocalRef(lowerBounds);
+    env->DeleteLocalRef(extents);
 
     return newArray;
 }
@@ -378,15 +668,15 @@ jobject createUnknown(JNIEnv *env, IUnknown *value) {
         return createDispatch(env, iDispatch);
     }
     DLOG("No QI...leaving IUnknown\n");
-    jclass clazz = env->FindClass("org/racob/com/IUnknown");
-    jmethodID constructor = env->GetMethodID(clazz, "<init>", "(I)V");
-    return env->NewObject(clazz, constructor, value);
+    return env->NewObject(IUNKNOWN_CLASS, IUNKNOWN_CONSTRUCTOR, value);
 }
 
 /* Creates a Java object which represents the variant. */
 jobject variantToObject(JNIEnv *env, VARIANT* v) {
     jobject temp = NULL;
   if (!v) return NULL;
+  // callO() can get here before anything has touched Variant
+  if (!initializeHandles(env)) return NULL;
   printVT("", V_VT(v));
 
   if (V_VT(v) & VT_ARRAY) {
@@ -433,9 +723,9 @@ jobject variantToObject(JNIEnv *env, VARIANT* v) {
      case VT_UI4|VT_BYREF:
         return createBoxedLong(env, (jlong) *V_UI4REF(v));
       case VT_BOOL:
-         return createBoxedBoolean(env, (jboolean) V_BOOL(v));
+         return createBoxedBoolean(env, V_BOOL(v) != VARIANT_FALSE ? JNI_TRUE : JNI_FALSE);
       case VT_BOOL|VT_BYREF:
-         return createBoxedBoolean(env, (jboolean) *V_BOOLREF(v));
+         return createBoxedBoolean(env, *V_BOOLREF(v) != VARIANT_FALSE ? JNI_TRUE : JNI_FALSE);
      case VT_CY:
         return createCurrency(env, V_CY(v));
      case VT_CY|VT_BYREF:
@@ -477,6 +767,40 @@ jobject variantToObject(JNIEnv *env, VARIANT* v) {
   return NULL; // Not reached...make compiler happy
 }
 
+/*
+ * createVariant for a VARIANT the caller clears straight afterwards (invoke
+ * results and enumerated values).  Large arrays are taken over rather than
+ * copied: single dimension byte arrays of directBytes bytes or more become
+ * a DirectSafeArray and other one or two dimension arrays of streamCells
+ * elements or more a NativeSafeArray (never when the count is -1).  v is
+ * then left empty so clearing it does nothing.
+ */
+jobject createOwnedVariant(JNIEnv *env, VARIANT* v, jint streamCells, jint directBytes) {
+    if ((V_VT(v) & VT_ARRAY) && !(V_VT(v) & VT_BYREF) && V_ARRAY(v) &&
+            SafeArrayGetDim(V_ARRAY(v)) <= 2) {
+        SAFEARRAY *array = V_ARRAY(v);
+        long size = countElements(array);
+        jobject owner = NULL;
+
+        if (V_VT(v) == (VT_ARRAY|VT_UI1) && SafeArrayGetDim(array) == 1 &&
+                directBytes >= 0 && size >= directBytes) {
+            owner = createDirectSafeArray(env, array);
+        } else if (streamCells >= 0 && size >= streamCells) {
+            owner = createNativeSafeArray(env, array);
+        }
+
+        if (owner) {
+            jobject variant = env->NewObject(VARIANT_CLASS, VARIANT_CONSTRUCTOR, owner, V_VT(v));
+            env->DeleteLocalRef(owner);
+            V_VT(v) = VT_EMPTY;
+            V_ARRAY(v) = NULL;
+            return variant;
+        }
+    }
+
+    return createVariant(env, v);
+}
+
 jobject createVariant(JNIEnv *env, VARIANT* v) {
     jobject temp;
     printVT("", V_VT(v));
@@ -487,8 +811,46 @@ jobject createVariant(JNIEnv *env, VARIANT* v) {
          return createBooleanVariant(env, (jboolean) *V_BOOLREF(v));
       case VT_DATE:
           return createDateVariant(env, (jdouble) V_DATE(v));
-       case VT_I4:
+      case VT_I4:
           return createIntVariant(env, (jint) V_I4(v));
+      case VT_I4|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) *V_I4REF(v));
+      case VT_I2:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) V_I2(v));
+      case VT_I2|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) *V_I2REF(v));
+      case VT_UI2:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) (jshort) V_UI2(v));
+      case VT_UI2|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) (jshort) *V_UI2REF(v));
+      case VT_UI8:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) (jint) V_UI8(v));
+      case VT_UI8|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) (jint) *V_UI8REF(v));
+      case VT_I8:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) V_I8(v));
+      case VT_I8|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) *V_I8REF(v));
+      case VT_UI4:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) V_UI4(v));
+      case VT_UI4|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) *V_UI4REF(v));
+      case VT_R4:
+          return createPrimitiveVariant(env, V_VT(v), doubleToBits((jdouble) V_R4(v)));
+      case VT_R4|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), doubleToBits((jdouble) *V_R4REF(v)));
+      case VT_R8:
+          return createPrimitiveVariant(env, V_VT(v), doubleToBits((jdouble) V_R8(v)));
+      case VT_R8|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), doubleToBits((jdouble) *V_R8REF(v)));
+      case VT_UI1:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) (jbyte) V_UI1(v));
+      case VT_UI1|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) (jbyte) *V_UI1REF(v));
+      case VT_ERROR:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) V_ERROR(v));
+      case VT_ERROR|VT_BYREF:
+          return createPrimitiveVariant(env, V_VT(v), (jlong) *V_ERRORREF(v));
       case VT_DATE|VT_BYREF:
           return createDateVariant(env, (jdouble) *V_DATEREF(v));
       case VT_DISPATCH:
@@ -503,15 +865,20 @@ jobject createVariant(JNIEnv *env, VARIANT* v) {
 }
 
 jint getVariantType(JNIEnv *env, jobject obj){
-  return env->GetIntField(obj, VARIANT_TYPE);
+  return env->GetShortField(obj, VARIANT_TYPE);
+}
+
+/* Only valid for the primitive types which Variant keeps in bits */
+jlong getValueAsBits(JNIEnv *env, jobject obj) {
+  return env->GetLongField(obj, VARIANT_BITS);
 }
 
 jboolean getValueAsBoolean(JNIEnv *env, jobject obj) {
-  return env->CallBooleanMethod(obj, VARIANT_GETBOOLEAN);
+  return getValueAsBits(env, obj) != 0 ? JNI_TRUE : JNI_FALSE;
 }
 
 jbyte getValueAsByte(JNIEnv *env, jobject obj) {
-  return env->CallBooleanMethod(obj, VARIANT_GETBYTE);
+  return (jbyte) getValueAsBits(env, obj);
 }
 
 jlong getValueAsCurrency(JNIEnv *env, jobject obj) {
@@ -527,11 +894,11 @@ jobject getValueAsDispatch(JNIEnv *env, jobject obj) {
 }
 
 double getValueAsDouble(JNIEnv *env, jobject obj) {
-  return (double) env->CallDoubleMethod(obj, VARIANT_GETDOUBLE);
+  return (double) bitsToDouble(getValueAsBits(env, obj));
 }
 
 float getValueAsFloat(JNIEnv *env, jobject obj) {
-  return (float) env->CallFloatMethod(obj, VARIANT_GETFLOAT);
+  return (float) bitsToDouble(getValueAsBits(env, obj));
 }
 
 int getVTFromSafeArray(JNIEnv* env, jobject obj) {
@@ -548,14 +915,15 @@ jobjectArray getValuesAsVariants(JNIEnv *env, jobject safearray) {
 }
 
 int getValueAsInt(JNIEnv *env, jobject obj) {
-  return (int) env->CallIntMethod(obj, VARIANT_GETINT);
+  return (int) getValueAsBits(env, obj);
 }
+
 jlong getValueAsLong(JNIEnv *env, jobject obj) {
-  return (jlong) env->CallLongMethod(obj, VARIANT_GETLONG);
+  return getValueAsBits(env, obj);
 }
 
 short getValueAsShort(JNIEnv *env, jobject obj) {
-  return (short) env->CallShortMethod(obj, VARIANT_GETSHORT);
+  return (short) getValueAsBits(env, obj);
 }
 
 jstring getValueAsString(JNIEnv *env, jobject obj) {
@@ -566,12 +934,27 @@ jobject getValueAsVariant(JNIEnv *env, jobject obj) {
   return env->CallObjectMethod(obj, VARIANT_GETVARIANT);
 }
 
-void populateVariant(JNIEnv *env, jobject javaVariant, VARIANT* v) {
+/*
+ * Fill v with the value of javaVariant.  v always gets the value itself: a
+ * by-ref Variant is filled in as its plain type and a VT_VARIANT as the
+ * Variant it holds.  Callers which need a real VT_BYREF (invokev) point one
+ * at the result.
+ *
+ * With lend set a DirectSafeArray is lent rather than copied and v must be
+ * released with returnVariant; otherwise v owns everything in it.
+ */
+static void fillVariant(JNIEnv *env, jobject javaVariant, VARIANT* v, jboolean lend) {
   int variantType = getVariantType(env, javaVariant);
 
   printVT("", variantType);
-  // Add byRef logic
   VariantClear(v);
+  if ((variantType & ~VT_BYREF) == VT_VARIANT) {
+     jobject inner = getValueAsVariant(env, javaVariant);
+     if (inner) fillVariant(env, inner, v, lend);
+     env->DeleteLocalRef(inner);
+     return;
+  }
+  variantType &= ~VT_BYREF;
   V_VT(v) = (VARTYPE) variantType;
   switch(variantType) {
      case VT_UI2:
@@ -597,7 +980,6 @@ void populateVariant(JNIEnv *env, jobject javaVariant, VARIANT* v) {
           break;
      case VT_DATE:
           V_DATE(v) = getValueAsDate(env, javaVariant); break;
-     case VT_BSTR|VT_BYREF:
      case VT_BSTR: {
           jstring s = getValueAsString(env, javaVariant);
           const jchar *cStr = env->GetStringChars(s, NULL);
@@ -628,41 +1010,94 @@ void populateVariant(JNIEnv *env, jobject javaVariant, VARIANT* v) {
           V_UI1(v) = getValueAsByte(env, javaVariant); break;
      case VT_ERROR:
           V_ERROR(v) = getValueAsInt(env, javaVariant); break;
-     case VT_VARIANT: // This may be error case
-     case VT_VARIANT|VT_BYREF: {
-          VARIANT *inner = (VARIANT *) CoTaskMemAlloc(sizeof(VARIANT));
-          populateVariant(env, getValueAsVariant(env, javaVariant), inner);
-          V_VARIANTREF(v) = inner;
-     }
-     break;
      case VT_EMPTY:
      case VT_NULL:
         break;
      case VT_ARRAY: {
          jobject safearray = getValueAsSafeArray(env, javaVariant);
          int vt = getVTFromSafeArray(env, safearray);
-         jobjectArray values = getValuesAsVariants(env, safearray);
          printVT("SAFEARRAY", vt);
 
          V_VT(v) = variantType | vt;
-         V_ARRAY(v) = newSingleArray(env, vt, values);
+         jint handle = env->CallIntMethod(safearray, SAFEARRAY_LEND);
+         if (env->ExceptionCheck()) { // a closed DirectSafeArray
+            V_VT(v) = VT_EMPTY;
+            break;
+         }
+         if (handle && lend) {
+            // The DirectSafeArray keeps owning it; returnVariant gives it back
+            V_ARRAY(v) = (SAFEARRAY *) handle;
+            break;
+         }
+         if (handle) {
+            HRESULT hr = SafeArrayCopy((SAFEARRAY *) handle, &V_ARRAY(v));
+            env->CallVoidMethod(safearray, SAFEARRAY_GIVEBACK);
+            if (FAILED(hr)) {
+               V_VT(v) = VT_EMPTY;
+               ThrowComFail(env, "cannot copy DirectSafeArray", hr);
+            }
+            break;
+         }
+         jintArray lowerBounds = (jintArray) env->CallObjectMethod(safearray, SAFEARRAY_GETLOWERBOUNDS);
+         jintArray extents = (jintArray) env->CallObjectMethod(safearray, SAFEARRAY_GETEXTENTS);
+         jobject data = env->CallObjectMethod(safearray, SAFEARRAY_GETDATA);
+         if (data) {
+            // A typed SafeArray: its Java array is copied straight in
+            V_ARRAY(v) = newTypedArray(env, vt, (jarray) data, lowerBounds, extents);
+            env->DeleteLocalRef(data);
+         } else {
+            jobjectArray values = getValuesAsVariants(env, safearray);
+            V_ARRAY(v) = newVariantArray(env, vt, values, lowerBounds, extents);
+         }
+         env->DeleteLocalRef(lowerBounds);
+         env->DeleteLocalRef(extents);
          break;
      }
-     case VT_ARRAY|VT_BYREF: {
-         jobject safearray = getValueAsSafeArray(env, javaVariant);
-         int vt = getVTFromSafeArray(env, safearray);
-         jobjectArray values = getValuesAsVariants(env, safearray);
-         printVT("SAFEARRAY", vt);
-
-         V_VT(v) = variantType | vt;
-         SAFEARRAY *array = newSingleArray(env, vt, values);
-         V_ARRAYREF(v) = &array;
-     }
-     break;
      default:
         DLOG("DEFAULTING ON POPULATE VARIANT: %d\n", V_VT(v)); fflush(stdout);
           break;
   }
 }
 
+void populateVariant(JNIEnv *env, jobject javaVariant, VARIANT* v) {
+  fillVariant(env, javaVariant, v, JNI_FALSE);
+}
+
+void lendVariant(JNIEnv *env, jobject javaVariant, VARIANT* v) {
+  fillVariant(env, javaVariant, v, JNI_TRUE);
+}
+
+/*
+ * The SafeArray javaVariant holds (looking through VT_VARIANT) or NULL.
+ */
+static jobject safeArrayOf(JNIEnv *env, jobject javaVariant) {
+  int variantType = getVariantType(env, javaVariant);
+
+  if ((variantType & ~VT_BYREF) == VT_VARIANT) {
+     jobject inner = getValueAsVariant(env, javaVariant);
+     jobject array = inner ? safeArrayOf(env, inner) : NULL;
+     env->DeleteLocalRef(inner);
+     return array;
+  }
+
+  return (variantType & VT_ARRAY) ? getValueAsSafeArray(env, javaVariant) : NULL;
+}
+
+/*
+ * Clear v which lendVariant filled in from javaVariant.  A lent array is
+ * taken out of v before the clear, so VariantClear cannot destroy it, and
+ * given back to its DirectSafeArray.  No Java exception may be pending.
+ */
+void returnVariant(JNIEnv *env, jobject javaVariant, VARIANT* v) {
+  if ((V_VT(v) & VT_ARRAY) && !(V_VT(v) & VT_BYREF) && javaVariant) {
+     jobject array = safeArrayOf(env, javaVariant);
+     if (array && env->IsInstanceOf(array, DIRECT_SAFEARRAY_CLASS)) {
+        VariantInit(v);
+        env->CallVoidMethod(array, SAFEARRAY_GIVEBACK);
+     }
+     env->DeleteLocalRef(array);
+  }
+  VariantClear(v);
+}
+
 }
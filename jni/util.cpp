@@ -28,6 +28,122 @@
 #include "util.h"
 
 extern "C" {
+jclass BOOLEAN_CLASS = 0;
+jmethodID BOOLEAN_VALUEOF = 0;
+jclass BYTE_CLASS = 0;
+jmethodID BYTE_VALUEOF = 0;
+jclass SHORT_CLASS = 0;
+jmethodID SHORT_VALUEOF = 0;
+jclass INTEGER_CLASS = 0;
+jmethodID INTEGER_VALUEOF = 0;
+jclass LONG_CLASS = 0;
+jmethodID LONG_VALUEOF = 0;
+jclass FLOAT_CLASS = 0;
+jmethodID FLOAT_VALUEOF = 0;
+jclass DOUBLE_CLASS = 0;
+jmethodID DOUBLE_VALUEOF = 0;
+jclass CURRENCY_CLASS = 0;
+jmethodID CURRENCY_CONSTRUCTOR = 0;
+jclass DATEUTILITIES_CLASS = 0;
+jmethodID DATEUTILITIES_TODATE = 0;
+jclass IUNKNOWN_CLASS = 0;
+jmethodID IUNKNOWN_CONSTRUCTOR = 0;
+jclass DISPATCH_CLASS = 0;
+jmethodID DISPATCH_CONSTRUCTOR = 0;
+jclass COMFAIL_CLASS = 0;
+jmethodID COMFAIL_CONSTRUCTOR = 0;
+jclass TYPEINFO_CLASS = 0;
+jmethodID TYPEINFO_CONSTRUCTOR = 0;
+jclass ROT_CLASS = 0;
+jmethodID ROT_RELEASEPENDING = 0;
+
+/* Whether initializeHandles has run, or is running on some thread */
+#define HANDLES_NONE 0
+#define HANDLES_LOADING 1
+#define HANDLES_READY 2
+static volatile LONG handlesState = HANDLES_NONE;
+
+static jboolean globalClass(JNIEnv *env, jclass *slot, const char *name) {
+  if (*slot) return JNI_TRUE;
+
+  jclass local = env->FindClass(name);
+  if (!local) return JNI_FALSE;
+
+  *slot = (jclass) env->NewGlobalRef(local);
+  env->DeleteLocalRef(local);
+  return *slot != NULL;
+}
+
+/*
+ * Fills in the handles for initializeHandles.  A class already made global
+ * by an earlier attempt which failed further on is kept rather than made
+ * again.
+ */
+static jboolean loadHandles(JNIEnv *env) {
+  if (!globalClass(env, &BOOLEAN_CLASS, "java/lang/Boolean")) return JNI_FALSE;
+  if (!globalClass(env, &BYTE_CLASS, "java/lang/Byte")) return JNI_FALSE;
+  if (!globalClass(env, &SHORT_CLASS, "java/lang/Short")) return JNI_FALSE;
+  if (!globalClass(env, &INTEGER_CLASS, "java/lang/Integer")) return JNI_FALSE;
+  if (!globalClass(env, &LONG_CLASS, "java/lang/Long")) return JNI_FALSE;
+  if (!globalClass(env, &FLOAT_CLASS, "java/lang/Float")) return JNI_FALSE;
+  if (!globalClass(env, &DOUBLE_CLASS, "java/lang/Double")) return JNI_FALSE;
+  if (!globalClass(env, &CURRENCY_CLASS, "org/racob/com/Currency")) return JNI_FALSE;
+  if (!globalClass(env, &DATEUTILITIES_CLASS, "org/racob/com/DateUtilities")) return JNI_FALSE;
+  if (!globalClass(env, &IUNKNOWN_CLASS, "org/racob/com/IUnknown")) return JNI_FALSE;
+  if (!globalClass(env, &DISPATCH_CLASS, "org/racob/com/Dispatch")) return JNI_FALSE;
+  if (!globalClass(env, &COMFAIL_CLASS, "org/racob/com/ComFailException")) return JNI_FALSE;
+  if (!globalClass(env, &TYPEINFO_CLASS, "org/racob/com/TypeInfo")) return JNI_FALSE;
+  if (!globalClass(env, &ROT_CLASS, "org/racob/com/ROT")) return JNI_FALSE;
+
+  // valueOf so small values come out of the JDK box caches
+  BOOLEAN_VALUEOF = env->GetStaticMethodID(BOOLEAN_CLASS, "valueOf", "(Z)Ljava/lang/Boolean;");
+  BYTE_VALUEOF = env->GetStaticMethodID(BYTE_CLASS, "valueOf", "(B)Ljava/lang/Byte;");
+  SHORT_VALUEOF = env->GetStaticMethodID(SHORT_CLASS, "valueOf", "(S)Ljava/lang/Short;");
+  INTEGER_VALUEOF = env->GetStaticMethodID(INTEGER_CLASS, "valueOf", "(I)Ljava/lang/Integer;");
+  LONG_VALUEOF = env->GetStaticMethodID(LONG_CLASS, "valueOf", "(J)Ljava/lang/Long;");
+  FLOAT_VALUEOF = env->GetStaticMethodID(FLOAT_CLASS, "valueOf", "(F)Ljava/lang/Float;");
+  DOUBLE_VALUEOF = env->GetStaticMethodID(DOUBLE_CLASS, "valueOf", "(D)Ljava/lang/Double;");
+  CURRENCY_CONSTRUCTOR = env->GetMethodID(CURRENCY_CLASS, "<init>", "(J)V");
+  DATEUTILITIES_TODATE = env->GetStaticMethodID(DATEUTILITIES_CLASS, "convertWindowsTimeToDate", "(D)Ljava/util/Date;");
+  IUNKNOWN_CONSTRUCTOR = env->GetMethodID(IUNKNOWN_CLASS, "<init>", "(I)V");
+  DISPATCH_CONSTRUCTOR = env->GetMethodID(DISPATCH_CLASS, "<init>", "(I)V");
+  COMFAIL_CONSTRUCTOR = env->GetMethodID(COMFAIL_CLASS, "<init>", "(ILjava/lang/String;)V");
+  TYPEINFO_CONSTRUCTOR = env->GetMethodID(TYPEINFO_CLASS, "<init>", "(ILjava/lang/String;Ljava/lang/String;IIIIIIII)V");
+  ROT_RELEASEPENDING = env->GetStaticMethodID(ROT_CLASS, "releasePending", "()I");
+  if (env->ExceptionCheck()) return JNI_FALSE;
+
+  return JNI_TRUE;
+}
+
+/*
+ * Look up every class and method we make Java objects with once per JVM
+ * rather than on every conversion.  Doing this from a Java thread also means
+ * event threads attached later never need FindClass (which would use the
+ * wrong class loader there).
+ *
+ * Called from Variant.initializeNative and lazily by anything which may run
+ * first.  Only one thread makes the global references; any other arriving
+ * meanwhile waits for it rather than making (and leaking) its own.
+ * Returns JNI_FALSE with an exception pending if something is missing, and
+ * the next caller tries again.
+ */
+jboolean initializeHandles(JNIEnv *env) {
+  for (;;) {
+    LONG state = InterlockedCompareExchange(&handlesState, HANDLES_LOADING, HANDLES_NONE);
+    if (state == HANDLES_READY) return JNI_TRUE;
+    if (state == HANDLES_NONE) break; // ours to fill in
+    SwitchToThread();
+  }
+
+  if (loadHandles(env)) {
+    InterlockedExchange(&handlesState, HANDLES_READY);
+    return JNI_TRUE;
+  }
+
+  InterlockedExchange(&handlesState, HANDLES_NONE);
+  return JNI_FALSE;
+}
+
     unsigned long referenceCountFor(IUnknown *obj) {
         if (obj == NULL) return 0;
 
@@ -49,15 +165,14 @@ extern "C" {
 
 void ThrowComFail(JNIEnv *env, const char* desc, jint hr)
 {
-  jclass failClass = env->FindClass("org/racob/com/ComFailException");
-  // call the constructor that takes hr and message
-  jmethodID failCons = 
-     env->GetMethodID(failClass, "<init>", "(ILjava/lang/String;)V");
+  // May be the first thing we ever do (e.g. a failed CoCreate)
+  if (!initializeHandles(env)) return;
   if (!desc) {
 	  desc = "Java/COM Error";
   }
   jstring js = env->NewStringUTF(desc);
-  jthrowable fail = (jthrowable)env->NewObject(failClass, failCons, hr, js);
+  // call the constructor that takes hr and message
+  jthrowable fail = (jthrowable)env->NewObject(COMFAIL_CLASS, COMFAIL_CONSTRUCTOR, hr, js);
   env->Throw(fail);
 }
 
@@ -65,13 +180,12 @@ void ThrowComFailUnicode(JNIEnv *env, const wchar_t* desc, jint hr)
 {
   if (!desc) {
 	  ThrowComFail(env, "Java/COM Error", hr);
+	  return;
   }
-  jclass failClass = env->FindClass("org/racob/com/ComFailException");
-  // call the constructor that takes hr and message
-  jmethodID failCons = 
-     env->GetMethodID(failClass, "<init>", "(ILjava/lang/String;)V");
+  if (!initializeHandles(env)) return;
   jstring js = env->NewString((const jchar *) desc, wcslen(desc));
-  jthrowable fail = (jthrowable)env->NewObject(failClass, failCons, hr, js);
+  // call the constructor that takes hr and message
+  jthrowable fail = (jthrowable)env->NewObject(COMFAIL_CLASS, COMFAIL_CONSTRUCTOR, hr, js);
   env->Throw(fail);
 }
 
@@ -134,9 +248,11 @@ void ThrowComFailUnicode(JNIEnv *env, const wchar_t* desc, jint hr)
       aliasVT = typeAttributes->tdescAlias.vt;
    }
 
-   jclass autoClass = env->FindClass("org/racob/com/TypeInfo");
-   jmethodID autoCons = env->GetMethodID(autoClass, "<init>", "(ILjava/lang/String;Ljava/lang/String;IIIIIIII)V");
-   jobject newAuto = env->NewObject(autoClass, autoCons, (jint) typeInfo,
+   if (!initializeHandles(env)) {
+      typeInfo->ReleaseTypeAttr(typeAttributes);
+      return NULL;
+   }
+   jobject newAuto = env->NewObject(TYPEINFO_CLASS, TYPEINFO_CONSTRUCTOR, (jint) typeInfo,
            makeGUIDString(env, typeAttributes->guid), progid,
            typeAttributes->typekind, typeAttributes->cFuncs,
            typeAttributes->cImplTypes, typeAttributes->cVars,
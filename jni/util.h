@@ -31,16 +31,59 @@ extern "C" {
   /* Initialized by initializeNative in variant.cpp */
   extern jclass VARIANT_CLASS;
   extern jmethodID VARIANT_CONSTRUCTOR;
-  extern jclass DISPATCH_CLASS;
   extern jfieldID DISPATCH_FIELD;
   extern jfieldID POINTER_FIELD;
 
+  /*
+   * Handle table of global class refs and method ids used to make Java
+   * objects from native code.  Filled in once by initializeHandles in
+   * util.cpp (see there).
+   */
+  extern jclass BOOLEAN_CLASS;
+  extern jmethodID BOOLEAN_VALUEOF;
+  extern jclass BYTE_CLASS;
+  extern jmethodID BYTE_VALUEOF;
+  extern jclass SHORT_CLASS;
+  extern jmethodID SHORT_VALUEOF;
+  extern jclass INTEGER_CLASS;
+  extern jmethodID INTEGER_VALUEOF;
+  extern jclass LONG_CLASS;
+  extern jmethodID LONG_VALUEOF;
+  extern jclass FLOAT_CLASS;
+  extern jmethodID FLOAT_VALUEOF;
+  extern jclass DOUBLE_CLASS;
+  extern jmethodID DOUBLE_VALUEOF;
+  extern jclass CURRENCY_CLASS;
+  extern jmethodID CURRENCY_CONSTRUCTOR;
+  extern jclass DATEUTILITIES_CLASS;
+  extern jmethodID DATEUTILITIES_TODATE;
+  extern jclass IUNKNOWN_CLASS;
+  extern jmethodID IUNKNOWN_CONSTRUCTOR;
+  extern jclass DISPATCH_CLASS;
+  extern jmethodID DISPATCH_CONSTRUCTOR;
+  extern jclass COMFAIL_CLASS;
+  extern jmethodID COMFAIL_CONSTRUCTOR;
+  extern jclass TYPEINFO_CLASS;
+  extern jmethodID TYPEINFO_CONSTRUCTOR;
+  extern jclass ROT_CLASS;
+  extern jmethodID ROT_RELEASEPENDING;
+
+  jboolean initializeHandles(JNIEnv *env);
+
   unsigned long referenceCountFor(IUnknown *unknown);
   void IDispatchAddRef(char* message, IDispatch *obj);
 
   /* Defined in variant.cpp */
   jobject createVariant(JNIEnv *env, VARIANT* variant);
+  jobject createOwnedVariant(JNIEnv *env, VARIANT* variant, jint streamCells, jint directBytes);
+  jobject createDirectSafeArray(JNIEnv *env, SAFEARRAY *array);
+  jobject createNativeSafeArray(JNIEnv *env, SAFEARRAY *array);
+  jobject createSafeArrayRows(JNIEnv *env, SAFEARRAY *array, long first, long count);
+  long countElements(SAFEARRAY *array);
   void populateVariant(JNIEnv *env, jobject javaVariant, VARIANT* variant);
+  void lendVariant(JNIEnv *env, jobject javaVariant, VARIANT* variant);
+  void returnVariant(JNIEnv *env, jobject javaVariant, VARIANT* variant);
+  jint getVariantType(JNIEnv *env, jobject javaVariant);
   VARIANT *extractVariant(JNIEnv *env, jobject arg);
   jobject variantToObject(JNIEnv *env, VARIANT* variant);
 
@@ -58,5 +101,7 @@ extern "C" {
   /* SafeArray.cpp */
   SAFEARRAY *makeSingleArray(int vt, long lowerBounds, long size);
   SAFEARRAY *makeArray(int vt, int dimensions, long *lowerBounds, long *elementSizes);
-  SAFEARRAY *newSingleArray(JNIEnv* env, int vt, jobjectArray data);
+  SAFEARRAY *makeShapedArray(JNIEnv* env, int vt, jintArray lowerBounds, jintArray extents);
+  SAFEARRAY *newVariantArray(JNIEnv* env, int vt, jobjectArray data, jintArray lowerBounds, jintArray extents);
+  SAFEARRAY *newTypedArray(JNIEnv* env, int vt, jarray data, jintArray lowerBounds, jintArray extents);
 }
@@ -21,6 +21,7 @@ package org.racob.activeX;
 
 import org.racob.com.Dispatch;
 import org.racob.com.DispatchEvents;
+import org.racob.com.EventQueue;
 import org.racob.com.InvocationProxy;
 
 /**
@@ -92,6 +93,27 @@ public class ActiveXDispatchEvents extends DispatchEvents {
 		super(sourceOfEvent, eventSink, progId, typeLib);
 	}
 
+	/**
+	 * Creates the event callback linkage with events delivered through queue
+	 * rather than on the COM thread.
+	 * 
+	 * @param sourceOfEvent
+	 *            Dispatch object who's MS app will generate callbacks
+	 * @param eventSink
+	 *            Java object that wants to receive the events
+	 * @param progId
+	 *            mandatory if the typelib is specified
+	 * @param typeLib
+	 *            The location of the typelib to use
+	 * @param queue
+	 *            the queue events are delivered through or null to deliver
+	 *            them on the COM thread
+	 */
+	public ActiveXDispatchEvents(Dispatch sourceOfEvent, Object eventSink,
+			String progId, String typeLib, EventQueue queue) {
+		super(sourceOfEvent, eventSink, progId, typeLib, queue);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
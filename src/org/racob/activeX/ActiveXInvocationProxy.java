@@ -20,7 +20,6 @@
 package org.racob.activeX;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 
 import org.racob.com.InvocationProxy;
 import org.racob.com.Variant;
@@ -50,6 +49,11 @@ import org.racob.com.VariantUtilities;
  * 
  * <code> void eventMethodName(Object,Object...)</code> or
  * <code> Object eventMethodName(Object,Object...)</code>
+ * <p>
+ * Parameters may also be primitives, Date, Dispatch or Variant.  The listener
+ * method is chosen by event name and number of arguments, and among
+ * overloads by the argument types; how to convert each argument is worked
+ * out once per listener class (see EventAdapter).
  */
 public class ActiveXInvocationProxy extends InvocationProxy {
 
@@ -76,108 +80,45 @@ public class ActiveXInvocationProxy extends InvocationProxy {
 			throw new IllegalArgumentException(
 					"InvocationProxy: missing Variant parameters");
 		}
-		try {
-			Method targetMethod;
-			Object parametersAsJavaObjects[] = getParametersAsJavaObjects(targetParameters);
-			Class parametersAsJavaClasses[] = getParametersAsJavaClasses(parametersAsJavaObjects);
-			targetMethod = targetClass.getMethod(methodName,
-					parametersAsJavaClasses);
-			if (targetMethod != null) {
-				// protected classes can't be invoked against even if they
-				// let you grab the method. you could do
-				// targetMethod.setAccessible(true);
-				// but that should be stopped by the security manager
-				Object mReturnedByInvocation = null;
-				mReturnedByInvocation = targetMethod.invoke(mTargetObject,
-						parametersAsJavaObjects);
-				if (mReturnedByInvocation == null) {
-					mVariantToBeReturned = null;
-				} else if (!(mReturnedByInvocation instanceof Variant)) {
-					mVariantToBeReturned = VariantUtilities.objectToVariant(mReturnedByInvocation);
-				} else {
-					mVariantToBeReturned = (Variant) mReturnedByInvocation;
-				}
-			}
-		} catch (SecurityException e) {
-			// what causes this exception?
-			e.printStackTrace();
-		} catch (NoSuchMethodException e) {
+		EventAdapter adapter = EventAdapter.forEvent(targetClass, methodName,
+				targetParameters);
+		if (adapter == null) {
 			// this happens whenever the listener doesn't implement all the
 			// methods
+			return null;
+		}
+		try {
+			Object mReturnedByInvocation = adapter.invoke(mTargetObject,
+					targetParameters);
+			if (mReturnedByInvocation == null) {
+				mVariantToBeReturned = null;
+			} else if (!(mReturnedByInvocation instanceof Variant)) {
+				mVariantToBeReturned = VariantUtilities.objectToVariant(mReturnedByInvocation);
+			} else {
+				mVariantToBeReturned = (Variant) mReturnedByInvocation;
+			}
 		} catch (IllegalArgumentException e) {
 			// we can throw these inside the catch block so need to re-throw it
 			Exception oneWeShouldToss = new IllegalArgumentException(
 					"Unable to map parameters for method " + methodName + ": "
 							+ e.toString());
 			oneWeShouldToss.printStackTrace();
+		} catch (IllegalStateException e) {
+			// a Variant getter was asked for the wrong type
+			Exception oneWeShouldToss = new IllegalArgumentException(
+					"Unable to map parameters for method " + methodName + ": "
+							+ e.toString());
+			oneWeShouldToss.printStackTrace();
 		} catch (IllegalAccessException e) {
 			// can't access the method on the target instance for some reason
 			e.printStackTrace();
 		} catch (InvocationTargetException e) {
 			// invocation of target method failed
 			e.printStackTrace();
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
 		return mVariantToBeReturned;
 
 	}
-
-	/**
-	 * creates a method signature compatible array of classes from an array of
-	 * parameters
-	 * 
-	 * @param parametersAsJavaObjects
-	 * @return
-	 */
-	@SuppressWarnings("unchecked")
-	private Class[] getParametersAsJavaClasses(Object[] parametersAsJavaObjects) {
-		if (parametersAsJavaObjects == null) {
-			throw new IllegalArgumentException(
-					"This only works with an array of parameters");
-		}
-		int numParameters = parametersAsJavaObjects.length;
-		Class parametersAsJavaClasses[] = new Class[numParameters];
-		for (int parameterIndex = 0; parameterIndex < numParameters; parameterIndex++) {
-			Object oneParameterObject = parametersAsJavaObjects[parameterIndex];
-			if (oneParameterObject == null) {
-				parametersAsJavaClasses[parameterIndex] = null;
-			} else {
-				Class oneParameterClass = oneParameterObject.getClass();
-				parametersAsJavaClasses[parameterIndex] = oneParameterClass;
-			}
-		}
-		return parametersAsJavaClasses;
-	}
-
-	/**
-	 * converts an array of Variants to their associated Java types
-	 * 
-	 * @param targetParameters
-	 * @return
-	 */
-	private Object[] getParametersAsJavaObjects(Variant[] targetParameters) {
-		if (targetParameters == null) {
-			throw new IllegalArgumentException(
-					"This only works with an array of parameters");
-		}
-		int numParameters = targetParameters.length;
-		Object parametersAsJavaObjects[] = new Object[numParameters];
-		for (int parameterIndex = 0; parameterIndex < numParameters; parameterIndex++) {
-			Variant oneParameterObject = targetParameters[parameterIndex];
-			if (oneParameterObject == null) {
-				parametersAsJavaObjects[parameterIndex] = null;
-			} else {
-				try {
-					parametersAsJavaObjects[parameterIndex] = oneParameterObject
-							.toJavaObject();
-				} catch (RuntimeException nie) {
-					throw new IllegalArgumentException(
-							"Can't convert parameter " + parameterIndex
-									+ " type " + oneParameterObject.getvt()
-									+ " to java object: " + nie.getMessage());
-				}
-			}
-		}
-		return parametersAsJavaObjects;
-	}
-
 }
@@ -0,0 +1,385 @@
+package org.racob.activeX;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.racob.com.Currency;
+import org.racob.com.Dispatch;
+import org.racob.com.SafeArray;
+import org.racob.com.Variant;
+
+/**
+ * One listener method prepared for an event: the method itself plus a
+ * converter per parameter which unpacks a Variant straight to the declared
+ * type (primitives, their wrappers, String, Date, Dispatch, Variant or
+ * anything toJavaObject() produces).  Adapters are built the first time a
+ * listener class sees an event and are shared by every DispatchEvents
+ * registration using that class, so delivering an event needs no getMethod()
+ * and no Class[].
+ * <p>
+ * When a listener overloads an event with the same number of parameters the
+ * overload whose parameter types best fit the argument types of each event
+ * gets it (an exact type beats a conversion, which beats Variant or String
+ * taking anything).  Equally good overloads are tried in the order of their
+ * parameter type names so the choice does not depend on the JVM.
+ */
+final class EventAdapter {
+    /** Turns one event argument into what the listener method declares */
+    interface Converter {
+        Object convert(Variant variant);
+    }
+
+    /** Overloads of one listener class by event name, indexed by arity */
+    private static final Map<Class<?>, Map<String, EventAdapter[][]>> adapters =
+            new ConcurrentHashMap<Class<?>, Map<String, EventAdapter[][]>>();
+
+    /** The listener has no method at all by that name */
+    private static final EventAdapter[][] NONE = new EventAdapter[0][];
+
+    /** Orders overloads by their parameter type names */
+    private static final Comparator<EventAdapter> BY_PARAMETERS = new Comparator<EventAdapter>() {
+        public int compare(EventAdapter one, EventAdapter other) {
+            return one.signature.compareTo(other.signature);
+        }
+    };
+
+    private final Method method;
+    private final Class<?>[] types;
+    private final String signature;
+    private final Converter[] converters;
+    /** What an empty or null argument becomes (zero for primitives) */
+    private final Object[] empties;
+
+    private EventAdapter(Method method) {
+        this.method = method;
+        types = method.getParameterTypes();
+        StringBuilder names = new StringBuilder();
+        for (Class<?> type : types) {
+            names.append(type.getName()).append(',');
+        }
+        signature = names.toString();
+        converters = new Converter[types.length];
+        empties = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            converters[i] = converterFor(types[i]);
+            empties[i] = emptyValue(types[i]);
+        }
+
+        try {
+            method.setAccessible(true);
+        } catch (SecurityException e) {
+            // invoke will check access each time instead
+        }
+    }
+
+    /**
+     * @return the adapter for event name with these arguments on
+     * listenerClass or null if it has no method which can take them
+     */
+    static EventAdapter forEvent(Class<?> listenerClass, String name, Variant[] arguments) {
+        Map<String, EventAdapter[][]> byName = adapters.get(listenerClass);
+        if (byName == null) {
+            byName = new ConcurrentHashMap<String, EventAdapter[][]>();
+            adapters.put(listenerClass, byName);
+        }
+
+        EventAdapter[][] byArity = byName.get(name);
+        if (byArity == null) {
+            byArity = resolve(listenerClass, name);
+            byName.put(name, byArity);
+        }
+
+        int arity = arguments.length;
+        if (arity >= byArity.length || byArity[arity] == null) return null;
+
+        EventAdapter[] overloads = byArity[arity];
+        if (overloads.length == 1) return overloads[0];
+
+        EventAdapter best = null;
+        int bestFit = 0;
+        for (EventAdapter overload : overloads) {
+            int fit = overload.fit(arguments);
+            if (fit > bestFit) {
+                best = overload;
+                bestFit = fit;
+            }
+        }
+        return best;
+    }
+
+    private static EventAdapter[][] resolve(Class<?> listenerClass, String name) {
+        EventAdapter[][] byArity = NONE;
+
+        for (Method method : listenerClass.getMethods()) {
+            if (!method.getName().equals(name) || Modifier.isStatic(method.getModifiers())) continue;
+
+            int arity = method.getParameterTypes().length;
+            if (arity >= byArity.length) {
+                EventAdapter[][] larger = new EventAdapter[arity + 1][];
+                System.arraycopy(byArity, 0, larger, 0, byArity.length);
+                byArity = larger;
+            }
+
+            EventAdapter[] overloads = byArity[arity];
+            if (overloads == null) {
+                overloads = new EventAdapter[] { new EventAdapter(method) };
+            } else {
+                overloads = Arrays.copyOf(overloads, overloads.length + 1);
+                overloads[overloads.length - 1] = new EventAdapter(method);
+                Arrays.sort(overloads, BY_PARAMETERS);
+            }
+            byArity[arity] = overloads;
+        }
+
+        return byArity;
+    }
+
+    /**
+     * @return how well arguments fit this method's parameters, 0 if one of
+     * them cannot be converted at all
+     */
+    private int fit(Variant[] arguments) {
+        int total = 1;
+        for (int i = 0; i < types.length; i++) {
+            int fit = fit(types[i], arguments[i]);
+            if (fit == 0) return 0;
+            total += fit;
+        }
+        return total;
+    }
+
+    /**
+     * @return 3 if argument already has the type, 2 if it converts, 1 if the
+     * parameter takes anything (or there is no value) and 0 if it does not
+     * convert
+     */
+    private static int fit(Class<?> type, Variant argument) {
+        if (argument == null || argument.isNull() || type == Variant.class) return 1;
+
+        Class<?> natural = argument.isArray() ? SafeArray.class : naturalType(argument.getType());
+        if (natural == null) return type == Object.class ? 1 : 0;
+
+        Class<?> boxed = boxed(type);
+        if (boxed == natural || (type == ActiveXComponent.class && natural == Dispatch.class)) return 3;
+        if (boxed.isAssignableFrom(natural)) return 2;
+        if ((Number.class.isAssignableFrom(boxed) || boxed == Boolean.class || boxed == Character.class) &&
+                (Number.class.isAssignableFrom(natural) || natural == Boolean.class)) return 2;
+        if (boxed == Character.class && natural == String.class) return 2;
+        if (type == String.class) return 1;
+
+        return 0;
+    }
+
+    /**
+     * @return the class toJavaObject() gives for a Variant type or null for
+     * types it cannot convert
+     */
+    private static Class<?> naturalType(short type) {
+        switch (type) {
+            case Variant.VariantShort:
+            case Variant.VariantUnsignedShort:
+                return Short.class;
+            case Variant.VariantInt:
+            case Variant.VariantUnsignedInt:
+                return Integer.class;
+            case Variant.VariantLongInt:
+            case Variant.VariantUnsignedLong:
+                return Long.class;
+            case Variant.VariantFloat:
+                return Float.class;
+            case Variant.VariantDouble:
+                return Double.class;
+            case Variant.VariantByte:
+                return Byte.class;
+            case Variant.VariantBoolean:
+                return Boolean.class;
+            case Variant.VariantCurrency:
+                return Currency.class;
+            case Variant.VariantDecimal:
+                return BigDecimal.class;
+            case Variant.VariantDate:
+                return Date.class;
+            case Variant.VariantString:
+                return String.class;
+            case Variant.VariantDispatch:
+                return Dispatch.class;
+            default:
+                return null;
+        }
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == int.class) return Integer.class;
+        if (type == boolean.class) return Boolean.class;
+        if (type == short.class) return Short.class;
+        if (type == long.class) return Long.class;
+        if (type == double.class) return Double.class;
+        if (type == float.class) return Float.class;
+        if (type == byte.class) return Byte.class;
+
+        return Character.class;
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Convert arguments and call the listener.
+     */
+    Object invoke(Object listener, Variant[] arguments) throws Exception {
+        Object[] values = new Object[converters.length];
+        for (int i = 0; i < converters.length; i++) {
+            Variant argument = arguments[i];
+            values[i] = argument == null || argument.isNull() ? empties[i] : converters[i].convert(argument);
+        }
+
+        return method.invoke(listener, values);
+    }
+
+    static Converter converterFor(Class<?> type) {
+        if (type == Variant.class) return AS_VARIANT;
+        if (type == int.class || type == Integer.class) return AS_INT;
+        if (type == short.class || type == Short.class) return AS_SHORT;
+        if (type == long.class || type == Long.class) return AS_LONG;
+        if (type == double.class || type == Double.class) return AS_DOUBLE;
+        if (type == float.class || type == Float.class) return AS_FLOAT;
+        if (type == byte.class || type == Byte.class) return AS_BYTE;
+        if (type == boolean.class || type == Boolean.class) return AS_BOOLEAN;
+        if (type == char.class || type == Character.class) return AS_CHAR;
+        if (type == String.class) return AS_STRING;
+        if (type == Date.class) return AS_DATE;
+        if (type == Dispatch.class) return AS_DISPATCH;
+        if (type == ActiveXComponent.class) return AS_ACTIVEX;
+
+        return AS_OBJECT;
+    }
+
+    private static Object emptyValue(Class<?> type) {
+        if (!type.isPrimitive()) return null;
+        if (type == boolean.class) return Boolean.FALSE;
+        if (type == int.class) return Integer.valueOf(0);
+        if (type == short.class) return Short.valueOf((short) 0);
+        if (type == long.class) return Long.valueOf(0);
+        if (type == double.class) return Double.valueOf(0);
+        if (type == float.class) return Float.valueOf(0);
+        if (type == byte.class) return Byte.valueOf((byte) 0);
+
+        return Character.valueOf((char) 0);
+    }
+
+    private static Number number(Variant variant) {
+        Object value = variant.toJavaObject();
+        if (value instanceof Number) return (Number) value;
+        if (value instanceof Boolean) return ((Boolean) value).booleanValue() ? -1 : 0;
+
+        throw new IllegalArgumentException("Can't convert " + variant.getvt() + " to a number");
+    }
+
+    // Each reads the Variant directly when it already has the declared type
+    // and only goes through toJavaObject() when it has to coerce.
+
+    private static final Converter AS_VARIANT = new Converter() {
+        public Object convert(Variant variant) {
+            return variant;
+        }
+    };
+
+    private static final Converter AS_INT = new Converter() {
+        public Object convert(Variant variant) {
+            short type = variant.getType();
+            if (type == Variant.VariantInt || type == Variant.VariantShort) return variant.getInt();
+            return number(variant).intValue();
+        }
+    };
+
+    private static final Converter AS_SHORT = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantShort) return variant.getShort();
+            return number(variant).shortValue();
+        }
+    };
+
+    private static final Converter AS_LONG = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantLongInt) return variant.getLong();
+            return number(variant).longValue();
+        }
+    };
+
+    private static final Converter AS_DOUBLE = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantDouble) return variant.getDouble();
+            return number(variant).doubleValue();
+        }
+    };
+
+    private static final Converter AS_FLOAT = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantFloat) return variant.getFloat();
+            return number(variant).floatValue();
+        }
+    };
+
+    private static final Converter AS_BYTE = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantByte) return variant.getByte();
+            return number(variant).byteValue();
+        }
+    };
+
+    private static final Converter AS_BOOLEAN = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantBoolean) return variant.getBoolean();
+            return number(variant).intValue() != 0;
+        }
+    };
+
+    private static final Converter AS_CHAR = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantString) {
+                String value = variant.getString();
+                return value != null && value.length() > 0 ? value.charAt(0) : (char) 0;
+            }
+            return (char) number(variant).intValue();
+        }
+    };
+
+    private static final Converter AS_STRING = new Converter() {
+        public Object convert(Variant variant) {
+            if (variant.getType() == Variant.VariantString) return variant.getString();
+            return String.valueOf(variant.toJavaObject());
+        }
+    };
+
+    private static final Converter AS_DATE = new Converter() {
+        public Object convert(Variant variant) {
+            return variant.getDate();
+        }
+    };
+
+    private static final Converter AS_DISPATCH = new Converter() {
+        public Object convert(Variant variant) {
+            return variant.getDispatch();
+        }
+    };
+
+    private static final Converter AS_ACTIVEX = new Converter() {
+        public Object convert(Variant variant) {
+            return new ActiveXComponent(variant.getDispatch());
+        }
+    };
+
+    private static final Converter AS_OBJECT = new Converter() {
+        public Object convert(Variant variant) {
+            return variant.toJavaObject();
+        }
+    };
+}
@@ -0,0 +1,36 @@
+package org.racob.com;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A fixed set of STA threads for running several independent COM servers
+ * (e.g. one Excel per apartment) side by side instead of queueing them all
+ * behind one STA.
+ * <p>
+ * create() makes the object on the least busy apartment and hands back a
+ * Dispatch pinned there: every call on it, and on any Dispatch it returns, is
+ * run on that apartment no matter which thread makes it.  Tasks submitted to
+ * the pool go to whichever apartment has the fewest tasks queued or running.
+ * Use getUtilisation() to see whether the pool is the right size.
+ */
+public class ApartmentPool extends ComExecutor {
+    public ApartmentPool(int apartments) {
+        super(apartments, "racob-apartment");
+    }
+
+    /**
+     * Create progId on the least busy apartment.
+     *
+     * @return a Dispatch whose calls are all run on the apartment it was
+     * created in
+     */
+    public Dispatch create(final String progId) {
+        if (isShutdown()) throw new IllegalStateException("ApartmentPool has been shut down");
+
+        return leastLoaded().call(new Callable<Dispatch>() {
+            public Dispatch call() {
+                return new Dispatch(progId);
+            }
+        });
+    }
+}
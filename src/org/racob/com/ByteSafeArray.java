@@ -0,0 +1,98 @@
+package org.racob.com;
+
+/**
+ * A SAFEARRAY of bytes (VT_UI1) kept as a byte[] instead of one
+ * Variant per element.  The elements of a multi dimension array are kept
+ * in COM's order, first dimension fastest; get(index) reads that flat order
+ * and get(i, j) uses the array's bounds.
+ */
+public final class ByteSafeArray extends SafeArray {
+    private final byte[] values;
+
+    /**
+     * @param values the elements, which are used as is rather than copied
+     */
+    public ByteSafeArray(byte[] values) {
+        this(values, null, null);
+    }
+
+    /**
+     * @param values the elements with the first dimension varying fastest,
+     * used as is rather than copied
+     * @param lowerBounds lowest index of each dimension
+     * @param extents number of elements along each dimension
+     */
+    public ByteSafeArray(byte[] values, int[] lowerBounds, int[] extents) {
+        if (values == null) throw new IllegalArgumentException("ByteSafeArray needs an array");
+
+        this.values = values;
+        setShape(values.length, lowerBounds, extents);
+    }
+
+    public ByteSafeArray(int length) {
+        this(new byte[length]);
+    }
+
+    @Override
+    public int determinevt() {
+        return Variant.VariantByte;
+    }
+
+    @Override
+    Object getData() {
+        return values;
+    }
+
+    @Override
+    public int length() {
+        return values.length;
+    }
+
+    public byte get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, byte value) {
+        values[index] = value;
+    }
+
+    /**
+     * @return element (i, j) of a two dimension array
+     */
+    public byte get(int i, int j) {
+        return values[offset(i, j)];
+    }
+
+    public void set(int i, int j, byte value) {
+        values[offset(i, j)] = value;
+    }
+
+    @Override
+    Object objectAt(int offset) {
+        return Byte.valueOf(values[offset]);
+    }
+
+    @Override
+    double doubleAt(int offset) {
+        return values[offset] & 0xFF;
+    }
+
+    /**
+     * @return the elements themselves (not a copy)
+     */
+    public byte[] getBytes() {
+        return values;
+    }
+
+    /**
+     * @return the elements each boxed in a new Variant
+     */
+    @Override
+    public Variant[] getValues() {
+        Variant[] variants = new Variant[values.length];
+        for (int i = 0; i < values.length; i++) {
+            variants[i] = new Variant(values[i]);
+        }
+        return variants;
+    }
+}
@@ -0,0 +1,147 @@
+package org.racob.com;
+
+import java.util.Arrays;
+
+/**
+ * A name on a Dispatch resolved ahead of time so the same call can be made
+ * over and over.  The DISPID is looked up once by Dispatch.bind() and the
+ * argument and error buffers are allocated once up front, so invoking it
+ * does not go through GetIDsOfNames, objectsToVariants or allocate an
+ * Object[] for varargs when using the primitive overloads.
+ * <p>
+ * The arguments buffer is reused so like the Dispatch it came from a CallSite
+ * should only be used by one thread at a time.
+ */
+public final class CallSite {
+    /**
+     * Makes the bound call.  This is normally Dispatch.invokeBound(), which
+     * goes straight to Invoke with the DISPID the site already holds.
+     */
+    interface Invoker {
+        public Variant invoke(Dispatch dispatch, String name, int dispID,
+                int flags, Variant[] args, int[] errs);
+    }
+
+    private static final Invoker DISPATCH_INVOKER = new Invoker() {
+        public Variant invoke(Dispatch dispatch, String name, int dispID,
+                int flags, Variant[] args, int[] errs) {
+            return dispatch.invokeBound(name, dispID, flags, args, errs);
+        }
+    };
+
+    private static final Variant[] NO_ARGS = new Variant[0];
+
+    private final Invoker invoker;
+    private final Dispatch dispatch;
+    private final String name;
+    private final int dispID;
+    private final int flags;
+    private final Variant[] args;
+    private final int[] errs = new int[1];
+
+    CallSite(Dispatch dispatch, String name, int dispID, int flags, int arity) {
+        this(DISPATCH_INVOKER, dispatch, name, dispID, flags, arity);
+    }
+
+    CallSite(Invoker invoker, Dispatch dispatch, String name, int dispID,
+            int flags, int arity) {
+        if (arity < 0) throw new IllegalArgumentException("Negative arity: " + arity);
+
+        this.invoker = invoker;
+        this.dispatch = dispatch;
+        this.name = name;
+        this.dispID = dispID;
+        this.flags = flags;
+        this.args = arity == 0 ? NO_ARGS : new Variant[arity];
+    }
+
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDispID() {
+        return dispID;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getArity() {
+        return args.length;
+    }
+
+    public Variant invoke() {
+        checkArity(0);
+        return invokeArgs();
+    }
+
+    public Variant invoke(int a) {
+        checkArity(1);
+        args[0] = new Variant(a);
+        return invokeArgs();
+    }
+
+    public Variant invoke(int a, int b) {
+        checkArity(2);
+        args[0] = new Variant(a);
+        args[1] = new Variant(b);
+        return invokeArgs();
+    }
+
+    public Variant invoke(double a) {
+        checkArity(1);
+        args[0] = new Variant(a);
+        return invokeArgs();
+    }
+
+    public Variant invoke(boolean a) {
+        checkArity(1);
+        args[0] = new Variant(a); // not VT_TRUE/VT_FALSE, which anyone can changeType()
+        return invokeArgs();
+    }
+
+    public Variant invoke(String a) {
+        checkArity(1);
+        args[0] = new Variant(a);
+        return invokeArgs();
+    }
+
+    public Variant invoke(Object... values) {
+        checkArity(values.length);
+        for (int i = 0; i < values.length; i++) {
+            args[i] = VariantUtilities.objectToVariant(values[i]);
+        }
+        return invokeArgs(values);
+    }
+
+    private void checkArity(int count) {
+        if (count != args.length) {
+            throw new IllegalArgumentException(name + " was bound with " +
+                    args.length + " arguments but given " + count);
+        }
+    }
+
+    private Variant invokeArgs() {
+        return invokeArgs(null);
+    }
+
+    /**
+     * @param values the Java arguments if any may be OutParameters
+     */
+    private Variant invokeArgs(Object[] values) {
+        try {
+            Variant result = invoker.invoke(dispatch, name, dispID, flags, args, errs);
+            if (values != null) OutParameter.copyBack(values, args);
+
+            return result;
+        } finally {
+            // Do not hang onto the caller's values between calls
+            Arrays.fill(args, null);
+        }
+    }
+}
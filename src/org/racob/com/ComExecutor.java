@@ -0,0 +1,466 @@
+package org.racob.com;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An ExecutorService whose threads are STAs, so any thread (for example a web
+ * request thread) can hand COM work to apartment threaded components without
+ * managing thread affinity itself.  Each thread pumps Windows messages and
+ * runs queued tasks between them; submitting a task wakes a waiting thread
+ * with a posted message.
+ * <p>
+ * A Dispatch, TypeInfo or EnumVariant made on one of these threads stays
+ * pinned to it (see IUnknown): calls made on it from any other thread are
+ * forwarded to its home thread and wait there for the result.  So a task can
+ * simply return a Dispatch and the thread calling get() uses it as it is.
+ * New tasks go to the thread with the fewest tasks queued
+ * or running.  getUtilisation() shows how busy each thread has been, which
+ * helps size the pool.
+ * <p>
+ * A thread of the executor (or any other STA thread) waiting for a call it
+ * forwarded to another thread keeps pumping messages and running its own
+ * queued tasks, so two apartments calling back into each other do not wait
+ * on each other forever.
+ * <p>
+ * The threads are daemons but shutdown() should still be called so they can
+ * uninitialize COM.
+ */
+public class ComExecutor extends AbstractExecutorService {
+    private final Worker[] workers;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long startedAt = System.nanoTime();
+    private final CountDownLatch terminated;
+    private volatile boolean shutdown = false;
+
+    /**
+     * An executor with a single STA thread.
+     */
+    public ComExecutor() {
+        this(1);
+    }
+
+    public ComExecutor(int threads) {
+        this(threads, "racob-sta");
+    }
+
+    /**
+     * @param threads how many STA threads to run tasks on
+     * @param name prefix for the threads' names
+     */
+    public ComExecutor(int threads, String name) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread: " + threads);
+
+        CountDownLatch started = new CountDownLatch(threads);
+        terminated = new CountDownLatch(threads);
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(name + "-" + i, started);
+            workers[i].start();
+        }
+
+        // Do not hand out the executor until every thread can be woken
+        try {
+            started.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void execute(Runnable task) {
+        if (task == null) throw new NullPointerException();
+        if (shutdown) throw new RejectedExecutionException("ComExecutor has been shut down");
+
+        leastLoaded().enqueue(task);
+    }
+
+    /**
+     * @return the thread with the fewest queued and running tasks, starting
+     * the search at a different thread each time so ties are spread out
+     */
+    Worker leastLoaded() {
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % workers.length;
+        Worker best = workers[start];
+
+        for (int i = 1; i < workers.length && best.depth.get() > 0; i++) {
+            Worker worker = workers[(start + i) % workers.length];
+            if (worker.depth.get() < best.depth.get()) best = worker;
+        }
+
+        return best;
+    }
+
+    /**
+     * @return the executor thread the caller is running on or null
+     */
+    static Worker currentWorker() {
+        Thread thread = Thread.currentThread();
+
+        return thread instanceof Worker ? (Worker) thread : null;
+    }
+
+    /**
+     * @return how many STA threads this executor runs
+     */
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    /**
+     * @return tasks waiting to be run across all threads
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (Worker worker : workers) {
+            size += worker.tasks.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of how busy each thread has been since it started
+     */
+    public Utilisation[] getUtilisation() {
+        long now = System.nanoTime();
+        Utilisation[] utilisation = new Utilisation[workers.length];
+
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            utilisation[i] = new Utilisation(worker.getName(), worker.depth.get(),
+                    worker.completed.get(), worker.busyNanos.get(), now - startedAt);
+        }
+
+        return utilisation;
+    }
+
+    /**
+     * How busy one executor thread has been.
+     */
+    public static final class Utilisation {
+        private final String name;
+        private final int queueDepth;
+        private final long completed;
+        private final long busyNanos;
+        private final long upNanos;
+
+        Utilisation(String name, int queueDepth, long completed, long busyNanos, long upNanos) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.completed = completed;
+            this.busyNanos = busyNanos;
+            this.upNanos = upNanos;
+        }
+
+        public String getThreadName() {
+            return name;
+        }
+
+        /**
+         * @return tasks queued or running on the thread
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getCompletedTasks() {
+            return completed;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        /**
+         * @return fraction (0 to 1) of its life the thread spent running tasks
+         */
+        public double getUtilisation() {
+            return upNanos == 0 ? 0 : (double) busyNanos / upNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + Math.round(getUtilisation() * 100) + "% busy, " +
+                    completed + " done, " + queueDepth + " queued";
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            worker.wake();
+        }
+    }
+
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+
+        List<Runnable> unrun = new ArrayList<Runnable>();
+        for (Worker worker : workers) {
+            Runnable task;
+            while ((task = worker.tasks.poll()) != null) {
+                worker.depth.decrementAndGet();
+                // Forwarded calls are ours; their callers are waiting on them
+                if (task instanceof WakingTask) {
+                    ((WakingTask<?>) task).cancel(false);
+                } else {
+                    unrun.add(task);
+                }
+            }
+            worker.interrupt();
+            worker.wake();
+        }
+        return unrun;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        if (task == null) throw new NullPointerException();
+
+        ComFuture<T> future = new ComFuture<T>(task);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        if (task == null) throw new NullPointerException();
+
+        ComFuture<T> future = new ComFuture<T>(task, result);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return submit(task, null);
+    }
+
+    /**
+     * One STA thread with its own task queue.
+     */
+    final class Worker extends Thread {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        private final CountDownLatch started;
+        private volatile int threadID = 0;
+        private volatile boolean waiting = false;
+        // Set before the final pass over tasks; nothing is queued after it
+        private volatile boolean stopped = false;
+
+        Worker(String name, CountDownLatch started) {
+            super(name);
+            this.started = started;
+            setDaemon(true);
+        }
+
+        /**
+         * @throws RejectedExecutionException if this thread has already made
+         * its final pass over its queue so task would never run
+         */
+        void enqueue(Runnable task) {
+            if (stopped) throw stoppedException();
+
+            depth.incrementAndGet();
+            tasks.offer(task);
+
+            // If stopped was not set yet the final pass will see task.
+            // Otherwise it may have been missed so take it back.
+            if (stopped && tasks.remove(task)) {
+                depth.decrementAndGet();
+                throw stoppedException();
+            }
+            if (waiting) wake();
+        }
+
+        private RejectedExecutionException stoppedException() {
+            return new RejectedExecutionException(getName() + " has stopped");
+        }
+
+        /**
+         * Queue task on this thread without going through the load balancing.
+         */
+        <T> Future<T> submit(Callable<T> task) {
+            FutureTask<T> future = new FutureTask<T>(task);
+            enqueue(future);
+            return future;
+        }
+
+        /**
+         * Run task on this thread and wait for it to finish.  Runs it straight
+         * away if this is the calling thread.  An STA caller keeps pumping
+         * messages (and running its own tasks if it is a Worker) while it
+         * waits.
+         *
+         * @throws RejectedExecutionException if this thread has stopped
+         */
+        <T> T call(Callable<T> task) {
+            try {
+                if (this == Thread.currentThread()) return task.call();
+
+                Worker caller = currentWorker();
+                int callerID = caller != null ? caller.threadID :
+                    ComThread.isSTA() ? STA.currentThreadId() : 0;
+                WakingTask<T> future = new WakingTask<T>(task, callerID);
+                enqueue(future);
+                if (callerID != 0) awaitPumping(future, caller);
+                return future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for " + getName());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) { // only from a Callable run in place
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void wake() {
+            if (threadID != 0) STA.wake(threadID);
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    ComThread.InitSTA();
+                    threadID = STA.currentThreadId();
+                } finally {
+                    started.countDown();
+                }
+
+                try {
+                    loop();
+                } finally {
+                    // anything which slipped in while shutting down
+                    stopped = true;
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        runTask(task);
+                    }
+                    ComThread.Release();
+                }
+            } finally {
+                // COM never started so nothing was run; do not leave anyone waiting
+                stopped = true;
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    depth.decrementAndGet();
+                    if (task instanceof Future) ((Future<?>) task).cancel(false);
+                }
+                terminated.countDown();
+            }
+        }
+
+        private void loop() {
+            while (true) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    runTask(task);
+                    // let COM deliver calls and events between tasks
+                    if (!STA.pumpMessages(0)) return;
+                }
+
+                if (shutdown) return;
+                ROT.releasePending();
+
+                // Set waiting before looking at the queue one last time so a
+                // task enqueued after this look will post a wake up message
+                waiting = true;
+                boolean keepGoing = !tasks.isEmpty() || shutdown || STA.pumpMessages(-1);
+                waiting = false;
+                if (!keepGoing) return;
+            }
+        }
+
+        /**
+         * Wait for future to finish while pumping messages, so COM calls
+         * into this apartment are still dispatched and (on a Worker) tasks
+         * queued for this thread still run.  future wakes us when it is done.
+         */
+        private void awaitPumping(Future<?> future, Worker caller) {
+            boolean quit = false;
+
+            while (!future.isDone()) {
+                if (caller != null) {
+                    Runnable task = caller.tasks.poll();
+                    if (task != null) {
+                        caller.runTask(task);
+                        continue;
+                    }
+                    // Same dance as loop() so a task queued now wakes us
+                    caller.waiting = true;
+                }
+                if (!future.isDone() && (caller == null || caller.tasks.isEmpty())) {
+                    if (!STA.pumpMessages(-1)) quit = true;
+                }
+                if (caller != null) caller.waiting = false;
+            }
+
+            // Our caller's message loop has to see the WM_QUIT we took
+            if (quit) STA.postQuit();
+        }
+
+        private void runTask(Runnable task) {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // Futures catch their own; a plain Runnable must not kill the apartment
+                getUncaughtExceptionHandler().uncaughtException(this, t);
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                completed.incrementAndGet();
+                depth.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A task which wakes the thread waiting for it (if that thread pumps
+     * messages while it waits) once it is done.
+     */
+    private static final class WakingTask<T> extends FutureTask<T> {
+        private final int waiterID;
+
+        WakingTask(Callable<T> task, int waiterID) {
+            super(task);
+            this.waiterID = waiterID;
+        }
+
+        @Override
+        protected void done() {
+            if (waiterID != 0) STA.wake(waiterID);
+        }
+    }
+}
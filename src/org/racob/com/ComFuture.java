@@ -0,0 +1,20 @@
+package org.racob.com;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The Future handed out by ComExecutor.  Results come back as the task
+ * returned them; a Dispatch (or any other IUnknown) made by the task stays
+ * pinned to the executor thread which ran it, so it can be used from the
+ * thread calling get() without marshalling.
+ */
+public class ComFuture<V> extends FutureTask<V> {
+    public ComFuture(Callable<V> callable) {
+        super(callable);
+    }
+
+    public ComFuture(Runnable runnable, V result) {
+        super(runnable, result);
+    }
+}
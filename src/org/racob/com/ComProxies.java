@@ -0,0 +1,516 @@
+package org.racob.com;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed access to a Dispatch through a Java interface:
+ *
+ * <pre>
+ * public interface Dictionary {
+ *     void Add(Object key, Object item);
+ *     boolean Exists(Object key);
+ *     int getCount();
+ * }
+ *
+ * Dictionary dictionary = ComProxies.bind(
+ *         new Dispatch(&quot;Scripting.Dictionary&quot;), Dictionary.class);
+ * </pre>
+ *
+ * Each interface method is matched (ignoring case) to a member of the
+ * object's type: a method of that name, else a property of that name, else
+ * for getX()/isX()/setX(value) the property X.  Every method gets a DISPID
+ * plus a marshaller per parameter and a converter for its result chosen
+ * from the declared Java types, so a call does no name lookups and no
+ * instanceof chains.  Methods returning another interface get the returned
+ * Dispatch bound to that interface.
+ * <p>
+ * The matching is done once per interface and type, using the shared
+ * TypeModel, and kept under Dispatch.typeKey() (the TypeInfo GUID or else
+ * the progId) or the model's GUID when there is no key.  A later bind to a
+ * Dispatch of the same type reuses it without describing the type again.
+ * <p>
+ * Objects without type information are bound through GetIDsOfNames on every
+ * bind(), and only by name or as getX()/setX(value) for property X.  A proxy
+ * is used like the Dispatch behind it: calls are forwarded to its home
+ * apartment if it has one.
+ */
+public final class ComProxies {
+    // INVOKEKIND
+    private static final int INVOKE_FUNC = 1;
+    private static final int INVOKE_PROPERTYGET = 2;
+    private static final int INVOKE_PROPERTYPUT = 4;
+    private static final int INVOKE_PROPERTYPUTREF = 8;
+
+    /** Bindings of each interface by type (Dispatch.typeKey() or model GUID) */
+    private static final Map<Class<?>, Map<Object, Map<Method, Binding>>> bindings =
+            new ConcurrentHashMap<Class<?>, Map<Object, Map<Method, Binding>>>();
+
+    private ComProxies() {
+    }
+
+    /**
+     * @return an implementation of iface which calls dispatch
+     * @throws IllegalArgumentException if iface is not an interface or one of
+     * its methods has no matching member
+     */
+    public static <T> T bind(Dispatch dispatch, Class<T> iface) {
+        if (dispatch == null) throw new IllegalArgumentException("Cannot bind a null Dispatch");
+        if (!iface.isInterface()) throw new IllegalArgumentException(iface.getName() + " is not an interface");
+
+        Object proxy = Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface },
+                new Handler(dispatch, iface, bindingsFor(dispatch, iface)));
+        return iface.cast(proxy);
+    }
+
+    /**
+     * @return the Dispatch behind a proxy made by bind()
+     * @throws IllegalArgumentException if proxy was not made by bind()
+     */
+    public static Dispatch getDispatch(Object proxy) {
+        if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+            if (handler instanceof Handler) return ((Handler) handler).dispatch;
+        }
+
+        throw new IllegalArgumentException(proxy + " was not made by ComProxies.bind()");
+    }
+
+    private static Map<Method, Binding> bindingsFor(Dispatch dispatch, Class<?> iface) {
+        Map<Object, Map<Method, Binding>> byType = bindings.get(iface);
+        if (byType == null) {
+            byType = new ConcurrentHashMap<Object, Map<Method, Binding>>();
+            bindings.put(iface, byType);
+        }
+
+        // The type key is cached by the Dispatch so a hit costs no TypeInfo
+        Object type = dispatch.typeKey();
+        Map<Method, Binding> table = type != null ? byType.get(type) : null;
+        if (table != null) return table;
+
+        TypeModel model = null;
+        try {
+            TypeInfo typeInfo = dispatch.getTypeInfo();
+            if (typeInfo != null) model = typeInfo.getModel();
+        } catch (ComException e) {
+            // No type information so fall back to GetIDsOfNames below
+        }
+
+        if (model == null || model.getGUID() == null) return resolve(iface, dispatch);
+
+        if (type == null) type = model.getGUID();
+        table = byType.get(type);
+        if (table == null) {
+            table = new HashMap<Method, Binding>();
+            for (Method method : iface.getMethods()) {
+                if (method.getDeclaringClass() != Object.class) table.put(method, resolve(method, model));
+            }
+            byType.put(type, table);
+        }
+
+        return table;
+    }
+
+    /**
+     * Match method to a member of the type model describes.
+     */
+    static Binding resolve(Method method, TypeModel model) {
+        String name = method.getName();
+        int arity = method.getParameterTypes().length;
+
+        FuncDesc func = find(model, name, INVOKE_FUNC);
+        if (func == null) func = find(model, name, INVOKE_PROPERTYGET);
+        if (func == null && arity == 0 && name.length() > 3 && name.startsWith("get")) {
+            func = find(model, name.substring(3), INVOKE_PROPERTYGET);
+        }
+        if (func == null && arity == 0 && name.length() > 2 && name.startsWith("is")) {
+            func = find(model, name.substring(2), INVOKE_PROPERTYGET);
+        }
+        if (func == null && arity >= 1 && name.length() > 3 && name.startsWith("set")) {
+            func = find(model, name.substring(3), INVOKE_PROPERTYPUT);
+            if (func == null) func = find(model, name.substring(3), INVOKE_PROPERTYPUTREF);
+        }
+        if (func == null) {
+            throw new IllegalArgumentException(method.getDeclaringClass().getName() + "." + name +
+                    " has no matching member in " + model.getGUID());
+        }
+
+        String member = model.getNames(func.getMemid())[0];
+        return new Binding(method, member, func.getMemid(), flagsFor(func.getInvkind()));
+    }
+
+    private static FuncDesc find(TypeModel model, String name, int invkind) {
+        for (int i = 0; i < model.getFuncsCount(); i++) {
+            FuncDesc func = model.getFuncDesc(i);
+            if (func == null || func.getInvkind() != invkind) continue;
+
+            String[] names = model.getNames(func.getMemid());
+            if (names != null && names.length > 0 && names[0].equalsIgnoreCase(name)) return func;
+        }
+
+        return null;
+    }
+
+    private static int flagsFor(int invkind) {
+        switch (invkind) {
+            case INVOKE_PROPERTYGET: return Dispatch.Get;
+            case INVOKE_PROPERTYPUT: return Dispatch.Put;
+            case INVOKE_PROPERTYPUTREF: return Dispatch.PutRef;
+            default: return Dispatch.MGet;
+        }
+    }
+
+    /**
+     * Bindings for an object without type information, made through
+     * GetIDsOfNames and not shared.
+     */
+    private static Map<Method, Binding> resolve(Class<?> iface, Dispatch dispatch) {
+        Map<Method, Binding> table = new HashMap<Method, Binding>();
+
+        for (Method method : iface.getMethods()) {
+            if (method.getDeclaringClass() == Object.class) continue;
+
+            String name = method.getName();
+            int arity = method.getParameterTypes().length;
+            String member = name;
+            int dispID;
+            int flags = Dispatch.MGet;
+            try {
+                dispID = dispatch.getIDOfName(name);
+            } catch (ComException e) {
+                // Not a member of that name so try it as a property accessor
+                if (arity == 0 && name.length() > 3 && name.startsWith("get")) {
+                    flags = Dispatch.Get;
+                } else if (arity >= 1 && name.length() > 3 && name.startsWith("set")) {
+                    flags = Dispatch.Put;
+                } else {
+                    throw e;
+                }
+                member = name.substring(3);
+                dispID = dispatch.getIDOfName(member);
+            }
+            table.put(method, new Binding(method, member, dispID, flags));
+        }
+
+        return table;
+    }
+
+    /** Turns one argument into a Variant knowing its declared type */
+    interface Marshaller {
+        Variant toVariant(Object value);
+    }
+
+    /** Turns the result Variant into the declared return type */
+    interface Converter {
+        Object fromVariant(Variant variant);
+    }
+
+    /**
+     * An interface method resolved to a member: everything a call needs
+     * except the arguments.
+     */
+    static final class Binding {
+        final String name;
+        final int dispID;
+        final int flags;
+        final Marshaller[] marshallers;
+        final Converter result;
+
+        /**
+         * @param name of the member, for error messages
+         */
+        Binding(Method method, String name, int dispID, int flags) {
+            this.name = name;
+            this.dispID = dispID;
+            this.flags = flags;
+
+            Class<?>[] types = method.getParameterTypes();
+            marshallers = new Marshaller[types.length];
+            for (int i = 0; i < types.length; i++) {
+                marshallers[i] = marshallerFor(types[i]);
+            }
+            result = converterFor(method.getReturnType());
+        }
+
+        Variant invoke(Dispatch dispatch, Object[] args) {
+            Variant[] variants = Dispatch.NO_VARIANT_ARGS;
+            if (args != null && args.length > 0) {
+                variants = new Variant[args.length];
+                for (int i = 0; i < args.length; i++) {
+                    variants[i] = marshallers[i].toVariant(args[i]);
+                }
+            }
+
+            Variant value = dispatch.invokeBound(name, dispID, flags, variants, new int[1]);
+            if (args != null) OutParameter.copyBack(args, variants);
+
+            return value;
+        }
+    }
+
+    private static final class Handler implements InvocationHandler {
+        final Dispatch dispatch;
+        private final Class<?> iface;
+        private final Map<Method, Binding> table;
+
+        Handler(Dispatch dispatch, Class<?> iface, Map<Method, Binding> table) {
+            this.dispatch = dispatch;
+            this.iface = iface;
+            this.table = table;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Binding binding = table.get(method);
+
+            if (binding == null) {
+                String name = method.getName();
+                if (name.equals("equals")) return proxy == args[0];
+                if (name.equals("hashCode")) return System.identityHashCode(proxy);
+                if (name.equals("toString")) return iface.getName() + " on " + dispatch;
+                throw new IllegalStateException("No binding for " + method);
+            }
+
+            return binding.result.fromVariant(binding.invoke(dispatch, args));
+        }
+    }
+
+    static Marshaller marshallerFor(Class<?> type) {
+        if (type == Variant.class) return AS_IS;
+        if (type == int.class || type == Integer.class) return FROM_INT;
+        if (type == short.class || type == Short.class) return FROM_SHORT;
+        if (type == double.class || type == Double.class) return FROM_DOUBLE;
+        if (type == float.class || type == Float.class) return FROM_FLOAT;
+        if (type == byte.class || type == Byte.class) return FROM_BYTE;
+        if (type == boolean.class || type == Boolean.class) return FROM_BOOLEAN;
+        if (type == String.class) return FROM_STRING;
+        if (type == Date.class) return FROM_DATE;
+        if (type == BigDecimal.class) return FROM_DECIMAL;
+        if (Dispatch.class.isAssignableFrom(type)) return FROM_DISPATCH;
+        if (type.isInterface() && type.getName().startsWith("java.")) return FROM_OBJECT;
+        if (type.isInterface()) return FROM_PROXY;
+
+        return FROM_OBJECT;
+    }
+
+    static Converter converterFor(final Class<?> type) {
+        if (type == void.class) return TO_VOID;
+        if (type == Variant.class) return TO_VARIANT;
+        if (type == int.class) return TO_INT;
+        if (type == Integer.class) return nullable(TO_INT);
+        if (type == short.class) return TO_SHORT;
+        if (type == Short.class) return nullable(TO_SHORT);
+        if (type == long.class) return TO_LONG;
+        if (type == Long.class) return nullable(TO_LONG);
+        if (type == double.class) return TO_DOUBLE;
+        if (type == Double.class) return nullable(TO_DOUBLE);
+        if (type == float.class) return TO_FLOAT;
+        if (type == Float.class) return nullable(TO_FLOAT);
+        if (type == byte.class) return TO_BYTE;
+        if (type == Byte.class) return nullable(TO_BYTE);
+        if (type == boolean.class) return TO_BOOLEAN;
+        if (type == Boolean.class) return nullable(TO_BOOLEAN);
+        if (type == String.class) return nullable(TO_STRING);
+        if (type == Dispatch.class) return nullable(TO_DISPATCH);
+        if (type.isInterface() && !type.getName().startsWith("java.")) {
+            return nullable(new Converter() {
+                public Object fromVariant(Variant variant) {
+                    return bind(variant.getDispatch(), type);
+                }
+            });
+        }
+
+        return nullable(new Converter() {
+            public Object fromVariant(Variant variant) {
+                return type.cast(variant.toJavaObject());
+            }
+        });
+    }
+
+    /**
+     * @return converter which gives null for an empty result
+     */
+    private static Converter nullable(final Converter converter) {
+        return new Converter() {
+            public Object fromVariant(Variant variant) {
+                return variant == null || variant.isNull() ? null : converter.fromVariant(variant);
+            }
+        };
+    }
+
+    private static Number number(Variant variant) {
+        if (variant == null || variant.isNull()) return Integer.valueOf(0);
+
+        Object value = variant.toJavaObject();
+        if (value instanceof Number) return (Number) value;
+        if (value instanceof Boolean) return ((Boolean) value).booleanValue() ? -1 : 0;
+
+        throw new IllegalStateException("Can't convert " + variant.getType() + " to a number");
+    }
+
+    // Marshallers: a null argument becomes an empty Variant like it does for
+    // Dispatch.call()
+
+    private static final Marshaller AS_IS = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : (Variant) value;
+        }
+    };
+
+    private static final Marshaller FROM_INT = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant(((Integer) value).intValue());
+        }
+    };
+
+    private static final Marshaller FROM_SHORT = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant(((Short) value).shortValue());
+        }
+    };
+
+    private static final Marshaller FROM_DOUBLE = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant(((Double) value).doubleValue());
+        }
+    };
+
+    private static final Marshaller FROM_FLOAT = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant(((Float) value).floatValue());
+        }
+    };
+
+    private static final Marshaller FROM_BYTE = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant(((Byte) value).byteValue());
+        }
+    };
+
+    private static final Marshaller FROM_BOOLEAN = new Marshaller() {
+        public Variant toVariant(Object value) {
+            if (value == null) return new Variant();
+            // Fresh each time: VT_TRUE and VT_FALSE are shared and mutable
+            return new Variant(((Boolean) value).booleanValue());
+        }
+    };
+
+    private static final Marshaller FROM_STRING = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant((String) value);
+        }
+    };
+
+    private static final Marshaller FROM_DATE = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant((Date) value);
+        }
+    };
+
+    private static final Marshaller FROM_DECIMAL = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant((BigDecimal) value);
+        }
+    };
+
+    private static final Marshaller FROM_DISPATCH = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant((Dispatch) value);
+        }
+    };
+
+    /** Another bound interface is passed as the Dispatch behind it */
+    private static final Marshaller FROM_PROXY = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return value == null ? new Variant() : new Variant(getDispatch(value));
+        }
+    };
+
+    private static final Marshaller FROM_OBJECT = new Marshaller() {
+        public Variant toVariant(Object value) {
+            return VariantUtilities.objectToVariant(value);
+        }
+    };
+
+    // Converters: each reads the Variant directly when it already has the
+    // declared type and only goes through toJavaObject() to coerce
+
+    private static final Converter TO_VOID = new Converter() {
+        public Object fromVariant(Variant variant) {
+            return null;
+        }
+    };
+
+    private static final Converter TO_VARIANT = new Converter() {
+        public Object fromVariant(Variant variant) {
+            return variant;
+        }
+    };
+
+    private static final Converter TO_INT = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant != null && variant.getType() == Variant.VariantInt) return variant.getInt();
+            return number(variant).intValue();
+        }
+    };
+
+    private static final Converter TO_SHORT = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant != null && variant.getType() == Variant.VariantShort) return variant.getShort();
+            return number(variant).shortValue();
+        }
+    };
+
+    private static final Converter TO_LONG = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant != null && variant.getType() == Variant.VariantLongInt) return variant.getLong();
+            return number(variant).longValue();
+        }
+    };
+
+    private static final Converter TO_DOUBLE = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant != null && variant.getType() == Variant.VariantDouble) return variant.getDouble();
+            return number(variant).doubleValue();
+        }
+    };
+
+    private static final Converter TO_FLOAT = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant != null && variant.getType() == Variant.VariantFloat) return variant.getFloat();
+            return number(variant).floatValue();
+        }
+    };
+
+    private static final Converter TO_BYTE = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant != null && variant.getType() == Variant.VariantByte) return variant.getByte();
+            return number(variant).byteValue();
+        }
+    };
+
+    private static final Converter TO_BOOLEAN = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant != null && variant.getType() == Variant.VariantBoolean) return variant.getBoolean();
+            return number(variant).intValue() != 0;
+        }
+    };
+
+    private static final Converter TO_STRING = new Converter() {
+        public Object fromVariant(Variant variant) {
+            if (variant.getType() == Variant.VariantString) return variant.getString();
+            return String.valueOf(variant.toJavaObject());
+        }
+    };
+
+    private static final Converter TO_DISPATCH = new Converter() {
+        public Object fromVariant(Variant variant) {
+            return variant.getDispatch();
+        }
+    };
+}
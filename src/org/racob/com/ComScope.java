@@ -0,0 +1,138 @@
+package org.racob.com;
+
+import java.io.Closeable;
+
+/**
+ * Releases every COM object created on this thread while it is open in one
+ * pass when it is closed.  Objects made inside a scope are not tracked by the
+ * ROT with weak references at all, which is cheaper for request-scoped work
+ * that makes many short-lived Dispatches and Variants:
+ * <pre>
+ *     ComScope scope = ComScope.open();
+ *     try {
+ *         Dispatch workbook = ...;
+ *         ...
+ *     } finally {
+ *         scope.close();
+ *     }
+ * </pre>
+ * Anything which has to outlive the scope must be passed to promote() before
+ * the scope closes.  Scopes nest; the innermost open scope gets the objects.
+ * A scope belongs to the thread which opened it.
+ */
+public final class ComScope implements Closeable {
+    private final ROT.Apartment apartment;
+    private final ComScope parent;
+    private Pointer[] pointers = new Pointer[32];
+    private int size = 0;
+    private boolean closed = false;
+
+    private ComScope(ROT.Apartment apartment) {
+        this.apartment = apartment;
+        this.parent = apartment.scope;
+    }
+
+    /**
+     * Open a scope on the current thread (joining it to an apartment first if
+     * need be).
+     */
+    public static ComScope open() {
+        ROT.Apartment apartment = ROT.currentApartment();
+        ComScope scope = new ComScope(apartment);
+        apartment.scope = scope;
+
+        return scope;
+    }
+
+    /**
+     * @return the innermost open scope of the current thread or null
+     */
+    public static ComScope current() {
+        ROT.Apartment apartment = ROT.peekApartment();
+
+        return apartment != null ? apartment.scope : null;
+    }
+
+    ComScope parent() {
+        return parent;
+    }
+
+    void add(Pointer pointer) {
+        if (size == pointers.length) {
+            Pointer[] larger = new Pointer[size * 2];
+            System.arraycopy(pointers, 0, larger, 0, size);
+            pointers = larger;
+        }
+        pointers[size++] = pointer;
+    }
+
+    /**
+     * Let object outlive this scope.  It moves to the enclosing scope or if
+     * there is none back to the ROT as if it had been made outside any scope.
+     *
+     * @return object to allow chaining
+     * @throws IllegalArgumentException if object was not made in this scope
+     */
+    public <T extends IUnknown> T promote(T object) {
+        checkOwner();
+
+        // Most promotions are of something just made so look from the end
+        for (int i = size - 1; i >= 0; i--) {
+            if (pointers[i] == object.pointer) {
+                System.arraycopy(pointers, i + 1, pointers, i, size - i - 1);
+                pointers[--size] = null;
+
+                if (parent != null) {
+                    parent.add(object.pointer);
+                } else {
+                    ROT.track(apartment, object);
+                }
+                return object;
+            }
+        }
+
+        throw new IllegalArgumentException("Object was not created in this scope");
+    }
+
+    /**
+     * @return how many objects will be released when this closes
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Release every object still in this scope (newest first) and close any
+     * scopes opened inside it which are still open.  Closing twice does
+     * nothing.
+     */
+    public void close() {
+        if (closed) return;
+        checkOwner();
+
+        while (apartment.scope != this) {
+            apartment.scope.close();
+        }
+
+        closed = true;
+        apartment.scope = parent;
+        for (int i = size - 1; i >= 0; i--) {
+            pointers[i].safeRelease();
+            pointers[i] = null;
+        }
+        apartment.released += size;
+        size = 0;
+    }
+
+    private void checkOwner() {
+        if (apartment.thread != Thread.currentThread()) {
+            throw new IllegalStateException("ComScope belongs to " +
+                    apartment.thread.getName());
+        }
+        if (closed) throw new IllegalStateException("ComScope is closed");
+    }
+}
@@ -19,37 +19,69 @@
  */
 package org.racob.com;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Represents a COM level thread This is an abstract class because all the
  * methods are static and no instances are ever created.
+ * <p>
+ * None of these methods lock: each thread keeps its own apartment state and
+ * the MainSTA is claimed with a compare and set, so threads starting up do not
+ * wait for each other while they call CoInitializeEx.  Only threads asking
+ * for the MainSTA while another one is starting it wait, on a latch.
  */
 public abstract class ComThread {
 	private static final int MTA = 0x0;
 
 	private static final int STA = 0x2;
 
+	private static final int NO_MAIN_STA = 0;
+	private static final int RUNNING_MAIN_STA = 1;
+
 	/**
 	 * Comment for <code>haveSTA</code>
 	 */
-	public static boolean haveSTA = false;
+	public static volatile boolean haveSTA = false;
 
 	/**
 	 * Comment for <code>mainSTA</code>
 	 */
-	public static MainSTA mainSTA = null;
+	public static volatile MainSTA mainSTA = null;
+
+	private static final AtomicInteger mainSTAState = new AtomicInteger(NO_MAIN_STA);
+
+	/**
+	 * Set while a thread is starting the MainSTA and counted down once it
+	 * has finished trying
+	 */
+	private static final AtomicReference<CountDownLatch> mainSTAStarting =
+			new AtomicReference<CountDownLatch>();
+
+	/**
+	 * How many times the current thread has initialized COM without
+	 * releasing it and the mode it was first initialized with
+	 */
+	private static final ThreadLocal<int[]> initCount = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[2];
+		}
+	};
 
 	/**
 	 * Initialize the current java thread to be part of the Multi-threaded COM
 	 * Apartment
 	 */
-	public static synchronized void InitMTA() {
+	public static void InitMTA() {
 		InitMTA(false);
 	}
 
 	/**
 	 * Initialize the current java thread to be an STA
 	 */
-	public static synchronized void InitSTA() {
+	public static void InitSTA() {
 		InitSTA(false);
 	}
 
@@ -60,7 +92,7 @@ public abstract class ComThread {
 	 * 
 	 * @param createMainSTA
 	 */
-	public static synchronized void InitMTA(boolean createMainSTA) {
+	public static void InitMTA(boolean createMainSTA) {
 		Init(createMainSTA, MTA);
 	}
 
@@ -71,24 +103,65 @@ public abstract class ComThread {
 	 * 
 	 * @param createMainSTA
 	 */
-	public static synchronized void InitSTA(boolean createMainSTA) {
+	public static void InitSTA(boolean createMainSTA) {
 		Init(createMainSTA, STA);
 	}
 
 	/**
-	 * 
+	 * Start the MainSTA unless it is already running.  If another thread is
+	 * starting it this waits until it has.
 	 */
-	public static synchronized void startMainSTA() {
-		mainSTA = new MainSTA();
-		haveSTA = true;
+	public static void startMainSTA() {
+		CountDownLatch started = new CountDownLatch(1);
+
+		while (mainSTAState.get() != RUNNING_MAIN_STA) {
+			if (mainSTAStarting.compareAndSet(null, started)) {
+				try {
+					if (mainSTAState.get() != RUNNING_MAIN_STA) {
+						mainSTA = new MainSTA();
+						haveSTA = true;
+						mainSTAState.set(RUNNING_MAIN_STA);
+					}
+				} finally {
+					mainSTAStarting.set(null);
+					started.countDown();
+				}
+				return;
+			}
+
+			CountDownLatch starting = mainSTAStarting.get();
+			if (starting != null) {
+				awaitUninterruptibly(starting);
+				return;
+			}
+		}
+	}
+
+	private static void awaitUninterruptibly(CountDownLatch latch) {
+		boolean interrupted = false;
+
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) Thread.currentThread().interrupt();
 	}
 
 	/**
-	 * 
+	 * Stop the MainSTA if it is running.  It can be started again afterwards.
 	 */
-	public static synchronized void quitMainSTA() {
-		if (mainSTA != null)
-			mainSTA.quit();
+	public static void quitMainSTA() {
+		MainSTA sta = mainSTA;
+
+		if (sta != null && mainSTAState.compareAndSet(RUNNING_MAIN_STA, NO_MAIN_STA)) {
+			haveSTA = false;
+			sta.quit();
+		}
 	}
 
 	/**
@@ -98,7 +171,7 @@ public abstract class ComThread {
 	 * @param createMainSTA
 	 * @param mode
 	 */
-	public static synchronized void Init(boolean createMainSTA, int mode) {
+	public static void Init(boolean createMainSTA, int mode) {
 		if (createMainSTA && !haveSTA) {
 			// if the current thread is going to be in the MTA and there
 			// is no STA thread yet, then create a main STA thread
@@ -109,28 +182,57 @@ public abstract class ComThread {
 			IUnknown.debug("ComThread: before Init: " + mode);
 		}
 		doCoInitialize(mode);
+		int[] count = initCount.get();
+		if (count[0]++ == 0) count[1] = mode;
 		if (IUnknown.isDebugEnabled()) {
 			IUnknown.debug("ComThread: after Init: " + mode);
 		}
 	}
 
 	/**
-	 * Call CoUninitialize to release this java thread from COM
+	 * @return true if the current thread has initialized COM and not yet
+	 * released it
 	 */
-	public static synchronized void Release() {
+	public static boolean isInitialized() {
+		return initCount.get()[0] > 0;
+	}
+
+	/**
+	 * @return true if the current thread is initialized as an STA (so it has
+	 * a message queue)
+	 */
+	static boolean isSTA() {
+		int[] count = initCount.get();
+
+		return count[0] > 0 && count[1] == STA;
+	}
+
+	/**
+	 * Call CoUninitialize to release this java thread from COM.  If the ROT
+	 * initialized COM for this thread when its first object was made, that
+	 * is undone as well once the thread's own Init has been.
+	 */
+	public static void Release() {
 		if (IUnknown.isDebugEnabled()) {
 			IUnknown.debug("ComThread: before clearObjects");
 		}
-		ROT.clearObjects();
+		boolean joinedByROT = ROT.clearObjects();
 		if (IUnknown.isDebugEnabled()) {
 			IUnknown.debug("ComThread: before UnInit");
 		}
-		doCoUninitialize();
+		uninitialize();
+		if (joinedByROT && isInitialized()) uninitialize();
 		if (IUnknown.isDebugEnabled()) {
 			IUnknown.debug("ComThread: after UnInit");
 		}
 	}
 
+	private static void uninitialize() {
+		doCoUninitialize();
+		int[] count = initCount.get();
+		if (count[0] > 0) count[0]--;
+	}
+
 	/**
 	 * @param threadModel
 	 */
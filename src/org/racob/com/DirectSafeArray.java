@@ -0,0 +1,176 @@
+package org.racob.com;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * A single dimension SAFEARRAY of bytes (VT_UI1) which stays in native memory
+ * and is read and written through a direct ByteBuffer, so large blobs
+ * (images, ADO Stream reads, file contents) are never copied into the Java
+ * heap.
+ * <p>
+ * Only Dispatch.callDirect() hands these out, for a byte array result at
+ * least as long as it was asked for; every other call copies byte arrays
+ * into a ByteSafeArray.  The array keeps the lower bound COM gave it.
+ * allocate() makes one to fill in and pass as an argument; a Dispatch call
+ * is lent the array itself rather than a copy.  Anywhere else (event
+ * results, elements of a Variant array, by-ref arguments the callee may
+ * replace) gets a copy.
+ * <p>
+ * The array is locked for as long as it is open and close() unlocks and
+ * destroys it.  Nothing else frees it.  The accessors are synchronized with
+ * close(), and closing while a call has the array lent only destroys it once
+ * the call is done.  The ByteBuffer itself is not guarded and must not be
+ * touched once the array is closed.
+ */
+public final class DirectSafeArray extends SafeArray implements Closeable {
+    /** The SAFEARRAY or 0 once closed (guarded by this) */
+    private int handle;
+    /** Calls the array is lent to right now (guarded by this) */
+    private int lent = 0;
+    /** What close() left for the last giveBack() to destroy */
+    private int closedWhileLent = 0;
+    private final ByteBuffer buffer;
+
+    /**
+     * Called by the native layer with an array it has locked and a buffer
+     * over its data.
+     */
+    DirectSafeArray(int handle, int lowerBound, ByteBuffer buffer) {
+        this.handle = handle;
+        this.buffer = buffer;
+        setShape(buffer.capacity(), new int[] { lowerBound }, new int[] { buffer.capacity() });
+    }
+
+    /**
+     * @return a new zeroed array of length bytes
+     */
+    public static DirectSafeArray allocate(int length) {
+        if (length < 0) throw new IllegalArgumentException("DirectSafeArray length cannot be negative: " + length);
+
+        // The native side builds it with what Variant looks up at startup
+        LibraryLoader.loadLibrary();
+        Variant.initialize();
+        return allocateArray(length);
+    }
+
+    private static native DirectSafeArray allocateArray(int length);
+
+    private static native void destroy(int handle);
+
+    /**
+     * @return the array's memory, valid until close()
+     */
+    public synchronized ByteBuffer asByteBuffer() {
+        checkOpen();
+        return buffer;
+    }
+
+    public synchronized boolean isOpen() {
+        return handle != 0;
+    }
+
+    /**
+     * Unlock and destroy the array, or leave that to the call it is lent to.
+     * Closing twice does nothing.
+     */
+    public synchronized void close() {
+        int pointer = handle;
+        handle = 0;
+        if (pointer == 0) return;
+
+        if (lent > 0) {
+            closedWhileLent = pointer;
+        } else {
+            destroy(pointer);
+        }
+    }
+
+    private void checkOpen() {
+        if (handle == 0) throw new IllegalStateException("DirectSafeArray is closed");
+    }
+
+    /**
+     * Called by the native layer to lend the array to a call.
+     */
+    @Override
+    synchronized int lend() {
+        checkOpen();
+        lent++;
+        return handle;
+    }
+
+    @Override
+    synchronized void giveBack() {
+        if (--lent == 0 && closedWhileLent != 0) {
+            destroy(closedWhileLent);
+            closedWhileLent = 0;
+        }
+    }
+
+    @Override
+    public int determinevt() {
+        return Variant.VariantByte;
+    }
+
+    @Override
+    public int length() {
+        return buffer.capacity();
+    }
+
+    public synchronized byte get(int index) {
+        checkOpen();
+        return buffer.get(index);
+    }
+
+    public synchronized void set(int index, byte value) {
+        checkOpen();
+        buffer.put(index, value);
+    }
+
+    /**
+     * @return a copy of the elements on the Java heap
+     */
+    public synchronized byte[] getBytes() {
+        checkOpen();
+        byte[] bytes = new byte[buffer.capacity()];
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    synchronized SafeArray rows(int first, int count) {
+        checkOpen();
+        byte[] bytes = new byte[count];
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.position(first);
+        view.get(bytes);
+        return new ByteSafeArray(bytes, rowBounds(first), rowExtents(count));
+    }
+
+    @Override
+    Object objectAt(int offset) {
+        return Byte.valueOf(get(offset));
+    }
+
+    @Override
+    double doubleAt(int offset) {
+        return get(offset) & 0xFF;
+    }
+
+    /**
+     * @return the elements each boxed in a new Variant
+     */
+    @Override
+    public synchronized Variant[] getValues() {
+        checkOpen();
+        Variant[] variants = new Variant[buffer.capacity()];
+        for (int i = 0; i < variants.length; i++) {
+            variants[i] = new Variant(buffer.get(i));
+        }
+        return variants;
+    }
+}
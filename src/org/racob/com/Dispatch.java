@@ -19,10 +19,17 @@
  */
 package org.racob.com;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Object which represents a *live* IDispatch structure.
+ * <p>
+ * A Dispatch made on a ComExecutor thread is pinned to it: calls made from any
+ * other thread are run on that thread and the caller waits for the result
+ * (see IUnknown).
  */
-public class Dispatch extends IUnknown {
+public class Dispatch extends IUnknown implements DispatchIdCache.Resolver {
     public static final int LOCALE_SYSTEM_DEFAULT = 2048;
     public static final int LSD = LOCALE_SYSTEM_DEFAULT;
 
@@ -38,6 +45,31 @@ public class Dispatch extends IUnknown {
     private final static int[] NO_INT_ARGS = new int[0];
     public final static Variant[] NO_VARIANT_ARGS = new Variant[0];
 
+    private static final int DISPID_UNKNOWN = -1;
+    /** Every array result is copied into Java */
+    private static final int NO_STREAMING = -1;
+    /** Every byte array result is copied into Java */
+    private static final int NO_DIRECT = -1;
+    private static final int DISP_E_MEMBERNOTFOUND = 0x80020003;
+
+    /** DISPIDs of names shared by all Dispatches of the same type */
+    private static final DispatchIdCache idCache = new DispatchIdCache();
+    private static final boolean USE_ID_CACHE;
+
+    static {
+        String cache = System.getProperty("org.racob.dispid_cache");
+        USE_ID_CACHE = cache == null || !cache.equalsIgnoreCase("false");
+    }
+
+    /** Marks a Dispatch whose type cannot be identified (so is not cached) */
+    private static final Object NO_TYPE_KEY = new Object();
+
+    /** Identity of our type for the DISPID cache (lazily looked up) */
+    private Object typeKey = null;
+
+    /** Name lookups made before our type was identified */
+    private final AtomicInteger unkeyedLookups = new AtomicInteger();
+
     /**
      * zero argument constructor that sets the dispatch pointer to 0 This is the
      * only way to create a Dispatch without a value in the pointer field.
@@ -77,7 +109,9 @@ public class Dispatch extends IUnknown {
      * @param dispatchToBeDisplaced
      */
     public Dispatch(Dispatch dispatchToBeDisplaced) {
-        super(dispatchToBeDisplaced.pointer.get()); // TAKE OVER THE IDispatch POINTER
+        // TAKE OVER THE IDispatch POINTER IN THE SAME APARTMENT
+        super(dispatchToBeDisplaced.pointer.get(), dispatchToBeDisplaced.home);
+        typeKey = dispatchToBeDisplaced.typeKey; // SAME OBJECT SO SAME TYPE
         dispatchToBeDisplaced.pointer.invalidate(); // NULL OUT THE INPUT POINTER
     }
     
@@ -125,12 +159,28 @@ public class Dispatch extends IUnknown {
      * @param id is {xxxx-xxxx-xxxx-xxx} format id
      * @return Dispatch a new dispatch object based on new interface
      */
-    public Dispatch queryInterface(String id) {
+    public Dispatch queryInterface(final String id) {
+        if (isForeign()) {
+            return home.call(new Callable<Dispatch>() {
+                public Dispatch call() {
+                    return queryInterface(id);
+                }
+            });
+        }
+
         return queryInterface(pointer.get(), id);
     }
     private native Dispatch queryInterface(int pointer, String iid);
 
     public TypeInfo getTypeInfo() {
+        if (isForeign()) {
+            return home.call(new Callable<TypeInfo>() {
+                public TypeInfo call() {
+                    return getTypeInfo();
+                }
+            });
+        }
+
         return getTypeInfo(pointer.get());
     }
     private native TypeInfo getTypeInfo(int pointer);
@@ -149,32 +199,312 @@ public class Dispatch extends IUnknown {
         return VariantUtilities.objectsToVariants(args);
     }
 
+    /**
+     * @return the cache which name-based calls get their DISPIDs from
+     */
+    public static DispatchIdCache getDispatchIdCache() {
+        return idCache;
+    }
+
+    /**
+     * Identity of this Dispatch's type for the DISPID cache and ComProxies:
+     * the GUID of its TypeInfo or failing that the progId it was created
+     * from.  Looked up once per Dispatch.
+     *
+     * @return the key or null if this type cannot be identified
+     */
+    Object typeKey() {
+        if (typeKey == null && isForeign()) {
+            return home.call(new Callable<Object>() {
+                public Object call() {
+                    return typeKey();
+                }
+            });
+        }
+
+        if (typeKey == null) {
+            Object key = getTypeGUID(livePointer());
+            if (key == null) key = programId;
+            typeKey = key != null ? key : NO_TYPE_KEY;
+        }
+
+        return typeKey == NO_TYPE_KEY ? null : typeKey;
+    }
+    private static native String getTypeGUID(int pointer);
+
+    /**
+     * The first name lookup on a Dispatch is left to native code.  Many
+     * Dispatches (e.g. those returned while walking an object model) are only
+     * called once and identifying their type would cost more native calls
+     * than the cache saves.  From the second lookup on the type is identified
+     * and the cache is used.
+     *
+     * @return cached DISPID for name or DISPID_UNKNOWN if native code should
+     * look it up itself
+     */
+    private int cachedIDOfName(String name, int lcid) {
+        if (!USE_ID_CACHE) return DISPID_UNKNOWN;
+        if (typeKey == null && unkeyedLookups.getAndIncrement() == 0) return DISPID_UNKNOWN;
+
+        Object type = typeKey();
+        if (type == null) return DISPID_UNKNOWN;
+
+        return idCache.getIDOfName(type, name, lcid, this);
+    }
+
+    /**
+     * A cached DISPID which the object no longer knows about is dropped from
+     * the cache so the caller can retry with a fresh lookup.
+     */
+    private boolean isStale(ComException e, String name, int dispID, int lcid) {
+        if (dispID == DISPID_UNKNOWN || e.getHResult() != DISP_E_MEMBERNOTFOUND) return false;
+
+        idCache.invalidate(typeKey(), name, lcid);
+        return true;
+    }
+
+    /**
+     * Every invocation ends up here.  Name-based calls get their DISPID from
+     * the cache and only fall back to GetIDsOfNames on a miss.
+     */
+    private Variant invokeNative(String name, int dispID, int lcid, int flags,
+            Variant[] args, int[] errs) {
+        return invokeNative(name, dispID, lcid, flags, args, errs, NO_STREAMING, NO_DIRECT);
+    }
+
+    /**
+     * @param streamCells smallest array result left in native memory as a
+     * NativeSafeArray, NO_STREAMING to copy every array
+     * @param directBytes smallest byte array result left in native memory as
+     * a DirectSafeArray, NO_DIRECT to copy every byte array
+     */
+    private Variant invokeNative(final String name, final int dispID,
+            final int lcid, final int flags, final Variant[] args, final int[] errs,
+            final int streamCells, final int directBytes) {
+        if (isForeign()) {
+            return home.call(new Callable<Variant>() {
+                public Variant call() {
+                    return invokeNative(name, dispID, lcid, flags, args, errs, streamCells, directBytes);
+                }
+            });
+        }
+
+        int pointer = livePointer();
+        if (name == null) return invoke(pointer, null, dispID, lcid, flags, args, errs, streamCells, directBytes);
+
+        int cachedID = cachedIDOfName(name, lcid);
+        try {
+            return invoke(pointer, name, cachedID, lcid, flags, args, errs, streamCells, directBytes);
+        } catch (ComException e) {
+            if (!isStale(e, name, cachedID, lcid)) throw e;
+
+            return invoke(pointer, name, DISPID_UNKNOWN, lcid, flags, args, errs, streamCells, directBytes);
+        }
+    }
+
+    /**
+     * The one place a single Invoke crosses into native code, so tests can
+     * script what the COM object answers.
+     */
+    Variant invoke(int pointer, String name, int dispID, int lcid, int flags,
+            Variant[] args, int[] errs, int streamCells, int directBytes) {
+        return invokev(pointer, name, dispID, lcid, flags, args, errs, streamCells, directBytes);
+    }
+
+    private Object invokeNative0(final String name, final int dispID,
+            final int lcid, final int flags) {
+        if (isForeign()) {
+            return home.call(new Callable<Object>() {
+                public Object call() {
+                    return invokeNative0(name, dispID, lcid, flags);
+                }
+            });
+        }
+
+        int pointer = livePointer();
+        if (name == null) return invokev0(pointer, null, dispID, lcid, flags);
+
+        int cachedID = cachedIDOfName(name, lcid);
+        try {
+            return invokev0(pointer, name, cachedID, lcid, flags);
+        } catch (ComException e) {
+            if (!isStale(e, name, cachedID, lcid)) throw e;
+
+            return invokev0(pointer, name, DISPID_UNKNOWN, lcid, flags);
+        }
+    }
+
+    /**
+     * Invoke a DISPID which was resolved ahead of time by bind().  The name is
+     * only used for error messages.
+     */
+    Variant invokeBound(final String name, final int dispID, final int flags,
+            final Variant[] args, final int[] errs) {
+        if (isForeign()) {
+            return home.call(new Callable<Variant>() {
+                public Variant call() {
+                    return invokeBound(name, dispID, flags, args, errs);
+                }
+            });
+        }
+
+        return invoke(livePointer(), name, dispID, LSD, flags, args, errs, NO_STREAMING, NO_DIRECT);
+    }
+
+    /**
+     * Make many invocations with a single trip into native code.  Operation i
+     * invokes names[i] (or dispIDs[i] when names[i] is null) on targets[i]
+     * with args[i] and flags[i].  A failing operation does not stop the ones
+     * after it: its HRESULT is put in hresults[i] and results[i] is left
+     * null.  Operations are made in order, even when a cached DISPID turns
+     * out to be stale and has to be looked up again.  Like any other call
+     * this must be made on the thread (apartment) the targets belong to.
+     * DispatchBatch is an easier way to build these.
+     *
+     * @param args arguments per operation (null for none); by-ref arguments
+     * are updated in place when their operation succeeds
+     * @param results filled in with each operation's return value if it has one
+     * @param hresults filled in with each operation's HRESULT
+     */
+    public static void invokeBatch(final Dispatch[] targets, final String[] names,
+            final int[] dispIDs, final int[] flags, final Variant[][] args,
+            final Variant[] results, final int[] hresults) {
+        int count = targets.length;
+        if (names.length != count || dispIDs.length != count ||
+                flags.length != count || args.length != count ||
+                results.length != count || hresults.length != count) {
+            throw new IllegalArgumentException("Batch arrays must all have " +
+                    count + " elements");
+        }
+        if (count == 0) return;
+
+        ComExecutor.Worker home = targets[0].home;
+        for (int i = 1; i < count; i++) {
+            if (targets[i].home != home) {
+                throw new IllegalArgumentException("Batch targets must all belong to one apartment");
+            }
+        }
+        if (targets[0].isForeign()) {
+            home.call(new Callable<Object>() {
+                public Object call() {
+                    invokeBatch(targets, names, dispIDs, flags, args, results, hresults);
+                    return null;
+                }
+            });
+            return;
+        }
+
+        int[] pointers = new int[count];
+        int[] ids = new int[count];
+        Variant[][] variants = new Variant[count][];
+        for (int i = 0; i < count; i++) {
+            pointers[i] = targets[i].livePointer();
+            ids[i] = names[i] == null ? dispIDs[i] :
+                targets[i].cachedIDOfName(names[i], LSD);
+            variants[i] = args[i] == null ? NO_VARIANT_ARGS : args[i];
+        }
+
+        int next = 0;
+        while (next < count) {
+            next = targets[0].invokeBatch(next, pointers, names, ids, LSD,
+                    flags, variants, results, hresults);
+            if (next == count) break;
+
+            // A cached DISPID went stale.  Look it up again and carry on from
+            // that operation so the calls are still made in order.
+            idCache.invalidate(targets[next].typeKey(), names[next], LSD);
+            ids[next] = DISPID_UNKNOWN;
+        }
+    }
+
+    /**
+     * Make operations start onwards in one trip into native code until one
+     * fails with DISP_E_MEMBERNOTFOUND on a named operation given a DISPID.
+     * Only the first target of a batch is asked, so tests can script what the
+     * COM objects answer.
+     *
+     * @return the operation which stopped the run or pointers.length if every
+     * operation was made
+     */
+    int invokeBatch(int start, int[] pointers, String[] names, int[] dispIDs,
+            int lcid, int[] flags, Variant[][] args, Variant[] results, int[] hresults) {
+        return invokeBatch0(start, pointers, names, dispIDs, lcid, flags, args, results, hresults);
+    }
+    private static native int invokeBatch0(int start, int[] pointers, String[] names,
+            int[] dispIDs, int lcid, int[] flags, Variant[][] args,
+            Variant[] results, int[] hresults);
+
+    /**
+     * Invoke with Java arguments.  Afterwards any OutParameter arguments get
+     * what the callee wrote back to them.
+     */
+    private Variant invokeObjects(String name, int dispID, int lcid, int flags,
+            Object[] args, int[] errs) {
+        Variant[] variants = vargs(args);
+        Variant result = invokeNative(name, dispID, lcid, flags, variants, errs);
+        OutParameter.copyBack(args, variants);
+
+        return result;
+    }
+
     public void invokeSubv(String name, int dispID, int lcid, int flags,
             Variant[] args, int[] errs) {
-        invokev(livePointer(), name, dispID, lcid, flags, args, errs);
+        invokeNative(name, dispID, lcid, flags, args, errs);
     }
 
     public void invokeSubv(String name, int flags, Variant[] args, int[] errs) {
-        invokev(livePointer(), name, 0, LSD, flags, args, errs);
+        invokeNative(name, 0, LSD, flags, args, errs);
     }
 
     public void invokeSubv(int dispID, int flags, Variant[] args, int[] errs) {
-        invokev(livePointer(), null, dispID, LSD, flags, args, errs);
+        invokeNative(null, dispID, LSD, flags, args, errs);
     }
 
     public void callSubN(String name, Object[] args) {
-        invokeSubv(name, MGet, vargs(args), new int[args.length]);
+        invokeObjects(name, 0, LSD, MGet, args, new int[args.length]);
     }
 
     public void callSubN(int dispID, Object[] args) {
-        invokeSubv(dispID, MGet, vargs(args), new int[args.length]);
+        invokeObjects(null, dispID, LSD, MGet, args, new int[args.length]);
+    }
+
+    /**
+     * Resolve name once and get back a CallSite which can invoke it
+     * repeatedly without looking it up or converting arguments through an
+     * Object[] each time.
+     *
+     * @param name of the method or property
+     * @param flags how to invoke it (e.g. Method, Get, Put)
+     * @param arity how many arguments every invocation will pass
+     * @return a CallSite bound to this Dispatch
+     */
+    public CallSite bind(String name, int flags, int arity) {
+        return new CallSite(this, name, getIDOfName(name), flags, arity);
     }
 
-    public int getIDOfName(String name) {
-        return getIDsOfNames(LSD, new String[]{name})[0];
+    public int getIDOfName(final String name) {
+        if (isForeign()) {
+            return home.call(new Callable<Integer>() {
+                public Integer call() {
+                    return getIDOfName(name);
+                }
+            }).intValue();
+        }
+
+        int dispID = cachedIDOfName(name, LSD);
+
+        return dispID != DISPID_UNKNOWN ? dispID : getIDsOfNames(LSD, new String[]{name})[0];
     }
 
-    public int[] getIDsOfNames(int lcid, String[] names) {
+    public int[] getIDsOfNames(final int lcid, final String[] names) {
+        if (isForeign()) {
+            return home.call(new Callable<int[]>() {
+                public int[] call() {
+                    return getIDsOfNames(lcid, names);
+                }
+            });
+        }
+
         return getIDsOfNames(pointer.get(), lcid, names);
     }
     private static native int[] getIDsOfNames(int pointer, int lcid, String[] names);
@@ -184,32 +514,32 @@ public class Dispatch extends IUnknown {
     }
 
     public Variant callN(String name, Object[] args) {
-        return invokev(name, MGet, vargs(args), new int[args.length]);
+        return invokeObjects(name, 0, LSD, MGet, args, new int[args.length]);
     }
 
     public Variant callN(int dispID, Object[] args) {
-        return invokev(dispID, MGet, vargs(args), new int[args.length]);
+        return invokeObjects(null, dispID, LSD, MGet, args, new int[args.length]);
     }
 
     public Variant invoke(String name, int dispID, int lcid, int flags,
             Object[] args, int[] errs) {
-        return invokev(livePointer(), name, dispID, lcid, flags, vargs(args), errs);
+        return invokeObjects(name, dispID, lcid, flags, args, errs);
     }
 
     public Variant invoke(String name, int flags, Object[] args, int[] errs) {
-        return invokev(name, flags, vargs(args), errs);
+        return invokeObjects(name, 0, LSD, flags, args, errs);
     }
 
     public Variant invoke(int dispID, int flags, Object[] args, int[] errs) {
-        return invokev(dispID, flags, vargs(args), errs);
+        return invokeObjects(null, dispID, LSD, flags, args, errs);
     }
 
     public Object callO(String name) {
-        return invokev0(livePointer(), name, 0, LSD, MGet);
+        return invokeNative0(name, 0, LSD, MGet);
     }
 
     public Object callO(int dispid) {
-        return invokev0(livePointer(), null, dispid, LSD, MGet);
+        return invokeNative0(null, dispid, LSD, MGet);
     }
 
     public Variant call(String name, Object... args) {
@@ -230,26 +560,27 @@ public class Dispatch extends IUnknown {
 
     public Variant invokev(String name, int dispID, int lcid, int flags,
             Variant[] args, int[] errs) {
-        return invokev(livePointer(), name, dispID, lcid, flags, args, errs);
+        return invokeNative(name, dispID, lcid, flags, args, errs);
     }
 
     private static native Object invokev0(int pointer, String name,
             int dispID, int lcid, int flags);
 
     private static native Variant invokev(int pointer, String name,
-            int dispID, int lcid, int flags, Variant[] args, int[] errs);
+            int dispID, int lcid, int flags, Variant[] args, int[] errs,
+            int streamCells, int directBytes);
 
     public Variant invokev(String name, int flags, Variant[] args, int[] errs) {
-        return invokev(livePointer(), name, 0, LSD, flags, args, errs);
+        return invokeNative(name, 0, LSD, flags, args, errs);
     }
 
     public Variant invokev(int dispID, int flags, Variant[] args, int[] errs) {
-        return invokev(livePointer(), null, dispID, LSD, flags, args, errs);
+        return invokeNative(null, dispID, LSD, flags, args, errs);
     }
 
     public void invokeSub(String name, int dispid, int lcid, int flags,
             Object[] args, int[] errs) {
-        invokeSubv(name, dispid, lcid, flags, vargs(args), errs);
+        invokeObjects(name, dispid, lcid, flags, args, errs);
     }
 
     public void invokeSub(String name, int flags, Object[] args, int[] errs) {
@@ -268,6 +599,42 @@ public class Dispatch extends IUnknown {
         callSubN(dispid, args);
     }
 
+    /**
+     * Call name like call() but leave an array result of cells elements or
+     * more in native memory as a NativeSafeArray, to be read a chunk of rows
+     * at a time with reader().  The caller owns that array and must close()
+     * it; nothing else frees it.  Smaller arrays and other results come back
+     * as call() returns them.
+     */
+    public Variant stream(String name, int cells, Object... args) {
+        if (cells < 0) throw new IllegalArgumentException("Cells to stream cannot be negative: " + cells);
+
+        Variant[] variants = vargs(args);
+        Variant result = invokeNative(name, 0, LSD, MGet, variants, new int[args.length],
+                cells, NO_DIRECT);
+        OutParameter.copyBack(args, variants);
+
+        return result;
+    }
+
+    /**
+     * Call name like call() but leave a byte array result of bytes or more
+     * in native memory as a DirectSafeArray, read and written through its
+     * ByteBuffer.  The caller owns that array and must close() it; nothing
+     * else frees it.  Smaller arrays and other results come back as call()
+     * returns them.
+     */
+    public Variant callDirect(String name, int bytes, Object... args) {
+        if (bytes < 0) throw new IllegalArgumentException("Bytes to leave in native memory cannot be negative: " + bytes);
+
+        Variant[] variants = vargs(args);
+        Variant result = invokeNative(name, 0, LSD, MGet, variants, new int[args.length],
+                NO_STREAMING, bytes);
+        OutParameter.copyBack(args, variants);
+
+        return result;
+    }
+
     public Variant get(String name) {
         return invokev(name, Get, NO_VARIANT_ARGS, NO_INT_ARGS);
     }
@@ -0,0 +1,198 @@
+package org.racob.com;
+
+/**
+ * Collects Dispatch calls and then makes all of them with one trip into
+ * native code (see Dispatch.invokeBatch).  This is worth it for long runs of
+ * small calls like setting many properties, where the crossing into native
+ * code costs more than the call itself.
+ * <p>
+ * One failing call does not stop the rest.  After execute() check each call
+ * with succeeded(i) or getHResult(i) rather than waiting for a ComException.
+ * <p>
+ * A batch must be executed on the thread (apartment) its targets belong to
+ * and like a Dispatch should only be used by one thread at a time.
+ */
+public final class DispatchBatch {
+    /**
+     * Makes the queued calls in one trip, filling in results and hresults
+     * by position.  This is normally Dispatch.invokeBatch().
+     */
+    interface Invoker {
+        public void invokeBatch(Dispatch[] targets, String[] names,
+                int[] dispIDs, int[] flags, Variant[][] args,
+                Variant[] results, int[] hresults);
+    }
+
+    private static final Invoker DISPATCH_INVOKER = new Invoker() {
+        public void invokeBatch(Dispatch[] targets, String[] names,
+                int[] dispIDs, int[] flags, Variant[][] args,
+                Variant[] results, int[] hresults) {
+            Dispatch.invokeBatch(targets, names, dispIDs, flags, args, results, hresults);
+        }
+    };
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Variant[] NO_RESULTS = new Variant[0];
+
+    private Dispatch[] targets = new Dispatch[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] dispIDs = new int[INITIAL_CAPACITY];
+    private int[] flags = new int[INITIAL_CAPACITY];
+    private Object[][] values = new Object[INITIAL_CAPACITY][];
+    private Variant[][] args = new Variant[INITIAL_CAPACITY][];
+    private int size = 0;
+
+    private Variant[] results = NO_RESULTS;
+    private int[] hresults = new int[0];
+
+    private final Invoker invoker;
+
+    public DispatchBatch() {
+        this(DISPATCH_INVOKER);
+    }
+
+    DispatchBatch(Invoker invoker) {
+        this.invoker = invoker;
+    }
+
+    /**
+     * Add a call by name.  Arguments may be OutParameters which get the
+     * values written back to them when execute() is done.
+     *
+     * @return the index of this call for getResult() and getHResult()
+     */
+    public int add(Dispatch target, String name, int flags, Object... args) {
+        if (name == null) throw new IllegalArgumentException("name is null");
+
+        return add(target, name, 0, flags, args);
+    }
+
+    /**
+     * Add a call by DISPID.
+     *
+     * @return the index of this call for getResult() and getHResult()
+     */
+    public int add(Dispatch target, int dispID, int flags, Object... args) {
+        return add(target, null, dispID, flags, args);
+    }
+
+    public int call(Dispatch target, String name, Object... args) {
+        return add(target, name, Dispatch.MGet, args);
+    }
+
+    public int get(Dispatch target, String name) {
+        return add(target, name, Dispatch.Get);
+    }
+
+    public int put(Dispatch target, String name, Object value) {
+        return add(target, name, Dispatch.Put, value);
+    }
+
+    private int add(Dispatch target, String name, int dispID, int flag,
+            Object[] arguments) {
+        if (target == null) throw new IllegalArgumentException("target is null");
+        if (arguments == null) arguments = NO_ARGS;
+        if (size == targets.length) grow();
+
+        targets[size] = target;
+        names[size] = name;
+        dispIDs[size] = dispID;
+        flags[size] = flag;
+        values[size] = arguments;
+        args[size] = VariantUtilities.objectsToVariants(arguments);
+
+        return size++;
+    }
+
+    private void grow() {
+        int capacity = targets.length * 2;
+
+        targets = (Dispatch[]) copy(targets, new Dispatch[capacity]);
+        names = (String[]) copy(names, new String[capacity]);
+        values = (Object[][]) copy(values, new Object[capacity][]);
+        args = (Variant[][]) copy(args, new Variant[capacity][]);
+        dispIDs = (int[]) copy(dispIDs, new int[capacity]);
+        flags = (int[]) copy(flags, new int[capacity]);
+    }
+
+    private Object copy(Object from, Object to) {
+        System.arraycopy(from, 0, to, 0, size);
+        return to;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Make every call added so far, in the order they were added.  Results
+     * from a previous execute() are replaced.
+     */
+    public void execute() {
+        results = new Variant[size];
+        hresults = new int[size];
+
+        invoker.invokeBatch((Dispatch[]) copy(targets, new Dispatch[size]),
+                (String[]) copy(names, new String[size]),
+                (int[]) copy(dispIDs, new int[size]),
+                (int[]) copy(flags, new int[size]),
+                (Variant[][]) copy(args, new Variant[size][]), results, hresults);
+
+        for (int i = 0; i < size; i++) {
+            if (succeeded(i)) OutParameter.copyBack(values[i], args[i]);
+        }
+    }
+
+    /**
+     * @return what call i returned or null if it returned nothing or failed
+     */
+    public Variant getResult(int i) {
+        checkExecuted(i);
+        return results[i];
+    }
+
+    public int getHResult(int i) {
+        checkExecuted(i);
+        return hresults[i];
+    }
+
+    public boolean succeeded(int i) {
+        return getHResult(i) >= 0;
+    }
+
+    /**
+     * @return how many calls failed in the last execute()
+     */
+    public int getFailureCount() {
+        int failures = 0;
+
+        for (int i = 0; i < hresults.length; i++) {
+            if (hresults[i] < 0) failures++;
+        }
+
+        return failures;
+    }
+
+    /**
+     * Forget all calls and results so the batch can be filled again.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            targets[i] = null;
+            names[i] = null;
+            values[i] = null;
+            args[i] = null;
+        }
+        size = 0;
+        results = NO_RESULTS;
+        hresults = new int[0];
+    }
+
+    private void checkExecuted(int i) {
+        if (i < 0 || i >= hresults.length) {
+            throw new IllegalStateException("No result for call " + i +
+                    "; " + hresults.length + " calls were executed");
+        }
+    }
+}
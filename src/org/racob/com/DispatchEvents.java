@@ -19,6 +19,8 @@
  */
 package org.racob.com;
 
+import java.util.concurrent.Callable;
+
 /**
  * This class creates the scaffolding for event callbacks. Every instance of tis
  * acts as a wrapper around some java object that wants callbacks from the
@@ -36,6 +38,14 @@ package org.racob.com;
  * object". The constructors recognize when an instance of InvocationProxy is
  * passed in and do not create a new InvocationProxy as a wrapper. They instead
  * use the passed in InvocationProxy.
+ * <p>
+ * Events are normally delivered on the COM thread which fired them. Pass an
+ * EventQueue to have them delivered from another thread instead, so a slow
+ * event sink does not hold up the COM server. Pass an EventCoalescer as the
+ * event sink to thin out events which fire faster than they are worth handling.
+ * <p>
+ * The connection is made and released on the home thread of the Dispatch
+ * (see IUnknown), which is also where COM fires the events.
  * 
  */
 public class DispatchEvents extends IUnknown {
@@ -47,6 +57,9 @@ public class DispatchEvents extends IUnknown {
      */
     InvocationProxy mInvocationProxy = null;
 
+    /** Set when events are delivered asynchronously */
+    private EventQueue mEventQueue = null;
+
     /**
      * This is the most commonly used constructor.
      * <p>
@@ -118,6 +131,29 @@ public class DispatchEvents extends IUnknown {
      */
     public DispatchEvents(Dispatch sourceOfEvent, Object eventSink,
             String progId, String typeLib) {
+        this(sourceOfEvent, eventSink, progId, typeLib, null);
+    }
+
+    /**
+     * Creates the event callback linkage between the the MS program represented
+     * by the Dispatch object and the Java object that will receive the
+     * callback.
+     *
+     * @param sourceOfEvent
+     *            Dispatch object who's MS app will generate callbacks
+     * @param eventSink
+     *            Java object that wants to receive the events
+     * @param progId ,
+     *            mandatory if the typelib is specified
+     * @param typeLib
+     *            The location of the typelib to use
+     * @param queue
+     *            the queue events are delivered through or null to deliver
+     *            them on the COM thread
+     */
+    public DispatchEvents(final Dispatch sourceOfEvent, Object eventSink,
+            final String progId, final String typeLib, EventQueue queue) {
+        super(0, sourceOfEvent.home);
         if (IUnknown.isDebugEnabled()) {
             System.out.println("DispatchEvents: Registering " + eventSink + "for events ");
         }
@@ -133,7 +169,20 @@ public class DispatchEvents extends IUnknown {
             throw new IllegalArgumentException(
                     "Cannot register null event sink for events");
         }
-        pointer.set(init3(sourceOfEvent.pointer.get(), mInvocationProxy, progId, typeLib));
+        if (queue != null) {
+            mInvocationProxy = queue.attach(mInvocationProxy);
+            mEventQueue = queue;
+        }
+        if (isForeign()) {
+            final InvocationProxy sink = mInvocationProxy;
+            pointer.set(home.call(new Callable<Integer>() {
+                public Integer call() {
+                    return init3(sourceOfEvent.pointer.get(), sink, progId, typeLib);
+                }
+            }).intValue());
+        } else {
+            pointer.set(init3(sourceOfEvent.pointer.get(), mInvocationProxy, progId, typeLib));
+        }
     }
 
     /**
@@ -150,6 +199,14 @@ public class DispatchEvents extends IUnknown {
         return newProxy;
     }
 
+    /**
+     * @return the queue events are delivered through or null if they are
+     *         delivered on the COM thread
+     */
+    public EventQueue getEventQueue() {
+        return mEventQueue;
+    }
+
     /**
      * hooks up a connection point proxy by progId event methods on the sink
      * object will be called by name with a signature of <name>(Variant[] args)
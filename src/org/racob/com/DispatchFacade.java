@@ -0,0 +1,95 @@
+package org.racob.com;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Lets large numbers of threads (such as virtual threads serving requests)
+ * use a COM object without any of them joining a COM apartment.  The object
+ * lives on an ApartmentPool thread; every call is queued there and the
+ * calling thread parks in a Future until the result comes back, so only the
+ * pool's few platform threads ever call CoInitialize or enter native code.
+ * <p>
+ * This is a wrapper rather than a Dispatch subclass because constructing any
+ * IUnknown on the calling thread would register it in that thread's ROT and
+ * CoInitialize it.  Arguments and results are plain Variants; an object
+ * returned by a call should be wrapped with getDispatch() so it stays on its
+ * apartment as well.
+ */
+public class DispatchFacade {
+    private final Dispatch target;
+    private final ComExecutor.Worker home;
+
+    /**
+     * Create progId on the least busy apartment of pool.
+     */
+    public DispatchFacade(ApartmentPool pool, String progId) {
+        this(pool.create(progId));
+    }
+
+    /**
+     * @param target a Dispatch which belongs to a ComExecutor thread
+     */
+    public DispatchFacade(Dispatch target) {
+        if (!(target.getHomeThread() instanceof ComExecutor.Worker)) {
+            throw new IllegalArgumentException("Dispatch was not made on a ComExecutor thread");
+        }
+
+        this.target = target;
+        this.home = (ComExecutor.Worker) target.getHomeThread();
+    }
+
+    /**
+     * @return the wrapped Dispatch (which forwards its calls home as well)
+     */
+    public Dispatch getTarget() {
+        return target;
+    }
+
+    public Variant call(String name, Object... args) {
+        return target.call(name, args);
+    }
+
+    public Variant get(String name) {
+        return target.get(name);
+    }
+
+    public void put(String name, Object value) {
+        target.put(name, value);
+    }
+
+    public Variant invoke(String name, int flags, Object... args) {
+        return target.invoke(name, flags, args, new int[args.length]);
+    }
+
+    /**
+     * Call name on the object's apartment without waiting for it.
+     */
+    public Future<Variant> callAsync(final String name, final Object... args) {
+        return home.submit(new Callable<Variant>() {
+            public Variant call() {
+                return target.call(name, args);
+            }
+        });
+    }
+
+    /**
+     * Get a property which is itself an object.
+     *
+     * @return the object wrapped so its calls also run on this apartment or
+     * null if the property is not an object
+     */
+    public DispatchFacade getDispatch(String name) {
+        Variant value = get(name);
+        if (value == null || value.getType() != Variant.VariantDispatch) return null;
+
+        return new DispatchFacade(value.getDispatch());
+    }
+
+    /**
+     * Release the object on its apartment.
+     */
+    public void safeRelease() {
+        target.safeRelease();
+    }
+}
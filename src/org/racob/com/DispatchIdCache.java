@@ -0,0 +1,128 @@
+package org.racob.com;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the DISPIDs of names so that name-based Dispatch calls do not
+ * have to call GetIDsOfNames before every Invoke.  Entries are keyed by the
+ * identity of the type (the TypeInfo GUID or the progId), the member name and
+ * the LCID so any Dispatch of the same type shares the same lookups.  Like
+ * GetIDsOfNames the member name is not case-sensitive.
+ * <p>
+ * Dispatch will drop an entry when Invoke reports DISP_E_MEMBERNOTFOUND for
+ * it.  The whole cache can be disabled with -Dorg.racob.dispid_cache=false.
+ */
+public final class DispatchIdCache {
+    /**
+     * Performs the real GetIDsOfNames lookup on a miss.  Dispatch implements
+     * this; it is only asked for one name at a time.
+     */
+    public interface Resolver {
+        public int[] getIDsOfNames(int lcid, String[] names);
+    }
+
+    private final Map<Key, Integer> ids = new ConcurrentHashMap<Key, Integer>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param type identity of the type the name belongs to
+     * @param name of the member
+     * @param lcid locale the name is in
+     * @param resolver used to look the name up if it is not cached yet
+     * @return the DISPID for name
+     */
+    public int getIDOfName(Object type, String name, int lcid, Resolver resolver) {
+        Key key = new Key(type, name, lcid);
+        Integer id = ids.get(key);
+
+        if (id != null) {
+            hits.incrementAndGet();
+            return id.intValue();
+        }
+
+        misses.incrementAndGet();
+        int dispID = resolver.getIDsOfNames(lcid, new String[] {name})[0];
+        ids.put(key, Integer.valueOf(dispID));
+
+        return dispID;
+    }
+
+    /**
+     * Remember a DISPID found some other way (e.g. from a TypeLibIndex) so
+     * that the first lookup of name is already a hit.
+     *
+     * @return true if the entry is new or changed
+     */
+    public boolean put(Object type, String name, int lcid, int dispID) {
+        Integer previous = ids.put(new Key(type, name, lcid), Integer.valueOf(dispID));
+
+        return previous == null || previous.intValue() != dispID;
+    }
+
+    /**
+     * Forget a cached DISPID (e.g. it turned out to be stale).
+     *
+     * @return true if there was an entry to forget
+     */
+    public boolean invalidate(Object type, String name, int lcid) {
+        if (ids.remove(new Key(type, name, lcid)) == null) return false;
+
+        invalidations.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Forget all cached DISPIDs.  The counters are left alone.
+     */
+    public void clear() {
+        ids.clear();
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private static final class Key {
+        private final Object type;
+        private final String name;
+        private final int lcid;
+        private final int hash;
+
+        Key(Object type, String name, int lcid) {
+            this.type = type;
+            this.name = name.toLowerCase(Locale.ENGLISH);
+            this.lcid = lcid;
+            this.hash = (type.hashCode() * 31 + this.name.hashCode()) * 31 + lcid;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+
+            Key key = (Key) other;
+            return lcid == key.lcid && name.equals(key.name) && type.equals(key.type);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.racob.com;
+
+/**
+ * A SAFEARRAY of doubles (VT_R8) kept as a double[] instead of one
+ * Variant per element.  The elements of a multi dimension array are kept
+ * in COM's order, first dimension fastest; get(index) reads that flat order
+ * and get(i, j) uses the array's bounds.
+ */
+public final class DoubleSafeArray extends SafeArray {
+    private final double[] values;
+
+    /**
+     * @param values the elements, which are used as is rather than copied
+     */
+    public DoubleSafeArray(double[] values) {
+        this(values, null, null);
+    }
+
+    /**
+     * @param values the elements with the first dimension varying fastest,
+     * used as is rather than copied
+     * @param lowerBounds lowest index of each dimension
+     * @param extents number of elements along each dimension
+     */
+    public DoubleSafeArray(double[] values, int[] lowerBounds, int[] extents) {
+        if (values == null) throw new IllegalArgumentException("DoubleSafeArray needs an array");
+
+        this.values = values;
+        setShape(values.length, lowerBounds, extents);
+    }
+
+    public DoubleSafeArray(int length) {
+        this(new double[length]);
+    }
+
+    @Override
+    public int determinevt() {
+        return Variant.VariantDouble;
+    }
+
+    @Override
+    Object getData() {
+        return values;
+    }
+
+    @Override
+    public int length() {
+        return values.length;
+    }
+
+    public double get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, double value) {
+        values[index] = value;
+    }
+
+    /**
+     * @return element (i, j) of a two dimension array
+     */
+    public double get(int i, int j) {
+        return values[offset(i, j)];
+    }
+
+    public void set(int i, int j, double value) {
+        values[offset(i, j)] = value;
+    }
+
+    @Override
+    Object objectAt(int offset) {
+        return Double.valueOf(values[offset]);
+    }
+
+    @Override
+    double doubleAt(int offset) {
+        return values[offset];
+    }
+
+    /**
+     * @return the elements themselves (not a copy)
+     */
+    public double[] getDoubles() {
+        return values;
+    }
+
+    /**
+     * @return the elements each boxed in a new Variant
+     */
+    @Override
+    public Variant[] getValues() {
+        Variant[] variants = new Variant[values.length];
+        for (int i = 0; i < values.length; i++) {
+            variants[i] = new Variant(values[i]);
+        }
+        return variants;
+    }
+}
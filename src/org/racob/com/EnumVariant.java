@@ -20,14 +20,36 @@
 package org.racob.com;
 
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 
 /**
  * An implementation of IEnumVariant based on code submitted by Thomas Hallgren
  * (mailto:Thomas.Hallgren@eoncompany.com)
+ * <p>
+ * Elements are fetched in batches to save trips into native code.  A batch
+ * starts at the size given (30 by default), doubles each time Next fills it
+ * up to the 5000 the native layer allows, and shrinks to what came back when
+ * Next returns a partial batch.  If the collection's Count is known, expect()
+ * sizes the first batch to fetch everything at once.
+ * <p>
+ * It is also a single use Iterable so it can be walked with for-each:
+ * <pre>
+ * for (Variant item : items.toEnumVariant()) ...
+ * </pre>
  */
-public class EnumVariant extends IUnknown implements Enumeration<Variant> {
+public class EnumVariant extends IUnknown implements Enumeration<Variant>,
+        Iterator<Variant>, Iterable<Variant> {
+    /** Most elements the native layer fetches in one Next */
+    static final int MAX_BATCH = 5000;
+
     private Variant[] values;
-    int i = -1;
+    /** Elements of the last batch not handed out yet */
+    private int remaining = 0;
+    private int batch;
+    private boolean exhausted = false;
+    private int nextCalls = 0;
 
     protected EnumVariant(int pointer) {
         this(pointer, 30);
@@ -35,7 +57,39 @@ public class EnumVariant extends IUnknown implements Enumeration<Variant> {
 
     protected EnumVariant(int pointer, int size) {
         super(pointer);
-        values = new Variant[size];
+        batch = clampBatch(size);
+        values = new Variant[batch];
+    }
+
+    private static int clampBatch(int size) {
+        return Math.max(1, Math.min(size, MAX_BATCH));
+    }
+
+    /**
+     * Size the next batch for a collection with count elements (its Count
+     * property) so a walk takes as few trips into native code as possible.
+     * Leftover elements do not matter; the hint is only about batch size.
+     *
+     * @return this so it can be chained onto toEnumVariant()
+     */
+    public EnumVariant expect(int count) {
+        // One more than count so the last batch comes back partial
+        batch = clampBatch(count + 1);
+        return this;
+    }
+
+    /**
+     * @return how many elements the next trip into native code will ask for
+     */
+    public int getBatchSize() {
+        return batch;
+    }
+
+    /**
+     * @return trips into native code made by Next so far
+     */
+    public int getNextCalls() {
+        return nextCalls;
     }
 
     /**
@@ -44,9 +98,37 @@ public class EnumVariant extends IUnknown implements Enumeration<Variant> {
      * @return boolean true if there are more elements in this enumeration
      */
     public boolean hasMoreElements() {
-        if (i == -1) i = Next(pointer.get(), values, values.length) - 1;
+        if (remaining == 0 && !exhausted) fetch();
 
-        return i > -1;
+        return remaining > 0;
+    }
+
+    private void fetch() {
+        if (values.length < batch) values = new Variant[batch];
+
+        int fetched = next(values, batch);
+        nextCalls++;
+
+        if (fetched == 0) {
+            exhausted = true;
+        } else if (fetched == batch) {
+            batch = Math.min(batch * 2, MAX_BATCH);
+        } else {
+            batch = fetched;
+        }
+        remaining = fetched;
+    }
+
+    private int next(final Variant[] into, final int size) {
+        if (isForeign()) {
+            return home.call(new Callable<Integer>() {
+                public Integer call() {
+                    return next(into, size);
+                }
+            }).intValue();
+        }
+
+        return Next(pointer.get(), into, size);
     }
 
     /**
@@ -55,18 +137,60 @@ public class EnumVariant extends IUnknown implements Enumeration<Variant> {
      * @return next element in the enumeration
      */
     public Variant nextElement() {
-        if (hasMoreElements()) {
-            Variant returnValue = values[i];
+        if (!hasMoreElements()) throw new NoSuchElementException();
 
-            i--;
-            
-            return returnValue;
-        }
+        // Next stores a batch last element first
+        Variant returnValue = values[--remaining];
+        values[remaining] = null;
+
+        return returnValue;
+    }
 
-        throw new java.util.NoSuchElementException();
+    public boolean hasNext() {
+        return hasMoreElements();
+    }
+
+    public Variant next() {
+        return nextElement();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("IEnumVARIANT cannot remove elements");
     }
 
     /**
+     * @return this, so the elements can only be walked once (or again after
+     * reset())
+     */
+    public Iterator<Variant> iterator() {
+        return this;
+    }
+
+    /**
+     * Start again from the first element, dropping anything already fetched.
+     */
+    public void reset() {
+        if (isForeign()) {
+            home.call(new Callable<Object>() {
+                public Object call() {
+                    Reset(pointer.get());
+                    return null;
+                }
+            });
+        } else {
+            Reset(pointer.get());
+        }
+        for (int j = 0; j < remaining; j++) {
+            values[j] = null;
+        }
+        remaining = 0;
+        exhausted = false;
+    }
+
+    /**
+     * Fetch up to size elements into values, the last one fetched first.
+     *
+     * @return how many were fetched
      */
     public native int Next(int pointer, Variant[] values, int size);
 
@@ -79,7 +203,8 @@ public class EnumVariant extends IUnknown implements Enumeration<Variant> {
     public native void Skip(int pointer, int count);
 
     /**
-     * This should be private and wrapped to protect JNI layer
+     * This should be private and wrapped to protect JNI layer.  reset() also
+     * forgets what was fetched already.
      */
     public native void Reset(int pointer);
-}
\ No newline at end of file
+}
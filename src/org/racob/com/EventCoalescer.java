@@ -0,0 +1,235 @@
+package org.racob.com;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thins out high frequency events (progress, ReadyStateChange and so on)
+ * where only the latest value matters.  Pass one to DispatchEvents as the
+ * event sink:
+ *
+ * <pre>
+ * EventCoalescer coalescer = new EventCoalescer(listener);
+ * coalescer.coalesce(&quot;ProgressChange&quot;, 100, TimeUnit.MILLISECONDS);
+ * new DispatchEvents(browser, coalescer);
+ * </pre>
+ *
+ * The first event of a configured name opens a window.  Later events with
+ * that name replace its arguments until the window closes, and then the
+ * listener is called once with the most recent arguments.  While that call
+ * runs, getSuppressedCount() says how many events it stands for.  Events
+ * whose names are not configured are passed straight through on the COM
+ * thread.
+ * <p>
+ * Coalesced events are delivered from the scheduler's thread and return an
+ * empty result to the COM server.  They can arrive after events of other
+ * names which were fired later.
+ * <p>
+ * The scheduler's thread is not the COM thread and has not joined its
+ * apartment.  A Dispatch passed as an event argument still belongs to the COM
+ * thread; unless that thread is a ComExecutor worker, a listener called with
+ * coalesced arguments must not call it.
+ * <p>
+ * Without a scheduler of its own each coalescer gets a daemon thread which
+ * only runs while windows are open and is shut down when the target is
+ * cleared, so a slow listener only holds up its own coalescer.
+ */
+public class EventCoalescer extends InvocationProxy {
+    /** How long an idle default scheduler thread lingers */
+    private static final long IDLE_SECONDS = 5;
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    /** Events merged into the one currently being delivered on this thread */
+    private static final ThreadLocal<int[]> suppressedHere = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /** An event held until its window closes */
+    private static final class Pending {
+        Variant[] arguments;
+        int suppressed = 0;
+
+        Pending(Variant[] arguments) {
+            this.arguments = arguments;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    /** The scheduler was made here so it is shut down with the target */
+    private final boolean ownsScheduler;
+    /** Window length in nanoseconds by event name */
+    private final Map<String, Long> windows = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Pending> pending = new HashMap<String, Pending>();
+    private InvocationProxy proxy;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param eventSink the listener, or an InvocationProxy which calls it
+     */
+    public EventCoalescer(Object eventSink) {
+        this(eventSink, null);
+    }
+
+    /**
+     * @param eventSink the listener, or an InvocationProxy which calls it
+     * @param scheduler closes windows and delivers coalesced events (null for
+     * a daemon thread of this coalescer's own)
+     */
+    public EventCoalescer(Object eventSink, ScheduledExecutorService scheduler) {
+        if (eventSink == null) throw new IllegalArgumentException("Cannot coalesce events for a null event sink");
+
+        if (eventSink instanceof InvocationProxy) {
+            proxy = (InvocationProxy) eventSink;
+        } else {
+            proxy = new InvocationProxyAllVariants();
+            proxy.setTarget(eventSink);
+        }
+        ownsScheduler = scheduler == null;
+        this.scheduler = ownsScheduler ? newScheduler() : scheduler;
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "racob-coalescer-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setKeepAliveTime(IDLE_SECONDS, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        return scheduler;
+    }
+
+    /**
+     * Deliver at most one eventName per window.  A window of zero stops
+     * coalescing eventName.
+     *
+     * @return this so several names can be configured in a row
+     */
+    public EventCoalescer coalesce(String eventName, long window, TimeUnit unit) {
+        if (window < 0) throw new IllegalArgumentException("Coalescing window cannot be negative: " + window);
+
+        if (window == 0) {
+            windows.remove(eventName);
+        } else {
+            windows.put(eventName, unit.toNanos(window));
+        }
+        return this;
+    }
+
+    /**
+     * Called on the COM thread for every event.
+     */
+    public Variant invoke(String methodName, Variant[] targetParameters) {
+        Long window = windows.get(methodName);
+        InvocationProxy target;
+
+        synchronized (this) {
+            target = proxy;
+            if (target == null) return null;
+
+            if (window != null) {
+                Pending event = pending.get(methodName);
+                if (event != null) {
+                    event.arguments = targetParameters;
+                    event.suppressed++;
+                    suppressed.incrementAndGet();
+                } else {
+                    pending.put(methodName, new Pending(targetParameters));
+                    scheduleFlush(methodName, window.longValue());
+                }
+                return null;
+            }
+        }
+
+        return target.invoke(methodName, targetParameters);
+    }
+
+    private void scheduleFlush(final String methodName, long window) {
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                flush(methodName);
+            }
+        }, window, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Close methodName's window and deliver the latest arguments.
+     */
+    private void flush(String methodName) {
+        Pending event;
+        InvocationProxy target;
+        synchronized (this) {
+            event = pending.remove(methodName);
+            target = proxy;
+        }
+        if (event == null || target == null) return;
+
+        int[] count = suppressedHere.get();
+        count[0] = event.suppressed;
+        try {
+            delivered.incrementAndGet();
+            target.invoke(methodName, event.arguments);
+        } catch (RuntimeException e) {
+            // The listener's problem; the next window still gets delivered
+            e.printStackTrace();
+        } finally {
+            count[0] = 0;
+        }
+    }
+
+    /**
+     * @return how many events were dropped in favour of the coalesced event
+     * this thread is delivering, or 0 when called from anywhere else
+     */
+    public static int getSuppressedCount() {
+        return suppressedHere.get()[0];
+    }
+
+    /**
+     * Sets the listener of the proxy this coalescer delivers to.  Clearing it
+     * (as DispatchEvents.safeRelease() does) discards events still waiting
+     * for their window to close and stops the default scheduler.
+     */
+    @Override
+    public void setTarget(Object pTargetObject) {
+        InvocationProxy target;
+        synchronized (this) {
+            target = proxy;
+            if (pTargetObject == null) {
+                pending.clear();
+                proxy = null;
+                if (ownsScheduler) scheduler.shutdownNow();
+            }
+        }
+        if (target != null) target.setTarget(pTargetObject);
+    }
+
+    /**
+     * @return coalesced events handed to the listener
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return events replaced by a later one in the same window
+     */
+    public long getSuppressedTotal() {
+        return suppressed.get();
+    }
+}
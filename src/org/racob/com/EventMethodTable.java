@@ -0,0 +1,61 @@
+package org.racob.com;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The event methods of one sink class, found once so that delivering an event
+ * is a map lookup instead of Class.getMethod().  Every public method taking a
+ * single Variant[] is in the table; any other name is simply absent, so an
+ * event the sink does not implement costs one failed lookup and never builds
+ * a NoSuchMethodException.
+ */
+final class EventMethodTable {
+    private static final Map<Class<?>, EventMethodTable> tables =
+            new ConcurrentHashMap<Class<?>, EventMethodTable>();
+
+    private final Map<String, Method> methods = new HashMap<String, Method>();
+
+    private EventMethodTable(Class<?> sinkClass) {
+        for (Method method : sinkClass.getMethods()) {
+            Class<?>[] parameters = method.getParameterTypes();
+            if (parameters.length != 1 || parameters[0] != Variant[].class) continue;
+
+            try {
+                // Skip the access check on every event; the class is public
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                // then Method.invoke just has to check each time
+            }
+            methods.put(method.getName(), method);
+        }
+    }
+
+    /**
+     * @return the table for sinkClass, building it the first time
+     */
+    static EventMethodTable forClass(Class<?> sinkClass) {
+        EventMethodTable table = tables.get(sinkClass);
+
+        if (table == null) {
+            // Two threads may both build it; either copy is as good
+            table = new EventMethodTable(sinkClass);
+            tables.put(sinkClass, table);
+        }
+
+        return table;
+    }
+
+    /**
+     * @return the method handling event name or null if the sink has none
+     */
+    Method get(String name) {
+        return methods.get(name);
+    }
+
+    int size() {
+        return methods.size();
+    }
+}
@@ -0,0 +1,373 @@
+package org.racob.com;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous delivery for DispatchEvents.  Normally the listener runs on
+ * the COM thread which fired the event, so a slow listener stalls the COM
+ * server.  When an EventQueue is passed to DispatchEvents the event is copied
+ * into a bounded ring and the COM callback returns straight away; the
+ * listener is then called from the queue's Executor, one event at a time and
+ * in the order they were fired.
+ * <p>
+ * When the ring is full the Overflow policy decides what happens:
+ * <ul>
+ * <li>BLOCK - the COM thread waits for space (nothing is lost)</li>
+ * <li>DROP_OLDEST - the oldest queued event is discarded</li>
+ * <li>COALESCE - the arguments of a queued event with the same name are
+ * replaced by the new ones; if there is none the COM thread waits</li>
+ * </ul>
+ * Things to be aware of:
+ * <ul>
+ * <li>The COM server always gets an empty result, so events whose listeners
+ * return a value (a cancel flag for example) should not be queued.</li>
+ * <li>A Dispatch passed as an event argument still belongs to the COM thread.
+ * Unless that thread is a ComExecutor worker, the listener must not call it.
+ * </li>
+ * <li>With BLOCK or COALESCE, a listener that calls back into the COM thread
+ * can deadlock against a full ring.</li>
+ * <li>If the Executor rejects the drain task the event stays queued and the
+ * RejectedExecutionException is thrown to the COM thread; the next event
+ * tries to schedule delivery again.</li>
+ * <li>A listener which throws an Error loses that event only; delivery of
+ * the rest is scheduled again before the Error goes on up the Executor's
+ * thread.</li>
+ * </ul>
+ * An EventQueue can only be used by one DispatchEvents.
+ */
+public class EventQueue extends InvocationProxy {
+    /** What to do with an event when the ring is full */
+    public enum Overflow {
+        /**
+         * The COM thread waits for space.  It does not pump messages while it
+         * waits, so nothing else in its apartment runs (including calls the
+         * listener makes into it) until the listener catches up.
+         */
+        BLOCK,
+        /** The oldest queued event is discarded */
+        DROP_OLDEST,
+        /**
+         * A queued event with the same name takes the new arguments.  If there
+         * is none the COM thread waits as with BLOCK.
+         */
+        COALESCE
+    }
+
+    /** Shared by queues which are not given an Executor */
+    private static ExecutorService defaultExecutor = null;
+
+    private final Executor executor;
+    private final Overflow overflow;
+    private final String[] names;
+    private final Variant[][] arguments;
+    private final long[] queuedAt;
+    private int head = 0;
+    private int count = 0;
+    /** A drain task is queued or running on the executor */
+    private boolean draining = false;
+    private InvocationProxy proxy = null;
+
+    private final Runnable drainer = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * A queue delivered by a shared pool of daemon threads.
+     */
+    public EventQueue(int capacity, Overflow overflow) {
+        this(capacity, overflow, null);
+    }
+
+    /**
+     * @param capacity how many events can be waiting before overflow applies
+     * @param overflow what to do with an event when the ring is full
+     * @param executor runs the listener (null for a shared pool of daemon
+     * threads)
+     */
+    public EventQueue(int capacity, Overflow overflow, Executor executor) {
+        if (capacity < 1) throw new IllegalArgumentException("EventQueue capacity must be positive: " + capacity);
+        if (overflow == null) throw new IllegalArgumentException("EventQueue needs an Overflow policy");
+
+        this.overflow = overflow;
+        this.executor = executor != null ? executor : getDefaultExecutor();
+        names = new String[capacity];
+        arguments = new Variant[capacity][];
+        queuedAt = new long[capacity];
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger threads = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "racob-events-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Called by DispatchEvents to put this queue in front of the proxy which
+     * calls the listener.
+     */
+    synchronized InvocationProxy attach(InvocationProxy proxy) {
+        if (this.proxy != null) throw new IllegalStateException("EventQueue is already used by a DispatchEvents");
+
+        this.proxy = proxy;
+        return this;
+    }
+
+    /**
+     * Queue the event for the listener.  Runs on the COM thread.
+     *
+     * @return always null since the listener has not run yet
+     */
+    public Variant invoke(String methodName, Variant[] targetParameters) {
+        boolean schedule;
+
+        synchronized (this) {
+            if (proxy == null) return null;
+
+            if (count == names.length && !makeRoom(methodName, targetParameters)) return null;
+
+            int tail = (head + count) % names.length;
+            names[tail] = methodName;
+            arguments[tail] = copy(targetParameters);
+            queuedAt[tail] = System.nanoTime();
+            count++;
+
+            schedule = !draining;
+            draining = true;
+        }
+
+        if (schedule) schedule();
+        return null;
+    }
+
+    /**
+     * The COM server may reuse its argument array once the callback returns.
+     */
+    private static Variant[] copy(Variant[] targetParameters) {
+        return targetParameters == null ? null : targetParameters.clone();
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(drainer);
+        } catch (RejectedExecutionException e) {
+            // Nothing will drain, so let the next event try again
+            synchronized (this) {
+                draining = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Apply the overflow policy to a full ring.
+     *
+     * @return true if there is now space for the event, false if it has been
+     * dealt with already
+     */
+    private boolean makeRoom(String methodName, Variant[] targetParameters) {
+        if (overflow == Overflow.DROP_OLDEST) {
+            removeHead();
+            dropped.incrementAndGet();
+            return true;
+        }
+
+        if (overflow == Overflow.COALESCE) {
+            for (int i = 0; i < count; i++) {
+                int slot = (head + i) % names.length;
+                if (names[slot].equals(methodName)) {
+                    arguments[slot] = copy(targetParameters);
+                    coalesced.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+
+        blocked.incrementAndGet();
+        boolean interrupted = false;
+        while (count == names.length && proxy != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        return proxy != null;
+    }
+
+    private void removeHead() {
+        names[head] = null;
+        arguments[head] = null;
+        head = (head + 1) % names.length;
+        count--;
+    }
+
+    /**
+     * Deliver events until the ring is empty.  Only one drain runs at a time
+     * so the listener sees events in order and never concurrently.
+     */
+    private void drain() {
+        boolean emptied = false;
+        try {
+            while (true) {
+                String methodName;
+                Variant[] targetParameters;
+                long latency;
+                InvocationProxy target;
+
+                synchronized (this) {
+                    if (count == 0 || proxy == null) {
+                        draining = false;
+                        emptied = true;
+                        return;
+                    }
+                    methodName = names[head];
+                    targetParameters = arguments[head];
+                    latency = System.nanoTime() - queuedAt[head];
+                    target = proxy;
+                    removeHead();
+                    notifyAll();
+                }
+
+                record(latency);
+                try {
+                    target.invoke(methodName, targetParameters);
+                } catch (RuntimeException e) {
+                    // The listener's problem; the next event still gets delivered
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            if (!emptied) redrain();
+        }
+    }
+
+    /**
+     * An Error escaped the listener.  Whatever is still queued gets a fresh
+     * drain task so the queue (and any producer waiting on it) is not stuck.
+     */
+    private void redrain() {
+        synchronized (this) {
+            draining = count > 0 && proxy != null;
+            if (!draining) return;
+        }
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            // The next event tries again
+        }
+    }
+
+    private void record(long latency) {
+        delivered.incrementAndGet();
+        totalLatency.addAndGet(latency);
+
+        long max;
+        while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+        }
+    }
+
+    /**
+     * Sets the listener of the proxy this queue delivers to.  Clearing it
+     * (as DispatchEvents.safeRelease() does) discards whatever is still queued
+     * and releases a blocked COM thread.
+     */
+    @Override
+    public void setTarget(Object pTargetObject) {
+        InvocationProxy target;
+        synchronized (this) {
+            target = proxy;
+            if (pTargetObject == null) {
+                while (count > 0) {
+                    removeHead();
+                }
+                proxy = null;
+                notifyAll();
+            }
+        }
+        if (target != null) target.setTarget(pTargetObject);
+    }
+
+    public int getCapacity() {
+        return names.length;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return events waiting to be delivered
+     */
+    public synchronized int getDepth() {
+        return count;
+    }
+
+    /**
+     * @return events handed to the listener
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return events discarded by DROP_OLDEST
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return events merged into a queued event by COALESCE
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return how many times the COM thread had to wait for space
+     */
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    /**
+     * @return mean time from the COM callback to the listener being called
+     */
+    public long getAverageLatencyNanos() {
+        long count = delivered.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    /**
+     * @return longest time from the COM callback to the listener being called
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatency.get();
+    }
+}
@@ -66,6 +66,16 @@ public class FuncDesc {
         this.owner = owner;
     }
 
+    /**
+     * @return a copy of this (sharing its parameters) owned by owner
+     */
+    FuncDesc copyFor(TypeInfo owner) {
+        FuncDesc copy = new FuncDesc(memid, index, invkind, flags, parameters,
+                returnType, optParamsCount, vtableOffset);
+        copy.setOwner(owner);
+        return copy;
+    }
+
     public Parameter[] getParameters() {
         return parameters;
     }
@@ -1,24 +1,47 @@
 package org.racob.com;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * IUnknown...the top of COM
+ * <p>
+ * An object made on a ComExecutor thread is pinned to it: COM calls made on
+ * it from any other thread are run on that thread and the caller waits for
+ * the result.  Objects it hands back (TypeInfos, EnumVariants, Dispatches)
+ * are made there as well so they are pinned to the same thread.
  */
 public class IUnknown {
     // Holds a reference to an integer value which when passed to JNI
     // is cast to a pointer which COM can use.
     protected final Pointer pointer;
 
+    /**
+     * The ComExecutor thread this was made on (if any).  Calls from other
+     * threads are forwarded there.
+     */
+    final ComExecutor.Worker home;
+
     // TODO: Remove this and change classes which cannot cope
     public IUnknown() {
-        this(new Pointer(0));
+        this(new Pointer(0), ComExecutor.currentWorker());
     }
 
     public IUnknown(int pointerValue) {
-        this(new Pointer(pointerValue));
+        this(new Pointer(pointerValue), ComExecutor.currentWorker());
+    }
+
+    /**
+     * For objects which belong to the apartment of another object rather
+     * than the one they are made on.
+     */
+    IUnknown(int pointerValue, ComExecutor.Worker home) {
+        this(new Pointer(pointerValue), home);
     }
     
-    private IUnknown(Pointer pointer) {
+    private IUnknown(Pointer pointer, ComExecutor.Worker home) {
         this.pointer = pointer;
+        this.home = home;
 
         // Register this object so we can release it when it is unreachable
         ROT.addObject(this);
@@ -28,13 +51,46 @@ public class IUnknown {
         return pointer.isAlive();
     }
 
+    /**
+     * @return true if this belongs to a ComExecutor thread other than the
+     * calling one, so COM calls have to be forwarded to it
+     */
+    boolean isForeign() {
+        return home != null && home != Thread.currentThread();
+    }
+
+    /**
+     * @return the thread calls on this are forwarded to or null if this is
+     * used on whichever thread calls it
+     */
+    public Thread getHomeThread() {
+        return home;
+    }
+
     /**
      * Anything can call this to release COM references to the pointer
      * associated with this IUnknown object.  If you do explicitly call this
      * the ROT will try and perform this implicitly when the Java object is
      * no longer reachable.
+     * <p>
+     * Released on its home thread if it has one.  If that thread has already
+     * stopped COM has let go of the object with it.
      */
     public void safeRelease() {
+        if (isForeign()) {
+            try {
+                home.call(new Callable<Object>() {
+                    public Object call() {
+                        safeRelease();
+                        return null;
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pointer.invalidate();
+            }
+            return;
+        }
+
         pointer.safeRelease();
     }
 
@@ -59,6 +115,14 @@ public class IUnknown {
      * @return the count
      */
     public int getReferenceCount() {
+        if (isForeign()) {
+            return home.call(new Callable<Integer>() {
+                public Integer call() {
+                    return getReferenceCount();
+                }
+            }).intValue();
+        }
+
         return getReferenceCount(pointer.get());
     }
 
@@ -66,6 +130,14 @@ public class IUnknown {
     private native int toEnumVariant(int pointer);
     
     public EnumVariant toEnumVariant() {
+        if (isForeign()) {
+            return home.call(new Callable<EnumVariant>() {
+                public EnumVariant call() {
+                    return toEnumVariant();
+                }
+            });
+        }
+
         return new EnumVariant(toEnumVariant(pointer.get()));
     }
 
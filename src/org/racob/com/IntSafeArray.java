@@ -0,0 +1,98 @@
+package org.racob.com;
+
+/**
+ * A SAFEARRAY of ints (VT_I4) kept as a int[] instead of one
+ * Variant per element.  The elements of a multi dimension array are kept
+ * in COM's order, first dimension fastest; get(index) reads that flat order
+ * and get(i, j) uses the array's bounds.
+ */
+public final class IntSafeArray extends SafeArray {
+    private final int[] values;
+
+    /**
+     * @param values the elements, which are used as is rather than copied
+     */
+    public IntSafeArray(int[] values) {
+        this(values, null, null);
+    }
+
+    /**
+     * @param values the elements with the first dimension varying fastest,
+     * used as is rather than copied
+     * @param lowerBounds lowest index of each dimension
+     * @param extents number of elements along each dimension
+     */
+    public IntSafeArray(int[] values, int[] lowerBounds, int[] extents) {
+        if (values == null) throw new IllegalArgumentException("IntSafeArray needs an array");
+
+        this.values = values;
+        setShape(values.length, lowerBounds, extents);
+    }
+
+    public IntSafeArray(int length) {
+        this(new int[length]);
+    }
+
+    @Override
+    public int determinevt() {
+        return Variant.VariantInt;
+    }
+
+    @Override
+    Object getData() {
+        return values;
+    }
+
+    @Override
+    public int length() {
+        return values.length;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        values[index] = value;
+    }
+
+    /**
+     * @return element (i, j) of a two dimension array
+     */
+    public int get(int i, int j) {
+        return values[offset(i, j)];
+    }
+
+    public void set(int i, int j, int value) {
+        values[offset(i, j)] = value;
+    }
+
+    @Override
+    Object objectAt(int offset) {
+        return Integer.valueOf(values[offset]);
+    }
+
+    @Override
+    double doubleAt(int offset) {
+        return values[offset];
+    }
+
+    /**
+     * @return the elements themselves (not a copy)
+     */
+    public int[] getInts() {
+        return values;
+    }
+
+    /**
+     * @return the elements each boxed in a new Variant
+     */
+    @Override
+    public Variant[] getValues() {
+        Variant[] variants = new Variant[values.length];
+        for (int i = 0; i < values.length; i++) {
+            variants[i] = new Variant(values[i]);
+        }
+        return variants;
+    }
+}
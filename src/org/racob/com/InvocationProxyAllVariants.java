@@ -33,6 +33,9 @@ import java.lang.reflect.Method;
  * 
  * <code> void eventMethodName(Variant[])</code> or
  * <code> Variant eventMethodName(Variant[])</code>
+ * <p>
+ * The event methods of each listener class are looked up once and shared (see
+ * EventMethodTable), so events the listener does not implement are cheap.
  */
 public class InvocationProxyAllVariants extends InvocationProxy {
 
@@ -63,44 +66,34 @@ public class InvocationProxyAllVariants extends InvocationProxy {
 			throw new IllegalArgumentException(
 					"InvocationProxy: missing Variant parameters");
 		}
-		try {
-			if (IUnknown.isDebugEnabled()) {
-				IUnknown.debug("InvocationProxy: trying to invoke "
-						+ methodName + " on " + mTargetObject);
-			}
-			Method targetMethod;
-			targetMethod = targetClass.getMethod(methodName,
-					new Class[] { Variant[].class });
-			if (targetMethod != null) {
-				// protected classes can't be invoked against even if they
-				// let you grab the method. you could do
-				// targetMethod.setAccessible(true);
-				// but that should be stopped by the security manager
-				Object mReturnedByInvocation = null;
-				mReturnedByInvocation = targetMethod.invoke(mTargetObject,
-						new Object[] { targetParameters });
-				if (mReturnedByInvocation == null) {
-					mVariantToBeReturned = null;
-				} else if (!(mReturnedByInvocation instanceof Variant)) {
-					// could try and convert to Variant here.
-					throw new IllegalArgumentException(
-							"InvocationProxy: invokation of target method returned "
-									+ "non-null non-variant object: "
-									+ mReturnedByInvocation);
-				} else {
-					mVariantToBeReturned = (Variant) mReturnedByInvocation;
-				}
-			}
-		} catch (SecurityException e) {
-			// what causes this exception?
-			e.printStackTrace();
-		} catch (NoSuchMethodException e) {
+		Method targetMethod = EventMethodTable.forClass(targetClass).get(methodName);
+		if (targetMethod == null) {
 			// this happens whenever the listener doesn't implement all the
 			// methods
 			if (IUnknown.isDebugEnabled()) {
 				IUnknown.debug("InvocationProxy: listener (" + mTargetObject
 						+ ") doesn't implement " + methodName);
 			}
+			return null;
+		}
+		try {
+			if (IUnknown.isDebugEnabled()) {
+				IUnknown.debug("InvocationProxy: trying to invoke "
+						+ methodName + " on " + mTargetObject);
+			}
+			Object mReturnedByInvocation = targetMethod.invoke(mTargetObject,
+					new Object[] { targetParameters });
+			if (mReturnedByInvocation == null) {
+				mVariantToBeReturned = null;
+			} else if (!(mReturnedByInvocation instanceof Variant)) {
+				// could try and convert to Variant here.
+				throw new IllegalArgumentException(
+						"InvocationProxy: invokation of target method returned "
+								+ "non-null non-variant object: "
+								+ mReturnedByInvocation);
+			} else {
+				mVariantToBeReturned = (Variant) mReturnedByInvocation;
+			}
 		} catch (IllegalArgumentException e) {
 			e.printStackTrace();
 			// we can throw these inside the catch block so need to re-throw it
@@ -0,0 +1,77 @@
+package org.racob.com;
+
+/**
+ * A one or two dimension SafeArray seen as rows and columns, from
+ * SafeArray.rowMajor() or SafeArray.columnMajor().  Nothing is copied: both
+ * views read the array's own elements and only differ in the order get(index)
+ * walks them.  Rows and columns are counted from 0 whatever the array's lower
+ * bounds are.
+ */
+public final class MatrixView {
+    private final SafeArray array;
+    private final boolean rowMajor;
+    private final int rows;
+    private final int columns;
+
+    MatrixView(SafeArray array, boolean rowMajor) {
+        this.array = array;
+        this.rowMajor = rowMajor;
+        this.rows = array.getRows();
+        this.columns = array.getColumns();
+    }
+
+    public SafeArray getArray() {
+        return array;
+    }
+
+    public boolean isRowMajor() {
+        return rowMajor;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int length() {
+        return rows * columns;
+    }
+
+    public Object get(int row, int column) {
+        return array.objectAt(offset(row, column));
+    }
+
+    public double getDouble(int row, int column) {
+        return array.doubleAt(offset(row, column));
+    }
+
+    /**
+     * @return the index'th element in this view's order
+     */
+    public Object get(int index) {
+        return array.objectAt(offset(index));
+    }
+
+    /**
+     * @return the index'th element in this view's order
+     */
+    public double getDouble(int index) {
+        return array.doubleAt(offset(index));
+    }
+
+    private int offset(int row, int column) {
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            throw new ArrayIndexOutOfBoundsException("(" + row + ", " + column + ") is outside " + rows + "x" + columns);
+        }
+        return row + column * rows;
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= rows * columns) throw new ArrayIndexOutOfBoundsException(index);
+
+        return rowMajor ? index / columns + (index % columns) * rows : index;
+    }
+}
@@ -0,0 +1,96 @@
+package org.racob.com;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A one or two dimension SAFEARRAY left in native memory to be read a chunk
+ * of rows at a time with reader(), so that a huge result never has to be in
+ * the Java heap all at once.
+ * <p>
+ * Only Dispatch.stream() hands these out, for an array result with at least
+ * the number of elements it was asked for; every other call copies arrays
+ * into Java.  Dispatch.callDirect() is the way to get a byte array as a
+ * DirectSafeArray instead.
+ * <p>
+ * Everything else a SafeArray does still works but copies: getValues()
+ * brings the whole array across and getObject(i, j) one element per trip.
+ * Passing one to COM passes a copy.  close() destroys the array; nothing
+ * else frees it.
+ */
+public final class NativeSafeArray extends SafeArray implements Closeable {
+    /** The SAFEARRAY or 0 once closed */
+    private final AtomicInteger handle;
+    private final int vt;
+
+    /**
+     * Called by the native layer with an array it now owns.
+     */
+    NativeSafeArray(int handle, int vt, int[] lowerBounds, int[] extents) {
+        this.handle = new AtomicInteger(handle);
+        this.vt = vt;
+
+        int length = 1;
+        for (int i = 0; i < extents.length; i++) {
+            length *= extents[i];
+        }
+        setShape(length, lowerBounds, extents);
+    }
+
+    private static native SafeArray readRows(int handle, int first, int count);
+
+    private static native void destroy(int handle);
+
+    public boolean isOpen() {
+        return handle.get() != 0;
+    }
+
+    /**
+     * Destroy the array.  Closing twice does nothing.
+     */
+    public synchronized void close() {
+        int pointer = handle.getAndSet(0);
+        if (pointer != 0) destroy(pointer);
+    }
+
+    /**
+     * Read rows in one trip into native code.  Synchronized with close() so
+     * the array cannot go away in the middle.
+     */
+    @Override
+    synchronized SafeArray rows(int first, int count) {
+        int pointer = handle.get();
+        if (pointer == 0) throw new IllegalStateException("NativeSafeArray is closed");
+        if (first < 0 || count < 0 || first + count > getExtent(0)) {
+            throw new ArrayIndexOutOfBoundsException("Rows " + first + " to " + (first + count - 1) +
+                    " are outside 0.." + (getExtent(0) - 1));
+        }
+
+        return readRows(pointer, first, count);
+    }
+
+    @Override
+    public int determinevt() {
+        return vt;
+    }
+
+    @Override
+    Object objectAt(int offset) {
+        SafeArray row = rows(offset % getExtent(0), 1);
+        return row.objectAt(offset / getExtent(0));
+    }
+
+    @Override
+    double doubleAt(int offset) {
+        SafeArray row = rows(offset % getExtent(0), 1);
+        return row.doubleAt(offset / getExtent(0));
+    }
+
+    /**
+     * @return every element, read from native memory in one go
+     */
+    @Override
+    public Variant[] getValues() {
+        return rows(0, getExtent(0)).getValues();
+    }
+}
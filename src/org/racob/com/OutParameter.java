@@ -0,0 +1,75 @@
+package org.racob.com;
+
+/**
+ * Holds an [in, out] or [out] argument for a Dispatch call.  Pass it in place
+ * of the argument and it goes to COM by reference.  Once the call returns it
+ * holds whatever the callee wrote back:
+ * <pre>
+ *   OutParameter count = new OutParameter();
+ *   dispatch.call("GetCount", count);
+ *   int n = count.get().getInt();
+ * </pre>
+ * Only by-ref arguments get copied back after Invoke so this is the way to
+ * ask for one.
+ */
+public class OutParameter {
+    private Variant value;
+
+    /**
+     * An [out] parameter with nothing going in.  It is passed as a
+     * VT_VARIANT|VT_BYREF so the callee can put any type in it.
+     */
+    public OutParameter() {
+        this.value = new Variant();
+    }
+
+    /**
+     * An [in, out] parameter starting out with value.  It is passed by
+     * reference as whatever type value converts to.
+     */
+    public OutParameter(Object value) {
+        set(value);
+    }
+
+    /**
+     * @return the current value (what the callee wrote after a call)
+     */
+    public Variant get() {
+        return value;
+    }
+
+    /**
+     * @return the current value converted to a Java object
+     */
+    public Object getValue() {
+        return value.toJavaObject();
+    }
+
+    public void set(Object value) {
+        this.value = VariantUtilities.objectToVariant(value);
+    }
+
+    /**
+     * @return a by-ref Variant of the current value to pass to Invoke
+     */
+    Variant toByRefVariant() {
+        short type = value.getType();
+
+        if (type == Variant.VariantEmpty || type == Variant.VariantNull) {
+            return new Variant(value, true);
+        }
+        if (value.isArray()) return new Variant(value.getArray(), true);
+
+        return new Variant(value.getValue(), (short) (type | Variant.VariantByref));
+    }
+
+    /**
+     * After Invoke the by-ref Variants in variants hold what the callee wrote
+     * back.  Hand those to any OutParameters in the matching args.
+     */
+    static void copyBack(Object[] args, Variant[] variants) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof OutParameter) ((OutParameter) args[i]).value = variants[i];
+        }
+    }
+}
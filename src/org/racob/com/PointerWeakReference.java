@@ -13,6 +13,8 @@ import java.lang.ref.WeakReference;
  */
 public class PointerWeakReference extends WeakReference {
     private final Pointer pointer;
+    // When the Reaper found this dead (System.nanoTime())
+    long reapedAt;
     
     public PointerWeakReference(IUnknown object, ReferenceQueue queue) {
         super(object, queue);
@@ -22,7 +22,11 @@ package org.racob.com;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Running Object Table (ROT) maps each thread to a collection of all the
@@ -30,23 +34,58 @@ import java.util.concurrent.ConcurrentHashMap;
  * current thread so all the methods are static and they implicitly get the
  * current thread.
  * <p>
+ * Every apartment (thread) has its own registry so threads never contend
+ * with each other when adding objects, and clearObjects only releases the
+ * objects of the apartment calling it.  The statistics are counted per
+ * apartment too and only summed when asked for, so they are only approximate
+ * while other threads are busy.
+ * <p>
+ * With org.racob.autogc the Reaper finds unreachable objects in the
+ * background and asks their apartment to release them, which it does the
+ * next time it pumps messages, adds an object or calls releasePending.
+ * Without the reaper the dead objects are culled inline every
+ * org.racob.cull_count additions.
+ * <p>
+ * Objects made while a ComScope is open are held by that scope instead and
+ * are never tracked here unless promoted out of it.
+ * <p>
  * The clearObjects method is used to release all the COM objects created by
  * Jacob in the current thread prior to uninitializing COM for that thread.
  * <p>
  */
 public abstract class ROT {
-    private static ThreadLocal<Boolean> apartmentInitialized = new ThreadLocal<Boolean>() {
-        @Override
-        public Boolean initialValue() {
-            return FALSE;
-        }
-    };
-    public static Map<PointerWeakReference,Boolean> objects = new ConcurrentHashMap<PointerWeakReference, Boolean>();
+    /**
+     * The objects created by one apartment.  Only its own thread adds to it
+     * so count needs no synchronization.  pending holds what the Reaper found
+     * dead for this thread to release and releaseRequested is set while the
+     * Reaper has a release message posted to it.
+     */
+    static final class Apartment {
+        final Thread thread = Thread.currentThread();
+        int threadID = 0; // Win32 id, set when registered with the Reaper
+        final Queue<PointerWeakReference> pending = new ConcurrentLinkedQueue<PointerWeakReference>();
+        final AtomicBoolean releaseRequested = new AtomicBoolean();
+        boolean cleared = false; // guarded by this
+        boolean joinedCOM = false; // the ROT called CoInitialize for this thread
+        ComScope scope = null; // innermost open scope
+        final Map<PointerWeakReference, Boolean> objects =
+                new ConcurrentHashMap<PointerWeakReference, Boolean>();
+        final ReferenceQueue<IUnknown> deadObjects = new ReferenceQueue<IUnknown>();
+        int count = 0;
+        // Statistics which only the owning thread writes
+        volatile long added = 0;
+        volatile long released = 0;
+    }
+
+    private static final ThreadLocal<Apartment> apartment = new ThreadLocal<Apartment>();
     private static final Boolean FALSE = new Boolean(false);
-    private static final Boolean TRUE = new Boolean(true);
-    private static int count = 0;
+    private static final Map<Apartment, Boolean> apartments =
+            new ConcurrentHashMap<Apartment, Boolean>();
+    // What apartments which have since been cleared added and released
+    private static final AtomicLong retiredAdded = new AtomicLong();
+    private static final AtomicLong retiredReleased = new AtomicLong();
     private static final int CULL_COUNT;
-    private static final int GC_COUNT;
+    static final int GC_COUNT;
     private static final boolean AUTO_GC;
 
     static {
@@ -63,33 +102,115 @@ public abstract class ROT {
         AUTO_GC = Boolean.parseBoolean(auto_gc);
     }
 
-    private static ThreadLocal<ReferenceQueue<IUnknown>> deadPool = new ThreadLocal<ReferenceQueue<IUnknown>>() {
-        @Override
-        protected ReferenceQueue<IUnknown> initialValue() {
-            return new ReferenceQueue<IUnknown>();
+    /**
+     * @return the objects registered by the current thread (empty if it has
+     * not created any)
+     */
+    public static Map<PointerWeakReference,Boolean> getThreadObjects(boolean ignored) {
+        Apartment current = apartment.get();
+
+        return current != null ? current.objects : new ConcurrentHashMap<PointerWeakReference, Boolean>();
+    }
+
+    /**
+     * @return how many threads currently have a registry
+     */
+    public static int getApartmentCount() {
+        return apartments.size();
+    }
+
+    /**
+     * @return how many objects have been registered by all threads
+     */
+    public static long getAddedCount() {
+        long count = retiredAdded.get();
+
+        for (Apartment each : apartments.keySet()) {
+            count += each.added;
         }
-    };
 
-    public static Map<PointerWeakReference,Boolean> getThreadObjects(boolean ignored) {
-        return objects;
+        return count;
+    }
+
+    /**
+     * @return how many registered objects have been culled or cleared by all
+     * threads
+     */
+    public static long getReleasedCount() {
+        long count = retiredReleased.get();
+
+        for (Apartment each : apartments.keySet()) {
+            count += each.released;
+        }
+
+        return count;
     }
+
     /**
-     * safeRelease all remaining alive objects.
+     * Release everything the Reaper has found dead in the current thread.
+     * The message pumps of STA and ComExecutor threads call this when the
+     * Reaper asks them to.  Threads which never pump messages and go a long
+     * time without creating objects can call this when idle.
+     *
+     * @return how many objects were released
      */
-    protected static void clearObjects() {
+    public static int releasePending() {
+        Apartment current = apartment.get();
+
+        return current != null ? Reaper.drain(current, Integer.MAX_VALUE) : 0;
+    }
+
+    /**
+     * safeRelease all remaining alive objects of the current thread and
+     * forget its registry.  Other threads' objects are left alone.
+     *
+     * @return true if the thread had not initialized COM before its first
+     * object was made, so the ROT did it and the caller should balance that
+     */
+    protected static boolean clearObjects() {
+        Apartment current = apartment.get();
+        if (current == null) return false;
+
         if (IUnknown.isDebugEnabled()) {
-            IUnknown.debug("ROT: " + objects.size() + " objects to clear in this thread's ROT ");
+            IUnknown.debug("ROT: " + current.objects.size() + " objects to clear in this thread's ROT ");
+        }
+
+        Reaper.unregister(current);
+
+        // Open scopes were going to release their objects anyway
+        ComScope outermost = current.scope;
+        if (outermost != null) {
+            while (outermost.parent() != null) outermost = outermost.parent();
+            outermost.close();
         }
 
         // walk the values
-        for (PointerWeakReference reference : objects.keySet()) {
+        for (PointerWeakReference reference : current.objects.keySet()) {
             IUnknown value = (IUnknown) reference.get();
 
             if (value != null) {
                 value.safeRelease();
             }
         }
-        objects.clear();
+        current.released += current.objects.size();
+        current.objects.clear();
+
+        // COM is being uninitialized so the next object made on this thread
+        // has to join an apartment again
+        apartment.remove();
+        retire(current);
+        return current.joinedCOM;
+    }
+
+    /**
+     * Stop counting an apartment which has been cleared or whose thread has
+     * died, keeping what it added and released in the totals.
+     */
+    static void retire(Apartment current) {
+        if (apartments.remove(current) == null) return;
+
+        retiredAdded.addAndGet(current.added);
+        retiredReleased.addAndGet(current.released);
     }
 
     /**
@@ -99,30 +220,73 @@ public abstract class ROT {
      * @param o
      */
     protected static void addObject(IUnknown o) {
-        // If a new thread joins we need to add it to the apartment
-        if (apartmentInitialized.get() == FALSE) {
-            ComThread.InitSTA(false);
-            apartmentInitialized.set(TRUE);
+        Apartment current = currentApartment();
+
+        if (current.scope != null) {
+            current.scope.add(o.pointer);
+            current.added++;
+            return;
+        }
+
+        track(current, o);
+    }
+
+    /**
+     * @return the current thread's registry, joining it to an apartment first
+     * if this is the first time it has been used
+     */
+    static Apartment currentApartment() {
+        Apartment current = apartment.get();
+
+        // A thread which has not initialized COM itself is made an STA.  One
+        // which has (even if it has since cleared its objects) is left alone.
+        if (current == null) {
+            boolean joinCOM = !ComThread.isInitialized();
+            if (joinCOM) ComThread.InitSTA(false);
+            current = new Apartment();
+            current.joinedCOM = joinCOM;
+            apartment.set(current);
+            apartments.put(current, Boolean.TRUE);
+            if (AUTO_GC && Reaper.ENABLED) Reaper.register(current);
         }
 
+        return current;
+    }
+
+    /**
+     * @return the current thread's registry or null if it does not have one
+     */
+    static Apartment peekApartment() {
+        return apartment.get();
+    }
+
+    /**
+     * Track o with a weak reference so it is released once unreachable.
+     */
+    static void track(Apartment current, IUnknown o) {
         if (!AUTO_GC) return;
-        
-        ReferenceQueue<IUnknown> deadObjects = deadPool.get();
 
-        objects.put(new PointerWeakReference(o, deadObjects), FALSE);
+        current.objects.put(new PointerWeakReference(o, current.deadObjects), FALSE);
+        current.added++;
+
+        if (Reaper.ENABLED) {
+            if (!current.pending.isEmpty()) Reaper.drain(current, Reaper.BATCH);
+            return;
+        }
 
-        if (GC_COUNT != -1 && (count % GC_COUNT) == 0) {
+        if (GC_COUNT != -1 && (current.count % GC_COUNT) == 0) {
             System.gc();
         }
 
-        if ((count++ % CULL_COUNT) == 0) {
-            int numberCulled = cullDeadPool(deadObjects, objects);
+        if ((current.count++ % CULL_COUNT) == 0) {
+            int numberCulled = cullDeadPool(current.deadObjects, current.objects);
+            current.released += numberCulled;
 
             if (IUnknown.isDebugEnabled()) {
                 if (numberCulled > 0) {
                     IUnknown.debug("ROT: added instance of " +
                     o.getClass().getSimpleName() + "->[+1, -" +
-                    numberCulled + "] with " + objects.size() +
+                    numberCulled + "] with " + current.objects.size() +
                     " remaining live objects");
                 }
             }
@@ -136,8 +300,7 @@ public abstract class ROT {
         Reference<? extends IUnknown> deadReference;
         while ((deadReference = deadObjects.poll()) != null) {
             ((PointerWeakReference) deadReference).safeRelease();
-            liveList.remove(deadReference);
-            numberReleased++;
+            if (liveList.remove(deadReference) != null) numberReleased++;
         }
 
         return numberReleased;
@@ -0,0 +1,263 @@
+package org.racob.com;
+
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds IUnknowns which are no longer reachable so the ROT does not have to
+ * go looking for them while an object is being created.  A daemon thread
+ * wakes up every org.racob.reaper_interval milliseconds (default 1000) and
+ * moves up to org.racob.reaper_batch (default 256) dead references per
+ * apartment onto that apartment's pending queue.
+ * <p>
+ * COM objects have to be released on the apartment that made them so the
+ * reaper never releases anything itself.  Instead it posts the apartment's
+ * thread a message and the thread releases what is pending as soon as it
+ * pumps messages, so idle STA and ComExecutor threads release their dead
+ * objects too.  A thread which never pumps releases them the next time it
+ * creates an object, calls ROT.releasePending() or calls ComThread.Release().
+ * <p>
+ * A thread which dies without calling ComThread.Release() takes its
+ * apartment with it and its objects can no longer be released anywhere.
+ * Those are counted by getAbandonedCount() and reported on System.err.
+ * <p>
+ * The reaper only runs with -Dorg.racob.autogc=true and can be turned off
+ * with -Dorg.racob.reaper=false, in which case the ROT culls inline like it
+ * used to.
+ */
+public final class Reaper {
+    static final boolean ENABLED;
+    static final int BATCH;
+    private static final long INTERVAL;
+
+    static {
+        String reaper = System.getProperty("org.racob.reaper");
+        ENABLED = reaper == null || Boolean.parseBoolean(reaper);
+
+        String interval = System.getProperty("org.racob.reaper_interval");
+        if (interval == null) interval = "1000";
+        INTERVAL = Long.parseLong(interval);
+
+        String batch = System.getProperty("org.racob.reaper_batch");
+        if (batch == null) batch = "256";
+        BATCH = Integer.parseInt(batch);
+    }
+
+    private static final Map<ROT.Apartment, Boolean> apartments =
+            new ConcurrentHashMap<ROT.Apartment, Boolean>();
+    private static final AtomicInteger queueDepth = new AtomicInteger();
+    private static final AtomicLong reaped = new AtomicLong();
+    private static final AtomicLong releases = new AtomicLong();
+    private static final AtomicLong abandoned = new AtomicLong();
+    private static final AtomicLong totalLatency = new AtomicLong();
+    private static final AtomicLong maxLatency = new AtomicLong();
+    private static long addedAtLastGC = 0;
+    private static Thread thread = null;
+
+    private Reaper() {
+    }
+
+    /**
+     * Start watching an apartment's dead references.  The reaper thread is
+     * started by the first apartment which needs it.  Must be called on the
+     * apartment's own thread.
+     */
+    static void register(ROT.Apartment apartment) {
+        apartment.threadID = STA.currentThreadId();
+        apartments.put(apartment, Boolean.TRUE);
+        start();
+    }
+
+    /**
+     * Stop watching an apartment and release whatever was pending for it.
+     * Must be called on the apartment's own thread.
+     */
+    static void unregister(ROT.Apartment apartment) {
+        synchronized (apartment) {
+            apartment.cleared = true;
+            apartments.remove(apartment);
+        }
+        drain(apartment, Integer.MAX_VALUE);
+    }
+
+    private static synchronized void start() {
+        if (thread != null) return;
+
+        thread = new Thread("racob-reaper") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    reapAll();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void reapAll() {
+        // Every org.racob.gc_count additions push for a collection so there
+        // is something to reap
+        long added = ROT.getAddedCount();
+        if (ROT.GC_COUNT > 0 && added - addedAtLastGC >= ROT.GC_COUNT) {
+            addedAtLastGC = added;
+            System.gc();
+        }
+
+        for (ROT.Apartment apartment : apartments.keySet()) {
+            if (!apartment.thread.isAlive()) {
+                abandon(apartment);
+                continue;
+            }
+            if (reap(apartment) > 0) requestRelease(apartment);
+        }
+    }
+
+    /**
+     * The thread died without ComThread.Release() so its apartment is gone
+     * and nothing it made can be released any more.
+     */
+    private static void abandon(ROT.Apartment apartment) {
+        apartments.remove(apartment);
+        ROT.retire(apartment);
+
+        int lost = apartment.pending.size() + apartment.objects.size();
+        queueDepth.addAndGet(-apartment.pending.size());
+        apartment.pending.clear();
+        apartment.objects.clear();
+        if (lost == 0) return;
+
+        abandoned.addAndGet(lost);
+        if (IUnknown.isDebugEnabled()) {
+            IUnknown.debug("Reaper: " + apartment.thread.getName() +
+                    " ended without ComThread.Release(); " + lost +
+                    " COM objects were never released");
+        }
+    }
+
+    /**
+     * Post the apartment a message asking it to release what is pending
+     * unless it already has one waiting.
+     */
+    private static void requestRelease(ROT.Apartment apartment) {
+        if (!apartment.releaseRequested.compareAndSet(false, true)) return;
+
+        // No message queue (e.g. it has not pumped yet); try again next time
+        if (!STA.postReleasePending(apartment.threadID)) {
+            apartment.releaseRequested.set(false);
+        }
+    }
+
+    /**
+     * @return how many dead references were moved to pending
+     */
+    @SuppressWarnings("element-type-mismatch")
+    private static int reap(ROT.Apartment apartment) {
+        int found = 0;
+
+        // Lock against unregister so nothing is posted after the final drain
+        synchronized (apartment) {
+            if (apartment.cleared) return 0;
+
+            Reference<? extends IUnknown> deadReference;
+            for (int i = 0; i < BATCH && (deadReference = apartment.deadObjects.poll()) != null; i++) {
+                PointerWeakReference reference = (PointerWeakReference) deadReference;
+
+                if (apartment.objects.remove(reference) == null) continue;
+
+                reference.reapedAt = System.nanoTime();
+                apartment.pending.offer(reference);
+                queueDepth.incrementAndGet();
+                reaped.incrementAndGet();
+                found++;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Release up to max references the reaper posted to apartment.  Must be
+     * called on the apartment's own thread.
+     *
+     * @return how many were released
+     */
+    static int drain(ROT.Apartment apartment, int max) {
+        int count = 0;
+        PointerWeakReference reference;
+
+        // Anything reaped from here on needs a new message
+        apartment.releaseRequested.set(false);
+
+        while (count < max && (reference = apartment.pending.poll()) != null) {
+            reference.safeRelease();
+            queueDepth.decrementAndGet();
+            recordLatency(System.nanoTime() - reference.reapedAt);
+            count++;
+        }
+        releases.addAndGet(count);
+        apartment.released += count;
+
+        return count;
+    }
+
+    private static void recordLatency(long latency) {
+        totalLatency.addAndGet(latency);
+
+        long max;
+        while (latency > (max = maxLatency.get())) {
+            if (maxLatency.compareAndSet(max, latency)) return;
+        }
+    }
+
+    /**
+     * @return dead references waiting for their apartment to release them
+     */
+    public static int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return how many dead references the reaper has found
+     */
+    public static long getReapedCount() {
+        return reaped.get();
+    }
+
+    /**
+     * @return how many references found by the reaper have been released
+     */
+    public static long getReleaseCount() {
+        return releases.get();
+    }
+
+    /**
+     * @return how many objects were lost with threads which died without
+     * calling ComThread.Release()
+     */
+    public static long getAbandonedCount() {
+        return abandoned.get();
+    }
+
+    /**
+     * @return average time between the reaper finding a dead reference and
+     * its apartment releasing it
+     */
+    public static long getAverageReleaseLatencyNanos() {
+        long count = releases.get();
+
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    public static long getMaxReleaseLatencyNanos() {
+        return maxLatency.get();
+    }
+}
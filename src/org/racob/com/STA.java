@@ -92,6 +92,38 @@ public class STA extends Thread {
 	 */
 	public native void quitMessagePump(int threadID);
 
+	/**
+	 * @return the Win32 id of the calling thread
+	 */
+	static native int currentThreadId();
+
+	/**
+	 * Wait up to timeout milliseconds (-1 for ever) for a message and then
+	 * dispatch all waiting messages.
+	 * 
+	 * @return false if WM_QUIT was received
+	 */
+	static native boolean pumpMessages(int timeout);
+
+	/**
+	 * make a thread waiting in pumpMessages return
+	 */
+	static native void wake(int threadID);
+
+	/**
+	 * put back a WM_QUIT which pumpMessages took off the calling thread's
+	 * queue so its own message loop sees it
+	 */
+	static native void postQuit();
+
+	/**
+	 * Ask a thread to call ROT.releasePending() the next time it pumps
+	 * messages (in doMessagePump or pumpMessages)
+	 * 
+	 * @return false if the message could not be posted
+	 */
+	static native boolean postReleasePending(int threadID);
+
 	/**
 	 * STA isn't a subclass of JacobObject so a reference to it doesn't load the
 	 * DLL without this
@@ -19,22 +19,87 @@
  */
 package org.racob.com;
 
+import java.lang.reflect.Array;
+
 /**
- * This implementation has two obvious problems:
- * 1. It only works with a single dimension
- * 2. It boxes all primitive types in the lists it contains.  Not only that
- * it double boxes them into Variants.
- *
- * These two details may require a re-write if it becomes obvious to anyone
- * that we are creating so many objects.  A different design would be to support
- * n SafeArray classes so we can have one for each primitive type and one for
- * all Object/Variant-based ones.
+ * The elements of a SAFEARRAY of any number of dimensions along with its
+ * bounds.  Elements are kept in one flat array in the order COM keeps them:
+ * the first dimension varies fastest (column major), so element (i, j) of a
+ * two dimension array is at offset (i - lower0) + (j - lower1) * extent0 and
+ * getObject(i, j) is a single lookup.  Indices passed to offset(), getObject()
+ * and getDouble() use the array's own bounds (Excel ranges start at 1).
+ * <p>
+ * Primitive elements are boxed into Variants, which the typed subclasses
+ * (DoubleSafeArray, IntSafeArray, ByteSafeArray and StringSafeArray) avoid by
+ * holding a Java array instead.  The native layer creates them for SAFEARRAYs
+ * of those types and copies their contents in and out in one go.
+ * getValues() on them still works but boxes every element.  Large byte
+ * arrays can instead be left in native memory as a DirectSafeArray.
+ * <p>
+ * Arrays of one or two dimensions can also be read as a matrix of rows and
+ * columns: rowMajor() and columnMajor() are views over the same elements
+ * which differ only in the order they are walked, and toDoubleMatrix() and
+ * toObjectMatrix() copy everything out in a single pass.  A one dimension
+ * array is a single row, as Excel treats it.
  */
 public class SafeArray {
     private Variant[] values;
+    private int[] lowerBounds;
+    private int[] extents;
+    /** Distance in elements between neighbours along each dimension */
+    private int[] strides;
+    private int length;
 
     public SafeArray(Variant[] values) {
+        this(values, null, null);
+    }
+
+    /**
+     * @param values elements with the first dimension varying fastest
+     * @param lowerBounds lowest index of each dimension
+     * @param extents number of elements along each dimension
+     */
+    public SafeArray(Variant[] values, int[] lowerBounds, int[] extents) {
         this.values = values;
+        setShape(values == null ? 0 : values.length, lowerBounds, extents);
+    }
+
+    /**
+     * For typed subclasses which keep their elements themselves.  They must
+     * call setShape().
+     */
+    SafeArray() {
+    }
+
+    /**
+     * Null bounds and extents make a single dimension array starting at 0.
+     */
+    final void setShape(int length, int[] lowerBounds, int[] extents) {
+        if (lowerBounds == null && extents == null) {
+            lowerBounds = new int[] { 0 };
+            extents = new int[] { length };
+        }
+        if (lowerBounds == null || extents == null || extents.length == 0 ||
+                lowerBounds.length != extents.length) {
+            throw new IllegalArgumentException("SafeArray needs a lower bound and an extent for each dimension");
+        }
+
+        int[] strides = new int[extents.length];
+        long count = 1;
+        for (int i = 0; i < extents.length; i++) {
+            if (extents[i] < 0) throw new IllegalArgumentException("SafeArray extent cannot be negative: " + extents[i]);
+
+            strides[i] = (int) count;
+            count *= extents[i];
+        }
+        if (count != length) {
+            throw new IllegalArgumentException("SafeArray of " + length + " elements cannot have " + count);
+        }
+
+        this.lowerBounds = lowerBounds.clone();
+        this.extents = extents.clone();
+        this.strides = strides;
+        this.length = length;
     }
 
     public int determinevt() {
@@ -48,18 +113,304 @@ public class SafeArray {
         return variantType;
     }
 
+    /**
+     * Called by the native layer.
+     *
+     * @return the Java array a typed SafeArray keeps its elements in, or null
+     * if the elements are Variants
+     */
+    Object getData() {
+        return null;
+    }
+
+    /**
+     * Called by the native layer.  Every non-zero result must be matched by
+     * a giveBack() once COM is done with the array.
+     *
+     * @return the SAFEARRAY a DirectSafeArray lends to COM, or 0 if the
+     * elements are in Java
+     */
+    int lend() {
+        return 0;
+    }
+
+    /**
+     * Called by the native layer when a lent array is no longer used.
+     */
+    void giveBack() {
+    }
+
+    /**
+     * Called by the native layer, which must not change them.
+     */
+    int[] getLowerBounds() {
+        return lowerBounds;
+    }
+
+    /**
+     * Called by the native layer, which must not change them.
+     */
+    int[] getExtents() {
+        return extents;
+    }
+
+    public int getDimensions() {
+        return extents.length;
+    }
+
+    /**
+     * @param dimension counted from 0 (COM counts from 1)
+     */
+    public int getLowerBound(int dimension) {
+        return lowerBounds[dimension];
+    }
+
+    /**
+     * @param dimension counted from 0 (COM counts from 1)
+     */
+    public int getUpperBound(int dimension) {
+        return lowerBounds[dimension] + extents[dimension] - 1;
+    }
+
+    /**
+     * @param dimension counted from 0 (COM counts from 1)
+     */
+    public int getExtent(int dimension) {
+        return extents[dimension];
+    }
+
+    /**
+     * @return number of elements in all dimensions together
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return where element (i, j) of a two dimension array is in the flat
+     * elements
+     */
+    public int offset(int i, int j) {
+        if (extents.length != 2) throw new IllegalArgumentException("SafeArray has " + extents.length + " dimensions, not 2");
+
+        return position(0, i) + position(1, j) * strides[1];
+    }
+
+    /**
+     * @return where the element at indices (one per dimension) is in the
+     * flat elements
+     */
+    public int offset(int... indices) {
+        if (indices.length != extents.length) {
+            throw new IllegalArgumentException("SafeArray has " + extents.length + " dimensions, not " + indices.length);
+        }
+
+        int offset = 0;
+        for (int i = 0; i < indices.length; i++) {
+            offset += position(i, indices[i]) * strides[i];
+        }
+        return offset;
+    }
+
+    private int position(int dimension, int index) {
+        int position = index - lowerBounds[dimension];
+        if (position < 0 || position >= extents[dimension]) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " is outside " +
+                    lowerBounds[dimension] + ".." + getUpperBound(dimension) + " of dimension " + dimension);
+        }
+        return position;
+    }
+
+    /**
+     * @return element (i, j) of a two dimension array as a Java object
+     */
+    public Object getObject(int i, int j) {
+        return objectAt(offset(i, j));
+    }
+
+    /**
+     * @return element (i, j) of a two dimension array as a double (see
+     * toDoubleMatrix())
+     */
+    public double getDouble(int i, int j) {
+        return doubleAt(offset(i, j));
+    }
+
+    /**
+     * Element at a flat offset as a Java object.  Typed subclasses override
+     * this and doubleAt() to read their own array.
+     */
+    Object objectAt(int offset) {
+        Variant value = values[offset];
+        return value == null ? null : value.toJavaObject();
+    }
+
+    double doubleAt(int offset) {
+        Variant value = values[offset];
+        return value == null ? 0 : value.doubleValue();
+    }
+
+    /**
+     * @return a view of this two (or one) dimension array which walks it a
+     * row at a time
+     */
+    public MatrixView rowMajor() {
+        return new MatrixView(this, true);
+    }
+
+    /**
+     * @return a view of this two (or one) dimension array which walks it a
+     * column at a time, which is the order the elements are kept in
+     */
+    public MatrixView columnMajor() {
+        return new MatrixView(this, false);
+    }
+
+    /**
+     * @return number of rows when seen as a matrix
+     */
+    int getRows() {
+        checkMatrix();
+        return extents.length == 1 ? 1 : extents[0];
+    }
+
+    /**
+     * @return number of columns when seen as a matrix
+     */
+    int getColumns() {
+        checkMatrix();
+        return extents.length == 1 ? extents[0] : extents[1];
+    }
+
+    private void checkMatrix() {
+        if (extents.length > 2) throw new IllegalStateException("SafeArray of " + extents.length + " dimensions is not a matrix");
+    }
+
+    /**
+     * Copy a one or two dimension array out as [row][column] in one pass
+     * over the elements.  Numbers, booleans (-1 or 0), dates (OLE dates) and
+     * empty elements (0) convert; anything else, COM errors included, is NaN.
+     */
+    public double[][] toDoubleMatrix() {
+        int rows = getRows();
+        int columns = getColumns();
+        double[][] matrix = new double[rows][columns];
+
+        int offset = 0;
+        for (int column = 0; column < columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                matrix[row][column] = doubleAt(offset++);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Copy a one or two dimension array out as [row][column] in one pass
+     * over the elements, each converted as Variant.toJavaObject() would.
+     */
+    public Object[][] toObjectMatrix() {
+        int rows = getRows();
+        int columns = getColumns();
+        Object[][] matrix = new Object[rows][columns];
+
+        int offset = 0;
+        for (int column = 0; column < columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                matrix[row][column] = objectAt(offset++);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Read this array a chunk of rows at a time; see SafeArrayReader.
+     *
+     * @param chunkRows most rows (elements of the first dimension) per chunk
+     */
+    public SafeArrayReader reader(int chunkRows) {
+        return new SafeArrayReader(this, chunkRows);
+    }
+
+    /**
+     * @return rows first to first + count - 1 (counted from 0 along the
+     * first dimension) as an array of their own which keeps their bounds
+     */
+    SafeArray rows(int first, int count) {
+        Object elements = getData() != null ? getData() : values;
+        int rows = extents[0];
+        int columns = length / Math.max(rows, 1);
+        Object slice = Array.newInstance(elements.getClass().getComponentType(), count * columns);
+
+        // Each column's rows are next to each other so one copy per column
+        for (int column = 0; column < columns; column++) {
+            System.arraycopy(elements, first + column * rows, slice, column * count, count);
+        }
+        return create(slice, rowBounds(first), rowExtents(count));
+    }
+
+    /**
+     * @return lower bounds of a chunk of rows starting at row first
+     */
+    final int[] rowBounds(int first) {
+        int[] bounds = lowerBounds.clone();
+        bounds[0] += first;
+        return bounds;
+    }
+
+    /**
+     * @return extents of a chunk of count rows
+     */
+    final int[] rowExtents(int count) {
+        int[] sizes = extents.clone();
+        sizes[0] = count;
+        return sizes;
+    }
+
+    /**
+     * @return a SafeArray of value's elements: a typed one for double[],
+     * int[], byte[] and String[], otherwise one of Variants
+     */
     public static SafeArray create(Object value) {
-        Class componentType = value.getClass().getComponentType();
+        return create(value, null, null);
+    }
+
+    /**
+     * @return a SafeArray of value's elements (first dimension varying
+     * fastest) with the given bounds, chosen as create(Object) does
+     * @throws IllegalArgumentException if value is not an array
+     */
+    public static SafeArray create(Object value, int[] lowerBounds, int[] extents) {
+        if (value == null || !value.getClass().isArray()) {
+            throw new IllegalArgumentException("Cannot make a SafeArray of " + value);
+        }
+
+        if (value instanceof double[]) return new DoubleSafeArray((double[]) value, lowerBounds, extents);
+        if (value instanceof int[]) return new IntSafeArray((int[]) value, lowerBounds, extents);
+        if (value instanceof byte[]) return new ByteSafeArray((byte[]) value, lowerBounds, extents);
+        if (value instanceof String[]) return new StringSafeArray((String[]) value, lowerBounds, extents);
+
+        Class<?> componentType = value.getClass().getComponentType();
         Variant[] values;
         if (Variant.class.isAssignableFrom(componentType)) {
             values = (Variant[]) value;
+        } else if (componentType.isPrimitive()) {
+            // Other primitive arrays (long[], boolean[], ...) are boxed first
+            Object[] boxed = new Object[Array.getLength(value)];
+            for (int i = 0; i < boxed.length; i++) {
+                boxed[i] = Array.get(value, i);
+            }
+            values = VariantUtilities.objectsToVariants(boxed);
         } else {
             values = VariantUtilities.objectsToVariants((Object[]) value);
         }
-        return new SafeArray(values);
+        return new SafeArray(values, lowerBounds, extents);
     }
 
+    /**
+     * @return the elements with the first dimension varying fastest
+     */
     public Variant[] getValues() {
         return values;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+package org.racob.com;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a SafeArray a chunk of rows at a time so huge results (a million row
+ * Range.Value) can be processed in bounded memory.  Rows are the first
+ * dimension, which is what Excel's two dimension arrays use for them; a one
+ * dimension array is split into runs of elements.
+ * <p>
+ * Each chunk is a SafeArray of its own which keeps the original bounds of its
+ * rows, so chunk.getObject(row, column) takes the same indices as the whole
+ * array would.  Chunks of doubles, ints, bytes or strings are typed (a
+ * DoubleSafeArray and so on).  For a NativeSafeArray each chunk is made in one
+ * trip into native code and nothing else of the array is ever copied into
+ * Java; for other arrays the chunks are copies of part of their elements.
+ *
+ * <pre>
+ * NativeSafeArray cells = (NativeSafeArray) range.stream(&quot;Value&quot;, 0).getArray();
+ * try {
+ *     cells.reader(10000).forEach(consumer);
+ * } finally {
+ *     cells.close();
+ * }
+ * </pre>
+ */
+public final class SafeArrayReader implements Iterator<SafeArray> {
+    /**
+     * Handed every chunk in order by forEach().
+     */
+    public interface Consumer {
+        public void accept(SafeArray rows);
+    }
+
+    private final SafeArray array;
+    private final int chunkRows;
+    private final int rows;
+    private int position = 0;
+
+    SafeArrayReader(SafeArray array, int chunkRows) {
+        if (chunkRows < 1) throw new IllegalArgumentException("SafeArrayReader needs at least one row per chunk: " + chunkRows);
+        if (array.getDimensions() > 2) {
+            throw new IllegalArgumentException("SafeArrayReader only reads one or two dimensions, not " + array.getDimensions());
+        }
+
+        this.array = array;
+        this.chunkRows = chunkRows;
+        this.rows = array.getExtent(0);
+    }
+
+    public SafeArray getArray() {
+        return array;
+    }
+
+    public int getChunkRows() {
+        return chunkRows;
+    }
+
+    /**
+     * @return rows in the whole array
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return rows read so far
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public boolean hasNext() {
+        return position < rows;
+    }
+
+    /**
+     * @return the next chunkRows rows (fewer for the last chunk)
+     */
+    public SafeArray next() {
+        if (!hasNext()) throw new NoSuchElementException("All " + rows + " rows have been read");
+
+        int count = Math.min(chunkRows, rows - position);
+        SafeArray chunk = array.rows(position, count);
+        position += count;
+        return chunk;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("SafeArrays cannot lose rows");
+    }
+
+    /**
+     * Hand every remaining chunk to consumer.  Each chunk can be collected
+     * once consumer is done with it.
+     *
+     * @return number of chunks handed over
+     */
+    public int forEach(Consumer consumer) {
+        int chunks = 0;
+        while (hasNext()) {
+            consumer.accept(next());
+            chunks++;
+        }
+        return chunks;
+    }
+}
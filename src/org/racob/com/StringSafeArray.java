@@ -0,0 +1,98 @@
+package org.racob.com;
+
+/**
+ * A SAFEARRAY of Strings (VT_BSTR) kept as a String[] instead of one
+ * Variant per element.  The elements of a multi dimension array are kept
+ * in COM's order, first dimension fastest; get(index) reads that flat order
+ * and get(i, j) uses the array's bounds.
+ */
+public final class StringSafeArray extends SafeArray {
+    private final String[] values;
+
+    /**
+     * @param values the elements, which are used as is rather than copied
+     */
+    public StringSafeArray(String[] values) {
+        this(values, null, null);
+    }
+
+    /**
+     * @param values the elements with the first dimension varying fastest,
+     * used as is rather than copied
+     * @param lowerBounds lowest index of each dimension
+     * @param extents number of elements along each dimension
+     */
+    public StringSafeArray(String[] values, int[] lowerBounds, int[] extents) {
+        if (values == null) throw new IllegalArgumentException("StringSafeArray needs an array");
+
+        this.values = values;
+        setShape(values.length, lowerBounds, extents);
+    }
+
+    public StringSafeArray(int length) {
+        this(new String[length]);
+    }
+
+    @Override
+    public int determinevt() {
+        return Variant.VariantString;
+    }
+
+    @Override
+    Object getData() {
+        return values;
+    }
+
+    @Override
+    public int length() {
+        return values.length;
+    }
+
+    public String get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, String value) {
+        values[index] = value;
+    }
+
+    /**
+     * @return element (i, j) of a two dimension array
+     */
+    public String get(int i, int j) {
+        return values[offset(i, j)];
+    }
+
+    public void set(int i, int j, String value) {
+        values[offset(i, j)] = value;
+    }
+
+    @Override
+    Object objectAt(int offset) {
+        return values[offset];
+    }
+
+    @Override
+    double doubleAt(int offset) {
+        return Double.NaN;
+    }
+
+    /**
+     * @return the elements themselves (not a copy)
+     */
+    public String[] getStrings() {
+        return values;
+    }
+
+    /**
+     * @return the elements each boxed in a new Variant
+     */
+    @Override
+    public Variant[] getValues() {
+        Variant[] variants = new Variant[values.length];
+        for (int i = 0; i < values.length; i++) {
+            variants[i] = values[i] == null ? new Variant() : new Variant(values[i]);
+        }
+        return variants;
+    }
+}
@@ -1,10 +1,17 @@
 package org.racob.com;
 
+import java.util.concurrent.Callable;
+
 /**
  * Name Note: cVars -> varsCount.  The getCVars looked strange to me so I
  * broke from convention and gave it a more readable name.
+ * <p>
+ * Functions, variables, names and documentation come from the TypeModel
+ * shared by all TypeInfos of the same type (see TypeModelCache), so only the
+ * first TypeInfo of a type pays for reading them from COM.  Whatever still
+ * has to be read from COM is read on the home thread (see IUnknown).
  */
-public class TypeInfo extends IUnknown {
+public class TypeInfo extends IUnknown implements TypeModelCache.Loader {
     public static final int FUNCFLAG_NONE = 0;
     public static final int FUNCFLAG_FRESTRICTED = 1;
     public static final int FUNCFLAG_FSOURCE = 2;
@@ -73,6 +80,17 @@ public class TypeInfo extends IUnknown {
     private final int majorVersion;
     private final int aliasVt;
 
+    /** Models shared by all TypeInfos of the same type */
+    private static final TypeModelCache modelCache;
+
+    static {
+        String capacity = System.getProperty("org.racob.typeinfo_cache");
+        modelCache = new TypeModelCache(capacity == null ? 256 : Integer.parseInt(capacity));
+    }
+
+    /** Our model once we have looked it up */
+    private TypeModel model = null;
+
     public TypeInfo(int pointer, String guid, String progid, int typekind,
             int functionCount, int implementationCount, int variableCount,
             int flags, int minorVersion, int majorVersion, int aliasVt) {
@@ -137,16 +155,88 @@ public class TypeInfo extends IUnknown {
     private native int getRefTypeOfImplType(int pointer, int index);
     private native TypeInfo getRefTypeInfo(int pointer, int index);
     private native VarDesc getVarDesc(int pointer, int index);
+    private native TypeModel describe(int pointer);
+
+    /**
+     * @return the cache getModel() gets its models from
+     */
+    public static TypeModelCache getTypeModelCache() {
+        return modelCache;
+    }
+
+    /**
+     * Read everything about this type from COM in one pass.  Use getModel()
+     * instead unless a fresh copy is really needed.
+     */
+    public TypeModel describe() {
+        if (isForeign()) {
+            return home.call(new Callable<TypeModel>() {
+                public TypeModel call() {
+                    return describe();
+                }
+            });
+        }
+
+        return describe(pointer.get());
+    }
+
+    /**
+     * @return the shared model of this type
+     */
+    public TypeModel getModel() {
+        if (model == null) model = modelCache.get(guid, majorVersion, minorVersion, this);
+
+        return model;
+    }
+
+    private boolean useModel() {
+        return modelCache.getCapacity() > 0;
+    }
 
     public TypeLib getContainingTypeLib() {
+        if (isForeign()) {
+            return home.call(new Callable<TypeLib>() {
+                public TypeLib call() {
+                    return getContainingTypeLib();
+                }
+            });
+        }
+
         return getContainingTypeLib(pointer.get());
     }
     
-    public Documentation getDocumentation(int index) {
+    public Documentation getDocumentation(final int index) {
+        if (useModel()) {
+            Documentation documentation = getModel().getDocumentation(index);
+            if (documentation != null) return documentation;
+        }
+
+        if (isForeign()) {
+            return home.call(new Callable<Documentation>() {
+                public Documentation call() {
+                    return getDocumentation(pointer.get(), index);
+                }
+            });
+        }
+
         return getDocumentation(pointer.get(), index);
     }
 
-    public FuncDesc getFuncDesc(int index) {
+    public FuncDesc getFuncDesc(final int index) {
+        // Models are shared so their FuncDescs cannot carry an owner
+        if (useModel()) {
+            FuncDesc shared = getModel().getFuncDesc(index);
+            if (shared != null) return shared.copyFor(this);
+        }
+
+        if (isForeign()) {
+            return home.call(new Callable<FuncDesc>() {
+                public FuncDesc call() {
+                    return getFuncDesc(index);
+                }
+            });
+        }
+
         FuncDesc funcDesc = getFuncDesc(pointer.get(), index);
 
         funcDesc.setOwner(this); // We set mutable state here to avoid passing
@@ -155,23 +245,73 @@ public class TypeInfo extends IUnknown {
         return funcDesc;
     }
 
-    public int getImplTypeFlags(int index) {
+    public int getImplTypeFlags(final int index) {
+        if (isForeign()) {
+            return home.call(new Callable<Integer>() {
+                public Integer call() {
+                    return getImplTypeFlags(index);
+                }
+            }).intValue();
+        }
+
         return getImplTypeFlags(pointer.get(), index);
     }
 
-    public String[] getNames(int index) {
+    public String[] getNames(final int index) {
+        if (useModel()) {
+            String[] names = getModel().getNames(index);
+            if (names != null) return names;
+        }
+
+        if (isForeign()) {
+            return home.call(new Callable<String[]>() {
+                public String[] call() {
+                    return getNames(pointer.get(), index);
+                }
+            });
+        }
+
         return getNames(pointer.get(), index);
     }
 
-    public int getRefTypeOfImplType(int index) {
+    public int getRefTypeOfImplType(final int index) {
+        if (isForeign()) {
+            return home.call(new Callable<Integer>() {
+                public Integer call() {
+                    return getRefTypeOfImplType(index);
+                }
+            }).intValue();
+        }
+
         return getRefTypeOfImplType(pointer.get(), index);
     }
 
-    public TypeInfo getRefTypeInfo(int index) {
+    public TypeInfo getRefTypeInfo(final int index) {
+        if (isForeign()) {
+            return home.call(new Callable<TypeInfo>() {
+                public TypeInfo call() {
+                    return getRefTypeInfo(index);
+                }
+            });
+        }
+
         return getRefTypeInfo(pointer.get(), index);
     }
 
-    public VarDesc getVarDesc(int index) {
+    public VarDesc getVarDesc(final int index) {
+        if (useModel()) {
+            VarDesc varDesc = getModel().getVarDesc(index);
+            if (varDesc != null) return varDesc;
+        }
+
+        if (isForeign()) {
+            return home.call(new Callable<VarDesc>() {
+                public VarDesc call() {
+                    return getVarDesc(index);
+                }
+            });
+        }
+
         return getVarDesc(pointer.get(), index);
     }
 }
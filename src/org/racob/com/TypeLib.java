@@ -1,5 +1,7 @@
 package org.racob.com;
 
+import java.util.concurrent.Callable;
+
 public class TypeLib extends IUnknown {
     public static final int LIBFLAG_FRESTRICTED = 1;
     public static final int LIBFLAG_FCONTROL = 2;
@@ -58,15 +60,39 @@ public class TypeLib extends IUnknown {
     private native TypeInfo getTypeInfo(int pointer, int index);
     private native int getTypeInfoCount(int pointer);
 
-    public Documentation getDocumentation(int index) {
+    public Documentation getDocumentation(final int index) {
+        if (isForeign()) {
+            return home.call(new Callable<Documentation>() {
+                public Documentation call() {
+                    return getDocumentation(index);
+                }
+            });
+        }
+
         return getDocumentation(pointer.get(), index);
     }
 
-    public TypeInfo getTypeInfo(int index) {
+    public TypeInfo getTypeInfo(final int index) {
+        if (isForeign()) {
+            return home.call(new Callable<TypeInfo>() {
+                public TypeInfo call() {
+                    return getTypeInfo(index);
+                }
+            });
+        }
+
         return getTypeInfo(pointer.get(), index);
     }
 
     public int getTypeInfoCount() {
+        if (isForeign()) {
+            return home.call(new Callable<Integer>() {
+                public Integer call() {
+                    return getTypeInfoCount();
+                }
+            }).intValue();
+        }
+
         return getTypeInfoCount(pointer.get());
     }
 }
@@ -0,0 +1,488 @@
+package org.racob.com;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A type library saved to disk so that the next JVM can answer member and
+ * DISPID questions about it without loading it through COM.  An index is
+ * written once from the live TypeLib (or from TypeModels) and afterwards
+ * opened with open(), which reads the file into memory in one go and decodes
+ * types out of it on demand.  The file is closed straight away (it is not
+ * mapped), so it can be rewritten or deleted while the index is in use.
+ * <p>
+ * The index records the typelib GUID, version and the timestamp of the file
+ * it was made from; isCurrent() tells whether it still matches.  seed() loads
+ * every member name into a DispatchIdCache so the first calls on a Dispatch
+ * skip GetIDsOfNames.
+ * <p>
+ * Variants cannot be read without the native library so parameter default
+ * values and the values of constants are not saved; models read from an
+ * index have null in their place.
+ * <p>
+ * Layout (big endian): magic, format version, typelib GUID, major, minor,
+ * timestamp, type count, then a directory of (type GUID, offset) and the type
+ * records themselves.  Each function and variable record starts with a
+ * boolean which is false for members the model could not read.  Strings are
+ * an int length (-1 for null) and UTF-16 chars.
+ */
+public final class TypeLibIndex {
+    private static final int MAGIC = 0x52494458; // "RIDX"
+    private static final int FORMAT = 2;
+
+    private static final int PARAM_IN = 1;
+    private static final int PARAM_OUT = 2;
+    private static final int PARAM_OPTIONAL = 4;
+    private static final int PARAM_RETVAL = 8;
+    private static final int PARAM_DEFAULT = 16;
+
+    private static final int DISPID_UNKNOWN = -1;
+
+    private final ByteBuffer buffer;
+    private final String guid;
+    private final int majorVersion;
+    private final int minorVersion;
+    private final long timestamp;
+    /** Offset of each type record by type GUID, in file order */
+    private final Map<String, Integer> offsets = new LinkedHashMap<String, Integer>();
+    /** DISPIDs by lower case member name for types looked at so far */
+    private final Map<String, Map<String, Integer>> dispIDs =
+            new ConcurrentHashMap<String, Map<String, Integer>>();
+
+    private TypeLibIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        Reader reader = new Reader(0);
+
+        if (reader.readInt() != MAGIC) throw new IOException("Not a typelib index");
+        int format = reader.readInt();
+        if (format != FORMAT) throw new IOException("Unsupported typelib index format " + format);
+
+        guid = reader.readString();
+        majorVersion = reader.readInt();
+        minorVersion = reader.readInt();
+        timestamp = reader.readLong();
+        int count = reader.readInt();
+        for (int i = 0; i < count; i++) {
+            String type = reader.readString();
+            offsets.put(type, Integer.valueOf(reader.readInt()));
+        }
+    }
+
+    /**
+     * Read an index written by write().
+     */
+    public static TypeLibIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Truncated typelib index " + file);
+            }
+        } finally {
+            raf.close();
+        }
+
+        try {
+            return new TypeLibIndex(buffer);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated typelib index " + file);
+        }
+    }
+
+    /**
+     * Describe every type in lib (through the TypeModelCache) and save them.
+     *
+     * @param timestamp of the file lib was loaded from
+     */
+    public static void write(File file, TypeLib lib, long timestamp) throws IOException {
+        TypeInfo[] types = lib.getTypeInfo();
+        TypeModel[] models = new TypeModel[types.length];
+        for (int i = 0; i < types.length; i++) {
+            models[i] = types[i].getModel();
+        }
+
+        write(file, lib.getGuid(), lib.getMajorVersion(), lib.getMinorVersion(), timestamp, models);
+    }
+
+    /**
+     * Save models as the index of the typelib guid.  Types without a GUID
+     * cannot be looked up so they are left out.
+     */
+    public static void write(File file, String guid, int majorVersion, int minorVersion,
+            long timestamp, TypeModel[] models) throws IOException {
+        Map<String, TypeModel> types = new LinkedHashMap<String, TypeModel>();
+        for (TypeModel model : models) {
+            if (model.getGUID() != null && !types.containsKey(model.getGUID())) types.put(model.getGUID(), model);
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        writeString(out, guid);
+        out.writeInt(majorVersion);
+        out.writeInt(minorVersion);
+        out.writeLong(timestamp);
+        out.writeInt(types.size());
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        int[] starts = new int[types.size()];
+        int i = 0;
+        for (TypeModel model : types.values()) {
+            starts[i++] = recordsOut.size();
+            writeType(recordsOut, model);
+        }
+
+        // Directory entries are a string plus an offset, so its size is known
+        // before the offsets are
+        int directorySize = 0;
+        for (String type : types.keySet()) {
+            directorySize += 4 + type.length() * 2 + 4;
+        }
+        int base = out.size() + directorySize;
+        i = 0;
+        for (String type : types.keySet()) {
+            writeString(out, type);
+            out.writeInt(base + starts[i++]);
+        }
+
+        DataOutputStream fileOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            header.writeTo(fileOut);
+            records.writeTo(fileOut);
+        } finally {
+            fileOut.close();
+        }
+    }
+
+    private static void writeType(DataOutputStream out, TypeModel model) throws IOException {
+        writeString(out, model.getGUID());
+        out.writeInt(model.getMajorVersion());
+        out.writeInt(model.getMinorVersion());
+        writeDocumentation(out, model.getDocumentation());
+
+        out.writeInt(model.getFuncsCount());
+        for (int i = 0; i < model.getFuncsCount(); i++) {
+            FuncDesc func = model.getFuncDesc(i);
+            out.writeBoolean(func != null);
+            if (func == null) continue;
+
+            out.writeInt(func.getMemid());
+            out.writeInt(func.getIndex());
+            out.writeInt(func.getInvkind());
+            out.writeInt(func.getFlags());
+            out.writeInt(func.getOptParamsCount());
+            out.writeInt(func.getVtableOffset());
+            writeStrings(out, model.getNames(func.getMemid()));
+            out.writeInt(func.getParamsCount());
+            for (Parameter parameter : func.getParameters()) {
+                writeParameter(out, parameter);
+            }
+            out.writeBoolean(func.getReturnType() != null);
+            if (func.getReturnType() != null) writeParameter(out, func.getReturnType());
+            writeDocumentation(out, model.getDocumentation(func.getMemid()));
+        }
+
+        out.writeInt(model.getVarsCount());
+        for (int i = 0; i < model.getVarsCount(); i++) {
+            VarDesc var = model.getVarDesc(i);
+            out.writeBoolean(var != null);
+            if (var == null) continue;
+
+            out.writeInt(var.getMemid());
+            out.writeInt(var.getVarkind());
+            out.writeInt(var.getFlags());
+            writeStrings(out, model.getNames(var.getMemid()));
+            writeDocumentation(out, model.getDocumentation(var.getMemid()));
+        }
+    }
+
+    private static void writeParameter(DataOutputStream out, Parameter parameter) throws IOException {
+        int flags = (parameter.isIn() ? PARAM_IN : 0) | (parameter.isOut() ? PARAM_OUT : 0) |
+                (parameter.isOptional() ? PARAM_OPTIONAL : 0) | (parameter.isReturnValue() ? PARAM_RETVAL : 0) |
+                (parameter.isDefaultValue() ? PARAM_DEFAULT : 0);
+        writeString(out, parameter.getName());
+        out.writeInt(flags);
+        out.writeInt(parameter.getVt());
+    }
+
+    private static void writeDocumentation(DataOutputStream out, Documentation documentation) throws IOException {
+        out.writeBoolean(documentation != null);
+        if (documentation == null) return;
+
+        writeString(out, documentation.getName());
+        writeString(out, documentation.getDocString());
+        writeString(out, documentation.getHelpFile());
+        out.writeInt(documentation.getHelpContext());
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        if (strings == null) strings = new String[0];
+
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(string.length());
+        out.writeChars(string);
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return true if this index was made from typelibFile as it is now
+     */
+    public boolean isCurrent(File typelibFile) {
+        return typelibFile.lastModified() == timestamp;
+    }
+
+    /**
+     * @return true if this index was made from that version of the typelib
+     * guid with that timestamp
+     */
+    public boolean matches(String guid, int majorVersion, int minorVersion, long timestamp) {
+        return this.guid != null && this.guid.equalsIgnoreCase(guid) && this.majorVersion == majorVersion &&
+                this.minorVersion == minorVersion && this.timestamp == timestamp;
+    }
+
+    /**
+     * @return GUIDs of the types in this index
+     */
+    public Set<String> getTypeGuids() {
+        return Collections.unmodifiableSet(offsets.keySet());
+    }
+
+    /**
+     * @return the DISPID of the member name (ignoring case) of type typeGuid,
+     * or -1 if there is no such type or member
+     */
+    public int getDispID(String typeGuid, String name) {
+        Map<String, Integer> members = members(typeGuid);
+        if (members == null) return DISPID_UNKNOWN;
+
+        Integer id = members.get(name.toLowerCase(Locale.ENGLISH));
+        return id == null ? DISPID_UNKNOWN : id.intValue();
+    }
+
+    private Map<String, Integer> members(String typeGuid) {
+        Map<String, Integer> members = dispIDs.get(typeGuid);
+        if (members != null) return members;
+
+        TypeModel model = getModel(typeGuid);
+        if (model == null) return null;
+
+        members = new HashMap<String, Integer>();
+        for (int i = 0; i < model.getFuncsCount(); i++) {
+            FuncDesc func = model.getFuncDesc(i);
+            if (func != null) addMember(members, model, func.getMemid());
+        }
+        for (int i = 0; i < model.getVarsCount(); i++) {
+            VarDesc var = model.getVarDesc(i);
+            if (var != null) addMember(members, model, var.getMemid());
+        }
+        dispIDs.put(typeGuid, members);
+
+        return members;
+    }
+
+    private void addMember(Map<String, Integer> members, TypeModel model, int memid) {
+        String[] names = model.getNames(memid);
+        if (names == null || names.length == 0) return;
+
+        members.put(names[0].toLowerCase(Locale.ENGLISH), Integer.valueOf(memid));
+    }
+
+    /**
+     * Load the DISPID of every member of every type into cache, keyed the
+     * way Dispatch looks them up (by type GUID and name, ignoring case like
+     * GetIDsOfNames does).
+     *
+     * @return how many DISPIDs were added
+     */
+    public int seed(DispatchIdCache cache, int lcid) {
+        int seeded = 0;
+
+        for (String typeGuid : offsets.keySet()) {
+            TypeModel model = getModel(typeGuid);
+            for (int i = 0; i < model.getFuncsCount(); i++) {
+                FuncDesc func = model.getFuncDesc(i);
+                if (func != null) seeded += seed(cache, lcid, model, func.getMemid());
+            }
+            for (int i = 0; i < model.getVarsCount(); i++) {
+                VarDesc var = model.getVarDesc(i);
+                if (var != null) seeded += seed(cache, lcid, model, var.getMemid());
+            }
+        }
+
+        return seeded;
+    }
+
+    private int seed(DispatchIdCache cache, int lcid, TypeModel model, int memid) {
+        String[] names = model.getNames(memid);
+        if (names == null || names.length == 0) return 0;
+
+        return cache.put(model.getGUID(), names[0], lcid, memid) ? 1 : 0;
+    }
+
+    /**
+     * Read a type out of the index.
+     *
+     * @return the model of typeGuid or null if it is not in this index
+     */
+    public TypeModel getModel(String typeGuid) {
+        Integer offset = offsets.get(typeGuid);
+        if (offset == null) return null;
+
+        Reader reader = new Reader(offset.intValue());
+        String type = reader.readString();
+        int major = reader.readInt();
+        int minor = reader.readInt();
+        Documentation documentation = reader.readDocumentation();
+
+        int funcsCount = reader.readInt();
+        FuncDesc[] funcs = new FuncDesc[funcsCount];
+        String[][] funcNames = new String[funcsCount][];
+        Documentation[] funcDocs = new Documentation[funcsCount];
+        for (int i = 0; i < funcsCount; i++) {
+            if (!reader.readBoolean()) continue;
+
+            int memid = reader.readInt();
+            int index = reader.readInt();
+            int invkind = reader.readInt();
+            int flags = reader.readInt();
+            int optParamsCount = reader.readInt();
+            int vtableOffset = reader.readInt();
+            funcNames[i] = reader.readStrings();
+            Parameter[] parameters = new Parameter[reader.readInt()];
+            for (int j = 0; j < parameters.length; j++) {
+                parameters[j] = reader.readParameter();
+            }
+            Parameter returnType = reader.readBoolean() ? reader.readParameter() : null;
+            funcDocs[i] = reader.readDocumentation();
+            funcs[i] = new FuncDesc(memid, index, invkind, flags, parameters, returnType,
+                    optParamsCount, vtableOffset);
+        }
+
+        int varsCount = reader.readInt();
+        VarDesc[] vars = new VarDesc[varsCount];
+        String[][] varNames = new String[varsCount][];
+        Documentation[] varDocs = new Documentation[varsCount];
+        for (int i = 0; i < varsCount; i++) {
+            if (!reader.readBoolean()) continue;
+
+            int memid = reader.readInt();
+            int varkind = reader.readInt();
+            int flags = reader.readInt();
+            varNames[i] = reader.readStrings();
+            varDocs[i] = reader.readDocumentation();
+            vars[i] = new VarDesc(memid, null, varkind, flags);
+        }
+
+        return new TypeModel(type, major, minor, documentation, funcs, funcNames, funcDocs,
+                vars, varNames, varDocs);
+    }
+
+    /**
+     * A cursor over the shared buffer.  Only absolute reads are used so any
+     * number of threads can read the index at once.
+     */
+    private final class Reader {
+        private int position;
+
+        Reader(int position) {
+            this.position = position;
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+
+        long readLong() {
+            long value = buffer.getLong(position);
+            position += 8;
+            return value;
+        }
+
+        boolean readBoolean() {
+            return buffer.get(position++) != 0;
+        }
+
+        String readString() {
+            int length = readInt();
+            if (length < 0) return null;
+
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = buffer.getChar(position);
+                position += 2;
+            }
+            return new String(chars);
+        }
+
+        String[] readStrings() {
+            String[] strings = new String[readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString();
+            }
+            return strings;
+        }
+
+        Parameter readParameter() {
+            String name = readString();
+            int flags = readInt();
+            int vt = readInt();
+            return new Parameter(name, (flags & PARAM_IN) != 0, (flags & PARAM_OUT) != 0,
+                    (flags & PARAM_OPTIONAL) != 0, (flags & PARAM_RETVAL) != 0, vt,
+                    (flags & PARAM_DEFAULT) != 0, null);
+        }
+
+        Documentation readDocumentation() {
+            if (!readBoolean()) return null;
+
+            String name = readString();
+            String docString = readString();
+            String helpFile = readString();
+            return new Documentation(name, docString, helpFile, readInt());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.racob.com;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Everything a TypeInfo says about its functions and variables, read in one
+ * native pass by TypeInfo.describe() and never changed afterwards.  Since it
+ * holds no COM pointers one model can be shared by every Dispatch of the type
+ * on any thread; TypeInfo.getModel() hands out the shared copy from
+ * TypeModelCache.
+ * <p>
+ * Names and documentation are looked up by memid just like
+ * TypeInfo.getNames() and TypeInfo.getDocumentation().  FuncDescs in a model
+ * have no owner.
+ * <p>
+ * Members COM could not describe are left out (null), so TypeInfo asks COM
+ * for them directly and reports its error then.
+ */
+public final class TypeModel {
+    private final String guid;
+    private final int majorVersion;
+    private final int minorVersion;
+    private final Documentation documentation;
+    private final FuncDesc[] funcs;
+    private final VarDesc[] vars;
+    private final Map<Integer, String[]> names = new HashMap<Integer, String[]>();
+    private final Map<Integer, Documentation> docs = new HashMap<Integer, Documentation>();
+    /** Functions by lower case name, the first one for names with several */
+    private final Map<String, FuncDesc> funcsByName = new HashMap<String, FuncDesc>();
+
+    /**
+     * Called from describe().  The names of function i are in funcNames[i]
+     * (function name then parameter names) and its documentation in
+     * funcDocs[i]; likewise for variables.  Slots of members which could not
+     * be read are null.
+     */
+    public TypeModel(String guid, int majorVersion, int minorVersion,
+            Documentation documentation, FuncDesc[] funcs, String[][] funcNames,
+            Documentation[] funcDocs, VarDesc[] vars, String[][] varNames,
+            Documentation[] varDocs) {
+        this.guid = guid;
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+        this.documentation = documentation;
+        this.funcs = funcs;
+        this.vars = vars;
+
+        for (int i = 0; i < funcs.length; i++) {
+            if (funcs[i] == null || funcNames[i] == null) continue;
+
+            Integer memid = Integer.valueOf(funcs[i].getMemid());
+            if (!names.containsKey(memid)) names.put(memid, funcNames[i]);
+            docs.put(memid, funcDocs[i]);
+
+            String name = funcNames[i].length > 0 ? funcNames[i][0].toLowerCase(Locale.ENGLISH) : null;
+            if (name != null && !funcsByName.containsKey(name)) funcsByName.put(name, funcs[i]);
+        }
+        for (int i = 0; i < vars.length; i++) {
+            if (vars[i] == null || varNames[i] == null) continue;
+
+            Integer memid = Integer.valueOf(vars[i].getMemid());
+            names.put(memid, varNames[i]);
+            docs.put(memid, varDocs[i]);
+        }
+    }
+
+    public String getGUID() {
+        return guid;
+    }
+
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    /**
+     * @return documentation of the type itself
+     */
+    public Documentation getDocumentation() {
+        return documentation;
+    }
+
+    public int getFuncsCount() {
+        return funcs.length;
+    }
+
+    /**
+     * @return function index or null if it could not be read or index is out
+     * of range
+     */
+    public FuncDesc getFuncDesc(int index) {
+        return index >= 0 && index < funcs.length ? funcs[index] : null;
+    }
+
+    /**
+     * @return the function called name (ignoring case) or null if there is
+     * none.  For properties this is whichever accessor comes first.
+     */
+    public FuncDesc findFuncDesc(String name) {
+        return funcsByName.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    public int getVarsCount() {
+        return vars.length;
+    }
+
+    /**
+     * @return variable index or null if it could not be read or index is out
+     * of range
+     */
+    public VarDesc getVarDesc(int index) {
+        return index >= 0 && index < vars.length ? vars[index] : null;
+    }
+
+    /**
+     * @return name of member memid followed by its parameter names, or null
+     * if the type has no such member
+     */
+    public String[] getNames(int memid) {
+        String[] list = names.get(Integer.valueOf(memid));
+        return list == null ? null : list.clone();
+    }
+
+    /**
+     * @return documentation of member memid or null if the type has no such
+     * member
+     */
+    public Documentation getDocumentation(int memid) {
+        return docs.get(Integer.valueOf(memid));
+    }
+}
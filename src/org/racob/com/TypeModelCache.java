@@ -0,0 +1,112 @@
+package org.racob.com;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares TypeModels between every TypeInfo of the same type so each type is
+ * described once per process instead of once per Dispatch.  Models are keyed
+ * by type GUID and version and the least recently used ones are dropped once
+ * there are more than the capacity (-Dorg.racob.typeinfo_cache, default 256;
+ * 0 turns caching off).
+ * <p>
+ * Types without a GUID are never cached.
+ */
+public final class TypeModelCache {
+    /**
+     * Describes the type on a miss.  TypeInfo implements this by reading
+     * all of its members from COM in one native pass.
+     */
+    public interface Loader {
+        public TypeModel describe();
+    }
+
+    private static final String GUID_NULL = "{00000000-0000-0000-0000-000000000000}";
+
+    private final int capacity;
+    private final Map<String, TypeModel> models;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TypeModelCache(final int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("TypeModelCache capacity cannot be negative: " + capacity);
+
+        this.capacity = capacity;
+        models = new LinkedHashMap<String, TypeModel>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TypeModel> eldest) {
+                if (size() <= capacity) return false;
+
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return the shared model for the type or one freshly described by
+     * loader if it is not cached
+     */
+    public TypeModel get(String guid, int majorVersion, int minorVersion, Loader loader) {
+        if (capacity == 0 || guid == null || guid.equals(GUID_NULL)) {
+            misses.incrementAndGet();
+            return loader.describe();
+        }
+
+        String key = guid + majorVersion + '.' + minorVersion;
+        TypeModel model;
+        synchronized (models) {
+            model = models.get(key);
+        }
+        if (model != null) {
+            hits.incrementAndGet();
+            return model;
+        }
+
+        // Described outside the lock since it crosses into COM; if two threads
+        // race the first model in wins and the other is thrown away
+        misses.incrementAndGet();
+        TypeModel described = loader.describe();
+        synchronized (models) {
+            model = models.get(key);
+            if (model != null) return model;
+
+            models.put(key, described);
+        }
+
+        return described;
+    }
+
+    /**
+     * Forget all models.  The counters are left alone.
+     */
+    public void clear() {
+        synchronized (models) {
+            models.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (models) {
+            return models.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -130,7 +130,10 @@ public class Variant {
 
     private static native void initializeNative();
 
-    public static void initialize() {
+    /**
+     * Synchronized so the native side makes its global references only once.
+     */
+    public static synchronized void initialize() {
         if (!initialized) {
             initialized = true;
             initializeNative();
@@ -139,11 +142,33 @@ public class Variant {
 
     // Is V_VT(v) in C or manually passed if going from Java to VARIANT
     private short type;
+    // Held for every type which is not primitive (see isPrimitive)
     private Object value;
+    // Primitive types live here so they never get boxed.  Floats and doubles
+    // are stored as the raw bits of a double and true as VARIANT_TRUE.  JNI
+    // reads this directly.
+    private long bits;
+
+    private static final long VARIANT_TRUE = -1L;
+    /** What VariantChangeType fails with when a value cannot be converted */
+    private static final int DISP_E_TYPEMISMATCH = 0x80020005;
 
     public Variant(Object value, short vt) {
-        this.value = value;
         this.type = vt;
+        if (isPrimitive(vt)) {
+            this.bits = toBits(value, vt);
+        } else {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Primitive constructor which the primitive constructors and JNI use so
+     * that no box ever gets created.
+     */
+    private Variant(short vt, long bits) {
+        this.type = vt;
+        this.bits = bits;
     }
 
     /** Generic constructor */
@@ -158,72 +183,72 @@ public class Variant {
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(boolean in, boolean byRef) {
-        this(new Boolean(in), VariantBoolean, byRef);
+        this(byRef ? (short) (VariantBoolean | VariantByref) : VariantBoolean, in ? VARIANT_TRUE : 0L);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(boolean in) {
-        this(new Boolean(in), VariantBoolean, false);
+        this(VariantBoolean, in ? VARIANT_TRUE : 0L);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(byte in, boolean byRef) {
-        this(new Byte(in), VariantByte, byRef);
+        this(byRef ? (short) (VariantByte | VariantByref) : VariantByte, in);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(byte in) {
-        this(new Byte(in), VariantByte, false);
+        this(VariantByte, in);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(double in, boolean byRef) {
-        this(new Double(in), VariantDouble, byRef);
+        this(byRef ? (short) (VariantDouble | VariantByref) : VariantDouble, Double.doubleToRawLongBits(in));
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(double in) {
-        this(new Double(in), VariantDouble, false);
+        this(VariantDouble, Double.doubleToRawLongBits(in));
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(float in, boolean byRef) {
-        this(new Float(in), VariantFloat, byRef);
+        this(byRef ? (short) (VariantFloat | VariantByref) : VariantFloat, Double.doubleToRawLongBits(in));
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(float in) {
-        this(new Float(in), VariantFloat, false);
+        this(VariantFloat, Double.doubleToRawLongBits(in));
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(short in, boolean byRef) {
-        this(new Short(in), VariantShort, byRef);
+        this(byRef ? (short) (VariantShort | VariantByref) : VariantShort, in);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(short in) {
-        this(new Short(in), VariantShort, false);
+        this(VariantShort, in);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(int in, boolean byRef) {
-        this(new Integer(in), VariantInt, byRef);
+        this(byRef ? (short) (VariantInt | VariantByref) : VariantInt, in);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(int in) {
-        this(new Integer(in), VariantInt, false);
+        this(VariantInt, in);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(long in, boolean byRef) {
-        this(new Long(in), VariantLongInt, byRef);
+        this(byRef ? (short) (VariantLongInt | VariantByref) : VariantLongInt, in);
     }
 
     /** Constructor that accepts a primitive rather than an object */
     public Variant(long in) {
-        this(new Long(in), VariantLongInt, false);
+        this(VariantLongInt, in);
     }
 
     public Variant(BigDecimal decimal, boolean byRef) {
@@ -235,11 +260,11 @@ public class Variant {
     }
 
     public Variant(Currency currency, boolean byRef) {
-        this(currency, VariantLongInt, byRef);
+        this(currency, VariantCurrency, byRef);
     }
 
     public Variant(Currency currency) {
-        this(currency, VariantLongInt, false);
+        this(currency, VariantCurrency, false);
     }
 
     public Variant(Dispatch dispatch, boolean byRef) {
@@ -309,7 +334,128 @@ public class Variant {
     }
     
     public Object getValue() {
-        return value;
+        return isPrimitive(type) ? box() : value;
+    }
+
+    /**
+     * Is this a type whose value lives in bits rather than value?
+     */
+    private static boolean isPrimitive(short vt) {
+        if ((vt & VariantArray) != 0) return false;
+
+        switch (vt & ~VariantByref) {
+            case VariantShort:
+            case VariantInt:
+            case VariantFloat:
+            case VariantDouble:
+            case VariantError:
+            case VariantBoolean:
+            case VariantByte:
+            case VariantUnsignedShort:
+            case VariantUnsignedLong:
+            case VariantLongInt:
+            case VariantUnsignedInt:
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isFloating(short vt) {
+        int base = vt & ~VariantByref;
+
+        return base == VariantFloat || base == VariantDouble;
+    }
+
+    /**
+     * Unpack a boxed primitive for a primitive type.  Booleans become
+     * VARIANT_TRUE (-1) or VARIANT_FALSE (0) like VariantChangeType would.
+     */
+    private static long toBits(Object value, short vt) {
+        if (value == null) return 0;
+
+        Number number;
+        if (value instanceof Number) {
+            number = (Number) value;
+        } else if (value instanceof Boolean) {
+            number = ((Boolean) value).booleanValue() ? VARIANT_TRUE : 0L;
+        } else if (value instanceof String) { // Only from changeType
+            try {
+                number = new BigDecimal(((String) value).trim());
+            } catch (NumberFormatException e) {
+                throw new ComFailException(DISP_E_TYPEMISMATCH,
+                        "\"" + value + "\" cannot be changed to a Variant of type " + vt);
+            }
+        } else {
+            throw new IllegalArgumentException(value.getClass().getName() +
+                    " cannot be held by a Variant of type " + vt);
+        }
+
+        return isFloating(vt) ? Double.doubleToRawLongBits(number.doubleValue()) :
+            number.longValue();
+    }
+
+    private double real() {
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * For bulk readers like SafeArray.toDoubleMatrix() which must not box.
+     * Empty is 0, booleans are -1 or 0, bytes are unsigned and dates are OLE
+     * dates, like VariantChangeType would make them (and like the typed
+     * SafeArrays read them).
+     *
+     * @return the value as a double or NaN if it is not a number (errors
+     * included)
+     */
+    double doubleValue() {
+        short vt = getType();
+        if (vt == VariantError) return Double.NaN;
+        // VT_UI1 is held sign extended for getByte()
+        if (vt == VariantByte) return bits & 0xFF;
+        if (vt == VariantBoolean) return bits != 0 ? -1 : 0;
+        if (isPrimitive(vt)) return isFloating(vt) ? real() : (double) bits;
+
+        switch (vt) {
+            case VariantEmpty:
+                return 0;
+            case VariantCurrency:
+                return ((Currency) value).longValue() / 10000.0;
+            case VariantDate:
+                return DateUtilities.convertDateToWindowsTime((Date) value);
+            case VariantDecimal:
+                return ((BigDecimal) value).doubleValue();
+        }
+
+        return Double.NaN;
+    }
+
+    /**
+     * Only for getValue() callers.  Everything else reads bits directly.
+     */
+    private Object box() {
+        switch (getType()) {
+            case VariantShort:
+            case VariantUnsignedShort:
+                return Short.valueOf((short) bits);
+            case VariantInt:
+            case VariantUnsignedInt:
+            case VariantError:
+                return Integer.valueOf((int) bits);
+            case VariantLongInt:
+            case VariantUnsignedLong:
+                return Long.valueOf(bits);
+            case VariantFloat:
+                return Float.valueOf((float) real());
+            case VariantDouble:
+                return Double.valueOf(real());
+            case VariantBoolean:
+                return Boolean.valueOf(bits != 0);
+            case VariantByte:
+                return Byte.valueOf((byte) bits);
+        }
+
+        return null; // not reached
     }
 
     public static Variant createDispatchVariant(int pointer) {
@@ -324,7 +470,7 @@ public class Variant {
     }
 
     public static Variant createIntVariant(int value) {
-        return new Variant(new Integer(value));
+        return new Variant(value);
     }
 
     /**
@@ -332,12 +478,31 @@ public class Variant {
      * <p>
      * This cannot convert an object to a byRef. It can convert from byref to
      * not byref
+     * <p>
+     * The Variant itself is changed, so never call this on the shared
+     * VT_TRUE and VT_FALSE.
      *
      * @param in type to convert this variant too
      * @return Variant returns this same object so folks can change when
      *         replacing calls toXXX() with changeType().getXXX()
+     * @throws ComFailException with DISP_E_TYPEMISMATCH (as VariantChangeType
+     *         would fail) if a string is not a number; the Variant is left
+     *         unchanged
      */
     public Variant changeType(short in) {
+        if (!isByref()) in &= ~VariantByref;
+
+        if (isPrimitive(in)) {
+            if (!isPrimitive(type)) {
+                bits = toBits(value, in);
+                value = null;
+            } else if (isFloating(type) != isFloating(in)) {
+                bits = isFloating(in) ? Double.doubleToRawLongBits(bits) : (long) real();
+            }
+        } else if (isPrimitive(type)) {
+            value = in == VariantString ? String.valueOf(box()) : box();
+            bits = 0;
+        }
         this.type = in;
         // FIXME:  This needs some round tripping to make sure it is valid
         return this;
@@ -354,7 +519,7 @@ public class Variant {
      */
     public boolean getBoolean() {
         if (!isA(VariantBoolean)) illegal("getBoolean", "VariantBoolean");
-        return ((Boolean) value).booleanValue();
+        return bits != 0;
     }
 
     /**
@@ -363,7 +528,7 @@ public class Variant {
      */
     public byte getByte() {
         if (!isA(VariantByte)) illegal("getByte", "VariantByte");
-        return ((Byte) value).byteValue();
+        return (byte) bits;
     }
 
     /**
@@ -429,7 +594,7 @@ public class Variant {
      */
     public double getDouble() {
         if (!isA(VariantDouble)) illegal("getDouble", "VariantDouble");
-        return ((Double) value).doubleValue();
+        return real();
     }
 
     /**
@@ -438,7 +603,7 @@ public class Variant {
      */
     public int getError() {
         if (!isA(VariantError)) illegal("getError", "VariantError");
-        return ((Integer) value).intValue();
+        return (int) bits;
     }
 
     /**
@@ -447,7 +612,7 @@ public class Variant {
      */
     public float getFloat() {
         if (!isA(VariantFloat)) illegal("getFloat", "VariantFloat");
-        return ((Float) value).floatValue();
+        return (float) real();
     }
 
     /**
@@ -459,9 +624,7 @@ public class Variant {
      *             if variant is not of the requested type
      */
     public int getInt() {
-        if (isA(VariantUnsignedInt)) return ((Integer) value).intValue();
-        if (isA(VariantInt)) return ((Integer) value).intValue();
-        if (isA(VariantShort)) return ((Short) value).shortValue();
+        if (isA(VariantUnsignedInt) || isA(VariantInt) || isA(VariantShort)) return (int) bits;
         illegal("getInt", "VariantInt");
         return -1; // not reached
     }
@@ -490,7 +653,7 @@ public class Variant {
      */
     public long getLong() {
         if (!isA(VariantLongInt) && !(isA(VariantUnsignedLong))) illegal("getLong", "VariantLongInt");
-        return ((Long) value).longValue();
+        return bits;
     }
 
     public SafeArray getSafeArray() {
@@ -509,7 +672,7 @@ public class Variant {
      */
     public short getShort() {
         if (!isA(VariantShort) && !isA(VariantUnsignedShort)) illegal("getShort", "VariantShort");
-        return ((Short) value).shortValue();
+        return (short) bits;
     }
 
     /**
@@ -540,7 +703,7 @@ public class Variant {
     public boolean isNull() {
         // ENEBO: This is radically simpler than Jacob's old way and may
         // include more values.
-        return value == null;
+        return value == null && !isPrimitive(type);
     }
 
     /**
@@ -554,6 +717,7 @@ public class Variant {
 
     public String toDebugString() {
         StringBuilder buf = new StringBuilder("Variant: ");
+        Object value = getValue();
 
         switch (getType()) {
             case VariantEmpty:
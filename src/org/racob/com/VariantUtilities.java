@@ -50,6 +50,7 @@ public final class VariantUtilities {
      */
     public static Variant objectToVariant(Object value) {
         if (value == null) return new Variant();
+        if (value instanceof OutParameter) return ((OutParameter) value).toByRefVariant();
         // if a variant was passed in then be a slacker and just return it
         if (value instanceof Variant) return (Variant) value;
         if (value.getClass().isArray()) value = SafeArray.create(value);
@@ -125,7 +126,7 @@ public final class VariantUtilities {
             case Variant.VariantDecimal: // 14
                 return sourceData.getDecimal();
             case Variant.VariantByte: // 17
-                return new Byte(sourceData.getByte());
+                return sourceData.getByte();
             case Variant.VariantUnsignedLong: // 19
             case Variant.VariantLongInt: // 20
                 return sourceData.getLong();
@@ -0,0 +1,132 @@
+package org.racob.activeX;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.racob.com.Variant;
+import org.racob.com.VariantUtilities;
+
+/**
+ * Listener method resolution for typed events.  The overload tests make
+ * Variants so they need the native library.
+ */
+public class EventAdapterTest extends TestCase {
+    public static class Listener {
+        int clicks = 0;
+        int lastX = -1;
+        boolean lastCancel = true;
+
+        public void Click(int x, boolean cancel) {
+            clicks++;
+            lastX = x;
+            lastCancel = cancel;
+        }
+
+        public void Click(String button) {
+        }
+
+        public void Changed(Date when, Variant raw) {
+        }
+    }
+
+    /** Same arity overloads, declared in no particular order */
+    public static class Overloaded {
+        String called = null;
+        char key = 0;
+
+        public void Value(String text) {
+            called = "String";
+        }
+
+        public void Value(Variant raw) {
+            called = "Variant";
+        }
+
+        public void Value(double number) {
+            called = "double";
+        }
+
+        public void Value(int number) {
+            called = "int";
+        }
+
+        public void Key(char pressed) {
+            key = pressed;
+        }
+    }
+
+    private static Variant[] args(Object... values) {
+        Variant[] variants = new Variant[values.length];
+        for (int i = 0; i < values.length; i++) {
+            variants[i] = values[i] == null ? null : VariantUtilities.objectToVariant(values[i]);
+        }
+        return variants;
+    }
+
+    private static String deliver(Object argument) throws Exception {
+        Overloaded listener = new Overloaded();
+        Variant[] arguments = args(argument);
+
+        EventAdapter.forEvent(Overloaded.class, "Value", arguments).invoke(listener, arguments);
+        return listener.called;
+    }
+
+    public void testResolvedByNameAndArity() {
+        EventAdapter two = EventAdapter.forEvent(Listener.class, "Click", new Variant[2]);
+        EventAdapter one = EventAdapter.forEvent(Listener.class, "Click", new Variant[1]);
+
+        assertEquals(int.class, two.getMethod().getParameterTypes()[0]);
+        assertEquals(String.class, one.getMethod().getParameterTypes()[0]);
+        assertNull(EventAdapter.forEvent(Listener.class, "Click", new Variant[3]));
+        assertNull(EventAdapter.forEvent(Listener.class, "Closed", new Variant[0]));
+        assertSame(two, EventAdapter.forEvent(Listener.class, "Click", new Variant[2]));
+    }
+
+    public void testEmptyArgumentsBecomeDefaults() throws Exception {
+        Listener listener = new Listener();
+
+        EventAdapter.forEvent(Listener.class, "Click", new Variant[2]).invoke(listener, new Variant[2]);
+
+        assertEquals(1, listener.clicks);
+        assertEquals(0, listener.lastX);
+        assertFalse(listener.lastCancel);
+    }
+
+    public void testConvertersFollowDeclaredTypes() {
+        assertNotSame(EventAdapter.converterFor(int.class), EventAdapter.converterFor(Object.class));
+        assertSame(EventAdapter.converterFor(int.class), EventAdapter.converterFor(Integer.class));
+        assertSame(EventAdapter.converterFor(boolean.class), EventAdapter.converterFor(Boolean.class));
+        assertSame(EventAdapter.converterFor(Object.class), EventAdapter.converterFor(StringBuilder.class));
+    }
+
+    public void testOverloadFittingTheArgumentWins() throws Exception {
+        assertEquals("int", deliver(Integer.valueOf(3)));
+        assertEquals("double", deliver(Double.valueOf(1.5)));
+        assertEquals("String", deliver("text"));
+        // A conversion beats Variant or String taking anything
+        assertEquals("double", deliver(Float.valueOf(2)));
+    }
+
+    public void testEqualOverloadsChosenTheSameWay() {
+        EventAdapter empty = EventAdapter.forEvent(Overloaded.class, "Value", new Variant[1]);
+
+        // Nothing to go on, so the first by parameter type names
+        assertEquals(double.class, empty.getMethod().getParameterTypes()[0]);
+        assertSame(empty, EventAdapter.forEvent(Overloaded.class, "Value", new Variant[1]));
+    }
+
+    public void testCharParameters() throws Exception {
+        Overloaded listener = new Overloaded();
+
+        Variant[] letter = args("q");
+        EventAdapter.forEvent(Overloaded.class, "Key", letter).invoke(listener, letter);
+        assertEquals('q', listener.key);
+
+        Variant[] code = args(Integer.valueOf(65));
+        EventAdapter.forEvent(Overloaded.class, "Key", code).invoke(listener, code);
+        assertEquals('A', listener.key);
+
+        assertSame(EventAdapter.converterFor(char.class), EventAdapter.converterFor(Character.class));
+    }
+}
@@ -0,0 +1,61 @@
+package org.racob.com;
+
+import java.util.concurrent.TimeUnit;
+
+import org.racob.test.BaseTestCase;
+
+/**
+ * Objects made by an ApartmentPool stay on their apartment while being used
+ * from the test thread.
+ * <p>
+ * May need to run with some command line options (including from inside
+ * Eclipse). Look in the docs area at the Jacob usage document for command line
+ * options.
+ */
+public class ApartmentPoolTest extends BaseTestCase {
+    private ApartmentPool pool;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+        pool = new ApartmentPool(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        super.tearDown();
+    }
+
+    public void testCallsAreForwardedHome() {
+        Dispatch dictionary = pool.create("Scripting.Dictionary");
+
+        assertNotNull(dictionary.getHomeThread());
+        assertNotSame(Thread.currentThread(), dictionary.getHomeThread());
+
+        dictionary.call("Add", "a", 1);
+        dictionary.call("Add", "b", 2);
+        assertEquals(2, dictionary.call("Count").getInt());
+        assertEquals(1, dictionary.call("Item", "a").getInt());
+    }
+
+    public void testReturnedDispatchSharesHome() {
+        Dispatch shell = pool.create("Shell.Application");
+        Dispatch windows = shell.call("Windows").getDispatch();
+
+        assertSame(shell.getHomeThread(), windows.getHomeThread());
+        windows.call("Count");
+    }
+
+    public void testCreatesAreSpreadAndMeasured() {
+        Dispatch first = pool.create("Scripting.Dictionary");
+        Dispatch second = pool.create("Scripting.Dictionary");
+        first.call("Count");
+        second.call("Count");
+
+        ComExecutor.Utilisation[] utilisation = pool.getUtilisation();
+        assertEquals(2, utilisation.length);
+        assertTrue(utilisation[0].getCompletedTasks() + utilisation[1].getCompletedTasks() >= 4);
+    }
+}
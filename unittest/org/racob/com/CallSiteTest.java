@@ -0,0 +1,105 @@
+package org.racob.com;
+
+import junit.framework.TestCase;
+
+/**
+ * Exercises CallSite against a stand-in for Dispatch.invokeBound() so it does
+ * not need a live Dispatch.
+ */
+public class CallSiteTest extends TestCase {
+    /** Remembers what it was asked to invoke and returns nothing */
+    private static class RecordingInvoker implements CallSite.Invoker {
+        int calls = 0;
+        String name;
+        int dispID;
+        int flags;
+        Object[] values;
+        Variant result = null;
+
+        public Variant invoke(Dispatch dispatch, String name, int dispID,
+                int flags, Variant[] args, int[] errs) {
+            calls++;
+            this.name = name;
+            this.dispID = dispID;
+            this.flags = flags;
+            values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].toJavaObject();
+            }
+            return result;
+        }
+    }
+
+    public void testNegativeArityRefused() {
+        try {
+            new CallSite(new RecordingInvoker(), null, "Add", 7, Dispatch.Method, -1);
+            fail("arity cannot be negative");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testWrongArgumentCountRefused() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        CallSite site = new CallSite(invoker, null, "Add", 7, Dispatch.Method, 2);
+
+        assertEquals(2, site.getArity());
+        try {
+            site.invoke();
+            fail("no arguments for a two argument call");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            site.invoke(1);
+            fail("one argument for a two argument call");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            site.invoke("a", "b", "c");
+            fail("three arguments for a two argument call");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(0, invoker.calls);
+    }
+
+    public void testInvokesBoundDispID() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        CallSite site = new CallSite(invoker, null, "Count", 12, Dispatch.Get, 0);
+
+        site.invoke();
+        site.invoke();
+
+        assertEquals(2, invoker.calls);
+        assertEquals("Count", invoker.name);
+        assertEquals(12, invoker.dispID);
+        assertEquals(Dispatch.Get, invoker.flags);
+        assertEquals(0, invoker.values.length);
+    }
+
+    public void testArgumentsPassedInOrder() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        CallSite site = new CallSite(invoker, null, "Add", 7, Dispatch.Method, 2);
+
+        site.invoke(3, 4);
+        assertEquals(Integer.valueOf(3), invoker.values[0]);
+        assertEquals(Integer.valueOf(4), invoker.values[1]);
+
+        site.invoke("key", Boolean.TRUE);
+        assertEquals("key", invoker.values[0]);
+        assertEquals(Boolean.TRUE, invoker.values[1]);
+    }
+
+    public void testOutParametersGetWhatCalleeWrote() {
+        CallSite.Invoker invoker = new CallSite.Invoker() {
+            public Variant invoke(Dispatch dispatch, String name, int dispID,
+                    int flags, Variant[] args, int[] errs) {
+                args[1] = new Variant(42);
+                return null;
+            }
+        };
+        CallSite site = new CallSite(invoker, null, "GetCount", 3, Dispatch.Method, 2);
+        OutParameter count = new OutParameter();
+
+        site.invoke("ignored", count);
+        assertEquals(42, count.get().getInt());
+    }
+}
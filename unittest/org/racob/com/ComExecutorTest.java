@@ -0,0 +1,118 @@
+package org.racob.com;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.racob.activeX.ActiveXComponent;
+import org.racob.test.BaseTestCase;
+
+/**
+ * Runs COM work on a ComExecutor from the test thread.
+ * <p>
+ * May need to run with some command line options (including from inside
+ * Eclipse). Look in the docs area at the Jacob usage document for command line
+ * options.
+ */
+public class ComExecutorTest extends BaseTestCase {
+    private ComExecutor executor;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+        executor = new ComExecutor(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        super.tearDown();
+    }
+
+    public void testResultsComeBack() throws Exception {
+        Future<Integer> count = executor.submit(new Callable<Integer>() {
+            public Integer call() {
+                ActiveXComponent dictionary = new ActiveXComponent("Scripting.Dictionary");
+                dictionary.call("Add", "a", 1);
+                dictionary.call("Add", "b", 2);
+                return dictionary.getPropertyAsInt("Count");
+            }
+        });
+
+        assertEquals(2, count.get().intValue());
+    }
+
+    public void testDispatchStaysPinned() throws Exception {
+        Future<Dispatch> future = executor.submit(new Callable<Dispatch>() {
+            public Dispatch call() {
+                ActiveXComponent dictionary = new ActiveXComponent("Scripting.Dictionary");
+                dictionary.call("Add", "a", 1);
+                return dictionary;
+            }
+        });
+
+        Dispatch dictionary = future.get();
+        assertSame(dictionary, future.get());
+        assertNotNull(dictionary.getHomeThread());
+        assertNotSame(Thread.currentThread(), dictionary.getHomeThread());
+        assertEquals(1, dictionary.call("Count").getInt());
+        assertTrue(dictionary.getReferenceCount() > 0);
+    }
+
+    public void testFailureIsReported() throws Exception {
+        Future<Variant> future = executor.submit(new Callable<Variant>() {
+            public Variant call() {
+                return new ActiveXComponent("Scripting.Dictionary").call("NoSuchMethod");
+            }
+        });
+
+        try {
+            future.get();
+            fail("Expected the ComException to come back");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ComException);
+        }
+    }
+
+    public void testWorkersCanCallBackIntoEachOther() {
+        final ComExecutor.Worker first = executor.leastLoaded();
+        final ComExecutor.Worker second = executor.leastLoaded();
+        assertNotSame(first, second);
+
+        // first waits on second which waits on first
+        int answer = first.call(new Callable<Integer>() {
+            public Integer call() {
+                return second.call(new Callable<Integer>() {
+                    public Integer call() {
+                        return first.call(new Callable<Integer>() {
+                            public Integer call() {
+                                return 42;
+                            }
+                        });
+                    }
+                });
+            }
+        });
+
+        assertEquals(42, answer);
+    }
+
+    public void testTaskAfterShutdownIsRejected() throws Exception {
+        ComExecutor.Worker worker = executor.leastLoaded();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        try {
+            worker.call(new Callable<Object>() {
+                public Object call() {
+                    return null;
+                }
+            });
+            fail("Nothing would ever run it");
+        } catch (RejectedExecutionException e) {
+        }
+    }
+}
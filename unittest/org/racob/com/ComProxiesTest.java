@@ -0,0 +1,119 @@
+package org.racob.com;
+
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+/**
+ * How interface methods are matched to members of a type.  The type is
+ * described by hand so this does not need the native library.
+ */
+public class ComProxiesTest extends TestCase {
+    public interface Dictionary {
+        void Add(Object key, Object item);
+        boolean exists(Object key);
+        Object Item(Object key);
+        int getCount();
+        void setCompareMode(int mode);
+        void Remove(Object key);
+    }
+
+    public interface Counted {
+        int getCount();
+    }
+
+    /** A Dispatch of a known type which counts requests for its TypeInfo */
+    private static class TypedDispatch extends Dispatch {
+        int typeInfoRequests = 0;
+
+        @Override
+        Object typeKey() {
+            return "{DICTIONARY-GUID}";
+        }
+
+        @Override
+        public TypeInfo getTypeInfo() {
+            typeInfoRequests++;
+            return new TypeInfo(0, "{DICTIONARY-GUID}", null, TypeInfo.TYPEKIND_DISPATCH,
+                    6, 0, 0, 0, 0, 1, 0) {
+                @Override
+                public TypeModel getModel() {
+                    return dictionary();
+                }
+            };
+        }
+    }
+
+    private static TypeModel dictionary() {
+        FuncDesc add = func(1, 1, 2);
+        FuncDesc exists = func(2, 1, 1);
+        FuncDesc item = func(3, 2, 1);
+        FuncDesc count = func(4, 2, 0);
+        FuncDesc modeGet = func(5, 2, 0);
+        FuncDesc modePut = func(5, 4, 1);
+        return new TypeModel("{DICTIONARY-GUID}", 1, 0, null,
+                new FuncDesc[] { add, exists, item, count, modeGet, modePut },
+                new String[][] { { "Add" }, { "Exists" }, { "Item" }, { "Count" }, { "CompareMode" }, { "CompareMode" } },
+                new Documentation[6], new VarDesc[0], new String[0][], new Documentation[0]);
+    }
+
+    private static FuncDesc func(int memid, int invkind, int arity) {
+        return new FuncDesc(memid, 0, invkind, 0, new Parameter[arity], null, 0, 0);
+    }
+
+    private static ComProxies.Binding resolve(String name, Class<?>... parameters) throws NoSuchMethodException {
+        Method method = Dictionary.class.getMethod(name, parameters);
+        return ComProxies.resolve(method, dictionary());
+    }
+
+    public void testMethodsAndProperties() throws NoSuchMethodException {
+        ComProxies.Binding add = resolve("Add", Object.class, Object.class);
+        assertEquals(1, add.dispID);
+        assertEquals(Dispatch.MGet, add.flags);
+        assertEquals(2, add.marshallers.length);
+
+        assertEquals(2, resolve("exists", Object.class).dispID);
+
+        ComProxies.Binding item = resolve("Item", Object.class);
+        assertEquals(3, item.dispID);
+        assertEquals(Dispatch.Get, item.flags);
+    }
+
+    public void testAccessorsMapToProperties() throws NoSuchMethodException {
+        ComProxies.Binding count = resolve("getCount");
+        assertEquals(4, count.dispID);
+        assertEquals(Dispatch.Get, count.flags);
+        assertEquals("Count", count.name);
+
+        ComProxies.Binding mode = resolve("setCompareMode", int.class);
+        assertEquals(5, mode.dispID);
+        assertEquals(Dispatch.Put, mode.flags);
+    }
+
+    public void testBindingsFoundByTypeKey() {
+        TypedDispatch first = new TypedDispatch();
+        TypedDispatch second = new TypedDispatch();
+
+        ComProxies.bind(first, Counted.class);
+        ComProxies.bind(second, Counted.class);
+
+        // Only whichever bound first (in this JVM) had to describe the type
+        assertEquals(0, second.typeInfoRequests);
+        assertTrue(first.typeInfoRequests <= 1);
+    }
+
+    public void testMissingMemberRefused() throws NoSuchMethodException {
+        try {
+            resolve("Remove", Object.class);
+            fail("Remove is not in the type");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testMarshallersFollowDeclaredTypes() {
+        assertSame(ComProxies.marshallerFor(int.class), ComProxies.marshallerFor(Integer.class));
+        assertSame(ComProxies.marshallerFor(Dispatch.class), ComProxies.marshallerFor(Dispatch.class));
+        assertNotSame(ComProxies.marshallerFor(Dictionary.class), ComProxies.marshallerFor(Object.class));
+        assertSame(ComProxies.marshallerFor(Runnable.class), ComProxies.marshallerFor(Object.class));
+    }
+}
@@ -0,0 +1,62 @@
+package org.racob.com;
+
+import org.racob.activeX.ActiveXComponent;
+import org.racob.test.BaseTestCase;
+
+/**
+ * Checks that a ComScope releases what was made inside it and nothing that
+ * was promoted out of it.
+ * <p>
+ * May need to run with some command line options (including from inside
+ * Eclipse). Look in the docs area at the Jacob usage document for command line
+ * options.
+ */
+public class ComScopeTest extends BaseTestCase {
+
+    public void testCloseReleasesObjects() {
+        ComScope scope = ComScope.open();
+        ActiveXComponent dictionary;
+        try {
+            dictionary = new ActiveXComponent("Scripting.Dictionary");
+            assertSame(scope, ComScope.current());
+            assertTrue(scope.size() > 0);
+            assertTrue(dictionary.isAlive());
+        } finally {
+            scope.close();
+        }
+
+        assertFalse(dictionary.isAlive());
+        assertTrue(scope.isClosed());
+        assertNull(ComScope.current());
+    }
+
+    public void testPromotedObjectSurvives() {
+        ComScope outer = ComScope.open();
+        try {
+            ActiveXComponent kept;
+            ComScope inner = ComScope.open();
+            try {
+                kept = inner.promote(new ActiveXComponent("Scripting.Dictionary"));
+            } finally {
+                inner.close();
+            }
+            assertTrue(kept.isAlive());
+            assertEquals(1, outer.size());
+
+            outer.close();
+            assertFalse(kept.isAlive());
+        } finally {
+            outer.close();
+        }
+    }
+
+    public void testClosingOuterClosesInner() {
+        ComScope outer = ComScope.open();
+        ComScope inner = ComScope.open();
+
+        outer.close();
+
+        assertTrue(inner.isClosed());
+        assertNull(ComScope.current());
+    }
+}
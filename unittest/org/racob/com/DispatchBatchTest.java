@@ -0,0 +1,238 @@
+package org.racob.com;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * How DispatchBatch builds its arrays and hands back results.  The calls are
+ * made by a stand-in for Dispatch.invokeBatch() so no COM object is needed;
+ * the targets are empty Dispatches which are only compared by identity.
+ */
+public class DispatchBatchTest extends TestCase {
+    private static final int E_FAIL = 0x80004005;
+    private static final int DISP_E_MEMBERNOTFOUND = 0x80020003;
+    private static final int STALE_ID = 99;
+
+    /**
+     * Answers Dispatch.invokeBatch() for all its operations the way the native
+     * loop does, stopping at a named operation whose DISPID is STALE_ID.
+     */
+    private static class ScriptedDispatch extends Dispatch {
+        final List<String> calls = new ArrayList<String>();
+
+        ScriptedDispatch() {
+            super(1); // made up, nothing is ever released
+        }
+
+        @Override
+        Object typeKey() {
+            return "{SCRIPTED-BATCH-GUID}";
+        }
+
+        @Override
+        int invokeBatch(int start, int[] pointers, String[] names, int[] dispIDs,
+                int lcid, int[] flags, Variant[][] args, Variant[] results, int[] hresults) {
+            for (int i = start; i < pointers.length; i++) {
+                if (dispIDs[i] == STALE_ID) {
+                    hresults[i] = DISP_E_MEMBERNOTFOUND;
+                    return i;
+                }
+                calls.add(names[i] + " " + dispIDs[i]);
+                hresults[i] = 0;
+            }
+            return pointers.length;
+        }
+    }
+
+    /** Remembers what it was asked to do and fails the calls it is told to */
+    private static class RecordingInvoker implements DispatchBatch.Invoker {
+        int executions = 0;
+        Dispatch[] targets;
+        String[] names;
+        int[] dispIDs;
+        int[] flags;
+        Variant[][] args;
+        int failing = -1;
+
+        public void invokeBatch(Dispatch[] targets, String[] names,
+                int[] dispIDs, int[] flags, Variant[][] args,
+                Variant[] results, int[] hresults) {
+            executions++;
+            this.targets = targets;
+            this.names = names;
+            this.dispIDs = dispIDs;
+            this.flags = flags;
+            this.args = args;
+            for (int i = 0; i < results.length; i++) {
+                if (i == failing) {
+                    hresults[i] = E_FAIL;
+                    continue;
+                }
+                results[i] = new Variant(i * 10);
+                for (int j = 0; j < args[i].length; j++) {
+                    if (args[i][j].isByref()) args[i][j] = new Variant("written " + i);
+                }
+            }
+        }
+    }
+
+    public void testArraysFollowCalls() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        DispatchBatch batch = new DispatchBatch(invoker);
+        Dispatch first = new Dispatch();
+        Dispatch second = new Dispatch();
+
+        assertEquals(0, batch.call(first, "Add", "key", Integer.valueOf(3)));
+        assertEquals(1, batch.get(second, "Count"));
+        assertEquals(2, batch.put(first, "Visible", Boolean.TRUE));
+        assertEquals(3, batch.add(second, 42, Dispatch.Method));
+        assertEquals(4, batch.size());
+        batch.execute();
+
+        assertEquals(1, invoker.executions);
+        assertEquals(4, invoker.targets.length);
+        assertSame(first, invoker.targets[0]);
+        assertSame(second, invoker.targets[1]);
+        assertSame(first, invoker.targets[2]);
+        assertSame(second, invoker.targets[3]);
+
+        assertEquals("Add", invoker.names[0]);
+        assertEquals("Count", invoker.names[1]);
+        assertEquals("Visible", invoker.names[2]);
+        assertNull(invoker.names[3]);
+        assertEquals(42, invoker.dispIDs[3]);
+
+        assertEquals(Dispatch.MGet, invoker.flags[0]);
+        assertEquals(Dispatch.Get, invoker.flags[1]);
+        assertEquals(Dispatch.Put, invoker.flags[2]);
+        assertEquals(Dispatch.Method, invoker.flags[3]);
+
+        assertEquals(2, invoker.args[0].length);
+        assertEquals("key", invoker.args[0][0].getString());
+        assertEquals(3, invoker.args[0][1].getInt());
+        assertEquals(0, invoker.args[1].length);
+        assertTrue(invoker.args[2][0].getBoolean());
+        assertEquals(0, invoker.args[3].length);
+    }
+
+    public void testGrowsPastInitialCapacity() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        DispatchBatch batch = new DispatchBatch(invoker);
+        Dispatch target = new Dispatch();
+
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, batch.add(target, i, Dispatch.Get));
+        }
+        batch.execute();
+
+        assertEquals(40, invoker.dispIDs.length);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, invoker.dispIDs[i]);
+            assertEquals(i * 10, batch.getResult(i).getInt());
+        }
+    }
+
+    public void testResultsAndHResultsByIndex() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        invoker.failing = 1;
+        DispatchBatch batch = new DispatchBatch(invoker);
+        Dispatch target = new Dispatch();
+
+        batch.get(target, "A");
+        batch.get(target, "B");
+        batch.get(target, "C");
+        batch.execute();
+
+        assertTrue(batch.succeeded(0));
+        assertEquals(0, batch.getResult(0).getInt());
+        assertFalse(batch.succeeded(1));
+        assertEquals(E_FAIL, batch.getHResult(1));
+        assertNull(batch.getResult(1));
+        assertTrue(batch.succeeded(2));
+        assertEquals(20, batch.getResult(2).getInt());
+        assertEquals(1, batch.getFailureCount());
+    }
+
+    public void testOutParametersOnlyFilledOnSuccess() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        invoker.failing = 0;
+        DispatchBatch batch = new DispatchBatch(invoker);
+        Dispatch target = new Dispatch();
+        OutParameter failed = new OutParameter();
+        OutParameter filled = new OutParameter();
+
+        batch.call(target, "Fails", failed);
+        batch.call(target, "Works", filled);
+        batch.execute();
+
+        assertEquals(Variant.VariantEmpty, failed.get().getType());
+        assertEquals("written 1", filled.getValue());
+    }
+
+    public void testMisuse() {
+        RecordingInvoker invoker = new RecordingInvoker();
+        DispatchBatch batch = new DispatchBatch(invoker);
+        Dispatch target = new Dispatch();
+
+        try {
+            batch.add(null, "Count", Dispatch.Get);
+            fail("target cannot be null");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            batch.add(target, (String) null, Dispatch.Get);
+            fail("name cannot be null");
+        } catch (IllegalArgumentException e) {
+        }
+
+        batch.get(target, "Count");
+        try {
+            batch.getResult(0);
+            fail("not executed yet");
+        } catch (IllegalStateException e) {
+        }
+
+        batch.execute();
+        int late = batch.get(target, "Name");
+        try {
+            batch.getHResult(late);
+            fail("added after execute");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            batch.getResult(-1);
+            fail("no such call");
+        } catch (IllegalStateException e) {
+        }
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(0, batch.getFailureCount());
+        try {
+            batch.succeeded(0);
+            fail("results were cleared");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testStaleDispIDRetriedInOrder() {
+        DispatchIdCache cache = Dispatch.getDispatchIdCache();
+        cache.put("{SCRIPTED-BATCH-GUID}", "Remove", Dispatch.LSD, STALE_ID);
+        cache.put("{SCRIPTED-BATCH-GUID}", "Count", Dispatch.LSD, 7);
+        ScriptedDispatch target = new ScriptedDispatch();
+        DispatchBatch batch = new DispatchBatch();
+
+        batch.call(target, "Add", "key");   // first lookup is left to native code
+        batch.call(target, "Remove", "key");
+        batch.get(target, "Count");
+        batch.execute();
+
+        // Remove is looked up again before Count is called
+        assertEquals(Arrays.asList("Add -1", "Remove -1", "Count 7"), target.calls);
+        assertEquals(0, batch.getFailureCount());
+        assertFalse(cache.invalidate("{SCRIPTED-BATCH-GUID}", "Remove", Dispatch.LSD));
+    }
+}
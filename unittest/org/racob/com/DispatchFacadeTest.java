@@ -0,0 +1,52 @@
+package org.racob.com;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.racob.test.BaseTestCase;
+
+/**
+ * Many threads share one object through a DispatchFacade without any of
+ * them joining a COM apartment.
+ * <p>
+ * May need to run with some command line options (including from inside
+ * Eclipse). Look in the docs area at the Jacob usage document for command line
+ * options.
+ */
+public class DispatchFacadeTest extends BaseTestCase {
+    private static final int THREADS = 50;
+
+    public void testCallersStayOutOfCom() throws Exception {
+        ApartmentPool pool = new ApartmentPool(2);
+        try {
+            final DispatchFacade dictionary = new DispatchFacade(pool, "Scripting.Dictionary");
+            final CountDownLatch done = new CountDownLatch(THREADS);
+            final AtomicInteger joinedCom = new AtomicInteger();
+
+            for (int i = 0; i < THREADS; i++) {
+                final int key = i;
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            dictionary.call("Add", "key" + key, key);
+                            dictionary.callAsync("Exists", "key" + key).get();
+                            if (ROT.peekApartment() != null) joinedCom.incrementAndGet();
+                        } catch (Exception e) {
+                            joinedCom.incrementAndGet();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(0, joinedCom.get());
+            assertEquals(THREADS, dictionary.get("Count").getInt());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
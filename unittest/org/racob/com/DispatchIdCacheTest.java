@@ -0,0 +1,155 @@
+package org.racob.com;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+/**
+ * Exercises the DISPID cache against a stand-in for GetIDsOfNames, and
+ * Dispatch's use of it against a stand-in for Invoke, so it does not need
+ * the native library.
+ */
+public class DispatchIdCacheTest extends TestCase {
+    /** Hands out ids based on the name and counts how often it was asked */
+    private static class CountingResolver implements DispatchIdCache.Resolver {
+        int lookups = 0;
+        int offset = 0;
+
+        public int[] getIDsOfNames(int lcid, String[] names) {
+            lookups++;
+            return new int[] { names[0].length() + offset };
+        }
+    }
+
+    /**
+     * Answers Invoke with DISP_E_MEMBERNOTFOUND for STALE_ID and records the
+     * DISPID of every call.
+     */
+    private static class ScriptedDispatch extends Dispatch {
+        static final int STALE_ID = 42;
+        final List<Integer> invoked = new ArrayList<Integer>();
+
+        ScriptedDispatch() {
+            super(1); // made up, nothing is ever released
+        }
+
+        @Override
+        Object typeKey() {
+            return "{SCRIPTED-GUID}";
+        }
+
+        @Override
+        public int[] getIDsOfNames(int lcid, String[] names) {
+            return new int[] { 7 };
+        }
+
+        @Override
+        Variant invoke(int pointer, String name, int dispID, int lcid, int flags,
+                Variant[] args, int[] errs, int streamCells, int directBytes) {
+            invoked.add(dispID);
+            if (dispID == STALE_ID) throw new ComFailException(0x80020003, name);
+            return null;
+        }
+    }
+
+    public void testHitAfterMiss() {
+        DispatchIdCache cache = new DispatchIdCache();
+        CountingResolver resolver = new CountingResolver();
+
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver));
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver));
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver));
+
+        assertEquals(1, resolver.lookups);
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    public void testKeyIncludesTypeNameAndLcid() {
+        DispatchIdCache cache = new DispatchIdCache();
+        CountingResolver resolver = new CountingResolver();
+
+        cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver);
+        cache.getIDOfName("{GUID-B}", "Value", Dispatch.LSD, resolver);
+        cache.getIDOfName("{GUID-A}", "Range", Dispatch.LSD, resolver);
+        cache.getIDOfName("{GUID-A}", "Value", 1033, resolver);
+        cache.getIDOfName("Excel.Application", "Value", Dispatch.LSD, resolver);
+
+        assertEquals(5, resolver.lookups);
+        assertEquals(5, cache.size());
+        assertEquals(0, cache.getHits());
+    }
+
+    public void testNamesAreNotCaseSensitive() {
+        DispatchIdCache cache = new DispatchIdCache();
+        CountingResolver resolver = new CountingResolver();
+
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "Range", Dispatch.LSD, resolver));
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "range", Dispatch.LSD, resolver));
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "RANGE", Dispatch.LSD, resolver));
+
+        assertEquals(1, resolver.lookups);
+        assertEquals(1, cache.size());
+        assertTrue(cache.invalidate("{GUID-A}", "rAnGe", Dispatch.LSD));
+    }
+
+    public void testInvalidateForcesNewLookup() {
+        DispatchIdCache cache = new DispatchIdCache();
+        CountingResolver resolver = new CountingResolver();
+
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver));
+        resolver.offset = 100;
+        assertEquals(5, cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver));
+
+        assertTrue(cache.invalidate("{GUID-A}", "Value", Dispatch.LSD));
+        assertFalse(cache.invalidate("{GUID-A}", "Value", Dispatch.LSD));
+        assertEquals(1, cache.getInvalidations());
+
+        assertEquals(105, cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver));
+        assertEquals(2, resolver.lookups);
+    }
+
+    public void testClear() {
+        DispatchIdCache cache = new DispatchIdCache();
+        CountingResolver resolver = new CountingResolver();
+
+        cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver);
+        cache.getIDOfName("{GUID-A}", "Range", Dispatch.LSD, resolver);
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        cache.getIDOfName("{GUID-A}", "Value", Dispatch.LSD, resolver);
+        assertEquals(3, resolver.lookups);
+    }
+
+    public void testStaleIdIsDroppedAndRetried() {
+        DispatchIdCache cache = Dispatch.getDispatchIdCache();
+        cache.put("{SCRIPTED-GUID}", "Refresh", Dispatch.LSD, ScriptedDispatch.STALE_ID);
+        ScriptedDispatch dispatch = new ScriptedDispatch();
+
+        dispatch.call("Refresh"); // the first lookup is left to native code
+        dispatch.call("Refresh");
+        dispatch.call("Refresh");
+
+        // The stale id is retried by name, then looked up afresh
+        assertEquals(Arrays.asList(-1, ScriptedDispatch.STALE_ID, -1, 7), dispatch.invoked);
+    }
+
+    public void testNamesIgnoreCaseInAnyLocale() {
+        Locale original = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            DispatchIdCache cache = new DispatchIdCache();
+            cache.put("{GUID-A}", "ID", Dispatch.LSD, 3);
+
+            assertEquals(3, cache.getIDOfName("{GUID-A}", "id", Dispatch.LSD, new CountingResolver()));
+            assertEquals(1, cache.getHits());
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.racob.com;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+/**
+ * Batch sizing and element order of EnumVariant, against a Next which
+ * returns a scripted number of elements per call instead of going to COM.
+ */
+public class EnumVariantTest extends TestCase {
+    /**
+     * Numbers its elements 0, 1, 2... and stores each batch last element
+     * first, as the native Next does.
+     */
+    private static class ScriptedEnumVariant extends EnumVariant {
+        private final int[] answers;
+        final List<Integer> requested = new ArrayList<Integer>();
+        private int element = 0;
+
+        ScriptedEnumVariant(int size, int... answers) {
+            super(0, size);
+            this.answers = answers;
+        }
+
+        @Override
+        public int Next(int pointer, Variant[] values, int size) {
+            int call = requested.size();
+            requested.add(size);
+
+            int fetched = call < answers.length ? Math.min(answers[call], size) : 0;
+            for (int i = 0; i < fetched; i++) {
+                values[fetched - i - 1] = new Variant(element++);
+            }
+            return fetched;
+        }
+    }
+
+    private static List<Integer> walk(EnumVariant items) {
+        List<Integer> elements = new ArrayList<Integer>();
+        for (Variant item : items) {
+            elements.add(item.getInt());
+        }
+        return elements;
+    }
+
+    private static List<Integer> upTo(int count) {
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            numbers.add(i);
+        }
+        return numbers;
+    }
+
+    public void testBatchGrowsWhenFullAndShrinksWhenPartial() {
+        ScriptedEnumVariant items = new ScriptedEnumVariant(4, 4, 8, 3, 3);
+
+        assertEquals(upTo(18), walk(items));
+        // Full batches double, a partial one shrinks to what came back
+        assertEquals(Arrays.asList(4, 8, 16, 3, 6), items.requested);
+        assertEquals(5, items.getNextCalls());
+        assertFalse(items.hasMoreElements());
+        assertEquals(5, items.getNextCalls());
+    }
+
+    public void testBatchIsCappedAtMax() {
+        ScriptedEnumVariant items = new ScriptedEnumVariant(4000, 4000, EnumVariant.MAX_BATCH);
+
+        assertEquals(upTo(4000 + EnumVariant.MAX_BATCH), walk(items));
+        assertEquals(Arrays.asList(4000, EnumVariant.MAX_BATCH, EnumVariant.MAX_BATCH),
+                items.requested);
+    }
+
+    public void testExpectFetchesEverythingAtOnce() {
+        ScriptedEnumVariant items = new ScriptedEnumVariant(30, 10);
+        assertSame(items, items.expect(10));
+        assertEquals(11, items.getBatchSize());
+
+        assertEquals(upTo(10), walk(items));
+        // A partial batch does not end the walk; the next trip finds the end
+        assertEquals(Arrays.asList(11, 10), items.requested);
+    }
+
+    public void testEmptyEnumeration() {
+        ScriptedEnumVariant items = new ScriptedEnumVariant(30);
+
+        assertFalse(items.hasNext());
+        assertEquals(1, items.getNextCalls());
+        try {
+            items.next();
+            fail("nothing to enumerate");
+        } catch (NoSuchElementException e) {
+        }
+    }
+}
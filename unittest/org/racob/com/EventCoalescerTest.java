@@ -0,0 +1,121 @@
+package org.racob.com;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Windows and suppressed counts of EventCoalescer.  Only arrays of Variant
+ * are passed around so nothing here needs the native library.
+ */
+public class EventCoalescerTest extends TestCase {
+    private static final Variant[] NO_ARGS = new Variant[0];
+
+    /** Records what it is sent in place of a real listener */
+    private static class RecordingProxy extends InvocationProxy {
+        final List<String> events = new ArrayList<String>();
+        final List<Variant[]> arguments = new ArrayList<Variant[]>();
+        final List<Integer> suppressed = new ArrayList<Integer>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final CountDownLatch delivered;
+
+        RecordingProxy(int expected) {
+            delivered = new CountDownLatch(expected);
+        }
+
+        public synchronized Variant invoke(String methodName, Variant[] targetParameters) {
+            events.add(methodName);
+            arguments.add(targetParameters);
+            suppressed.add(EventCoalescer.getSuppressedCount());
+            threads.add(Thread.currentThread());
+            delivered.countDown();
+            return null;
+        }
+
+        @Override
+        public void setTarget(Object pTargetObject) {
+            mTargetObject = pTargetObject;
+        }
+    }
+
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    protected void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Override
+    protected void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    public void testLatestArgumentsDeliveredOncePerWindow() throws InterruptedException {
+        RecordingProxy proxy = new RecordingProxy(1);
+        EventCoalescer coalescer = new EventCoalescer(proxy, scheduler);
+        coalescer.coalesce("Progress", 200, TimeUnit.MILLISECONDS);
+        Variant[] last = new Variant[1];
+
+        for (int i = 0; i < 99; i++) {
+            coalescer.invoke("Progress", NO_ARGS);
+        }
+        coalescer.invoke("Progress", last);
+
+        assertTrue(proxy.delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(1, proxy.events.size());
+        assertSame(last, proxy.arguments.get(0));
+        assertEquals(99, proxy.suppressed.get(0).intValue());
+        assertEquals(99, coalescer.getSuppressedTotal());
+        assertEquals(0, EventCoalescer.getSuppressedCount());
+    }
+
+    public void testOtherEventsPassStraightThrough() {
+        RecordingProxy proxy = new RecordingProxy(1);
+        EventCoalescer coalescer = new EventCoalescer(proxy, scheduler);
+        coalescer.coalesce("Progress", 1, TimeUnit.HOURS);
+
+        coalescer.invoke("Progress", NO_ARGS);
+        coalescer.invoke("Done", NO_ARGS);
+
+        assertEquals(1, proxy.events.size());
+        assertEquals("Done", proxy.events.get(0));
+        assertEquals(0, proxy.suppressed.get(0).intValue());
+    }
+
+    public void testEachCoalescerHasItsOwnThread() throws InterruptedException {
+        RecordingProxy first = new RecordingProxy(1);
+        RecordingProxy second = new RecordingProxy(1);
+        EventCoalescer one = new EventCoalescer(first).coalesce("Progress", 10, TimeUnit.MILLISECONDS);
+        EventCoalescer other = new EventCoalescer(second).coalesce("Progress", 10, TimeUnit.MILLISECONDS);
+
+        one.invoke("Progress", NO_ARGS);
+        other.invoke("Progress", NO_ARGS);
+
+        assertTrue(first.delivered.await(10, TimeUnit.SECONDS));
+        assertTrue(second.delivered.await(10, TimeUnit.SECONDS));
+        assertNotSame(first.threads.get(0), second.threads.get(0));
+        assertTrue(first.threads.get(0).getName().startsWith("racob-coalescer-"));
+        assertTrue(first.threads.get(0).isDaemon());
+
+        one.setTarget(null);
+        other.setTarget(null);
+    }
+
+    public void testClearingTargetDiscardsPending() throws InterruptedException {
+        RecordingProxy proxy = new RecordingProxy(1);
+        EventCoalescer coalescer = new EventCoalescer(proxy, scheduler);
+        coalescer.coalesce("Progress", 50, TimeUnit.MILLISECONDS);
+
+        coalescer.invoke("Progress", NO_ARGS);
+        coalescer.setTarget(null);
+
+        assertFalse(proxy.delivered.await(300, TimeUnit.MILLISECONDS));
+        assertNull(coalescer.invoke("Done", NO_ARGS));
+        assertTrue(proxy.events.isEmpty());
+    }
+}
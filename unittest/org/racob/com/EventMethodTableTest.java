@@ -0,0 +1,42 @@
+package org.racob.com;
+
+import junit.framework.TestCase;
+
+/**
+ * Event dispatch through the per-class method table.  Only empty Variant
+ * arrays are used so this does not need the native library.
+ */
+public class EventMethodTableTest extends TestCase {
+    public static class Sink {
+        int ticks = 0;
+
+        public void Tick(Variant[] args) {
+            ticks++;
+        }
+
+        public void Tick(String notAnEvent) {
+        }
+
+        public void NoArgs() {
+        }
+    }
+
+    public void testOnlyVariantArrayMethodsAreEvents() {
+        EventMethodTable table = EventMethodTable.forClass(Sink.class);
+
+        assertNotNull(table.get("Tick"));
+        assertNull(table.get("NoArgs"));
+        assertNull(table.get("Close"));
+        assertSame(table, EventMethodTable.forClass(Sink.class));
+    }
+
+    public void testResolvedMethodDelivers() throws Exception {
+        Sink sink = new Sink();
+        EventMethodTable table = EventMethodTable.forClass(Sink.class);
+
+        table.get("Tick").invoke(sink, new Object[] { new Variant[0] });
+        table.get("Tick").invoke(sink, new Object[] { new Variant[0] });
+
+        assertEquals(2, sink.ticks);
+    }
+}
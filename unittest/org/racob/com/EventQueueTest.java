@@ -0,0 +1,216 @@
+package org.racob.com;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+/**
+ * Ring behaviour of EventQueue.  Events are delivered by running the queued
+ * drain task by hand so nothing here needs the native library.
+ */
+public class EventQueueTest extends TestCase {
+    private static final Variant[] NO_ARGS = new Variant[0];
+
+    /** Holds drain tasks until the test runs them */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    /** Records what it is sent in place of a real listener */
+    private static class RecordingProxy extends InvocationProxy {
+        final List<String> events = new ArrayList<String>();
+        final List<Variant[]> arguments = new ArrayList<Variant[]>();
+        String failOn = null;
+
+        public Variant invoke(String methodName, Variant[] targetParameters) {
+            if (methodName.equals(failOn)) throw new AssertionError(methodName);
+            events.add(methodName);
+            arguments.add(targetParameters);
+            return null;
+        }
+
+        @Override
+        public void setTarget(Object pTargetObject) {
+            mTargetObject = pTargetObject;
+        }
+    }
+
+    private ManualExecutor executor;
+    private RecordingProxy proxy;
+
+    @Override
+    protected void setUp() {
+        executor = new ManualExecutor();
+        proxy = new RecordingProxy();
+    }
+
+    private EventQueue queue(int capacity, EventQueue.Overflow overflow) {
+        EventQueue queue = new EventQueue(capacity, overflow, executor);
+        queue.attach(proxy);
+        return queue;
+    }
+
+    public void testDeliveredInOrderFromExecutor() {
+        EventQueue queue = queue(4, EventQueue.Overflow.BLOCK);
+
+        assertNull(queue.invoke("First", NO_ARGS));
+        assertNull(queue.invoke("Second", NO_ARGS));
+        assertEquals(2, queue.getDepth());
+        assertTrue(proxy.events.isEmpty());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(2, proxy.events.size());
+        assertEquals("First", proxy.events.get(0));
+        assertEquals("Second", proxy.events.get(1));
+        assertEquals(0, queue.getDepth());
+        assertEquals(2, queue.getDeliveredCount());
+    }
+
+    public void testDropOldest() {
+        EventQueue queue = queue(2, EventQueue.Overflow.DROP_OLDEST);
+
+        queue.invoke("A", NO_ARGS);
+        queue.invoke("B", NO_ARGS);
+        queue.invoke("C", NO_ARGS);
+        executor.runAll();
+
+        assertEquals(2, proxy.events.size());
+        assertEquals("B", proxy.events.get(0));
+        assertEquals("C", proxy.events.get(1));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    public void testCoalesceKeepsLatestArguments() {
+        EventQueue queue = queue(2, EventQueue.Overflow.COALESCE);
+        Variant[] latest = new Variant[1];
+
+        queue.invoke("Progress", NO_ARGS);
+        queue.invoke("Done", NO_ARGS);
+        queue.invoke("Progress", latest);
+        executor.runAll();
+
+        assertEquals(2, proxy.events.size());
+        assertEquals("Progress", proxy.events.get(0));
+        assertEquals(1, proxy.arguments.get(0).length);
+        assertEquals(1, queue.getCoalescedCount());
+    }
+
+    public void testBlockWaitsForSpace() throws InterruptedException {
+        final EventQueue queue = queue(1, EventQueue.Overflow.BLOCK);
+        queue.invoke("A", NO_ARGS);
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                queue.invoke("B", NO_ARGS);
+            }
+        };
+        producer.start();
+        while (queue.getBlockedCount() == 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(producer.isAlive());
+
+        executor.runAll();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        executor.runAll();
+        assertEquals(2, proxy.events.size());
+    }
+
+    public void testRejectedDrainIsScheduledAgain() {
+        EventQueue queue = new EventQueue(4, EventQueue.Overflow.BLOCK, new Executor() {
+            public void execute(Runnable task) {
+                throw new RejectedExecutionException();
+            }
+        });
+        queue.attach(proxy);
+
+        try {
+            queue.invoke("A", NO_ARGS);
+            fail("rejection should reach the caller");
+        } catch (RejectedExecutionException e) {
+        }
+        assertEquals(1, queue.getDepth());
+
+        // Still not draining, so the next event asks the executor again
+        try {
+            queue.invoke("B", NO_ARGS);
+            fail("rejection should reach the caller");
+        } catch (RejectedExecutionException e) {
+        }
+        assertEquals(2, queue.getDepth());
+    }
+
+    public void testArgumentsAreCopied() {
+        EventQueue queue = queue(4, EventQueue.Overflow.BLOCK);
+        Variant[] reused = new Variant[2];
+
+        queue.invoke("A", reused);
+        queue.invoke("B", reused);
+        executor.runAll();
+
+        assertNotSame(reused, proxy.arguments.get(0));
+        assertNotSame(proxy.arguments.get(0), proxy.arguments.get(1));
+        assertEquals(2, proxy.arguments.get(1).length);
+    }
+
+    public void testErrorInListenerDoesNotStopDelivery() {
+        EventQueue queue = queue(4, EventQueue.Overflow.BLOCK);
+        proxy.failOn = "Bad";
+
+        queue.invoke("Bad", NO_ARGS);
+        queue.invoke("Good", NO_ARGS);
+        try {
+            executor.runAll();
+            fail("the Error belongs to the executor's thread");
+        } catch (AssertionError e) {
+        }
+
+        // A new drain was scheduled for what was left
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(1, proxy.events.size());
+        assertEquals("Good", proxy.events.get(0));
+
+        queue.invoke("Later", NO_ARGS);
+        executor.runAll();
+        assertEquals("Later", proxy.events.get(1));
+    }
+
+    public void testClearingTargetDiscardsQueued() {
+        EventQueue queue = queue(4, EventQueue.Overflow.BLOCK);
+
+        queue.invoke("A", NO_ARGS);
+        queue.setTarget(null);
+        executor.runAll();
+
+        assertTrue(proxy.events.isEmpty());
+        assertEquals(0, queue.getDepth());
+        assertNull(queue.invoke("B", NO_ARGS));
+        assertEquals(0, queue.getDepth());
+    }
+
+    public void testOnlyOneDispatchEvents() {
+        EventQueue queue = queue(4, EventQueue.Overflow.BLOCK);
+        try {
+            queue.attach(new RecordingProxy());
+            fail("second attach should be refused");
+        } catch (IllegalStateException e) {
+        }
+    }
+}
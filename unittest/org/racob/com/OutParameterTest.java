@@ -0,0 +1,53 @@
+package org.racob.com;
+
+import junit.framework.TestCase;
+
+/**
+ * What OutParameter hands to Invoke and takes back afterwards.  Only
+ * Variants are involved so this does not need a live Dispatch.
+ */
+public class OutParameterTest extends TestCase {
+    public void testOutOnlyIsEmpty() {
+        OutParameter out = new OutParameter();
+
+        assertEquals(Variant.VariantEmpty, out.get().getType());
+        assertTrue(out.toByRefVariant().isByref());
+    }
+
+    public void testInOutPassedByRef() {
+        OutParameter count = new OutParameter(Integer.valueOf(5));
+        Variant byRef = count.toByRefVariant();
+
+        assertTrue(byRef.isByref());
+        assertEquals(Variant.VariantInt, byRef.getType());
+        assertEquals(5, byRef.getInt());
+    }
+
+    public void testCopyBackFillsOutParameters() {
+        OutParameter first = new OutParameter();
+        OutParameter second = new OutParameter(Integer.valueOf(1));
+        Object[] args = { first, "in", second };
+        Variant written = new Variant(42);
+        Variant[] variants = { new Variant("out"), new Variant("ignored"), written };
+
+        OutParameter.copyBack(args, variants);
+
+        assertEquals("out", first.getValue());
+        assertSame(written, second.get());
+        assertEquals(42, second.get().getInt());
+    }
+
+    public void testCopyBackLeavesOtherArgumentsAlone() {
+        Variant passed = new Variant(7);
+        Object[] args = { "in", passed, null, Integer.valueOf(3) };
+        Variant[] variants = { new Variant("a"), new Variant(8), new Variant("c"), new Variant(9) };
+
+        OutParameter.copyBack(args, variants);
+
+        assertEquals("in", args[0]);
+        assertSame(passed, args[1]);
+        assertEquals(7, passed.getInt());
+        assertNull(args[2]);
+        assertEquals(Integer.valueOf(3), args[3]);
+    }
+}
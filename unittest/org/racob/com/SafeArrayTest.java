@@ -0,0 +1,216 @@
+package org.racob.com;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Typed SafeArrays chosen from Java arrays.  Nothing here makes a Variant so
+ * it does not need the native library.
+ */
+public class SafeArrayTest extends TestCase {
+    public void testCreateChoosesTypedArray() {
+        double[] doubles = { 1.5, 2.5 };
+        SafeArray array = SafeArray.create(doubles);
+
+        assertTrue(array instanceof DoubleSafeArray);
+        assertEquals(Variant.VariantDouble, array.determinevt());
+        assertSame(doubles, array.getData());
+        assertSame(doubles, ((DoubleSafeArray) array).getDoubles());
+
+        assertTrue(SafeArray.create(new int[3]) instanceof IntSafeArray);
+        assertTrue(SafeArray.create(new byte[3]) instanceof ByteSafeArray);
+        assertTrue(SafeArray.create(new String[] { "a", null }) instanceof StringSafeArray);
+    }
+
+    public void testCreateRefusesNonArrays() {
+        try {
+            SafeArray.create(null);
+            fail("null is not an array");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            SafeArray.create("abc");
+            fail("a String is not an array");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testTypesAreFixed() {
+        assertEquals(Variant.VariantInt, new IntSafeArray(0).determinevt());
+        assertEquals(Variant.VariantByte, new ByteSafeArray(0).determinevt());
+        assertEquals(Variant.VariantString, new StringSafeArray(0).determinevt());
+    }
+
+    public void testElementAccess() {
+        IntSafeArray array = new IntSafeArray(4);
+        array.set(2, 42);
+
+        assertEquals(4, array.length());
+        assertEquals(42, array.get(2));
+        assertEquals(42, array.getInts()[2]);
+    }
+
+    public void testVariantArraysKeepNoData() {
+        assertNull(new SafeArray(new Variant[0]).getData());
+    }
+
+    /** Excel style 3 rows by 2 columns starting at (1, 1), column by column */
+    private DoubleSafeArray range() {
+        double[] cells = { 11, 21, 31, 12, 22, 32 };
+        return new DoubleSafeArray(cells, new int[] { 1, 1 }, new int[] { 3, 2 });
+    }
+
+    public void testTwoDimensionIndexing() {
+        DoubleSafeArray array = range();
+
+        assertEquals(2, array.getDimensions());
+        assertEquals(1, array.getLowerBound(0));
+        assertEquals(3, array.getUpperBound(0));
+        assertEquals(2, array.getExtent(1));
+        assertEquals(6, array.length());
+        assertEquals(32.0, array.get(3, 2), 0);
+        assertEquals(21.0, array.getDouble(2, 1), 0);
+        assertEquals(Double.valueOf(12), array.getObject(1, 2));
+        assertEquals(array.offset(new int[] { 2, 2 }), array.offset(2, 2));
+
+        array.set(1, 1, -1);
+        assertEquals(-1.0, array.getDoubles()[0], 0);
+
+        try {
+            array.get(0, 1);
+            fail("lower bound is 1");
+        } catch (ArrayIndexOutOfBoundsException e) {
+        }
+    }
+
+    public void testShapeMustMatchElements() {
+        try {
+            new IntSafeArray(new int[5], new int[] { 0, 0 }, new int[] { 2, 2 });
+            fail("2x2 is not 5 elements");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testViewsShareElements() {
+        DoubleSafeArray array = range();
+        MatrixView rows = array.rowMajor();
+        MatrixView columns = array.columnMajor();
+
+        assertEquals(3, rows.getRows());
+        assertEquals(2, rows.getColumns());
+        assertEquals(12.0, rows.getDouble(1), 0);
+        assertEquals(21.0, columns.getDouble(1), 0);
+        assertEquals(rows.getDouble(2, 1), columns.getDouble(2, 1), 0);
+
+        array.set(3, 2, 99);
+        assertEquals(99.0, rows.getDouble(5), 0);
+        assertEquals(99.0, columns.getDouble(5), 0);
+    }
+
+    public void testMatrices() {
+        double[][] matrix = range().toDoubleMatrix();
+        assertEquals(3, matrix.length);
+        assertEquals(11.0, matrix[0][0], 0);
+        assertEquals(12.0, matrix[0][1], 0);
+        assertEquals(32.0, matrix[2][1], 0);
+
+        Object[][] row = new StringSafeArray(new String[] { "a", "b" }).toObjectMatrix();
+        assertEquals(1, row.length);
+        assertEquals("b", row[0][1]);
+
+        assertEquals(255.0, new ByteSafeArray(new byte[] { -1 }).toDoubleMatrix()[0][0], 0);
+    }
+
+    public void testMoreThanTwoDimensionsIsNoMatrix() {
+        IntSafeArray cube = new IntSafeArray(new int[8], new int[3], new int[] { 2, 2, 2 });
+        assertEquals(7, cube.offset(1, 1, 1));
+
+        try {
+            cube.toDoubleMatrix();
+            fail("3 dimensions");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testDirectArrayReadsItsBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put(2, (byte) 200);
+        // Never closed: the handle is made up so there is nothing to destroy
+        DirectSafeArray array = new DirectSafeArray(1, 0, buffer);
+
+        assertTrue(array.isOpen());
+        assertSame(buffer, array.asByteBuffer());
+        assertEquals(Variant.VariantByte, array.determinevt());
+        assertEquals(4, array.length());
+        assertEquals((byte) 200, array.get(2));
+        assertEquals(200.0, array.toDoubleMatrix()[0][2], 0);
+
+        array.set(0, (byte) 7);
+        assertEquals(7, buffer.get(0));
+        assertEquals(7, array.getBytes()[0]);
+    }
+
+    public void testDirectArrayKeepsItsLowerBound() {
+        DirectSafeArray array = new DirectSafeArray(1, 1, ByteBuffer.allocateDirect(4));
+
+        assertEquals(1, array.getLowerBound(0));
+        assertEquals(4, array.getUpperBound(0));
+        SafeArrayReader reader = array.reader(2);
+        assertEquals(1, reader.next().getLowerBound(0));
+        assertEquals(3, reader.next().getLowerBound(0));
+    }
+
+    public void testClosingWhileLentWaitsForTheCall() {
+        DirectSafeArray array = new DirectSafeArray(1, 0, ByteBuffer.allocateDirect(4));
+        assertEquals(1, array.lend());
+
+        // Still lent, so this only marks it closed (destroy() would need the
+        // native library)
+        array.close();
+        assertFalse(array.isOpen());
+        try {
+            array.get(0);
+            fail("a closed array cannot be read");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            array.lend();
+            fail("a closed array cannot be lent again");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testReaderChunksRowsKeepingBounds() {
+        SafeArrayReader reader = range().reader(2);
+        assertEquals(3, reader.getRows());
+
+        SafeArray first = reader.next();
+        assertTrue(first instanceof DoubleSafeArray);
+        assertEquals(1, first.getLowerBound(0));
+        assertEquals(2, first.getExtent(0));
+        assertEquals(2, first.getExtent(1));
+        assertEquals(22.0, first.getDouble(2, 2), 0);
+
+        SafeArray last = reader.next();
+        assertEquals(3, last.getLowerBound(0));
+        assertEquals(1, last.getExtent(0));
+        assertEquals(31.0, last.getDouble(3, 1), 0);
+        assertEquals(32.0, last.getDouble(3, 2), 0);
+        assertFalse(reader.hasNext());
+    }
+
+    public void testReaderHandsChunksToConsumer() {
+        final int[] rows = new int[1];
+        StringSafeArray names = new StringSafeArray(new String[] { "a", "b", "c", "d", "e" });
+
+        int chunks = names.reader(2).forEach(new SafeArrayReader.Consumer() {
+            public void accept(SafeArray chunk) {
+                rows[0] += chunk.length();
+            }
+        });
+
+        assertEquals(3, chunks);
+        assertEquals(5, rows[0]);
+    }
+}
@@ -0,0 +1,165 @@
+package org.racob.com;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes models to an index and reads them back out of the file.  The
+ * models are made by hand so this does not need the native library.
+ */
+public class TypeLibIndexTest extends TestCase {
+    private static final String LIB = "{LIB-GUID}";
+    private static final String DICTIONARY = "{DICTIONARY-GUID}";
+    private static final String FILE_SYSTEM = "{FILESYSTEM-GUID}";
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("racob", ".idx");
+        TypeLibIndex.write(file, LIB, 1, 0, 12345L, new TypeModel[] { dictionary(), fileSystem() });
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static TypeModel dictionary() {
+        Parameter key = new Parameter("Key", true, false, false, false, Variant.VariantVariant, false, null);
+        Parameter item = new Parameter("Item", true, false, true, false, Variant.VariantVariant, true, null);
+        FuncDesc add = new FuncDesc(1, 0, 1, 0, new Parameter[] { key, item }, null, 1, 28);
+        FuncDesc count = new FuncDesc(2, 1, 2, 0, new Parameter[0],
+                new Parameter(null, false, false, false, false, Variant.VariantInt, false, null), 0, 32);
+        VarDesc mode = new VarDesc(3, null, VarDesc.VAR_CONST, 0);
+        return new TypeModel(DICTIONARY, 1, 0, new Documentation("IDictionary", "Dictionary", null, 7),
+                new FuncDesc[] { add, count }, new String[][] { { "Add", "Key", "Item" }, { "Count" } },
+                new Documentation[] { new Documentation("Add", "Add a new key and item", null, 0), null },
+                new VarDesc[] { mode }, new String[][] { { "CompareMode" } },
+                new Documentation[] { null });
+    }
+
+    private static TypeModel fileSystem() {
+        FuncDesc exists = new FuncDesc(10, 0, 1, 0, new Parameter[0], null, 0, 28);
+        return new TypeModel(FILE_SYSTEM, 1, 0, null, new FuncDesc[] { exists },
+                new String[][] { { "FileExists" } }, new Documentation[] { null },
+                new VarDesc[0], new String[0][], new Documentation[0]);
+    }
+
+    public void testHeader() throws IOException {
+        TypeLibIndex index = TypeLibIndex.open(file);
+
+        assertEquals(LIB, index.getGuid());
+        assertEquals(12345L, index.getTimestamp());
+        assertTrue(index.matches(LIB, 1, 0, 12345L));
+        assertFalse(index.matches(LIB, 1, 0, 12346L));
+        assertFalse(index.matches(LIB, 2, 0, 12345L));
+        assertEquals(2, index.getTypeGuids().size());
+    }
+
+    public void testDispIDs() throws IOException {
+        TypeLibIndex index = TypeLibIndex.open(file);
+
+        assertEquals(1, index.getDispID(DICTIONARY, "Add"));
+        assertEquals(2, index.getDispID(DICTIONARY, "count"));
+        assertEquals(3, index.getDispID(DICTIONARY, "CompareMode"));
+        assertEquals(10, index.getDispID(FILE_SYSTEM, "FileExists"));
+        assertEquals(-1, index.getDispID(DICTIONARY, "FileExists"));
+        assertEquals(-1, index.getDispID("{UNKNOWN}", "Add"));
+    }
+
+    public void testDispIDsIgnoreCaseInAnyLocale() throws IOException {
+        Locale original = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            TypeLibIndex index = TypeLibIndex.open(file);
+
+            assertEquals(10, index.getDispID(FILE_SYSTEM, "FILEEXISTS"));
+            assertEquals(10, index.getDispID(FILE_SYSTEM, "fileexists"));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    public void testModelRoundTrip() throws IOException {
+        TypeModel model = TypeLibIndex.open(file).getModel(DICTIONARY);
+
+        assertEquals("Dictionary", model.getDocumentation().getDocString());
+        assertEquals(7, model.getDocumentation().getHelpContext());
+        assertEquals(2, model.getFuncsCount());
+
+        FuncDesc add = model.findFuncDesc("Add");
+        assertEquals(28, add.getVtableOffset());
+        assertEquals(1, add.getOptParamsCount());
+        assertNull(add.getReturnType());
+        Parameter item = add.getParameters()[1];
+        assertEquals("Item", item.getName());
+        assertTrue(item.isOptional());
+        assertTrue(item.isDefaultValue());
+        assertNull(item.getDefaultValue());
+        assertEquals("Add a new key and item", model.getDocumentation(1).getDocString());
+
+        assertEquals(Variant.VariantInt, model.getFuncDesc(1).getReturnType().getVt());
+        assertNull(model.getDocumentation(2));
+        assertEquals(VarDesc.VAR_CONST, model.getVarDesc(0).getVarkind());
+        assertEquals("CompareMode", model.getNames(3)[0]);
+    }
+
+    public void testUnreadMembersRoundTrip() throws IOException {
+        FuncDesc exists = new FuncDesc(10, 1, 1, 0, new Parameter[0], null, 0, 28);
+        TypeModel partial = new TypeModel(FILE_SYSTEM, 1, 0, null, new FuncDesc[] { null, exists },
+                new String[][] { null, { "FileExists" } }, new Documentation[2],
+                new VarDesc[1], new String[1][], new Documentation[1]);
+        TypeLibIndex.write(file, LIB, 1, 0, 12345L, new TypeModel[] { partial });
+
+        TypeLibIndex index = TypeLibIndex.open(file);
+        TypeModel model = index.getModel(FILE_SYSTEM);
+        assertEquals(2, model.getFuncsCount());
+        assertNull(model.getFuncDesc(0));
+        assertEquals(10, model.getFuncDesc(1).getMemid());
+        assertNull(model.getVarDesc(0));
+        assertEquals(10, index.getDispID(FILE_SYSTEM, "FileExists"));
+        assertEquals(1, index.seed(new DispatchIdCache(), Dispatch.LSD));
+    }
+
+    public void testSeedsDispatchIdCache() throws IOException {
+        DispatchIdCache cache = new DispatchIdCache();
+        DispatchIdCache.Resolver failing = new DispatchIdCache.Resolver() {
+            public int[] getIDsOfNames(int lcid, String[] names) {
+                throw new IllegalStateException("seeded names should not be looked up");
+            }
+        };
+
+        assertEquals(4, TypeLibIndex.open(file).seed(cache, Dispatch.LSD));
+        assertEquals(1, cache.getIDOfName(DICTIONARY, "Add", Dispatch.LSD, failing));
+        assertEquals(10, cache.getIDOfName(FILE_SYSTEM, "FileExists", Dispatch.LSD, failing));
+        // Callers rarely spell a name the way the typelib declares it
+        assertEquals(1, cache.getIDOfName(DICTIONARY, "add", Dispatch.LSD, failing));
+        assertEquals(2, cache.getIDOfName(DICTIONARY, "COUNT", Dispatch.LSD, failing));
+        assertEquals(0, cache.getMisses());
+    }
+
+    public void testFileIsNotHeldOpen() throws IOException {
+        TypeLibIndex index = TypeLibIndex.open(file);
+
+        TypeLibIndex.write(file, LIB, 2, 0, 1L, new TypeModel[0]);
+        assertTrue(file.delete());
+        assertEquals(10, index.getDispID(FILE_SYSTEM, "FileExists"));
+    }
+
+    public void testRejectsOtherFiles() throws IOException {
+        File other = File.createTempFile("racob", ".idx");
+        try {
+            TypeLibIndex.open(other);
+            fail("an empty file is not an index");
+        } catch (IOException e) {
+        } catch (IndexOutOfBoundsException e) {
+            fail("should be reported as an IOException");
+        } finally {
+            other.delete();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.racob.com;
+
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+/**
+ * Exercises the TypeModel cache against a stand-in for TypeInfo.describe()
+ * so it does not need the native library.
+ */
+public class TypeModelCacheTest extends TestCase {
+    /** Describes a one function type and counts how often it was asked */
+    private static class CountingLoader implements TypeModelCache.Loader {
+        int descriptions = 0;
+
+        public TypeModel describe() {
+            descriptions++;
+            FuncDesc add = new FuncDesc(7, 0, 1, 0, new Parameter[0], null, 0, 28);
+            VarDesc limit = new VarDesc(9, null, VarDesc.VAR_CONST, 0);
+            return new TypeModel("{GUID-A}", 1, 0, new Documentation("IThing", null, null, 0),
+                    new FuncDesc[] { add }, new String[][] { { "Add", "Key", "Item" } },
+                    new Documentation[] { new Documentation("Add", "Adds", null, 0) },
+                    new VarDesc[] { limit }, new String[][] { { "Limit" } },
+                    new Documentation[] { new Documentation("Limit", null, null, 0) });
+        }
+    }
+
+    public void testHitAfterMiss() {
+        TypeModelCache cache = new TypeModelCache(4);
+        CountingLoader loader = new CountingLoader();
+
+        TypeModel first = cache.get("{GUID-A}", 1, 0, loader);
+        assertSame(first, cache.get("{GUID-A}", 1, 0, loader));
+        assertSame(first, cache.get("{GUID-A}", 1, 0, loader));
+
+        assertEquals(1, loader.descriptions);
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    public void testKeyIncludesVersion() {
+        TypeModelCache cache = new TypeModelCache(4);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("{GUID-A}", 1, 0, loader);
+        cache.get("{GUID-A}", 1, 1, loader);
+        cache.get("{GUID-A}", 2, 0, loader);
+
+        assertEquals(3, loader.descriptions);
+        assertEquals(3, cache.size());
+    }
+
+    public void testLeastRecentlyUsedEvicted() {
+        TypeModelCache cache = new TypeModelCache(2);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("{A}", 1, 0, loader);
+        cache.get("{B}", 1, 0, loader);
+        cache.get("{A}", 1, 0, loader);
+        cache.get("{C}", 1, 0, loader); // evicts B
+        cache.get("{A}", 1, 0, loader);
+        assertEquals(3, loader.descriptions);
+
+        cache.get("{B}", 1, 0, loader);
+        assertEquals(4, loader.descriptions);
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    public void testTypesWithoutGuidNotCached() {
+        TypeModelCache cache = new TypeModelCache(4);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get(null, 0, 0, loader);
+        cache.get("{00000000-0000-0000-0000-000000000000}", 0, 0, loader);
+        cache.get("{00000000-0000-0000-0000-000000000000}", 0, 0, loader);
+
+        assertEquals(3, loader.descriptions);
+        assertEquals(0, cache.size());
+    }
+
+    public void testModelLookups() {
+        TypeModel model = new CountingLoader().describe();
+
+        assertSame(model.getFuncDesc(0), model.findFuncDesc("add"));
+        assertNull(model.findFuncDesc("Remove"));
+        assertEquals("Key", model.getNames(7)[1]);
+        assertEquals("Limit", model.getNames(9)[0]);
+        assertNull(model.getNames(8));
+        assertEquals("Adds", model.getDocumentation(7).getDocString());
+
+        model.getNames(7)[0] = "Changed";
+        assertEquals("Add", model.getNames(7)[0]);
+    }
+
+    public void testFindFuncDescInAnyLocale() {
+        Locale original = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            FuncDesc init = new FuncDesc(4, 0, 1, 0, new Parameter[0], null, 0, 28);
+            TypeModel model = new TypeModel("{GUID-B}", 1, 0, null, new FuncDesc[] { init },
+                    new String[][] { { "Init" } }, new Documentation[] { null },
+                    new VarDesc[0], new String[0][], new Documentation[0]);
+
+            assertSame(init, model.findFuncDesc("INIT"));
+            assertSame(init, model.findFuncDesc("init"));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    public void testUnreadMembersAreLeftOut() {
+        FuncDesc add = new FuncDesc(7, 1, 1, 0, new Parameter[0], null, 0, 28);
+        TypeModel model = new TypeModel("{GUID-A}", 1, 0, null,
+                new FuncDesc[] { null, add }, new String[][] { null, { "Add" } },
+                new Documentation[2], new VarDesc[1], new String[1][], new Documentation[1]);
+
+        assertEquals(2, model.getFuncsCount());
+        assertNull(model.getFuncDesc(0));
+        assertSame(add, model.getFuncDesc(1));
+        assertSame(add, model.findFuncDesc("Add"));
+        assertNull(model.getVarDesc(0));
+
+        // Out of range is left to COM to report as well
+        assertNull(model.getFuncDesc(2));
+        assertNull(model.getFuncDesc(-1));
+        assertNull(model.getVarDesc(1));
+    }
+}
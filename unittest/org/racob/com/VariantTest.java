@@ -179,6 +179,40 @@ public class VariantTest extends BaseTestCase {
 		}
 	}
 
+	/**
+	 * true is VARIANT_TRUE (-1) however the Variant was made
+	 */
+	public void testTrueIsVariantTrue() {
+		assertEquals(-1.0, Variant.VT_TRUE.doubleValue(), 0.0);
+
+		Variant[] trues = { new Variant(true), new Variant(true, true),
+				new Variant(Boolean.TRUE, Variant.VariantBoolean) };
+		for (int i = 0; i < trues.length; i++) {
+			assertTrue(trues[i].getBoolean());
+			assertEquals(-1.0, trues[i].doubleValue(), 0.0);
+			assertEquals(-1, trues[i].changeType(Variant.VariantInt).getInt());
+		}
+	}
+
+	/**
+	 * A matrix read out of a VT_VARIANT array has to agree with one read
+	 * out of the typed arrays: TRUE is -1 and bytes are unsigned.
+	 */
+	public void testDoubleValueMatchesTypedArrays() {
+		assertEquals(200.0, new Variant((byte) 200).doubleValue(), 0.0);
+		assertEquals(200.0, new ByteSafeArray(new byte[] { (byte) 200 })
+				.toDoubleMatrix()[0][0], 0.0);
+
+		SafeArray variants = SafeArray.create(new Variant[] {
+				new Variant(true), new Variant(false), new Variant((byte) 200),
+				new Variant((byte) 7) });
+		double[][] matrix = variants.toDoubleMatrix();
+		assertEquals(-1.0, matrix[0][0], 0.0);
+		assertEquals(0.0, matrix[0][1], 0.0);
+		assertEquals(200.0, matrix[0][2], 0.0);
+		assertEquals(7.0, matrix[0][3], 0.0);
+	}
+
 	/**
 	 * make sure variant with no backing store works.
 	 * 
@@ -241,6 +275,21 @@ public class VariantTest extends BaseTestCase {
 		}
 	}
 
+	/**
+	 * text which is not a number fails the way VariantChangeType does
+	 */
+	public void testChangeTypeOfNonNumericString() {
+		Variant v = new Variant("not a number");
+		try {
+			v.changeType(Variant.VariantInt);
+			fail("text is not an int");
+		} catch (ComFailException e) {
+			assertEquals(0x80020005, e.getHResult());
+		}
+		assertEquals(Variant.VariantString, v.getvt());
+		assertEquals(3, new Variant(" 3 ").changeType(Variant.VariantInt).getInt());
+	}
+
 	/**
 	 * verify decimal works right
 	 */
@@ -0,0 +1,94 @@
+package org.racob.test.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Small helpers shared by the main() style benchmarks in this package.  These
+ * are not unit tests; run them by hand with racob.dll on java.library.path
+ * and compare the numbers from before and after a change.
+ */
+public class Benchmarks {
+    private static final boolean COUNTS_ALLOCATION = countsAllocation();
+
+    private static boolean countsAllocation() {
+        // com.sun.management.ThreadMXBean is not on every JVM
+        try {
+            Class.forName("com.sun.management.ThreadMXBean");
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+
+        return Allocation.THREADS != null;
+    }
+
+    /** Only touched once we know com.sun.management is there */
+    private static class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS = threads();
+
+        private static com.sun.management.ThreadMXBean threads() {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (!sunThreads.isThreadAllocatedMemorySupported()) return null;
+            if (!sunThreads.isThreadAllocatedMemoryEnabled()) sunThreads.setThreadAllocatedMemoryEnabled(true);
+
+            return sunThreads;
+        }
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread or -1 if this JVM
+     * cannot tell us
+     */
+    public static long allocatedBytes() {
+        if (!COUNTS_ALLOCATION) return -1;
+
+        return Allocation.THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** A unit of work which reports how many operations it just did */
+    public interface Counted {
+        int run();
+    }
+
+    /**
+     * Run the task repeatedly for about millis (after the same amount of
+     * warmup) and print how many operations per second it managed.
+     */
+    public static void rate(String name, long millis, Counted task) {
+        for (long end = System.currentTimeMillis() + millis; System.currentTimeMillis() < end;) {
+            task.run();
+        }
+
+        long count = 0;
+        long start = System.nanoTime();
+        for (long end = System.currentTimeMillis() + millis; System.currentTimeMillis() < end;) {
+            count += task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(name + ": " + (count * 1000000000L / elapsed) + " ops/s");
+    }
+
+    /**
+     * Run the task for warmup iterations and then measure it for iterations,
+     * printing time and allocation per operation.
+     */
+    public static void measure(String name, int warmup, int iterations, Runnable task) {
+        for (int i = 0; i < warmup; i++) {
+            task.run();
+        }
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytes;
+
+        System.out.println(name + ": " + (elapsed / iterations) + " ns/op, " +
+                (bytes < 0 ? "?" : String.valueOf(allocated / iterations)) + " bytes/op");
+    }
+}
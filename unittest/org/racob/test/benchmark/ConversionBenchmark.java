@@ -0,0 +1,44 @@
+package org.racob.test.benchmark;
+
+import org.racob.activeX.ActiveXComponent;
+import org.racob.com.ComThread;
+import org.racob.com.SafeArray;
+
+/**
+ * Counts how many VARIANT to Java conversions per second the JNI layer does.
+ * Scripting.Dictionary stands in for a real automation server: Items() hands
+ * back a SAFEARRAY of VARIANTs (one conversion per element) and callO()
+ * converts straight to boxed Java values.
+ */
+public class ConversionBenchmark {
+    private static final int SIZE = 1000;
+    private static final long MILLIS = 3000;
+
+    public static void main(String[] args) {
+        ComThread.InitSTA();
+        try {
+            final ActiveXComponent dictionary = new ActiveXComponent("Scripting.Dictionary");
+            for (int i = 0; i < SIZE; i++) {
+                dictionary.call("Add", i, i % 3 == 0 ? (Object) (i * 1.5) : (Object) i);
+            }
+
+            Benchmarks.rate("Items() element conversions", MILLIS, new Benchmarks.Counted() {
+                public int run() {
+                    SafeArray items = dictionary.call("Items").getArray();
+                    return items.getValues().length;
+                }
+            });
+
+            Benchmarks.rate("callO(\"Count\") conversions", MILLIS, new Benchmarks.Counted() {
+                public int run() {
+                    for (int i = 0; i < 100; i++) {
+                        dictionary.callO("Count");
+                    }
+                    return 100;
+                }
+            });
+        } finally {
+            ComThread.Release();
+        }
+    }
+}
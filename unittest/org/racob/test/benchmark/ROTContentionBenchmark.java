@@ -0,0 +1,71 @@
+package org.racob.test.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.racob.com.ComThread;
+import org.racob.com.IUnknown;
+import org.racob.com.ROT;
+import org.racob.com.Reaper;
+
+/**
+ * Has many threads register objects in the ROT at the same time and reports
+ * how many registrations per second they manage together.  The objects wrap
+ * a null pointer so no COM calls are made and only the ROT is measured.
+ * <p>
+ * Run with -Dorg.racob.autogc=true or the ROT does not keep anything.  The
+ * first argument is the number of threads (default 32).
+ */
+public class ROTContentionBenchmark {
+    private static final long MILLIS = 3000;
+    private static final int BATCH = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+
+        run(threads, MILLIS); // warmup
+        long count = run(threads, MILLIS);
+        System.out.println(threads + " threads: " + (count * 1000 / MILLIS) +
+                " registrations/s, " + ROT.getReleasedCount() + " of " +
+                ROT.getAddedCount() + " released, " + ROT.getApartmentCount() +
+                " apartments left");
+        System.out.println("reaper: " + Reaper.getReapedCount() + " reaped, " +
+                Reaper.getQueueDepth() + " pending, " +
+                Reaper.getAverageReleaseLatencyNanos() / 1000 + " us average / " +
+                Reaper.getMaxReleaseLatencyNanos() / 1000 + " us max release latency");
+    }
+
+    private static long run(int threads, final long millis) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong total = new AtomicLong();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread("ROT-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long count = 0;
+                        for (long end = System.currentTimeMillis() + millis; System.currentTimeMillis() < end;) {
+                            for (int j = 0; j < BATCH; j++) {
+                                new IUnknown(0);
+                            }
+                            count += BATCH;
+                        }
+                        total.addAndGet(count);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        ComThread.Release();
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+        return total.get();
+    }
+}
@@ -0,0 +1,82 @@
+package org.racob.test.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.racob.com.ComThread;
+import org.racob.com.Dispatch;
+
+/**
+ * Starts many threads at once which each create a Dispatch, so each one joins
+ * an apartment (CoInitializeEx through the ROT) at the same moment.  Reports
+ * the wall time until every thread has its object and the slowest single
+ * thread, which is where serialised initialization shows up.
+ * <p>
+ * The first argument is the number of threads (default 64).
+ */
+public class ThreadStartupBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        round(threads); // warmup
+        long total = 0;
+        long slowest = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long[] times = round(threads);
+            total += times[0];
+            slowest = Math.max(slowest, times[1]);
+        }
+
+        System.out.println(threads + " threads: " + (total / ROUNDS / 1000) +
+                " us to create all, slowest thread " + (slowest / 1000) + " us");
+    }
+
+    /**
+     * @return wall time for every thread to create its Dispatch and the
+     * longest any one thread took
+     */
+    private static long[] round(int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch created = new CountDownLatch(threads);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLong slowest = new AtomicLong();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread("startup-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        try {
+                            long began = System.nanoTime();
+                            new Dispatch("Scripting.Dictionary");
+                            long took = System.nanoTime() - began;
+
+                            long max;
+                            while (took > (max = slowest.get()) && !slowest.compareAndSet(max, took)) {
+                            }
+                        } finally {
+                            // A failed thread must not leave the round waiting
+                            created.countDown();
+                        }
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        ComThread.Release();
+                    }
+                }
+            }.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        created.await();
+        long elapsed = System.nanoTime() - began;
+        release.countDown();
+
+        return new long[] { elapsed, slowest.get() };
+    }
+}
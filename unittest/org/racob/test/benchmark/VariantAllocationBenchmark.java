@@ -0,0 +1,54 @@
+package org.racob.test.benchmark;
+
+import org.racob.activeX.ActiveXComponent;
+import org.racob.com.ComThread;
+import org.racob.com.Variant;
+
+/**
+ * Measures how much a Dispatch.call() with primitive arguments and results
+ * allocates.  Uses Scripting.Dictionary so it runs on any Windows box.
+ */
+public class VariantAllocationBenchmark {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 200000;
+
+    public static void main(String[] args) {
+        ComThread.InitSTA();
+        try {
+            final ActiveXComponent dictionary = new ActiveXComponent("Scripting.Dictionary");
+            for (int i = 0; i < 100; i++) {
+                dictionary.call("Add", i, i * 1.5);
+            }
+
+            Benchmarks.measure("new Variant(int)/getInt", WARMUP, ITERATIONS, new Runnable() {
+                int i = 0;
+                public void run() {
+                    if (new Variant(i++).getInt() < 0) throw new IllegalStateException();
+                }
+            });
+
+            Benchmarks.measure("new Variant(double)/getDouble", WARMUP, ITERATIONS, new Runnable() {
+                double d = 0;
+                public void run() {
+                    if (new Variant(d++).getDouble() < 0) throw new IllegalStateException();
+                }
+            });
+
+            Benchmarks.measure("call(\"Item\", int) -> double", WARMUP, ITERATIONS, new Runnable() {
+                int i = 0;
+                public void run() {
+                    dictionary.call("Item", i++ % 100).getDouble();
+                }
+            });
+
+            Benchmarks.measure("call(\"Exists\", int) -> boolean", WARMUP, ITERATIONS, new Runnable() {
+                int i = 0;
+                public void run() {
+                    dictionary.call("Exists", i++ % 200).getBoolean();
+                }
+            });
+        } finally {
+            ComThread.Release();
+        }
+    }
+}